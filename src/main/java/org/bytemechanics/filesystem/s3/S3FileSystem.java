@@ -16,19 +16,37 @@
 package org.bytemechanics.filesystem.s3;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
 import org.bytemechanics.filesystem.s3.internal.S3Client;
+import org.bytemechanics.filesystem.s3.internal.S3ContentCoding;
+import org.bytemechanics.filesystem.s3.internal.S3RangeDownloader;
+import org.bytemechanics.filesystem.s3.internal.S3TreeWalker;
 import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
 import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
 import org.jclouds.blobstore.domain.StorageType;
@@ -70,6 +88,115 @@ public class S3FileSystem extends FileSystem{
 		return this;
 	}
 	
+	/**
+	 * @return snapshot of the counters of this filesystem
+	 */
+	public Map<S3FileSystemMetric,Long> getMetrics(){
+		return this.client.getMetrics().snapshot();
+	}
+	public long getMetric(final S3FileSystemMetric _metric){
+		return this.client.getMetrics().get(_metric);
+	}
+	
+	/**
+	 * Upload a local file to an object of this filesystem.
+	 * When the upload journal directory is configured, an interrupted upload of the same unchanged file to the same object is resumed
+	 * @param _source local file
+	 * @param _target object of this filesystem
+	 * @return the s3 identifier
+	 * @throws IOException if the file can not be read or uploaded
+	 * @throws ProviderMismatchException if the target is not an absolute path of this filesystem
+	 */
+	public String upload(final Path _source,final Path _target) throws IOException{
+		final S3AbsolutePath target=s3AbsolutePathVerified(_target);
+		return this.client.uploadFile(target, _source, this.client.getUploadPartSize()
+										, Optional.ofNullable(Files.probeContentType(_source))
+													.orElse("application/octet-stream")
+										, Collections.emptyMap(), true);
+	}
+	/**
+	 * Download an object of this filesystem to a local file splitting it in ranges fetched by concurrent requests.
+	 * Files.copy to a local file is not routed to this provider, it streams the object through a single request, so large objects should be downloaded with this method.
+	 * Encoded objects are decoded while streamed
+	 * @param _source object of this filesystem
+	 * @param _target local file, replaced if it exists
+	 * @return bytes written to the local file
+	 * @throws IOException if the object does not exist or can not be downloaded or the file can not be written
+	 * @throws ProviderMismatchException if the source is not an absolute path of this filesystem
+	 * @see S3RangeDownloader
+	 */
+	public long download(final Path _source,final Path _target) throws IOException{
+		final S3AbsolutePath source=s3AbsolutePathVerified(_source);
+		final S3FileAttributeView attributes=this.client.fetchBlobMetadata(source)
+																.map(S3FileAttributeView::new)
+																.filter(view -> !view.isDirectory())
+																.orElseThrow(() -> new NoSuchFileException(_source.toString()));
+		if(S3ContentCoding.of(attributes).isPresent()){
+			try(InputStream stream=Files.newInputStream(source)){
+				return Files.copy(stream, _target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		try(FileChannel target=FileChannel.open(_target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+			return new S3RangeDownloader(this.client, source, (String)attributes.getAttribute(S3FileAttribute.ETAG), attributes.size())
+							.download(target);
+		}
+	}
+	/**
+	 * Build the filter of the existing keys under a folder from a listing, so that lookups of keys under it that do not exist
+	 * are answered locally until the filter expires
+	 * @param _folder folder of this filesystem
+	 * @return number of listed keys
+	 * @throws ProviderMismatchException if the folder is not an absolute path of this filesystem
+	 */
+	public int primeNegativeCache(final Path _folder){
+		return this.client.primeNegativeCache(s3AbsolutePathVerified(_folder));
+	}
+	/**
+	 * Walk a file tree as {@link Files#walkFileTree(Path, Set, int, FileVisitor)} does, but with a single flat listing of the subtree
+	 * instead of a listing per folder and a metadata request per entry. The attributes given to the visitor come from the listing,
+	 * so they hold size, etag and last modified date but no content type, user metadata nor logical size
+	 * @param _start start path of this filesystem
+	 * @param _maxDepth maximum number of directory levels to visit
+	 * @param _visitor visitor to invoke for each entry
+	 * @return the start path
+	 * @throws IOException if the visitor fails or the subtree can not be listed
+	 * @throws ProviderMismatchException if the start path is not a path of this filesystem
+	 */
+	public Path walkFileTree(final Path _start,final int _maxDepth,final FileVisitor<? super Path> _visitor) throws IOException{
+		new S3TreeWalker(s3AbsolutePathVerified(_start.toAbsolutePath()), this.client, _maxDepth, _visitor)
+				.walk();
+		return _start;
+	}
+	/**
+	 * Walk the full file tree with a single flat listing of the subtree
+	 * @param _start start path of this filesystem
+	 * @param _visitor visitor to invoke for each entry
+	 * @return the start path
+	 * @throws IOException if the visitor fails or the subtree can not be listed
+	 * @see #walkFileTree(Path, int, FileVisitor)
+	 */
+	public Path walkFileTree(final Path _start,final FileVisitor<? super Path> _visitor) throws IOException{
+		return walkFileTree(_start, Integer.MAX_VALUE, _visitor);
+	}
+
+	protected S3AbsolutePath s3AbsolutePathVerified(final Path _path){
+		return Optional.ofNullable(_path)
+						.filter(path -> path.getFileSystem()==this)
+						.filter(Path::isAbsolute)
+						.filter(path -> path instanceof S3AbsolutePath)
+						.map(path -> (S3AbsolutePath)path)
+						.orElseThrow(() -> new ProviderMismatchException(SimpleFormat.format("Path {} is not an absolute path of {}",_path,this.uri)));
+	}
+	/**
+	 * Abort the multipart uploads of this filesystem bucket older than the given age, freeing the storage of their parts
+	 * @param _olderThan minimum age of the uploads to abort
+	 * @return number of aborted uploads
+	 * @throws IOException if the journals of the aborted uploads can not be removed
+	 */
+	public int abortStaleUploads(final Duration _olderThan) throws IOException{
+		return this.client.abortStaleUploads(this.bucket, Date.from(Instant.now().minus(_olderThan)));
+	}
+	
 	@Override
 	public FileSystemProvider provider() {
 		return this.provider;
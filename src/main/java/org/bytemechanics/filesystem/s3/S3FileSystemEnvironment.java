@@ -27,6 +27,37 @@ public enum S3FileSystemEnvironment {
 	PROPERTY_CONNECTION_USER("s3.filesystem.user"),
 	PROPERTY_CONNECTION_PASSWORD("s3.filesystem.password"),
 	PROPERTY_MULTIPART_UPLOAD_MINSIZE("s3.filesystem.upload.multipart.minsize"),
+	PROPERTY_READ_BLOCKSIZE("s3.filesystem.read.blocksize"),
+	PROPERTY_READ_AHEAD_MAXSIZE("s3.filesystem.read.ahead.maxsize"),
+	PROPERTY_UPLOAD_PARTSIZE("s3.filesystem.upload.partsize"),
+	PROPERTY_UPLOAD_BUFFERS("s3.filesystem.upload.buffers"),
+	PROPERTY_UPLOAD_PARALLELISM("s3.filesystem.upload.parallelism"),
+	PROPERTY_UPLOAD_RETRIES("s3.filesystem.upload.retries"),
+	PROPERTY_UPLOAD_PART_TARGET_MILLIS("s3.filesystem.upload.part.targetmillis"),
+	PROPERTY_UPLOAD_JOURNAL_DIR("s3.filesystem.upload.journal.dir"),
+	PROPERTY_SPOOL_DIR("s3.filesystem.spool.dir"),
+	PROPERTY_SPOOL_QUOTA("s3.filesystem.spool.quota"),
+	PROPERTY_SPOOL_QUOTA_WAIT("s3.filesystem.spool.quota.wait"),
+	PROPERTY_SPOOL_POOLED("s3.filesystem.spool.pooled"),
+	PROPERTY_TRANSFER_THREADS("s3.filesystem.transfer.threads"),
+	PROPERTY_LOOKUP_THREADS("s3.filesystem.lookup.threads"),
+	PROPERTY_DOWNLOAD_PARALLELISM("s3.filesystem.download.parallelism"),
+	PROPERTY_DOWNLOAD_CHUNKSIZE("s3.filesystem.download.chunksize"),
+	PROPERTY_DOWNLOAD_BUFFERSIZE("s3.filesystem.download.buffersize"),
+	PROPERTY_BLOCKCACHE_MAXSIZE("s3.filesystem.cache.block.maxsize"),
+	PROPERTY_METADATACACHE_TTL("s3.filesystem.cache.metadata.ttl"),
+	PROPERTY_METADATACACHE_MAXENTRIES("s3.filesystem.cache.metadata.maxentries"),
+	PROPERTY_NEGATIVECACHE_TTL("s3.filesystem.cache.negative.ttl"),
+	PROPERTY_NEGATIVECACHE_MAXENTRIES("s3.filesystem.cache.negative.maxentries"),
+	PROPERTY_KEYFILTER_TTL("s3.filesystem.cache.negative.filter.ttl"),
+	PROPERTY_KEYFILTER_FPP("s3.filesystem.cache.negative.filter.fpp"),
+	PROPERTY_LIST_PAGESIZE("s3.filesystem.list.pagesize"),
+	PROPERTY_LIST_PARALLELISM("s3.filesystem.list.parallelism"),
+	PROPERTY_MEMORY_CHANNEL_MAXSIZE("s3.filesystem.channel.memory.maxsize"),
+	PROPERTY_CHECKSUM_VERIFY("s3.filesystem.checksum.verify"),
+	PROPERTY_COMPRESSION("s3.filesystem.compression"),
+	PROPERTY_COMPRESSION_LEVEL("s3.filesystem.compression.level"),
+	PROPERTY_COMPRESSION_SIZE("s3.filesystem.compression.size"),
 	PROPERTY_CONNECTION_TIMEOUT(Constants.PROPERTY_CONNECTION_TIMEOUT),
 	PROPERTY_MAX_CONNECTIONS_PER_CONTEXT(Constants.PROPERTY_MAX_CONNECTIONS_PER_CONTEXT),
 	PROPERTY_MAX_CONNECTIONS_PER_HOST(Constants.PROPERTY_MAX_CONNECTIONS_PER_HOST),
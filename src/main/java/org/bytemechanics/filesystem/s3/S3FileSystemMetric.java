@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3;
+
+/**
+ * Counters published by each S3FileSystem
+ * @author afarre
+ * @since 0.2.0
+ */
+public enum S3FileSystemMetric {
+	
+	CHANNEL_RANGED_READ("s3.filesystem.channel.ranged-read"),
+	CHANNEL_STREAMING_WRITE("s3.filesystem.channel.streaming-write"),
+	CHANNEL_APPEND("s3.filesystem.channel.append"),
+	CHANNEL_SPOOL_READ_WRITE("s3.filesystem.channel.spool-read-write"),
+	CHANNEL_MEMORY_READ_WRITE("s3.filesystem.channel.memory-read-write"),
+	CHANNEL_ASYNC_READ("s3.filesystem.channel.async-read"),
+	STREAM_DIRECT_READ("s3.filesystem.stream.direct-read"),
+	READ_AHEAD_HITS("s3.filesystem.read.ahead.hits"),
+	READ_AHEAD_MISSES("s3.filesystem.read.ahead.misses"),
+	READ_AHEAD_ABORTED("s3.filesystem.read.ahead.aborted"),
+	SPOOL_DOWNLOADS("s3.filesystem.spool.downloads"),
+	SPOOL_DOWNLOADS_SKIPPED("s3.filesystem.spool.downloads.skipped"),
+	SPOOL_DOWNLOADED_BYTES("s3.filesystem.spool.downloads.bytes"),
+	SPOOL_UPLOADS("s3.filesystem.spool.uploads"),
+	SPOOL_PARTIAL_UPLOADS("s3.filesystem.spool.uploads.partial"),
+	SPOOL_UPLOADS_SKIPPED("s3.filesystem.spool.uploads.skipped"),
+	LIST_REQUESTS("s3.filesystem.list.requests"),
+	LIST_PAGES_PREFETCHED("s3.filesystem.list.pages.prefetched"),
+	LIST_SHARDS("s3.filesystem.list.shards"),
+	WALK_ENTRIES("s3.filesystem.walk.entries"),
+	FOLDER_MARKER_LOOKUPS_OVERLAPPED("s3.filesystem.resolve.marker.overlapped"),
+	METADATA_CACHE_HITS("s3.filesystem.cache.metadata.hits"),
+	METADATA_CACHE_MISSES("s3.filesystem.cache.metadata.misses"),
+	METADATA_CACHE_EVICTIONS("s3.filesystem.cache.metadata.evictions"),
+	METADATA_CACHE_INVALIDATIONS("s3.filesystem.cache.metadata.invalidations"),
+	BLOCK_CACHE_HITS("s3.filesystem.cache.block.hits"),
+	BLOCK_CACHE_MISSES("s3.filesystem.cache.block.misses"),
+	BLOCK_CACHE_EVICTIONS("s3.filesystem.cache.block.evictions"),
+	BLOCK_CACHE_RESIDENT_BYTES("s3.filesystem.cache.block.resident-bytes"),
+	NEGATIVE_CACHE_HITS("s3.filesystem.cache.negative.hits"),
+	KEY_FILTER_HITS("s3.filesystem.cache.negative.filter.hits"),
+	KEY_FILTER_FALSE_POSITIVES("s3.filesystem.cache.negative.filter.false-positives"),
+	NEGATIVE_LOOKUP_HEADS_AVOIDED("s3.filesystem.cache.negative.heads-avoided"),
+	SPOOL_BYTES_RESERVED("s3.filesystem.spool.bytes.reserved"),
+	SPOOL_FILES_IN_USE("s3.filesystem.spool.files.in-use"),
+	SPOOL_FILES_REUSED("s3.filesystem.spool.files.reused"),
+	SPOOL_QUOTA_WAITS("s3.filesystem.spool.quota.waits"),
+	SPOOL_QUOTA_EXCEEDED("s3.filesystem.spool.quota.exceeded"),
+	PARALLEL_UPLOADS("s3.filesystem.upload.parallel"),
+	UPLOAD_PART_RETRIES("s3.filesystem.upload.part.retries"),
+	RESUMED_UPLOADS("s3.filesystem.upload.resumed"),
+	STALE_UPLOADS_ABORTED("s3.filesystem.upload.stale.aborted"),
+	CHECKSUM_VERIFIED("s3.filesystem.checksum.verified"),
+	CHECKSUM_MISMATCHES("s3.filesystem.checksum.mismatches"),
+	COMPRESSED_WRITES("s3.filesystem.compression.writes"),
+	COMPRESSED_READS("s3.filesystem.compression.reads"),
+	;
+	
+	private final String key;
+	
+	S3FileSystemMetric(final String _key){
+		this.key=_key;
+	} 
+
+	public String getKey() {
+		return key;
+	}
+}
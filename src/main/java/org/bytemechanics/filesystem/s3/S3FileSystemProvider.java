@@ -16,8 +16,13 @@
 package org.bytemechanics.filesystem.s3;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
@@ -27,28 +32,41 @@ import java.nio.file.FileSystem;
 import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
 import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
 import org.bytemechanics.filesystem.s3.attributes.S3FileAttributesExtractor;
+import org.bytemechanics.filesystem.s3.internal.S3AsynchronousFileChannel;
+import org.bytemechanics.filesystem.s3.internal.S3ChannelOptions;
+import org.bytemechanics.filesystem.s3.internal.S3ChannelStrategy;
+import org.bytemechanics.filesystem.s3.internal.S3ContentCoding;
 import org.bytemechanics.filesystem.s3.internal.S3Client;
-import org.bytemechanics.filesystem.s3.internal.S3SeekableByteChannel;
+import org.bytemechanics.filesystem.s3.internal.S3DirectoryStream;
+import org.bytemechanics.filesystem.s3.internal.S3Entry;
+import org.bytemechanics.filesystem.s3.internal.S3FileChannel;
+import org.bytemechanics.filesystem.s3.internal.S3InputStream;
 import org.bytemechanics.filesystem.s3.internal.Tuple;
 import org.bytemechanics.filesystem.s3.internal.copy.commons.functional.LambdaUnchecker;
 import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
@@ -158,17 +176,83 @@ public class S3FileSystemProvider extends FileSystemProvider{
 
 	@Override
 	public SeekableByteChannel newByteChannel(final Path _path,final Set<? extends OpenOption> _options,final FileAttribute<?>... _attrs) throws IOException {
-		final Set<StandardOpenOption> options=_options.stream()
-													.map(openOption -> (StandardOpenOption)openOption)
-													.collect(Collectors.toSet());
+		final S3ChannelOptions options=S3ChannelOptions.of(_options);
 		final S3AbsolutePath absolutePath=s3AbsolutePathVerified(_path)
 											.orElseThrow(() -> new IOException(SimpleFormat.format("Path {} must be absolute",_path)));
-		return new S3SeekableByteChannel(absolutePath,absolutePath.getFileSystem().getClient(), options);
+		return S3ChannelStrategy.plan(options)
+								.open(absolutePath,absolutePath.getFileSystem().getClient(), options);
+	}
+
+	@Override
+	public FileChannel newFileChannel(final Path _path,final Set<? extends OpenOption> _options,final FileAttribute<?>... _attrs) throws IOException {
+		final S3ChannelOptions options=S3ChannelOptions.of(_options);
+		final S3AbsolutePath absolutePath=s3AbsolutePathVerified(_path)
+											.orElseThrow(() -> new IOException(SimpleFormat.format("Path {} must be absolute",_path)));
+		final S3Client client=absolutePath.getFileSystem().getClient();
+		return new S3FileChannel(absolutePath, client, S3ChannelStrategy.plan(options)
+																			.open(absolutePath, client, options));
+	}
+
+	@Override
+	public AsynchronousFileChannel newAsynchronousFileChannel(final Path _path,final Set<? extends OpenOption> _options,final ExecutorService _executor,final FileAttribute<?>... _attrs) throws IOException {
+		final S3ChannelOptions options=S3ChannelOptions.of(_options);
+		if(Stream.of(StandardOpenOption.WRITE,StandardOpenOption.APPEND,StandardOpenOption.DELETE_ON_CLOSE).anyMatch(options::contains))
+			throw new UnsupportedOperationException("Only read asynchronous channels supported");
+		final S3AbsolutePath absolutePath=s3AbsolutePathVerified(_path)
+											.orElseThrow(() -> new IOException(SimpleFormat.format("Path {} must be absolute",_path)));
+		final S3Client client=absolutePath.getFileSystem().getClient();
+		client.getMetrics().increment(S3FileSystemMetric.CHANNEL_ASYNC_READ);
+		return new S3AsynchronousFileChannel(absolutePath, client, options, _executor);
+	}
+
+	@Override
+	public InputStream newInputStream(final Path _path,final OpenOption... _options) throws IOException {
+		final S3ChannelOptions options=S3ChannelOptions.of(new HashSet<>(Arrays.asList(_options)));
+		if(Stream.of(StandardOpenOption.WRITE,StandardOpenOption.APPEND).anyMatch(options::contains))
+			throw new UnsupportedOperationException(SimpleFormat.format("Options {} not allowed", options.getStandardOptions()));
+		if(options.contains(StandardOpenOption.DELETE_ON_CLOSE))
+			return super.newInputStream(_path, _options);
+		final S3AbsolutePath absolutePath=s3AbsolutePathVerified(_path)
+											.orElseThrow(() -> new IOException(SimpleFormat.format("Path {} must be absolute",_path)));
+		final S3Client client=absolutePath.getFileSystem().getClient();
+		client.getMetrics().increment(S3FileSystemMetric.STREAM_DIRECT_READ);
+		final S3InputStream reply=new S3InputStream(absolutePath, client, options);
+		final Optional<S3ContentCoding> coding=reply.getContentCoding();
+		if(coding.isPresent()){
+			client.getMetrics().increment(S3FileSystemMetric.COMPRESSED_READS);
+			return coding.get().decode(reply);
+		}
+		return reply;
+	}
+
+	@Override
+	public OutputStream newOutputStream(final Path _path,final OpenOption... _options) throws IOException {
+		final Set<OpenOption> options=new HashSet<>(Arrays.asList(_options));
+		if(options.stream().noneMatch(option -> option instanceof StandardOpenOption)){
+			options.add(StandardOpenOption.CREATE);
+			options.add(StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		if(options.contains(StandardOpenOption.READ))
+			throw new IllegalArgumentException("READ not allowed");
+		options.add(StandardOpenOption.WRITE);
+		return Channels.newOutputStream(newByteChannel(_path, options));
 	}
 
 	@Override
 	public DirectoryStream<Path> newDirectoryStream(final Path _dir,final DirectoryStream.Filter<? super Path> _filter) throws IOException {
-		throw new UnsupportedOperationException("Not supported yet.");
+		final S3AbsolutePath directory=s3AbsolutePathVerified(_dir)
+											.orElseThrow(() -> new ProviderMismatchException(SimpleFormat.format("Path {} is not an absolute s3 path",_dir)));
+		final S3Client client=directory.getFileSystem().getClient();
+		final S3DirectoryStream reply=new S3DirectoryStream(directory, client, _filter);
+		// only a folder without entries nor marker needs a lookup to tell a file or nothing from an empty folder
+		if((!directory.getBucketPath().isEmpty())&&(reply.isEmpty())){
+			final S3Entry entry=client.resolve(directory);
+			if(!entry.isDirectory()){
+				reply.close();
+				throw (entry.isFile())? new NotDirectoryException(_dir.toString()) : new NoSuchFileException(_dir.toString());
+			}
+		}
+		return reply;
 	}
 
 	@Override
@@ -181,10 +265,8 @@ public class S3FileSystemProvider extends FileSystemProvider{
 
 	@Override
 	public void delete(final Path _path) throws IOException {
-		existVerified(_path)
-				.map(s3AbsolutePath -> Tuple.of(s3AbsolutePath,s3AbsolutePath.getFileSystem()))
-				.map(s3fileSystemTuple -> s3fileSystemTuple.replaceRight(s3fileSystemTuple.right().getClient()))
-				.ifPresent(s3fileSystemTuple -> s3fileSystemTuple.right().deleteBlob(s3fileSystemTuple.left()));
+		resolveVerified(_path)
+				.ifPresent(entry -> entry.getPath().getFileSystem().getClient().deleteBlob(entry));
 	}
 
 	@Override
@@ -194,9 +276,10 @@ public class S3FileSystemProvider extends FileSystemProvider{
 				final Set<StandardCopyOption> options=Stream.of(_options)
 															.map(copyOption -> (StandardCopyOption)copyOption)
 															.collect(Collectors.toSet());
-				final S3AbsolutePath sourcePath=existVerified(_source)
+				final S3Entry sourceEntry=resolveVerified(_source)
 													.orElseThrow(() -> new IOException(SimpleFormat.format("Can not copy non existent source file {}",_source)));
-				final S3FileAttributeView fileAttributes=getFileAttributes(sourcePath)
+				final S3AbsolutePath sourcePath=sourceEntry.getPath();
+				final S3FileAttributeView fileAttributes=getFileAttributes(sourceEntry)
 																	.filter(S3FileAttributeView::isRegularFile)
 																	.orElseThrow(() -> new IOException(SimpleFormat.format("Source {} is folder: can not copy entire folders",_source)));
 				final S3AbsolutePath targetPath=existVerified(_target)
@@ -261,12 +344,14 @@ public class S3FileSystemProvider extends FileSystemProvider{
 						.filter(path -> path instanceof S3AbsolutePath)
 						.map(path -> (S3AbsolutePath)path);
 	}
-	protected Optional<S3AbsolutePath> existVerified(final Path _path){
+	protected Optional<S3Entry> resolveVerified(final Path _path){
 		return s3AbsolutePathVerified(_path)
-						.map(s3path -> Tuple.of(s3path,s3path.getFileSystem()))
-						.map(s3fileSystemTuple -> s3fileSystemTuple.replaceRight(s3fileSystemTuple.right().getClient()))
-						.filter(blobStoreTuple -> blobStoreTuple.right().exist(blobStoreTuple.left()))
-						.map(Tuple::left);
+						.map(s3path -> s3path.getFileSystem().getClient().resolve(s3path))
+						.filter(S3Entry::exists);
+	}
+	protected Optional<S3AbsolutePath> existVerified(final Path _path){
+		return resolveVerified(_path)
+						.map(S3Entry::getPath);
 	}
 	protected boolean exist(final Path _path){
 		return existVerified(_path)
@@ -275,11 +360,13 @@ public class S3FileSystemProvider extends FileSystemProvider{
 					
 	}
 	protected Optional<S3FileAttributeView> getFileAttributes(final Path _path){
-		return s3AbsolutePathVerified(_path)
-					.map(s3path -> Tuple.of(s3path,s3path.getFileSystem()))
-					.map(s3fileSystemTuple -> s3fileSystemTuple.replaceRight(s3fileSystemTuple.right().getClient()))
-					.flatMap(blobStoreTuple -> blobStoreTuple.right().getBlobMetadata(blobStoreTuple.left()))
-					.map(S3FileAttributeView::new);
+		return resolveVerified(_path)
+					.flatMap(this::getFileAttributes);
+	}
+	protected Optional<S3FileAttributeView> getFileAttributes(final S3Entry _entry){
+		return _entry.getMetadata()
+					.map(S3FileAttributeView::new)
+					.map(attributes -> (_entry.getPath().getFileSystem().getClient().isLogicalSize())? attributes.withLogicalSize() : attributes);
 	}
 	
 	@Override
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3;
+
+import java.nio.file.OpenOption;
+import java.util.Objects;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+
+/**
+ * Access pattern hints accepted by newByteChannel, newInputStream and newOutputStream together with the standard open options.
+ * Hints only steer the engine selection and the buffer sizing of the opened channel, they override the
+ * filesystem wide S3FileSystemEnvironment settings for that single call.
+ * @author afarre
+ * @since 0.2.0
+ */
+public final class S3OpenOption implements OpenOption{
+
+	public enum Hint{
+		/** The caller reads or writes from the beginning to the end without seeking */
+		SEQUENTIAL,
+		/** The caller reads small fragments at random positions, no read-ahead is done */
+		RANDOM,
+		/** The channel must never use a local spool file, options that need it are rejected */
+		NO_SPOOL,
+		/** Multipart upload part size in bytes */
+		PART_SIZE,
+		/** Maximum read-ahead window size in bytes */
+		READ_AHEAD,
+		/** Object size in bytes already known by the caller, the metadata request is skipped */
+		KNOWN_SIZE,
+	}
+
+	public static final S3OpenOption SEQUENTIAL=new S3OpenOption(Hint.SEQUENTIAL,0);
+	public static final S3OpenOption RANDOM=new S3OpenOption(Hint.RANDOM,0);
+	public static final S3OpenOption NO_SPOOL=new S3OpenOption(Hint.NO_SPOOL,0);
+
+	private final Hint hint;
+	private final long value;
+
+
+	private S3OpenOption(final Hint _hint,final long _value){
+		this.hint=_hint;
+		this.value=_value;
+	}
+
+	/**
+	 * @param _partSize part size in bytes, clamped to the limits of the multipart upload
+	 * @return part size hint
+	 */
+	public static S3OpenOption partSize(final int _partSize){
+		return new S3OpenOption(Hint.PART_SIZE,positive(Hint.PART_SIZE,_partSize));
+	}
+	/**
+	 * @param _readAhead maximum read-ahead window in bytes
+	 * @return read-ahead size hint
+	 */
+	public static S3OpenOption readAhead(final int _readAhead){
+		return new S3OpenOption(Hint.READ_AHEAD,positive(Hint.READ_AHEAD,_readAhead));
+	}
+	/**
+	 * @param _size object size in bytes
+	 * @return known size hint
+	 */
+	public static S3OpenOption knownSize(final long _size){
+		if(_size<0)
+			throw new IllegalArgumentException(SimpleFormat.format("Invalid {} value {}", Hint.KNOWN_SIZE, _size));
+		return new S3OpenOption(Hint.KNOWN_SIZE,_size);
+	}
+
+	private static long positive(final Hint _hint,final long _value){
+		if(_value<=0)
+			throw new IllegalArgumentException(SimpleFormat.format("Invalid {} value {}", _hint, _value));
+		return _value;
+	}
+
+	public Hint getHint() {
+		return hint;
+	}
+	public long getValue() {
+		return value;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 5;
+		hash = 29 * hash + Objects.hashCode(this.hint);
+		hash = 29 * hash + Long.hashCode(this.value);
+		return hash;
+	}
+
+	@Override
+	public boolean equals(final Object _obj) {
+		if (this == _obj) {
+			return true;
+		}
+		if (_obj == null) {
+			return false;
+		}
+		if (getClass() != _obj.getClass()) {
+			return false;
+		}
+		final S3OpenOption other = (S3OpenOption) _obj;
+		return (this.value==other.value)
+				&&(this.hint==other.hint);
+	}
+
+	@Override
+	public String toString() {
+		return (this.value==0)? this.hint.name() : SimpleFormat.format("{}({})", this.hint, this.value);
+	}
+}
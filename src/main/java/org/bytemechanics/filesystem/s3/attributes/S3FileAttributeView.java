@@ -23,12 +23,14 @@ import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.UserPrincipal;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
 
 /**
@@ -38,6 +40,10 @@ import org.jclouds.blobstore.domain.StorageType;
 public class S3FileAttributeView implements FileAttributeView,BasicFileAttributes,PosixFileAttributes{
 	
 	public static final String ATTRIBUTE_VIEW_NAME = "S3FileAttributeView";
+	/** user metadata with the decoded size of the objects stored with a Content-Encoding */
+	public static final String LOGICAL_SIZE_METADATA = "logical-size";
+	/** content type of the directory markers */
+	public static final String DIRECTORY_CONTENT_TYPE = "application/directory";
 
 	private final Map<S3FileAttribute,Object> attributes;
 	
@@ -63,6 +69,23 @@ public class S3FileAttributeView implements FileAttributeView,BasicFileAttribute
 		this.attributes.put(S3FileAttribute.CONTENT_TYPE, _blobMetadata.getContentMetadata().getContentType());
 		this.attributes.put(S3FileAttribute.CONTENT_DISPOSITION, _blobMetadata.getContentMetadata().getContentDisposition());
     }
+	/**
+	 * Attributes of a listed key from the fields returned by the listing itself, without content metadata nor user metadata
+	 * @param _storageMetadata listed key
+	 * @param _directory true if the key stands for a directory, its marker or its common prefix
+	 */
+    public S3FileAttributeView(final StorageMetadata _storageMetadata,final boolean _directory) {
+		this.attributes=new EnumMap<>(S3FileAttribute.class);
+		this.attributes.put(S3FileAttribute.ID, _storageMetadata.getProviderId());
+		this.attributes.put(S3FileAttribute.NAME, _storageMetadata.getName());
+		this.attributes.put(S3FileAttribute.SIZE, (_directory)? 0l : _storageMetadata.getSize());
+		this.attributes.put(S3FileAttribute.CREATION_DATE, _storageMetadata.getCreationDate());
+		this.attributes.put(S3FileAttribute.LAST_MODIFIED, _storageMetadata.getLastModified());
+		this.attributes.put(S3FileAttribute.LOCATION, _storageMetadata.getLocation());
+		this.attributes.put(S3FileAttribute.ETAG, _storageMetadata.getETag());
+		this.attributes.put(S3FileAttribute.TYPE, (_directory)? StorageType.FOLDER.name() : _storageMetadata.getType().name());
+		this.attributes.put(S3FileAttribute.CONTENT_TYPE, (_directory)? DIRECTORY_CONTENT_TYPE : null);
+    }
 
     @Override
     public String name() {
@@ -109,7 +132,7 @@ public class S3FileAttributeView implements FileAttributeView,BasicFileAttribute
 		return Optional.ofNullable(this.attributes)
 					.map(attr -> attr.get(S3FileAttribute.CONTENT_TYPE))
 					.map(type -> (String)type)
-					.map(contentType -> !contentType.equals("application/directory"))
+					.map(contentType -> !contentType.equals(DIRECTORY_CONTENT_TYPE))
 					.orElse(true);
 	}
 
@@ -118,7 +141,7 @@ public class S3FileAttributeView implements FileAttributeView,BasicFileAttribute
 		return Optional.ofNullable(this.attributes)
 					.map(attr -> attr.get(S3FileAttribute.CONTENT_TYPE))
 					.map(type -> (String)type)
-					.map(contentType -> contentType.equals("application/directory"))
+					.map(contentType -> contentType.equals(DIRECTORY_CONTENT_TYPE))
 					.orElse(false);
 	}
 
@@ -144,6 +167,38 @@ public class S3FileAttributeView implements FileAttributeView,BasicFileAttribute
 					.orElse(0l);
 	}
 
+	/**
+	 * The metadata attribute is only filled from {@link BlobMetadata#getUserMetadata()}, so it is always a map of strings
+	 * @return user metadata of the object, empty if unknown
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String,String> getUserMetadata() {
+		return Optional.ofNullable(this.attributes)
+					.map(attr -> (Map<String,String>)attr.get(S3FileAttribute.METADATA))
+					.orElse(Collections.emptyMap());
+	}
+
+	/**
+	 * @return the decoded size of objects stored with a Content-Encoding if it was recorded when written, otherwise the stored size
+	 */
+	public long logicalSize() {
+		return Optional.ofNullable(this.attributes)
+					.filter(attr -> attr.get(S3FileAttribute.ENCODING)!=null)
+					.map(attr -> getUserMetadata().get(LOGICAL_SIZE_METADATA))
+					.map(Long::valueOf)
+					.orElseGet(this::size);
+	}
+
+	/**
+	 * @return a copy of these attributes reporting the logical size as size
+	 */
+	public S3FileAttributeView withLogicalSize() {
+		final Map<S3FileAttribute,Object> reply=new EnumMap<>(S3FileAttribute.class);
+		reply.putAll(this.attributes);
+		reply.put(S3FileAttribute.SIZE, logicalSize());
+		return new S3FileAttributeView(reply);
+	}
+
 	@Override
 	public Object fileKey() {
 		return Optional.ofNullable(this.attributes)
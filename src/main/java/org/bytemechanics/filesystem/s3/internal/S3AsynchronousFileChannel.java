@@ -0,0 +1,301 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.NoSuchFileException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.io.Payload;
+
+/**
+ * Read only asynchronous channel, each positional read is an independent ranged GET executed in a bounded executor
+ * so any number of reads can be in flight per channel without a caller thread blocked per read.
+ * The object etag is pinned at open time, reads of a version overwritten later fail instead of mixing content.
+ * Closing the channel fails the reads in flight and closes their responses, a failed read never writes its buffer anymore.
+ * When the etag is rejected before any read has been served it may come from a stale metadata cache entry, so the current version is pinned once instead.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3AsynchronousFileChannel extends AsynchronousFileChannel {
+
+	private static final int COPY_BUFFER_SIZE=64*1024;
+
+	private final S3AbsolutePath path;
+	private final S3Client client;
+	private final Executor executor;
+	private final Set<CompletableFuture<Integer>> pending;
+	private final Set<InputStream> responses;
+	private volatile String etag;
+	private volatile long size;
+	private volatile boolean repinnable;
+	private volatile boolean open;
+
+
+	/**
+	 * Open an existing object for asynchronous reading
+	 * @param _path the path to open
+	 * @param _client s3 client
+	 * @param _options open options, only the known size hint is used
+	 * @param _executor executor to run the reads or null to use the client transfer pool
+	 * @throws IOException if the object does not exist or is a folder
+	 */
+	public S3AsynchronousFileChannel(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options,final Executor _executor) throws IOException {
+		this.path=_path;
+		this.client=_client;
+		this.executor=Optional.ofNullable(_executor)
+								.orElseGet(_client::getExecutor);
+		final Optional<Long> knownSize=_options.getKnownSize();
+		if(knownSize.isPresent()){
+			this.etag=null;
+			this.size=knownSize.get();
+		}else{
+			final S3FileAttributeView attributes=_client.getBlobMetadata(_path)
+															.map(S3FileAttributeView::new)
+															.orElseThrow(() -> new NoSuchFileException(SimpleFormat.format("Object {} not exists", _path)));
+			if(attributes.isDirectory())
+				throw new IOException(SimpleFormat.format("Object {} is a folder", _path));
+			if(S3ContentCoding.of(attributes).isPresent())
+				throw new IOException(SimpleFormat.format("Object {} content is encoded, it can only be read sequentially", _path));
+			this.etag=(String)attributes.getAttribute(S3FileAttribute.ETAG);
+			this.size=attributes.size();
+		}
+		this.repinnable=(this.etag!=null);
+		this.pending=ConcurrentHashMap.newKeySet();
+		this.responses=ConcurrentHashMap.newKeySet();
+		this.open=true;
+	}
+
+	/**
+	 * @return number of reads in flight
+	 */
+	public int getPendingReads(){
+		return this.pending.size();
+	}
+
+	/**
+	 * Pin the current version of the object when the etag pinned at open time is rejected before any read has been served,
+	 * only once per channel
+	 * @param _rejected rejected etag
+	 * @return true if the channel is pinned to another version, by this call or by a concurrent read
+	 */
+	protected synchronized boolean repin(final String _rejected){
+		if(!Objects.equals(_rejected, this.etag))
+			return true;
+		if(!this.repinnable)
+			return false;
+		this.repinnable=false;
+		final Optional<S3FileAttributeView> current=this.client.refreshPinnedMetadata(this.path, _rejected)
+																.map(S3FileAttributeView::new)
+																.filter(attributes -> !attributes.isDirectory())
+																.filter(attributes -> !S3ContentCoding.of(attributes).isPresent());
+		current.ifPresent(attributes -> {
+							this.size=attributes.size();
+							this.etag=(String)attributes.getAttribute(S3FileAttribute.ETAG);
+						});
+		return current.isPresent();
+	}
+
+	/**
+	 * Read from _position into the destination buffer up to its remaining bytes.
+	 * The content is copied to the buffer chunk by chunk while the read has not been completed, so once the channel is closed
+	 * and the read failed the buffer is not written anymore
+	 * @param _dst destination buffer
+	 * @param _position first byte to read
+	 * @param _reply future of the read
+	 * @return number of bytes read or -1 if the version pinned again ends before the position
+	 * @throws IOException if the object has been removed or overwritten since this channel was opened or the channel has been closed
+	 */
+	protected int readRange(final ByteBuffer _dst,final long _position,final CompletableFuture<Integer> _reply) throws IOException{
+
+		if(!this.open)
+			throw new AsynchronousCloseException();
+		String pinned=this.etag;
+		if(_position>=this.size)
+			return -1;
+		int length=(int)Math.min((long)_dst.remaining(),this.size-_position);
+		Optional<Payload> payload=this.client.getBlob(this.path, pinned, _position, _position+length-1);
+		if((!payload.isPresent())&&(repin(pinned))){
+			pinned=this.etag;
+			if(_position>=this.size)
+				return -1;
+			length=(int)Math.min((long)_dst.remaining(),this.size-_position);
+			payload=this.client.getBlob(this.path, pinned, _position, _position+length-1);
+		}
+		if(payload.isPresent())
+			this.repinnable=false;
+		final InputStream stream=payload.orElseThrow(() -> new IOException(SimpleFormat.format("Object {} changed or removed since it was opened", this.path)))
+										.openStream();
+		this.responses.add(stream);
+		try{
+			final byte[] buffer=new byte[Math.min(length,COPY_BUFFER_SIZE)];
+			int total=0;
+			while(total<length){
+				if(!this.open)
+					throw new AsynchronousCloseException();
+				final int read=stream.read(buffer, 0, Math.min(length-total, buffer.length));
+				if(read<0)
+					throw new IOException(SimpleFormat.format("Premature end of object {} at {}", this.path, _position+total));
+				synchronized(_reply){
+					if(_reply.isDone())
+						throw new AsynchronousCloseException();
+					_dst.put(buffer, 0, read);
+				}
+				total+=read;
+			}
+			return total;
+		}finally{
+			this.responses.remove(stream);
+			stream.close();
+		}
+	}
+
+	protected CompletableFuture<Integer> readAsync(final ByteBuffer _dst,final long _position){
+
+		if(_position<0)
+			throw new IllegalArgumentException(SimpleFormat.format("Negative position {}", _position));
+		if(_dst.isReadOnly())
+			throw new IllegalArgumentException("Read-only buffer");
+
+		final CompletableFuture<Integer> reply=new CompletableFuture<>();
+		if(!this.open){
+			reply.completeExceptionally(new ClosedChannelException());
+		}else if(_position>=this.size){
+			reply.complete(-1);
+		}else if(!_dst.hasRemaining()){
+			reply.complete(0);
+		}else{
+			this.pending.add(reply);
+			reply.whenComplete((result,failure) -> this.pending.remove(reply));
+			try{
+				this.executor.execute(() -> {
+											try{
+												reply.complete(readRange(_dst, _position, reply));
+											}catch(IOException|RuntimeException e){
+												reply.completeExceptionally(e);
+											}
+										});
+			}catch(RejectedExecutionException e){
+				reply.completeExceptionally(new IOException(SimpleFormat.format("Can not schedule read of {} at {}", this.path, _position),e));
+			}
+		}
+
+		return reply;
+	}
+
+	@Override
+	public Future<Integer> read(final ByteBuffer _dst,final long _position) {
+		return readAsync(_dst, _position);
+	}
+
+	@Override
+	public <A> void read(final ByteBuffer _dst,final long _position,final A _attachment,final CompletionHandler<Integer, ? super A> _handler) {
+		readAsync(_dst, _position)
+			.whenComplete((result,failure) -> {
+								if(failure==null){
+									_handler.completed(result, _attachment);
+								}else{
+									_handler.failed(failure, _attachment);
+								}
+							});
+	}
+
+	@Override
+	public long size() throws IOException {
+		if(!this.open)
+			throw new ClosedChannelException();
+		return this.size;
+	}
+
+	@Override
+	public AsynchronousFileChannel truncate(final long _size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public void force(final boolean _metaData) throws IOException {
+		if(!this.open)
+			throw new ClosedChannelException();
+	}
+
+	@Override
+	public <A> void lock(final long _position,final long _size,final boolean _shared,final A _attachment,final CompletionHandler<FileLock, ? super A> _handler) {
+		throw new UnsupportedOperationException("S3 objects can not be locked");
+	}
+
+	@Override
+	public Future<FileLock> lock(final long _position,final long _size,final boolean _shared) {
+		throw new UnsupportedOperationException("S3 objects can not be locked");
+	}
+
+	@Override
+	public FileLock tryLock(final long _position,final long _size,final boolean _shared) throws IOException {
+		throw new UnsupportedOperationException("S3 objects can not be locked");
+	}
+
+	@Override
+	public <A> void write(final ByteBuffer _src,final long _position,final A _attachment,final CompletionHandler<Integer, ? super A> _handler) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public Future<Integer> write(final ByteBuffer _src,final long _position) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Close the channel failing every read still in flight with AsynchronousCloseException and closing their responses
+	 */
+	@Override
+	public void close() throws IOException {
+		this.open=false;
+		for(CompletableFuture<Integer> read:this.pending){
+			synchronized(read){
+				read.completeExceptionally(new AsynchronousCloseException());
+			}
+		}
+		for(InputStream response:this.responses){
+			try{
+				response.close();
+			}catch(IOException e){
+				//The read has already failed
+			}
+		}
+	}
+}
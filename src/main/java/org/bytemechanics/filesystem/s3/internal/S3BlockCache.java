@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+
+/**
+ * Process wide block cache shared by every channel of every filesystem.
+ * Blocks are fixed size slices of an object version identified by bucket, key and etag, held in direct (off-heap) buffers.
+ * The byte budget is fixed by the first filesystem that enables the cache and never changes afterwards, so the off-heap memory is bounded
+ * whatever the filesystems opened later request. The cache evicts in least recently used order and reuses the evicted buffers for new blocks.
+ * Hits, misses and evictions are published in the metrics of the filesystem that reads or stores the block.
+ * @author afarre
+ * @since 0.2.0
+ */
+public final class S3BlockCache {
+
+	public static final int BLOCK_SIZE=1024*1024;
+
+	private static final long UNCONFIGURED=-1l;
+	private static final S3BlockCache INSTANCE=new S3BlockCache();
+
+	private final LinkedHashMap<BlockKey,ByteBuffer> blocks;
+	private final Deque<ByteBuffer> freeBuffers;
+	private long maxSize;
+	private long residentBytes;
+
+
+	S3BlockCache(){
+		this.blocks=new LinkedHashMap<>(16,0.75f,true);
+		this.freeBuffers=new ArrayDeque<>();
+		this.maxSize=UNCONFIGURED;
+		this.residentBytes=0;
+	}
+
+	public static S3BlockCache getInstance(){
+		return INSTANCE;
+	}
+
+	/**
+	 * Fix the byte budget of the cache, only the first budget requested is applied
+	 * @param _maxSize requested budget in bytes, less than BLOCK_SIZE leaves the budget unconfigured
+	 * @return the budget of the cache
+	 */
+	public synchronized long configure(final long _maxSize){
+		if((this.maxSize==UNCONFIGURED)&&(_maxSize>=BLOCK_SIZE))
+			this.maxSize=_maxSize;
+		return this.maxSize;
+	}
+
+	public synchronized boolean isEnabled(){
+		return this.maxSize>=BLOCK_SIZE;
+	}
+
+	public synchronized boolean contains(final String _bucket,final String _key,final String _etag,final long _block){
+		return this.blocks.containsKey(new BlockKey(_bucket, _key, _etag, _block));
+	}
+
+	/**
+	 * Copy a fragment of a cached block
+	 * @param _metrics metrics of the reading filesystem
+	 * @param _bucket object bucket
+	 * @param _key object key
+	 * @param _etag object etag
+	 * @param _block block index
+	 * @param _offset offset inside the block
+	 * @param _dst destination array
+	 * @param _dstOffset destination offset
+	 * @param _length number of bytes to copy
+	 * @return true if the block was cached and the fragment copied
+	 */
+	public synchronized boolean read(final S3Metrics _metrics,final String _bucket,final String _key,final String _etag,final long _block,final int _offset,final byte[] _dst,final int _dstOffset,final int _length){
+
+		final ByteBuffer block=this.blocks.get(new BlockKey(_bucket, _key, _etag, _block));
+
+		if(block==null){
+			_metrics.increment(S3FileSystemMetric.BLOCK_CACHE_MISSES);
+			return false;
+		}
+		if(_offset+_length>block.limit())
+			throw new IndexOutOfBoundsException(SimpleFormat.format("Block {} of {}/{} has only {} bytes", _block, _bucket, _key, block.limit()));
+		final ByteBuffer fragment=block.duplicate();
+		fragment.position(_offset);
+		fragment.get(_dst, _dstOffset, _length);
+		_metrics.increment(S3FileSystemMetric.BLOCK_CACHE_HITS);
+
+		return true;
+	}
+
+	/**
+	 * Store a block evicting the least recently used blocks if the budget is exceeded
+	 * @param _metrics metrics of the storing filesystem
+	 * @param _bucket object bucket
+	 * @param _key object key
+	 * @param _etag object etag
+	 * @param _block block index
+	 * @param _content block content
+	 * @param _length block length, only the last block of an object can be shorter than BLOCK_SIZE
+	 */
+	public synchronized void put(final S3Metrics _metrics,final String _bucket,final String _key,final String _etag,final long _block,final byte[] _content,final int _length){
+
+		if(!isEnabled())
+			return;
+		final BlockKey key=new BlockKey(_bucket, _key, _etag, _block);
+		if(this.blocks.containsKey(key))
+			return;
+		while(this.residentBytes+BLOCK_SIZE>this.maxSize){
+			evictEldest(_metrics);
+		}
+		final ByteBuffer buffer=(this.freeBuffers.isEmpty())? ByteBuffer.allocateDirect(BLOCK_SIZE) : this.freeBuffers.pop();
+		buffer.clear();
+		buffer.put(_content, 0, _length);
+		buffer.flip();
+		this.blocks.put(key, buffer);
+		this.residentBytes+=BLOCK_SIZE;
+	}
+
+	protected void evictEldest(final S3Metrics _metrics){
+		final Iterator<Map.Entry<BlockKey,ByteBuffer>> iterator=this.blocks.entrySet().iterator();
+		final ByteBuffer evicted=iterator.next().getValue();
+		iterator.remove();
+		this.residentBytes-=BLOCK_SIZE;
+		_metrics.increment(S3FileSystemMetric.BLOCK_CACHE_EVICTIONS);
+		if(this.residentBytes+(this.freeBuffers.size()+1l)*BLOCK_SIZE<=this.maxSize)
+			this.freeBuffers.push(evicted);
+	}
+
+	public synchronized void clear(){
+		this.blocks.clear();
+		this.freeBuffers.clear();
+		this.residentBytes=0;
+	}
+
+	public synchronized long getResidentBytes(){
+		return this.residentBytes;
+	}
+	public synchronized long getMaxSize(){
+		return this.maxSize;
+	}
+
+
+	private static final class BlockKey{
+
+		private final String bucket;
+		private final String key;
+		private final String etag;
+		private final long block;
+
+		BlockKey(final String _bucket,final String _key,final String _etag,final long _block){
+			this.bucket=_bucket;
+			this.key=_key;
+			this.etag=_etag;
+			this.block=_block;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = 7;
+			hash = 53 * hash + Objects.hashCode(this.bucket);
+			hash = 53 * hash + Objects.hashCode(this.key);
+			hash = 53 * hash + Objects.hashCode(this.etag);
+			hash = 53 * hash + Long.hashCode(this.block);
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object _obj) {
+			if (this == _obj) {
+				return true;
+			}
+			if (_obj == null) {
+				return false;
+			}
+			if (getClass() != _obj.getClass()) {
+				return false;
+			}
+			final BlockKey other = (BlockKey) _obj;
+			return (this.block==other.block)
+					&&Objects.equals(this.bucket, other.bucket)
+					&&Objects.equals(this.key, other.key)
+					&&Objects.equals(this.etag, other.etag);
+		}
+	}
+}
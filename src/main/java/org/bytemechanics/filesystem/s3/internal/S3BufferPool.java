@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of equally sized heap or direct buffers, released buffers are kept for reuse up to a maximum count
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3BufferPool {
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final boolean direct;
+	private final Deque<ByteBuffer> free;
+
+
+	public S3BufferPool(final int _bufferSize,final int _maxPooled){
+		this(_bufferSize, _maxPooled, false);
+	}
+	public S3BufferPool(final int _bufferSize,final int _maxPooled,final boolean _direct){
+		this.bufferSize=_bufferSize;
+		this.maxPooled=_maxPooled;
+		this.direct=_direct;
+		this.free=new ArrayDeque<>(_maxPooled);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return a cleared buffer of the pool buffer size, reused if possible
+	 */
+	public synchronized ByteBuffer acquire(){
+		final ByteBuffer reply=(!this.free.isEmpty())? this.free.pop() : (this.direct)? ByteBuffer.allocateDirect(this.bufferSize) : ByteBuffer.allocate(this.bufferSize);
+		reply.clear();
+		return reply;
+	}
+
+	/**
+	 * Return a buffer to the pool, buffers of other sizes or exceeding the maximum count are discarded
+	 * @param _buffer buffer to return
+	 */
+	public synchronized void release(final ByteBuffer _buffer){
+		if((_buffer!=null)&&(_buffer.capacity()==this.bufferSize)&&(_buffer.isDirect()==this.direct)&&(this.free.size()<this.maxPooled))
+			this.free.push(_buffer);
+	}
+
+	public synchronized int getPooled(){
+		return this.free.size();
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.bytemechanics.filesystem.s3.S3OpenOption;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+
+/**
+ * Open options of a single call split into the standard options and the S3 access pattern hints
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3ChannelOptions {
+
+	private final Set<StandardOpenOption> standardOptions;
+	private final Map<S3OpenOption.Hint,Long> hints;
+
+
+	protected S3ChannelOptions(final Set<StandardOpenOption> _standardOptions,final Map<S3OpenOption.Hint,Long> _hints){
+		this.standardOptions=Collections.unmodifiableSet(_standardOptions);
+		this.hints=_hints;
+	}
+
+	/**
+	 * Classify the given open options, link options are ignored because s3 has no links
+	 * @param _options open options
+	 * @return the classified options
+	 * @throws UnsupportedOperationException if any option is not supported
+	 * @throws IllegalArgumentException if SEQUENTIAL and RANDOM are requested together
+	 */
+	public static S3ChannelOptions of(final Set<? extends OpenOption> _options){
+
+		final Set<StandardOpenOption> standardOptions=EnumSet.noneOf(StandardOpenOption.class);
+		final Map<S3OpenOption.Hint,Long> hints=new EnumMap<>(S3OpenOption.Hint.class);
+
+		for(OpenOption option:_options){
+			if(option instanceof StandardOpenOption){
+				standardOptions.add((StandardOpenOption)option);
+			}else if(option instanceof S3OpenOption){
+				hints.put(((S3OpenOption)option).getHint(), ((S3OpenOption)option).getValue());
+			}else if(!(option instanceof LinkOption)){
+				throw new UnsupportedOperationException(SimpleFormat.format("Open option {} not supported", option));
+			}
+		}
+		if(hints.containsKey(S3OpenOption.Hint.SEQUENTIAL)&&hints.containsKey(S3OpenOption.Hint.RANDOM))
+			throw new IllegalArgumentException("SEQUENTIAL + RANDOM not allowed");
+
+		return new S3ChannelOptions(standardOptions, hints);
+	}
+
+	public Set<StandardOpenOption> getStandardOptions() {
+		return standardOptions;
+	}
+	public boolean contains(final StandardOpenOption _option){
+		return this.standardOptions.contains(_option);
+	}
+	public boolean isSequential(){
+		return this.hints.containsKey(S3OpenOption.Hint.SEQUENTIAL);
+	}
+	public boolean isRandom(){
+		return this.hints.containsKey(S3OpenOption.Hint.RANDOM);
+	}
+	public boolean isNoSpool(){
+		return this.hints.containsKey(S3OpenOption.Hint.NO_SPOOL);
+	}
+	public Optional<Integer> getPartSize(){
+		return Optional.ofNullable(this.hints.get(S3OpenOption.Hint.PART_SIZE))
+							.map(Long::intValue);
+	}
+	public Optional<Integer> getReadAheadSize(){
+		return Optional.ofNullable(this.hints.get(S3OpenOption.Hint.READ_AHEAD))
+							.map(Long::intValue);
+	}
+	public Optional<Long> getKnownSize(){
+		return Optional.ofNullable(this.hints.get(S3OpenOption.Hint.KNOWN_SIZE));
+	}
+
+	@Override
+	public String toString() {
+		return SimpleFormat.format("S3ChannelOptions[standard={}, hints={}]", this.standardOptions, this.hints);
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Channel engines and the planner that picks the cheapest one for a set of open options
+ * @author afarre
+ * @since 0.2.0
+ */
+public enum S3ChannelStrategy {
+
+	RANGED_READ(S3FileSystemMetric.CHANNEL_RANGED_READ){
+		@Override
+		protected SeekableByteChannel create(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options,final Optional<S3FileAttributeView> _attributes) throws IOException{
+			final S3RangedReadChannel reply=new S3RangedReadChannel(_path, _client, _options);
+			final Optional<S3ContentCoding> coding=S3ContentCoding.of(reply.getAttributes());
+			if(coding.isPresent()){
+				reply.close();
+				_client.getMetrics().increment(S3FileSystemMetric.COMPRESSED_READS);
+				return new S3DecodingReadChannel(_path, _client, reply.getAttributes(), coding.get());
+			}
+			return reply;
+		}
+	},
+	STREAMING_WRITE(S3FileSystemMetric.CHANNEL_STREAMING_WRITE){
+		@Override
+		protected SeekableByteChannel create(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options,final Optional<S3FileAttributeView> _attributes) throws IOException{
+			final Optional<S3ContentCoding> compression=_client.getCompression();
+			if(compression.isPresent()){
+				_client.getMetrics().increment(S3FileSystemMetric.COMPRESSED_WRITES);
+				return new S3EncodingWriteChannel(_path, _client, _options, compression.get(), _client.getCompressionLevel());
+			}
+			return new S3MultipartWriteChannel(_path, _client, _options);
+		}
+	},
+	APPEND(S3FileSystemMetric.CHANNEL_APPEND){
+		@Override
+		protected SeekableByteChannel create(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options,final Optional<S3FileAttributeView> _attributes) throws IOException{
+			return new S3MultipartWriteChannel(_path, _client, _options);
+		}
+	},
+	SPOOL_READ_WRITE(S3FileSystemMetric.CHANNEL_SPOOL_READ_WRITE){
+		@Override
+		protected SeekableByteChannel create(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options,final Optional<S3FileAttributeView> _attributes) throws IOException{
+			return new S3SeekableByteChannel(_path, _client, _options);
+		}
+		@Override
+		protected Tuple<S3ChannelStrategy,Optional<S3FileAttributeView>> refine(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options){
+			if((_client.getMemoryChannelMaxSize()<=0)||(_options.getKnownSize().filter(size -> size>_client.getMemoryChannelMaxSize()).isPresent()))
+				return super.refine(_path, _client, _options);
+			final Optional<S3FileAttributeView> attributes=_client.getBlobMetadata(_path)
+																	.map(S3FileAttributeView::new);
+			final boolean truncate=_options.contains(StandardOpenOption.WRITE)&&_options.contains(StandardOpenOption.TRUNCATE_EXISTING);
+			final long size=(truncate)? 0l : attributes.map(S3FileAttributeView::size).orElse(0l);
+			return Tuple.of((size<=_client.getMemoryChannelMaxSize())? MEMORY_READ_WRITE : this, attributes);
+		}
+	},
+	MEMORY_READ_WRITE(S3FileSystemMetric.CHANNEL_MEMORY_READ_WRITE){
+		@Override
+		protected SeekableByteChannel create(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options,final Optional<S3FileAttributeView> _attributes) throws IOException{
+			return new S3MemoryByteChannel(_path, _client, _options.getStandardOptions(), _attributes.orElse(null));
+		}
+	},
+	;
+
+	private static final Logger LOGGER=LoggerFactory.getLogger(S3ChannelStrategy.class);
+
+	private final S3FileSystemMetric metric;
+
+	S3ChannelStrategy(final S3FileSystemMetric _metric){
+		this.metric=_metric;
+	}
+
+	/**
+	 * @param _path path to open
+	 * @param _client s3 client
+	 * @param _options open options
+	 * @param _attributes object attributes if they were already retrieved while planning
+	 * @return the opened channel
+	 * @throws IOException if the channel can not be opened
+	 */
+	protected abstract SeekableByteChannel create(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options,final Optional<S3FileAttributeView> _attributes) throws IOException;
+
+	/**
+	 * Open a channel with this engine, counting and logging the decision
+	 * @param _path path to open
+	 * @param _client s3 client
+	 * @param _options open options
+	 * @return the opened channel
+	 * @throws IOException if the channel can not be opened
+	 */
+	public SeekableByteChannel open(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options) throws IOException{
+		final Tuple<S3ChannelStrategy,Optional<S3FileAttributeView>> engine=refine(_path, _client, _options);
+		LOGGER.debug("Opening {} with options {} using {} engine", _path, _options, engine.left().name());
+		_client.getMetrics().increment(engine.left().metric);
+		return engine.left().create(_path, _client, _options, engine.right());
+	}
+
+	/**
+	 * Engines whose choice depends on the object itself can pick a cheaper one once the options have been classified
+	 * @param _path path to open
+	 * @param _client s3 client
+	 * @param _options open options
+	 * @return the engine to use and the object attributes if they were retrieved to take the decision
+	 */
+	protected Tuple<S3ChannelStrategy,Optional<S3FileAttributeView>> refine(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options){
+		return Tuple.of(this, Optional.empty());
+	}
+
+	/**
+	 * Classify the open options picking the cheapest engine able to honour them
+	 * @param _options open options
+	 * @return the engine to use
+	 * @throws IllegalArgumentException if the options combination is not valid
+	 * @throws UnsupportedOperationException if NO_SPOOL is requested but the options can only be honoured with a spool file
+	 */
+	public static S3ChannelStrategy plan(final S3ChannelOptions _options){
+
+		if(_options.contains(StandardOpenOption.APPEND)&&_options.contains(StandardOpenOption.READ))
+			throw new IllegalArgumentException("READ + APPEND not allowed");
+		if(_options.contains(StandardOpenOption.APPEND)&&_options.contains(StandardOpenOption.TRUNCATE_EXISTING))
+			throw new IllegalArgumentException("APPEND + TRUNCATE_EXISTING not allowed");
+
+		final S3ChannelStrategy reply;
+		final boolean writable=_options.contains(StandardOpenOption.WRITE)||_options.contains(StandardOpenOption.APPEND);
+		final boolean deleteOnClose=_options.contains(StandardOpenOption.DELETE_ON_CLOSE);
+
+		if(!writable&&!deleteOnClose){
+			reply=RANGED_READ;
+		}else if(deleteOnClose||_options.contains(StandardOpenOption.READ)){
+			reply=SPOOL_READ_WRITE;
+		}else if(_options.contains(StandardOpenOption.APPEND)){
+			reply=APPEND;
+		}else if(Stream.of(StandardOpenOption.TRUNCATE_EXISTING,StandardOpenOption.CREATE_NEW).anyMatch(_options::contains)){
+			reply=STREAMING_WRITE;
+		}else{
+			reply=SPOOL_READ_WRITE;
+		}
+		if((reply==SPOOL_READ_WRITE)&&(_options.isNoSpool()))
+			throw new UnsupportedOperationException(SimpleFormat.format("Options {} can not be honoured without a spool file", _options.getStandardOptions()));
+
+		return reply;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental MD5 of the content moving through a transfer.
+ * Bytes are digested as they are copied so the content does not have to be read again to be verified.
+ * S3 etags of single put objects and of multipart parts are the MD5 of their content,
+ * and the etag of a multipart object is the MD5 of the concatenated part MD5s followed by the number of parts.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3Checksum {
+
+	private static final Pattern MD5_ETAG=Pattern.compile("[0-9a-fA-F]{32}");
+	private static final int COPY_BUFFER_SIZE=8*1024;
+
+	private Hasher md5;
+	private HashCode md5Result;
+	private long length;
+
+
+	public S3Checksum(){
+		reset();
+	}
+
+	/**
+	 * Discard the digested content
+	 * @return this checksum
+	 */
+	public final S3Checksum reset(){
+		this.md5=Hashing.md5().newHasher();
+		this.md5Result=null;
+		this.length=0;
+		return this;
+	}
+
+	public S3Checksum update(final byte[] _content,final int _offset,final int _length){
+		if(this.md5Result!=null)
+			throw new IllegalStateException("Checksum already computed");
+		this.md5.putBytes(_content, _offset, _length);
+		this.length+=_length;
+		return this;
+	}
+
+	/**
+	 * Digest the remaining content of the buffer without moving its position
+	 * @param _content content to digest
+	 * @return this checksum
+	 */
+	public S3Checksum update(final ByteBuffer _content){
+		if(_content.hasArray()){
+			update(_content.array(), _content.arrayOffset()+_content.position(), _content.remaining());
+		}else{
+			final ByteBuffer source=_content.duplicate();
+			final byte[] copy=new byte[Math.min(COPY_BUFFER_SIZE, source.remaining())];
+			while(source.hasRemaining()){
+				final int length=Math.min(copy.length, source.remaining());
+				source.get(copy, 0, length);
+				update(copy, 0, length);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return digested bytes
+	 */
+	public long getLength(){
+		return this.length;
+	}
+
+	/**
+	 * @return md5 of the digested content, no more content can be digested after
+	 */
+	public HashCode md5(){
+		if(this.md5Result==null)
+			this.md5Result=this.md5.hash();
+		return this.md5Result;
+	}
+
+	/**
+	 * Wrap a source so that every stream opened from it digests the content it reads, restarting the digest on each open
+	 * @param _source source to digest
+	 * @return digesting source
+	 */
+	public ByteSource digesting(final ByteSource _source){
+		return new ByteSource(){
+			@Override
+			public InputStream openStream() throws IOException {
+				reset();
+				return new DigestingInputStream(_source.openStream());
+			}
+			@Override
+			public long size() throws IOException {
+				return _source.size();
+			}
+		};
+	}
+
+	/**
+	 * @param _etag s3 etag, optionally quoted
+	 * @return the md5 contained in the etag or empty if the etag is not a plain md5 (multipart objects)
+	 */
+	public static Optional<HashCode> md5(final String _etag){
+		return Optional.ofNullable(_etag)
+						.map(etag -> etag.replace("\"", ""))
+						.filter(etag -> MD5_ETAG.matcher(etag).matches())
+						.map(etag -> HashCode.fromString(etag.toLowerCase()));
+	}
+
+	/**
+	 * @param _partMd5s md5 of each part in part number order
+	 * @return the etag s3 computes for a multipart object with these parts, without quotes
+	 */
+	public static String multipartEtag(final List<HashCode> _partMd5s){
+		final Hasher hasher=Hashing.md5().newHasher();
+		_partMd5s.forEach(partMd5 -> hasher.putBytes(partMd5.asBytes()));
+		return hasher.hash().toString()+"-"+_partMd5s.size();
+	}
+
+
+	protected class DigestingInputStream extends FilterInputStream{
+
+		DigestingInputStream(final InputStream _stream){
+			super(_stream);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int reply=super.read();
+			if(reply>=0)
+				update(new byte[]{(byte)reply}, 0, 1);
+			return reply;
+		}
+		@Override
+		public int read(final byte[] _buffer,final int _offset,final int _length) throws IOException {
+			final int reply=super.read(_buffer, _offset, _length);
+			if(reply>0)
+				update(_buffer, _offset, reply);
+			return reply;
+		}
+		@Override
+		public long skip(final long _count) throws IOException {
+			final byte[] skipped=new byte[(int)Math.min((long)COPY_BUFFER_SIZE, Math.max(0l, _count))];
+			long reply=0;
+			for(int read=0;(reply<_count)&&(read>=0);reply+=Math.max(0, read)){
+				read=read(skipped, 0, (int)Math.min((long)skipped.length, _count-reply));
+			}
+			return reply;
+		}
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -16,32 +16,78 @@
 package org.bytemechanics.filesystem.s3.internal;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteSource;
 import com.google.common.net.MediaType;
+import com.google.common.reflect.Invokable;
 import com.google.inject.Module;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
 import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.Constants;
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
 import org.jclouds.blobstore.domain.StorageType;
 import org.jclouds.blobstore.options.CopyOptions;
+import org.jclouds.blobstore.options.GetOptions;
+import org.jclouds.blobstore.options.ListContainerOptions;
 import org.jclouds.blobstore.options.PutOptions;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.http.HttpResponseException;
+import org.jclouds.io.ContentMetadataBuilder;
 import org.jclouds.io.Payload;
 import org.jclouds.io.PayloadEnclosing;
 import static org.jclouds.io.Payloads.newByteArrayPayload;
+import static org.jclouds.io.Payloads.newByteSourcePayload;
 import org.jclouds.logging.slf4j.config.SLF4JLoggingModule;
+import org.jclouds.reflect.Invocation;
+import org.jclouds.reflect.Reflection2;
+import org.jclouds.rest.internal.RestAnnotationProcessor;
+import org.jclouds.s3.domain.ListMultipartUploadsResponse;
+import org.jclouds.s3.functions.ETagFromHttpResponseViaRegex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author afarre
@@ -51,27 +97,517 @@ public class S3Client implements Closeable{
 
 	private static final String FOLDER_SELF = ".self";
 	private static final String MULTIPART_MINSIZE="s3.filesystem.upload.multipart.minsize";
+	private static final String READ_BLOCKSIZE="s3.filesystem.read.blocksize";
+	private static final String READ_AHEAD_MAXSIZE="s3.filesystem.read.ahead.maxsize";
+	private static final String UPLOAD_PARTSIZE="s3.filesystem.upload.partsize";
+	private static final String UPLOAD_BUFFERS="s3.filesystem.upload.buffers";
+	private static final String TRANSFER_THREADS="s3.filesystem.transfer.threads";
+	private static final String LOOKUP_THREADS="s3.filesystem.lookup.threads";
+	private static final String DOWNLOAD_PARALLELISM="s3.filesystem.download.parallelism";
+	private static final String DOWNLOAD_CHUNKSIZE="s3.filesystem.download.chunksize";
+	private static final String DOWNLOAD_BUFFERSIZE="s3.filesystem.download.buffersize";
+	private static final String BLOCKCACHE_MAXSIZE="s3.filesystem.cache.block.maxsize";
+	private static final String METADATACACHE_TTL="s3.filesystem.cache.metadata.ttl";
+	private static final String METADATACACHE_MAXENTRIES="s3.filesystem.cache.metadata.maxentries";
+	private static final String NEGATIVECACHE_TTL="s3.filesystem.cache.negative.ttl";
+	private static final String NEGATIVECACHE_MAXENTRIES="s3.filesystem.cache.negative.maxentries";
+	private static final String KEYFILTER_TTL="s3.filesystem.cache.negative.filter.ttl";
+	private static final String KEYFILTER_FPP="s3.filesystem.cache.negative.filter.fpp";
+	private static final String LIST_PAGESIZE="s3.filesystem.list.pagesize";
+	private static final String LIST_PARALLELISM="s3.filesystem.list.parallelism";
+	private static final String MEMORY_CHANNEL_MAXSIZE="s3.filesystem.channel.memory.maxsize";
+	private static final String UPLOAD_PARALLELISM="s3.filesystem.upload.parallelism";
+	private static final String UPLOAD_RETRIES="s3.filesystem.upload.retries";
+	private static final String UPLOAD_PART_TARGET_MILLIS="s3.filesystem.upload.part.targetmillis";
+	private static final String UPLOAD_JOURNAL_DIR="s3.filesystem.upload.journal.dir";
+	private static final String SPOOL_DIR="s3.filesystem.spool.dir";
+	private static final String SPOOL_QUOTA="s3.filesystem.spool.quota";
+	private static final String SPOOL_QUOTA_WAIT="s3.filesystem.spool.quota.wait";
+	private static final String SPOOL_POOLED="s3.filesystem.spool.pooled";
+	private static final String CHECKSUM_VERIFY="s3.filesystem.checksum.verify";
+	private static final String COMPRESSION="s3.filesystem.compression";
+	private static final String COMPRESSION_LEVEL="s3.filesystem.compression.level";
+	private static final String COMPRESSION_SIZE="s3.filesystem.compression.size";
+	private static final int LIST_MAX_PAGESIZE=1000;
+	private static final int LIST_UPLOADS_PAGESIZE=1000;
+	private static final long RETRY_BACKOFF_MILLIS=100;
+	private static final int HTTP_PRECONDITION_FAILED=412;
+	private static final String COPY_SOURCE_IF_MATCH="x-amz-copy-source-if-match";
+	private static final Invokable<org.jclouds.s3.S3Client,Object> UPLOAD_PART_COPY=Reflection2.method(org.jclouds.s3.S3Client.class, "uploadPartCopy"
+																										, String.class, String.class, int.class, String.class
+																										, String.class, String.class, long.class, long.class);
+	private static final AtomicInteger THREAD_COUNTER=new AtomicInteger();
+	private static final Logger LOGGER=LoggerFactory.getLogger(S3Client.class);
 	
 	private final long multipartMinSize;
+	private final int readBlockSize;
+	private final int readAheadMaxSize;
+	private final int uploadPartSize;
+	private final int uploadBuffers;
+	private final int downloadParallelism;
+	private final int uploadParallelism;
+	private final int uploadRetries;
+	private final long uploadPartTargetMillis;
+	private final long downloadChunkSize;
+	private final boolean blockCache;
+	private final S3MetadataCache metadataCache;
+	private final S3NegativeCache negativeCache;
+	private final int listPageSize;
+	private final int listParallelism;
+	private final int memoryChannelMaxSize;
+	private final S3BufferPool bufferPool;
+	private final S3BufferPool downloadBufferPool;
+	private final Optional<Path> journalDirectory;
+	private final S3SpoolManager spoolManager;
+	private final boolean checksumVerify;
+	private final Optional<S3ContentCoding> compression;
+	private final int compressionLevel;
+	private final boolean logicalSize;
+	private final ExecutorService executor;
+	private final ScheduledExecutorService retryScheduler;
+	private final ExecutorService lookupExecutor;
+	private final ExecutorService listExecutor;
+	private final S3Metrics metrics;
 	private final BlobStore blobStore;
+	private final org.jclouds.s3.S3Client s3Api;
+	private final RestAnnotationProcessor requestProcessor;
+	private final ETagFromHttpResponseViaRegex etagParser;
 	
 	public S3Client(final URI _endpoint,final String _user,final String _password){
 		this(_endpoint, _user, _password,null);
 	}
 	public S3Client(final URI _endpoint,final String _user,final String _password,final Properties _environment){
+		final Properties environment=Optional.ofNullable(_environment).orElseGet(Properties::new);
 		this.blobStore=ContextBuilder
 							.newBuilder("s3")
 								.endpoint(MessageFormat.format("{0}://{1}:{2}",_endpoint.getScheme(),_endpoint.getHost(),String.valueOf(_endpoint.getPort())))
-								.overrides(Optional.ofNullable(_environment).orElse(new Properties()))
+								.overrides(environment)
 								.modules(ImmutableSet.<Module> of(new SLF4JLoggingModule()))
 								.credentials(_user,_password)
 								.buildView(BlobStoreContext.class)
 									.getBlobStore();
-		this.multipartMinSize=Optional.ofNullable(_environment.getProperty(MULTIPART_MINSIZE))
+		this.s3Api=this.blobStore.getContext().unwrapApi(org.jclouds.s3.S3Client.class);
+		this.requestProcessor=this.blobStore.getContext().utils().injector().getInstance(RestAnnotationProcessor.class);
+		this.etagParser=this.blobStore.getContext().utils().injector().getInstance(ETagFromHttpResponseViaRegex.class);
+		this.multipartMinSize=Optional.ofNullable(environment.getProperty(MULTIPART_MINSIZE))
 										.map(Long::valueOf)
 										.orElse(Long.MAX_VALUE);
+		this.readBlockSize=Optional.ofNullable(environment.getProperty(READ_BLOCKSIZE))
+										.map(Integer::valueOf)
+										.orElse(256*1024);
+		this.readAheadMaxSize=Math.max(this.readBlockSize
+										,Optional.ofNullable(environment.getProperty(READ_AHEAD_MAXSIZE))
+												.map(Integer::valueOf)
+												.orElse(8*1024*1024));
+		this.uploadPartSize=(int)Math.max(this.blobStore.getMinimumMultipartPartSize()
+											,Optional.ofNullable(environment.getProperty(UPLOAD_PARTSIZE))
+													.map(Integer::valueOf)
+													.orElse(8*1024*1024));
+		this.uploadBuffers=Optional.ofNullable(environment.getProperty(UPLOAD_BUFFERS))
+										.map(Integer::valueOf)
+										.orElse(2);
+		final int transferThreads=Optional.ofNullable(environment.getProperty(TRANSFER_THREADS))
+											.map(Integer::valueOf)
+											.orElse(8);
+		final int maxConnectionsPerHost=Optional.ofNullable(environment.getProperty(Constants.PROPERTY_MAX_CONNECTIONS_PER_HOST))
+											.map(Integer::valueOf)
+											.filter(connections -> connections>0)
+											.orElse(Integer.MAX_VALUE);
+		this.downloadParallelism=Math.max(1,Math.min(Math.min(maxConnectionsPerHost, transferThreads)
+													,Optional.ofNullable(environment.getProperty(DOWNLOAD_PARALLELISM))
+															.map(Integer::valueOf)
+															.orElse(4)));
+		this.uploadParallelism=Math.max(1,Math.min(maxConnectionsPerHost
+													,Optional.ofNullable(environment.getProperty(UPLOAD_PARALLELISM))
+															.map(Integer::valueOf)
+															.orElse(4)));
+		this.uploadRetries=Optional.ofNullable(environment.getProperty(UPLOAD_RETRIES))
+										.map(Integer::valueOf)
+										.map(retries -> Math.max(0, retries))
+										.orElse(2);
+		this.uploadPartTargetMillis=Optional.ofNullable(environment.getProperty(UPLOAD_PART_TARGET_MILLIS))
+										.map(Long::valueOf)
+										.map(millis -> Math.max(1l, millis))
+										.orElse(5000l);
+		this.downloadChunkSize=Optional.ofNullable(environment.getProperty(DOWNLOAD_CHUNKSIZE))
+										.map(Long::valueOf)
+										.orElse(8l*1024l*1024l);
+		this.metrics=new S3Metrics();
+		this.blockCache=Optional.ofNullable(environment.getProperty(BLOCKCACHE_MAXSIZE))
+										.map(Long::valueOf)
+										.filter(maxSize -> maxSize>=S3BlockCache.BLOCK_SIZE)
+										.map(maxSize -> {
+											final long budget=S3BlockCache.getInstance().configure(maxSize);
+											if(budget!=maxSize)
+												LOGGER.warn("Block cache budget {} ignored, the process wide cache is already bounded to {}", maxSize, budget);
+											return true;})
+										.orElse(false);
+		this.metrics.gauge(S3FileSystemMetric.BLOCK_CACHE_RESIDENT_BYTES, S3BlockCache.getInstance()::getResidentBytes);
+		this.metadataCache=new S3MetadataCache(Optional.ofNullable(environment.getProperty(METADATACACHE_TTL))
+															.map(Long::valueOf)
+															.map(ttl -> Math.max(0l, ttl))
+															.orElse(0l)
+												, Optional.ofNullable(environment.getProperty(METADATACACHE_MAXENTRIES))
+															.map(Integer::valueOf)
+															.map(maxEntries -> Math.max(0, maxEntries))
+															.orElse(10000)
+												, this.metrics);
+		this.negativeCache=new S3NegativeCache(Optional.ofNullable(environment.getProperty(NEGATIVECACHE_TTL))
+															.map(Long::valueOf)
+															.map(ttl -> Math.max(0l, ttl))
+															.orElse(0l)
+												, Optional.ofNullable(environment.getProperty(NEGATIVECACHE_MAXENTRIES))
+															.map(Integer::valueOf)
+															.map(maxEntries -> Math.max(0, maxEntries))
+															.orElse(10000)
+												, Optional.ofNullable(environment.getProperty(KEYFILTER_TTL))
+															.map(Long::valueOf)
+															.map(ttl -> Math.max(0l, ttl))
+															.orElse(60000l)
+												, Optional.ofNullable(environment.getProperty(KEYFILTER_FPP))
+															.map(Double::valueOf)
+															.filter(fpp -> (fpp>0.0d)&&(fpp<1.0d))
+															.orElse(0.01d)
+												, this.metrics);
+		this.listPageSize=Optional.ofNullable(environment.getProperty(LIST_PAGESIZE))
+										.map(Integer::valueOf)
+										.map(pageSize -> Math.max(1, Math.min(LIST_MAX_PAGESIZE, pageSize)))
+										.orElse(LIST_MAX_PAGESIZE);
+		this.listParallelism=Math.max(1,Math.min(maxConnectionsPerHost
+													,Optional.ofNullable(environment.getProperty(LIST_PARALLELISM))
+															.map(Integer::valueOf)
+															.orElse(transferThreads)));
+		this.memoryChannelMaxSize=Optional.ofNullable(environment.getProperty(MEMORY_CHANNEL_MAXSIZE))
+										.map(Integer::valueOf)
+										.map(maxSize -> Math.max(0, maxSize))
+										.orElse(256*1024);
+		this.bufferPool=new S3BufferPool(this.memoryChannelMaxSize, transferThreads);
+		this.downloadBufferPool=new S3BufferPool(Optional.ofNullable(environment.getProperty(DOWNLOAD_BUFFERSIZE))
+																.map(Integer::valueOf)
+																.filter(bufferSize -> bufferSize>0)
+																.orElse(64*1024)
+													, transferThreads);
+		this.journalDirectory=Optional.ofNullable(environment.getProperty(UPLOAD_JOURNAL_DIR))
+										.filter(directory -> !directory.trim().isEmpty())
+										.map(Paths::get);
+		this.spoolManager=new S3SpoolManager(Optional.ofNullable(environment.getProperty(SPOOL_DIR))
+															.filter(directory -> !directory.trim().isEmpty())
+															.map(Paths::get)
+												, Optional.ofNullable(environment.getProperty(SPOOL_QUOTA))
+															.map(Long::valueOf)
+															.filter(quota -> quota>0)
+															.orElse(Long.MAX_VALUE)
+												, Optional.ofNullable(environment.getProperty(SPOOL_QUOTA_WAIT))
+															.map(Long::valueOf)
+															.map(wait -> Math.max(0l, wait))
+															.orElse(30000l)
+												, Optional.ofNullable(environment.getProperty(SPOOL_POOLED))
+															.map(Integer::valueOf)
+															.map(pooled -> Math.max(0, pooled))
+															.orElse(transferThreads)
+												, this.metrics);
+		this.checksumVerify=Optional.ofNullable(environment.getProperty(CHECKSUM_VERIFY))
+										.map(Boolean::valueOf)
+										.orElse(false);
+		this.compression=Optional.ofNullable(environment.getProperty(COMPRESSION))
+										.filter(coding -> !coding.trim().isEmpty())
+										.filter(coding -> !coding.trim().equalsIgnoreCase("none"))
+										.map(coding -> S3ContentCoding.of(coding)
+																.orElseThrow(() -> new IllegalArgumentException(SimpleFormat.format("Unsupported compression {}", coding))));
+		this.compressionLevel=Optional.ofNullable(environment.getProperty(COMPRESSION_LEVEL))
+										.map(Integer::valueOf)
+										.map(level -> Math.max(Deflater.DEFAULT_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level)))
+										.orElse(Deflater.DEFAULT_COMPRESSION);
+		this.logicalSize=Optional.ofNullable(environment.getProperty(COMPRESSION_SIZE))
+										.map(size -> !size.trim().equalsIgnoreCase("physical"))
+										.orElse(true);
+		this.executor=Executors.newFixedThreadPool(transferThreads
+													,runnable -> {
+														final Thread thread=new Thread(runnable,"s3-transfer-"+THREAD_COUNTER.incrementAndGet());
+														thread.setDaemon(true);
+														return thread;
+													});
+		this.retryScheduler=Executors.newSingleThreadScheduledExecutor(runnable -> {
+														final Thread thread=new Thread(runnable,"s3-retry-"+THREAD_COUNTER.incrementAndGet());
+														thread.setDaemon(true);
+														return thread;
+													});
+		this.lookupExecutor=Executors.newFixedThreadPool(Optional.ofNullable(environment.getProperty(LOOKUP_THREADS))
+																.map(Integer::valueOf)
+																.filter(threads -> threads>0)
+																.orElse(4)
+													,runnable -> {
+														final Thread thread=new Thread(runnable,"s3-lookup-"+THREAD_COUNTER.incrementAndGet());
+														thread.setDaemon(true);
+														return thread;
+													});
+		this.listExecutor=Executors.newFixedThreadPool(this.listParallelism
+													,runnable -> {
+														final Thread thread=new Thread(runnable,"s3-list-"+THREAD_COUNTER.incrementAndGet());
+														thread.setDaemon(true);
+														return thread;
+													});
 	}
 	
+	public S3Metrics getMetrics(){
+		return this.metrics;
+	}
+	/**
+	 * @return maximum size of the objects opened for read-write in memory instead of a spool file, 0 if disabled
+	 */
+	public int getMemoryChannelMaxSize(){
+		return this.memoryChannelMaxSize;
+	}
+	/**
+	 * @return pool of buffers of memory channel maximum size
+	 */
+	public S3BufferPool getBufferPool(){
+		return this.bufferPool;
+	}
+	/**
+	 * @return pool of heap buffers where downloaded content is read before it is written into local files
+	 */
+	public S3BufferPool getDownloadBufferPool(){
+		return this.downloadBufferPool;
+	}
+	public int getReadBlockSize(){
+		return this.readBlockSize;
+	}
+	public int getReadAheadMaxSize(){
+		return this.readAheadMaxSize;
+	}
+	public int getUploadPartSize(){
+		return this.uploadPartSize;
+	}
+	/**
+	 * @param _options open options of the channel
+	 * @return the part size hinted by the options clamped to the multipart limits, or the configured one if there is no hint
+	 */
+	public int getUploadPartSize(final S3ChannelOptions _options){
+		return _options.getPartSize()
+							.map(partSize -> Math.min(partSize, getMaximumMultipartPartSize()))
+							.map(partSize -> (int)Math.max(partSize, getMinimumMultipartPartSize()))
+							.orElse(this.uploadPartSize);
+	}
+	/**
+	 * @return maximum number of parts of a single upload in flight
+	 */
+	public int getUploadParallelism(){
+		return this.uploadParallelism;
+	}
+	/**
+	 * @return number of times a failed part is retried
+	 */
+	public int getUploadRetries(){
+		return this.uploadRetries;
+	}
+	/**
+	 * @return time each part of a parallel upload should take, the part size adapts to the measured throughput to meet it
+	 */
+	public long getUploadPartTargetMillis(){
+		return this.uploadPartTargetMillis;
+	}
+	/**
+	 * @return directory where the journals of the resumable uploads are kept, empty if uploads are not journaled
+	 */
+	public Optional<Path> getJournalDirectory(){
+		return this.journalDirectory;
+	}
+	/**
+	 * @return manager of the spool files of the objects opened for read-write
+	 */
+	public S3SpoolManager getSpoolManager(){
+		return this.spoolManager;
+	}
+	/**
+	 * Transfers are only verified when enabled, etags of objects encrypted with SSE-KMS or SSE-C are not the md5 of their content
+	 * @return a new checksum to digest a transfer, empty if transfers are not verified
+	 */
+	public Optional<S3Checksum> newChecksum(){
+		return (this.checksumVerify)? Optional.of(new S3Checksum()) : Optional.empty();
+	}
+	/**
+	 * Verify the digested content against the etag, etags that are not a plain md5 can not be verified
+	 * @param _checksum checksum of the transferred content
+	 * @param _etag etag of the object or part
+	 * @param _description description of the transfer for the error message
+	 * @throws IOException if the etag is a md5 and it does not match the digested content
+	 */
+	public void verifyChecksum(final S3Checksum _checksum,final String _etag,final Supplier<String> _description) throws IOException{
+		verifyChecksum(_checksum.md5(), _etag, _description);
+	}
+	/**
+	 * Verify the md5 of the transferred content against the etag, etags that are not a plain md5 can not be verified
+	 * @param _md5 md5 of the transferred content
+	 * @param _etag etag of the object or part
+	 * @param _description description of the transfer for the error message
+	 * @throws IOException if the etag is a md5 and it does not match the content md5
+	 */
+	public void verifyChecksum(final HashCode _md5,final String _etag,final Supplier<String> _description) throws IOException{
+		final Optional<HashCode> expected=S3Checksum.md5(_etag);
+		if(expected.isPresent()){
+			if(!expected.get().equals(_md5)){
+				this.metrics.increment(S3FileSystemMetric.CHECKSUM_MISMATCHES);
+				throw new IOException(SimpleFormat.format("Checksum mismatch of {}: etag {} but content md5 {}", _description.get(), _etag, _md5));
+			}
+			this.metrics.increment(S3FileSystemMetric.CHECKSUM_VERIFIED);
+			if(LOGGER.isTraceEnabled())
+				LOGGER.trace("Verified {} md5 {}", _description.get(), _md5);
+		}
+	}
+	/**
+	 * Verify the etag of a completed multipart upload against the etag computed from its parts when transfers are verified,
+	 * parts whose etag is not a plain md5 can not be verified
+	 * @param _parts parts of the upload
+	 * @param _etag etag of the completed upload
+	 * @param _description description of the upload for the error message
+	 * @throws IOException if the etag does not match the etag computed from the parts
+	 */
+	public void verifyMultipartChecksum(final List<MultipartPart> _parts,final String _etag,final Supplier<String> _description) throws IOException{
+		if(!this.checksumVerify||(_etag==null))
+			return;
+		final List<HashCode> partMd5s=_parts.stream()
+												.sorted(Comparator.comparingInt(MultipartPart::partNumber))
+												.map(part -> S3Checksum.md5(part.partETag()))
+												.filter(Optional::isPresent)
+												.map(Optional::get)
+												.collect(Collectors.toList());
+		if(partMd5s.size()==_parts.size()){
+			final String expected=S3Checksum.multipartEtag(partMd5s);
+			if(!expected.equalsIgnoreCase(_etag.replace("\"", ""))){
+				this.metrics.increment(S3FileSystemMetric.CHECKSUM_MISMATCHES);
+				throw new IOException(SimpleFormat.format("Checksum mismatch of {}: etag {} but parts etag {}", _description.get(), _etag, expected));
+			}
+			this.metrics.increment(S3FileSystemMetric.CHECKSUM_VERIFIED);
+		}
+	}
+	/**
+	 * @return coding applied to the content written sequentially, empty if the content is stored as is
+	 */
+	public Optional<S3ContentCoding> getCompression(){
+		return this.compression;
+	}
+	public int getCompressionLevel(){
+		return this.compressionLevel;
+	}
+	/**
+	 * @return true if the size of encoded objects is reported decoded, false to report the stored size
+	 */
+	public boolean isLogicalSize(){
+		return this.logicalSize;
+	}
+	public int getUploadBuffers(){
+		return this.uploadBuffers;
+	}
+	/**
+	 * @return number of ranged GET requests of a single download in flight, capped at the transfer threads where they run and at the connections per host
+	 */
+	public int getDownloadParallelism(){
+		return this.downloadParallelism;
+	}
+	public long getDownloadChunkSize(){
+		return this.downloadChunkSize;
+	}
+	public boolean isBlockCacheEnabled(){
+		return this.blockCache;
+	}
+	/**
+	 * @return process wide cache of the object blocks, shared with the channels of every other client
+	 */
+	public S3BlockCache getBlockCache(){
+		return S3BlockCache.getInstance();
+	}
+	/**
+	 * @return cache of the metadata of the objects of this client
+	 */
+	public S3MetadataCache getMetadataCache(){
+		return this.metadataCache;
+	}
+	/**
+	 * @return cache of the keys of this client known to be absent
+	 */
+	public S3NegativeCache getNegativeCache(){
+		return this.negativeCache;
+	}
+	public long getMinimumMultipartPartSize(){
+		return this.blobStore.getMinimumMultipartPartSize();
+	}
+	public long getMaximumMultipartPartSize(){
+		return this.blobStore.getMaximumMultipartPartSize();
+	}
+	public int getMaximumNumberOfParts(){
+		return this.blobStore.getMaximumNumberOfParts();
+	}
+	
+	/**
+	 * Execute the given supplier in the transfer pool of this client
+	 * @param <T> result type
+	 * @param _supplier task to execute
+	 * @return future with the result of the task
+	 */
+	public <T> CompletableFuture<T> async(final Supplier<T> _supplier){
+		return CompletableFuture.supplyAsync(_supplier, this.executor);
+	}
+	/**
+	 * @return the bounded transfer pool of this client
+	 */
+	public Executor getExecutor(){
+		return this.executor;
+	}
+	
+	/**
+	 * @param _folder folder path
+	 * @return prefix of the keys under the folder, empty for the bucket root
+	 */
+	public String getFolderPrefix(final S3AbsolutePath _folder){
+		return Optional.of(_folder.getBucketPath())
+							.filter(folder -> !folder.isEmpty())
+							.map(folder -> folder+S3AbsolutePath.PATH_SEPARATOR)
+							.orElse("");
+	}
+	/**
+	 * @return maximum number of shards of a listing scanned concurrently, and threads of the listing pool
+	 */
+	public int getListParallelism(){
+		return this.listParallelism;
+	}
+	/**
+	 * @return name of the objects that mark a folder, hidden from listings
+	 */
+	public String getFolderMarker(){
+		return FOLDER_SELF;
+	}
+	/**
+	 * List a page of the keys under a prefix
+	 * @param _bucket bucket
+	 * @param _prefix prefix of the listed keys
+	 * @param _marker key after which the page starts, null for the first page
+	 * @param _recursive true to list every key under the prefix, false to group the keys of each subfolder in a single relative path entry
+	 * @return the page, with the marker of the next page unless it is the last one
+	 */
+	public PageSet<? extends StorageMetadata> list(final String _bucket,final String _prefix,final String _marker,final boolean _recursive){
+		final ListContainerOptions options=ListContainerOptions.Builder
+																.prefix(_prefix)
+																.maxResults(this.listPageSize);
+		if(_recursive)
+			options.recursive();
+		Optional.ofNullable(_marker)
+				.ifPresent(options::afterMarker);
+		this.metrics.increment(S3FileSystemMetric.LIST_REQUESTS);
+		return this.blobStore.list(_bucket, options);
+	}
+	/**
+	 * List a page of the keys under a prefix in the listing pool, sized to the list parallelism so concurrent shards never hold more connections
+	 * @param _bucket bucket
+	 * @param _prefix prefix of the listed keys
+	 * @param _marker key after which the page starts, null for the first page
+	 * @param _recursive true to list every key under the prefix, false to group the keys of each subfolder in a single relative path entry
+	 * @return future with the page
+	 * @see #list(String, String, String, boolean)
+	 */
+	public CompletableFuture<PageSet<? extends StorageMetadata>> listAsync(final String _bucket,final String _prefix,final String _marker,final boolean _recursive){
+		return CompletableFuture.supplyAsync(() -> list(_bucket, _prefix, _marker, _recursive), this.listExecutor);
+	}
 	public Stream<StorageMetadata> listStorage(){
 		return this.blobStore.list()
 								.stream()
@@ -87,34 +623,256 @@ public class S3Client implements Closeable{
 																		.payload(newByteArrayPayload(new byte[] {}))
 																		.contentType("application/directory")
 																	.build()))
-					.map(tuple -> this.blobStore.putBlob(tuple.left().getBucket(),tuple.right()))
+					.map(tuple -> invalidating(tuple.left(), this.blobStore.putBlob(tuple.left().getBucket(),tuple.right())))
 					.orElse(null);
 	}
 	public void deleteBlob(final S3AbsolutePath _path){
 		Optional.ofNullable(_path)
-				.map(path -> 
-						(!this.blobStore.blobExists(path.getBucket(), path.getBucketPath()))? 
-								path.resolve(FOLDER_SELF) 
-								: path)
-				.map(path -> (S3AbsolutePath)path)
-				.ifPresent(path -> this.blobStore.removeBlob(path.getBucket(), path.getBucketPath()));
+				.map(this::resolve)
+				.ifPresent(this::deleteBlob);
+	}
+	/**
+	 * Delete the object or the folder marker an entry was resolved to
+	 * @param _entry resolved entry, absent entries are ignored
+	 */
+	public void deleteBlob(final S3Entry _entry){
+		_entry.getKey()
+				.ifPresent(key -> {
+					this.blobStore.removeBlob(_entry.getPath().getBucket(), key);
+					invalidate(_entry.getPath().getBucket(), key);
+				});
 	}
 	public String copyBlob(final S3AbsolutePath _sourcePath,final S3AbsolutePath _targePath,final CopyOptions _copyOptions){
-		return this.blobStore.copyBlob(_sourcePath.getBucket(), _sourcePath.getBucketPath(),_targePath.getBucket(), _targePath.getBucketPath(),_copyOptions);
+		return invalidating(_targePath, this.blobStore.copyBlob(_sourcePath.getBucket(), _sourcePath.getBucketPath(),_targePath.getBucket(), _targePath.getBucketPath(),_copyOptions));
 	}
+	/**
+	 * Discard the cached metadata of an object written, copied or deleted by this client
+	 * @param _bucket object bucket
+	 * @param _key object key
+	 */
+	protected void invalidate(final String _bucket,final String _key){
+		this.metadataCache.invalidate(_bucket, _key, FOLDER_SELF);
+		this.negativeCache.invalidate(_bucket, _key, FOLDER_SELF);
+	}
+	/**
+	 * @param _path object or folder path
+	 * @return true if the path is known to be absent, counting the HEAD requests saved
+	 */
+	protected boolean isKnownAbsent(final S3AbsolutePath _path){
+		if(this.negativeCache.isAbsent(_path.getBucket(), _path.getBucketPath())){
+			this.metrics.add(S3FileSystemMetric.NEGATIVE_LOOKUP_HEADS_AVOIDED, 2l);
+			return true;
+		}
+		return false;
+	}
+	/**
+	 * Build the key filter of a folder from a listing of every key under it, lookups of keys under the folder missing in the filter
+	 * are answered as absent without requests until the filter expires
+	 * @param _folder folder to list, the bucket root lists the whole bucket
+	 * @return number of listed keys
+	 */
+	public int primeNegativeCache(final S3AbsolutePath _folder){
+		if(!this.negativeCache.isFilterEnabled())
+			return 0;
+		final String prefix=getFolderPrefix(_folder);
+		final long stamp=this.negativeCache.stamp();
+		final S3NegativeCache.KeySet keys=this.negativeCache.newKeySet();
+		int listed=0;
+		String marker=null;
+		do{
+			final PageSet<? extends StorageMetadata> page=list(_folder.getBucket(), prefix, marker, true);
+			page.stream()
+					.map(StorageMetadata::getName)
+					.forEach(key -> keys.put(key, FOLDER_SELF));
+			listed+=page.size();
+			marker=page.getNextMarker();
+		}while(marker!=null);
+		if(stamp==this.negativeCache.stamp()){
+			this.negativeCache.putFilter(_folder.getBucket(), prefix, keys);
+		}
+		return listed;
+	}
+	private <T> T invalidating(final S3AbsolutePath _path,final T _result){
+		invalidate(_path.getBucket(), _path.getBucketPath());
+		return _result;
+	}
+	/**
+	 * Replace the metadata of an existing object copying it in place, objects bigger than a single copy are copied in parts.
+	 * The copy only succeeds while the object keeps the given etag
+	 * @param _path object to update
+	 * @param _etag current etag of the object
+	 * @param _size current size of the object
+	 * @param _mediaType content type
+	 * @param _contentEncoding content encoding, or null if the content is stored as is
+	 * @param _userMetadata user metadata
+	 * @return the new s3 identifier
+	 * @throws IOException if the object changed or the copy fails
+	 */
+	public String replaceMetadata(final S3AbsolutePath _path,final String _etag,final long _size,final String _mediaType,final String _contentEncoding,final Map<String,String> _userMetadata) throws IOException{
+		if(_size<=getMaximumMultipartPartSize()){
+			try{
+				return copyBlob(_path, _path, CopyOptions.builder()
+															.contentMetadata(ContentMetadataBuilder.create()
+																						.contentType(_mediaType)
+																						.contentEncoding(_contentEncoding)
+																					.build())
+															.userMetadata(_userMetadata)
+															.ifMatch(_etag)
+														.build());
+			}catch(RuntimeException e){
+				throw new IOException(SimpleFormat.format("Unable to replace metadata of {}", _path),e);
+			}
+		}
+		final MultipartUpload upload=initiateMultipartUpload(_path, _mediaType, _contentEncoding, _userMetadata);
+		try{
+			final long copyParts=(_size+getMaximumMultipartPartSize()-1)/getMaximumMultipartPartSize();
+			final long copySize=(_size+copyParts-1)/copyParts;
+			final List<CompletableFuture<Optional<MultipartPart>>> copies=new ArrayList<>();
+			for(long from=0;from<_size;from+=copySize){
+				final int partNumber=copies.size()+1;
+				final long copyFrom=from;
+				final long copyTo=Math.min(_size,from+copySize)-1;
+				copies.add(asyncRetrying(() -> uploadPartCopy(upload, partNumber, _path, _etag, copyFrom, copyTo)
+										,() -> SimpleFormat.format("part copy {} of {}", partNumber, _path)));
+			}
+			final List<MultipartPart> parts=new ArrayList<>(copies.size());
+			for(CompletableFuture<Optional<MultipartPart>> copy:copies){
+				parts.add(copy.join()
+								.orElseThrow(() -> new IOException(SimpleFormat.format("Object {} changed or removed while replacing its metadata", _path))));
+			}
+			return completeMultipartUpload(upload, parts);
+		}catch(CompletionException e){
+			abortMultipartUpload(upload);
+			throw new IOException(SimpleFormat.format("Unable to replace metadata of {}", _path),e.getCause());
+		}catch(IOException|RuntimeException e){
+			abortMultipartUpload(upload);
+			throw new IOException(SimpleFormat.format("Unable to replace metadata of {}", _path),e);
+		}
+	}
+	/**
+	 * @param _path object or folder path
+	 * @return true if the object or the folder marker exists
+	 */
 	public boolean exist(final S3AbsolutePath _path){
-		return this.blobStore.blobExists(_path.getBucket(), _path.getBucketPath())
-				||this.blobStore.blobExists(_path.getBucket(),((S3AbsolutePath)_path.resolve(FOLDER_SELF)).getBucketPath());
+		return resolve(_path).exists();
 	}
+	/**
+	 * @param _path object or folder path
+	 * @return the metadata of the object or the folder marker, from the metadata cache if it has not expired
+	 */
 	public Optional<BlobMetadata> getBlobMetadata(final S3AbsolutePath _path){
-		return Optional.ofNullable(Optional.ofNullable(this.blobStore.blobMetadata(_path.getBucket(), _path.getBucketPath()))
-								.orElseGet(() -> 
-										this.blobStore.blobMetadata(_path.getBucket(), ((S3AbsolutePath)_path.resolve(FOLDER_SELF)).getBucketPath())));
+		return resolve(_path).getMetadata();
+	}
+	/**
+	 * @param _path object or folder path
+	 * @return the metadata of the object or the folder marker retrieved from the server, refreshing the metadata cache
+	 */
+	public Optional<BlobMetadata> fetchBlobMetadata(final S3AbsolutePath _path){
+		return fetchEntry(_path).getMetadata();
+	}
+	/**
+	 * Retrieve again the metadata of an object whose pinned etag has been rejected before any content was served,
+	 * the etag may come from a stale entry of the metadata cache so the entry is refreshed
+	 * @param _path object path
+	 * @param _etag rejected etag
+	 * @return the current metadata of the object, empty if it has been removed or its etag is still the rejected one
+	 */
+	public Optional<BlobMetadata> refreshPinnedMetadata(final S3AbsolutePath _path,final String _etag){
+		return fetchBlobMetadata(_path)
+					.filter(metadata -> !_etag.equals(metadata.getETag()));
+	}
+	/**
+	 * Resolve a path to a file, a folder or nothing, answered from the metadata and negative caches when possible
+	 * @param _path object or folder path
+	 * @return the resolved entry
+	 */
+	public S3Entry resolve(final S3AbsolutePath _path){
+		final Optional<BlobMetadata> cached=this.metadataCache.get(_path.getBucket(), _path.getBucketPath());
+		if(cached.isPresent())
+			return S3Entry.of(_path, cached.get());
+		if(isKnownAbsent(_path))
+			return S3Entry.absent(_path);
+		return fetchEntry(_path);
+	}
+	/**
+	 * Resolve a path to a file, a folder or nothing in a single round trip, the HEAD of the folder marker is sent to the lookup pool
+	 * while the HEAD of the key is sent from the calling thread. If the marker request has not started when it is needed, it is executed inline
+	 * so a busy lookup pool never blocks the resolution
+	 * @param _path object or folder path
+	 * @return the resolved entry retrieved from the server, refreshing the caches
+	 */
+	public S3Entry fetchEntry(final S3AbsolutePath _path){
+		final long stamp=this.metadataCache.stamp();
+		final long negativeStamp=this.negativeCache.stamp();
+		final String markerKey=((S3AbsolutePath)_path.resolve(FOLDER_SELF)).getBucketPath();
+		final AtomicBoolean markerClaimed=new AtomicBoolean(false);
+		final CompletableFuture<BlobMetadata> marker=CompletableFuture.supplyAsync(() -> (markerClaimed.compareAndSet(false, true))? 
+																							headBlob(_path.getBucket(), markerKey) 
+																							: null
+																				, getLookupExecutor());
+		final BlobMetadata metadata;
+		try{
+			final BlobMetadata file=headBlob(_path.getBucket(), _path.getBucketPath());
+			if(file!=null){
+				markerClaimed.set(true);
+				metadata=file;
+			}else if(markerClaimed.compareAndSet(false, true)){
+				metadata=headBlob(_path.getBucket(), markerKey);
+			}else{
+				this.metrics.increment(S3FileSystemMetric.FOLDER_MARKER_LOOKUPS_OVERLAPPED);
+				metadata=marker.join();
+			}
+		}catch(CompletionException e){
+			throw (e.getCause() instanceof RuntimeException)? (RuntimeException)e.getCause() : e;
+		}finally{
+			markerClaimed.set(true);
+		}
+		if(metadata!=null){
+			this.metadataCache.put(_path.getBucket(), _path.getBucketPath(), metadata, stamp);
+			return S3Entry.of(_path, metadata);
+		}
+		this.negativeCache.recordAbsent(_path.getBucket(), _path.getBucketPath(), negativeStamp);
+		return S3Entry.absent(_path);
+	}
+	/**
+	 * @param _bucket bucket
+	 * @param _key key
+	 * @return the metadata of the key retrieved from the server, or null if it does not exist
+	 */
+	protected BlobMetadata headBlob(final String _bucket,final String _key){
+		return this.blobStore.blobMetadata(_bucket, _key);
+	}
+	/**
+	 * @return executor of the concurrent lookups, kept apart from the transfers so lookups never queue behind them
+	 */
+	protected Executor getLookupExecutor(){
+		return this.lookupExecutor;
 	}
 	public Optional<Payload> getBlob(final S3AbsolutePath _path){
 		return Optional.ofNullable(this.blobStore.getBlob(_path.getBucket(), _path.getBucketPath()))
 									.map(PayloadEnclosing::getPayload);
 	}
+	/**
+	 * Retrieve the inclusive byte range [_from,_to] of the object, optionally pinned to the given etag
+	 * @param _path object path
+	 * @param _etag etag the object must still have, or null to accept any version
+	 * @param _from first byte to retrieve
+	 * @param _to last byte to retrieve (inclusive)
+	 * @return the range payload or empty if the object does not exist or its etag does not match anymore
+	 */
+	public Optional<Payload> getBlob(final S3AbsolutePath _path,final String _etag,final long _from,final long _to){
+		final GetOptions options=new GetOptions().range(_from, _to);
+		Optional.ofNullable(_etag)
+				.ifPresent(options::ifETagMatches);
+		try{
+			return Optional.ofNullable(this.blobStore.getBlob(_path.getBucket(), _path.getBucketPath(),options))
+										.map(PayloadEnclosing::getPayload);
+		}catch(HttpResponseException e){
+			if((e.getResponse()!=null)&&(e.getResponse().getStatusCode()==HTTP_PRECONDITION_FAILED))
+				return Optional.empty();
+			throw e;
+		}
+	}
 	public String putBlob(final S3AbsolutePath _path,final long _length,final InputStream _stream,final String _mediaType,final Map<String,String> _userMetadata){
 		final Blob blob=this.blobStore.blobBuilder(_path.getBucketPath())
 											.payload(_stream)
@@ -124,13 +882,337 @@ public class S3Client implements Closeable{
 											.userMetadata(Optional.ofNullable(_userMetadata)
 																	.orElseGet(Collections::emptyMap))
 										.build();
-		return this.blobStore.putBlob(_path.getBucket(), blob, PutOptions.Builder.multipart((this.multipartMinSize<blob.getMetadata().getContentMetadata().getContentLength())));
+		return invalidating(_path, this.blobStore.putBlob(_path.getBucket(), blob, PutOptions.Builder.multipart((this.multipartMinSize<blob.getMetadata().getContentMetadata().getContentLength()))));
+	}
+	/**
+	 * Upload a local file with a single put, the payload is read from a memory mapping of the file unless it is a spool file
+	 * @param _path object to upload
+	 * @param _file local file with the content
+	 * @param _length file length
+	 * @param _mediaType content type
+	 * @param _userMetadata user metadata
+	 * @return the s3 identifier
+	 */
+	public String putBlob(final S3AbsolutePath _path,final Path _file,final long _length,final String _mediaType,final Map<String,String> _userMetadata) throws IOException{
+		final Optional<S3Checksum> checksum=newChecksum();
+		final S3FileRegion region=newFileRegion(_file, 0, _length);
+		final Payload payload=newByteSourcePayload(checksum.map(digest -> digest.digesting(region)).orElse(region));
+		payload.getContentMetadata().setContentLength(_length);
+		final Blob blob=this.blobStore.blobBuilder(_path.getBucketPath())
+											.payload(payload)
+											.contentType(Optional.ofNullable(_mediaType)
+																	.orElseGet(MediaType.ANY_APPLICATION_TYPE::toString))
+											.contentLength(_length)
+											.userMetadata(Optional.ofNullable(_userMetadata)
+																	.orElseGet(Collections::emptyMap))
+										.build();
+		final String reply=invalidating(_path, this.blobStore.putBlob(_path.getBucket(), blob));
+		if(checksum.isPresent())
+			verifyChecksum(checksum.get(), reply, () -> _path.toString());
+		return reply;
+	}
+	public String putBlob(final S3AbsolutePath _path,final byte[] _content,final int _length,final String _mediaType,final Map<String,String> _userMetadata) throws IOException{
+		return putBlob(_path, _content, _length, newChecksum().map(checksum -> checksum.update(_content, 0, _length).md5()).orElse(null), _mediaType, null, _userMetadata);
+	}
+	/**
+	 * Upload a buffer with a single put sending its md5 as Content-MD5 and verifying it against the resulting etag
+	 * @param _path object to upload
+	 * @param _content buffer with the content
+	 * @param _length content length
+	 * @param _md5 md5 of the content, or null to send the content unverified
+	 * @param _mediaType content type
+	 * @param _contentEncoding content encoding, or null if the content is stored as is
+	 * @param _userMetadata user metadata
+	 * @return the s3 identifier
+	 * @throws IOException if the resulting etag does not match the md5
+	 */
+	public String putBlob(final S3AbsolutePath _path,final byte[] _content,final int _length,final HashCode _md5,final String _mediaType,final String _contentEncoding,final Map<String,String> _userMetadata) throws IOException{
+		final Payload payload=slice(_content,_length);
+		Optional.ofNullable(_md5)
+				.ifPresent(payload.getContentMetadata()::setContentMD5);
+		final Blob blob=this.blobStore.blobBuilder(_path.getBucketPath())
+											.payload(payload)
+											.contentType(Optional.ofNullable(_mediaType)
+																	.orElseGet(MediaType.ANY_APPLICATION_TYPE::toString))
+											.contentEncoding(_contentEncoding)
+											.contentLength(_length)
+											.userMetadata(Optional.ofNullable(_userMetadata)
+																	.orElseGet(Collections::emptyMap))
+										.build();
+		final String reply=invalidating(_path, this.blobStore.putBlob(_path.getBucket(), blob));
+		if(_md5!=null)
+			verifyChecksum(_md5, reply, () -> _path.toString());
+		return reply;
+	}
+	
+	/**
+	 * Upload a local file, files bigger than a part are uploaded in parallel parts of adaptive size
+	 * @param _path object to upload
+	 * @param _file local file with the content
+	 * @param _partSize initial part size
+	 * @param _mediaType content type
+	 * @param _userMetadata user metadata
+	 * @param _journaled true to journal the upload in the configured journal directory so it can be resumed, only for local files that outlive the upload
+	 * @return the s3 identifier
+	 * @throws IOException if the file can not be read or uploaded
+	 */
+	public String uploadFile(final S3AbsolutePath _path,final Path _file,final long _partSize,final String _mediaType,final Map<String,String> _userMetadata,final boolean _journaled) throws IOException{
+		final long size=Files.size(_file);
+		if(size<=_partSize){
+			return putBlob(_path, _file, size, _mediaType, _userMetadata);
+		}
+		this.metrics.increment(S3FileSystemMetric.PARALLEL_UPLOADS);
+		return new S3ParallelUploader(this, _path, _file, _partSize)
+						.upload(_mediaType, _userMetadata, _journaled);
+	}
+	/**
+	 * Execute an idempotent request in the caller thread retrying it with exponential backoff when it fails,
+	 * the caller thread sleeps during the backoff so requests run in the transfer pool must use asyncRetrying
+	 * @param <T> result type
+	 * @param _request request to execute
+	 * @param _description description of the request for the error message
+	 * @return the request result
+	 */
+	public <T> T retrying(final Supplier<T> _request,final Supplier<String> _description){
+		for(int attempt=0;;attempt++){
+			try{
+				return _request.get();
+			}catch(RuntimeException e){
+				if(attempt>=this.uploadRetries)
+					throw e;
+				this.metrics.increment(S3FileSystemMetric.UPLOAD_PART_RETRIES);
+				if(LOGGER.isDebugEnabled())
+					LOGGER.debug("Retrying {} after failure", _description.get(), e);
+				try {
+					Thread.sleep(RETRY_BACKOFF_MILLIS<<attempt);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					e.addSuppressed(ie);
+					throw e;
+				}
+			}
+		}
+	}
+	/**
+	 * Execute an idempotent request in the transfer pool retrying it with exponential backoff when it fails.
+	 * No transfer thread is held during the backoff, each retry is scheduled again into the pool once the backoff expires
+	 * @param <T> result type
+	 * @param _request request to execute
+	 * @param _description description of the request for the error message
+	 * @return future with the request result or the last failure
+	 */
+	public <T> CompletableFuture<T> asyncRetrying(final Supplier<T> _request,final Supplier<String> _description){
+		final CompletableFuture<T> reply=new CompletableFuture<>();
+		attempt(_request, _description, 0, reply);
+		return reply;
+	}
+	protected <T> void attempt(final Supplier<T> _request,final Supplier<String> _description,final int _attempt,final CompletableFuture<T> _reply){
+		try{
+			this.executor.execute(() -> {
+										try{
+											_reply.complete(_request.get());
+										}catch(RuntimeException e){
+											if(_attempt>=this.uploadRetries){
+												_reply.completeExceptionally(e);
+												return;
+											}
+											this.metrics.increment(S3FileSystemMetric.UPLOAD_PART_RETRIES);
+											if(LOGGER.isDebugEnabled())
+												LOGGER.debug("Retrying {} after failure", _description.get(), e);
+											try{
+												this.retryScheduler.schedule(() -> attempt(_request, _description, _attempt+1, _reply), RETRY_BACKOFF_MILLIS<<_attempt, TimeUnit.MILLISECONDS);
+											}catch(RejectedExecutionException re){
+												e.addSuppressed(re);
+												_reply.completeExceptionally(e);
+											}
+										}
+									});
+		}catch(RejectedExecutionException e){
+			_reply.completeExceptionally(e);
+		}
+	}
+	public MultipartUpload initiateMultipartUpload(final S3AbsolutePath _path,final String _mediaType,final Map<String,String> _userMetadata){
+		return initiateMultipartUpload(_path, _mediaType, null, _userMetadata);
+	}
+	public MultipartUpload initiateMultipartUpload(final S3AbsolutePath _path,final String _mediaType,final String _contentEncoding,final Map<String,String> _userMetadata){
+		final Blob blob=this.blobStore.blobBuilder(_path.getBucketPath())
+											.payload(newByteArrayPayload(new byte[] {}))
+											.contentType(Optional.ofNullable(_mediaType)
+																	.orElseGet(MediaType.ANY_APPLICATION_TYPE::toString))
+											.contentEncoding(_contentEncoding)
+											.userMetadata(Optional.ofNullable(_userMetadata)
+																	.orElseGet(Collections::emptyMap))
+										.build();
+		return this.blobStore.initiateMultipartUpload(_path.getBucket(), blob.getMetadata(), PutOptions.NONE);
+	}
+	/**
+	 * Upload a part from a buffer sending its md5 as Content-MD5 and verifying it against the part etag
+	 * @param _upload multipart upload
+	 * @param _partNumber part number
+	 * @param _content buffer with the content
+	 * @param _length content length
+	 * @param _md5 md5 of the content, or null to send the content unverified
+	 * @return the uploaded part
+	 * @throws UncheckedIOException if the part etag does not match the md5
+	 */
+	public MultipartPart uploadPart(final MultipartUpload _upload,final int _partNumber,final byte[] _content,final int _length,final HashCode _md5){
+		final Payload payload=slice(_content,_length);
+		Optional.ofNullable(_md5)
+				.ifPresent(payload.getContentMetadata()::setContentMD5);
+		final MultipartPart reply=this.blobStore.uploadMultipartPart(_upload, _partNumber, payload);
+		if(_md5!=null)
+			verifyPart(_md5, reply, _upload);
+		return reply;
+	}
+	/**
+	 * Upload a part from a region of a local file, the content is digested while it is sent and verified against the part etag
+	 * @param _upload multipart upload
+	 * @param _partNumber part number
+	 * @param _file local file with the content
+	 * @param _offset first byte of the part in the file
+	 * @param _length part length
+	 * @return the uploaded part
+	 * @throws UncheckedIOException if the part etag does not match the sent content
+	 */
+	public MultipartPart uploadPart(final MultipartUpload _upload,final int _partNumber,final Path _file,final long _offset,final long _length){
+		final Optional<S3Checksum> checksum=newChecksum();
+		final S3FileRegion region=newFileRegion(_file, _offset, _length);
+		final Payload payload=newByteSourcePayload(checksum.map(digest -> digest.digesting(region)).orElse(region));
+		payload.getContentMetadata().setContentLength(_length);
+		final MultipartPart reply=this.blobStore.uploadMultipartPart(_upload, _partNumber, payload);
+		checksum.ifPresent(digest -> verifyPart(digest.md5(), reply, _upload));
+		return reply;
+	}
+	/**
+	 * Region of a local file to upload, spool files are read with positional reads because they are truncated and reused once released
+	 * and a memory mapping would keep them mapped until it is garbage collected
+	 * @param _file local file
+	 * @param _offset first byte of the region
+	 * @param _length region length
+	 * @return the region
+	 */
+	protected S3FileRegion newFileRegion(final Path _file,final long _offset,final long _length){
+		return new S3FileRegion(_file, _offset, _length, !this.spoolManager.isSpool(_file));
+	}
+	protected void verifyPart(final HashCode _md5,final MultipartPart _part,final MultipartUpload _upload){
+		try{
+			verifyChecksum(_md5, _part.partETag(), () -> SimpleFormat.format("part {} of {}/{}", _part.partNumber(), _upload.containerName(), _upload.blobName()));
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+	/**
+	 * Upload a part copying the inclusive byte range [_from,_to] of an existing object server side,
+	 * only if the source still has the given etag so a concurrent overwrite can not mix versions in the new object
+	 * @param _upload multipart upload
+	 * @param _partNumber part number
+	 * @param _source object to copy from
+	 * @param _sourceEtag etag the source must still have
+	 * @param _from first byte to copy
+	 * @param _to last byte to copy (inclusive)
+	 * @return the uploaded part or empty if the source has been overwritten or removed
+	 */
+	public Optional<MultipartPart> uploadPartCopy(final MultipartUpload _upload,final int _partNumber,final S3AbsolutePath _source,final String _sourceEtag,final long _from,final long _to){
+		try{
+			final String etag=this.etagParser.apply(this.blobStore.getContext().utils().http().invoke(uploadPartCopyRequest(_upload, _partNumber, _source, _sourceEtag, _from, _to)));
+			return Optional.of(MultipartPart.create(_partNumber, _to-_from+1, etag, null));
+		}catch(HttpResponseException e){
+			if((e.getResponse()!=null)&&(e.getResponse().getStatusCode()==HTTP_PRECONDITION_FAILED))
+				return Optional.empty();
+			throw e;
+		}
+	}
+	/**
+	 * The s3 api has no conditional part copy, so the request is generated as the api would and the condition header added
+	 * @param _upload multipart upload
+	 * @param _partNumber part number
+	 * @param _source object to copy from
+	 * @param _sourceEtag etag the source must still have
+	 * @param _from first byte to copy
+	 * @param _to last byte to copy (inclusive)
+	 * @return request of the conditional part copy, it is signed when sent
+	 */
+	protected HttpRequest uploadPartCopyRequest(final MultipartUpload _upload,final int _partNumber,final S3AbsolutePath _source,final String _sourceEtag,final long _from,final long _to){
+		return this.requestProcessor.apply(Invocation.create(UPLOAD_PART_COPY, Arrays.<Object>asList(_upload.containerName(), _upload.blobName(), _partNumber, _upload.id()
+																								, _source.getBucket(), _source.getBucketPath(), _from, _to)))
+										.toBuilder()
+											.addHeader(COPY_SOURCE_IF_MATCH, _sourceEtag)
+										.build();
+	}
+	public String completeMultipartUpload(final MultipartUpload _upload,final List<MultipartPart> _parts){
+		final String reply=this.blobStore.completeMultipartUpload(_upload, _parts);
+		invalidate(_upload.containerName(), _upload.blobName());
+		return reply;
+	}
+	public void abortMultipartUpload(final MultipartUpload _upload){
+		this.blobStore.abortMultipartUpload(_upload);
+	}
+	/**
+	 * Rebuild a multipart upload started before, with the parts the server already has
+	 * @param _path object being uploaded
+	 * @param _uploadId multipart upload id
+	 * @return the etags of all the uploaded parts by part number, or empty if the upload does not exist anymore
+	 */
+	public Optional<Tuple<MultipartUpload,Map<Integer,String>>> resumeMultipartUpload(final S3AbsolutePath _path,final String _uploadId){
+		try{
+			final MultipartUpload upload=MultipartUpload.create(_path.getBucket(), _path.getBucketPath(), _uploadId, null, PutOptions.NONE);
+			final Map<Integer,String> parts=this.blobStore.listMultipartUpload(upload)
+																.stream()
+																	.collect(Collectors.toMap(MultipartPart::partNumber, MultipartPart::partETag));
+			return Optional.of(Tuple.of(upload, parts));
+		}catch(RuntimeException e){
+			LOGGER.debug("Multipart upload {} of {} can not be resumed", _uploadId, _path, e);
+			return Optional.empty();
+		}
+	}
+	/**
+	 * Abort the multipart uploads of the bucket initiated before the given date, removing their journals
+	 * @param _bucket bucket to clean
+	 * @param _initiatedBefore uploads initiated before this date are aborted
+	 * @return number of aborted uploads
+	 * @throws IOException if the journal directory can not be cleaned
+	 */
+	public int abortStaleUploads(final String _bucket,final Date _initiatedBefore) throws IOException{
+		final Set<String> aborted=new HashSet<>();
+		String keyMarker=null;
+		String uploadIdMarker=null;
+		ListMultipartUploadsResponse page;
+		do{
+			page=this.s3Api.listMultipartUploads(_bucket, keyMarker, LIST_UPLOADS_PAGESIZE, null, null, uploadIdMarker);
+			for(ListMultipartUploadsResponse.Upload upload:page.uploads()){
+				if((upload.initiated()!=null)&&(upload.initiated().before(_initiatedBefore))){
+					this.s3Api.abortMultipartUpload(_bucket, upload.key(), upload.uploadId());
+					aborted.add(upload.uploadId());
+				}
+			}
+			keyMarker=page.nextKeyMarker();
+			uploadIdMarker=page.nextUploadIdMarker();
+		}while(page.isTruncated());
+		this.metrics.add(S3FileSystemMetric.STALE_UPLOADS_ABORTED, aborted.size());
+		if(this.journalDirectory.isPresent()&&(!aborted.isEmpty()))
+			S3UploadJournal.purge(this.journalDirectory.get(), aborted);
+		return aborted.size();
+	}
+	private Payload slice(final byte[] _content,final int _length){
+		final Payload reply=newByteSourcePayload(ByteSource.wrap(_content).slice(0, _length));
+		reply.getContentMetadata().setContentLength((long)_length);
+		return reply;
 	}
 
 	@Override
 	public void close() throws IOException {
-		this.blobStore
-				.getContext()
-				.close();
+		this.executor.shutdown();
+		this.retryScheduler.shutdownNow();
+		this.lookupExecutor.shutdown();
+		this.listExecutor.shutdown();
+		this.metadataCache.clear();
+		this.negativeCache.clear();
+		try{
+			this.spoolManager.close();
+		}finally{
+			this.blobStore
+					.getContext()
+					.close();
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+
+/**
+ * Content codings applied transparently when the filesystem compresses on write, stored as the object Content-Encoding.
+ * GZIP gives the usual interoperable objects; DEFLATE (zlib stream) avoids the gzip header and CRC32 trailer
+ * and is meant to be combined with a low compression level when throughput matters more than ratio.
+ * @author afarre
+ * @since 0.2.0
+ */
+public enum S3ContentCoding {
+
+	GZIP("gzip"){
+		@Override
+		public DeflaterOutputStream encode(final OutputStream _stream,final int _level) throws IOException{
+			return new GZIPOutputStream(_stream, BUFFER_SIZE){
+				{
+					this.def.setLevel(_level);
+				}
+			};
+		}
+		@Override
+		public InputStream decode(final InputStream _stream) throws IOException{
+			return new GZIPInputStream(_stream, BUFFER_SIZE);
+		}
+	},
+	DEFLATE("deflate"){
+		@Override
+		public DeflaterOutputStream encode(final OutputStream _stream,final int _level) throws IOException{
+			final Deflater deflater=new Deflater(_level);
+			return new DeflaterOutputStream(_stream, deflater, BUFFER_SIZE){
+				@Override
+				public void close() throws IOException {
+					try{
+						super.close();
+					}finally{
+						deflater.end();
+					}
+				}
+			};
+		}
+		@Override
+		public InputStream decode(final InputStream _stream) throws IOException{
+			final Inflater inflater=new Inflater();
+			return new InflaterInputStream(_stream, inflater, BUFFER_SIZE){
+				@Override
+				public void close() throws IOException {
+					try{
+						super.close();
+					}finally{
+						inflater.end();
+					}
+				}
+			};
+		}
+	},
+	;
+
+	private static final int BUFFER_SIZE=64*1024;
+
+	private final String contentEncoding;
+
+	S3ContentCoding(final String _contentEncoding){
+		this.contentEncoding=_contentEncoding;
+	}
+
+	public String getContentEncoding() {
+		return contentEncoding;
+	}
+
+	/**
+	 * @param _stream stream to write the encoded content to, it is closed when the returned stream is closed
+	 * @param _level compression level from 0 to 9, or -1 for the codec default
+	 * @return stream encoding the content written to it
+	 * @throws IOException if the encoding header can not be written
+	 */
+	public abstract DeflaterOutputStream encode(final OutputStream _stream,final int _level) throws IOException;
+
+	/**
+	 * @param _stream stream with the encoded content, it is closed when the returned stream is closed
+	 * @return stream with the decoded content
+	 * @throws IOException if the encoding header can not be read
+	 */
+	public abstract InputStream decode(final InputStream _stream) throws IOException;
+
+	/**
+	 * @param _contentEncoding Content-Encoding value
+	 * @return the coding of the given Content-Encoding or empty if it is not a supported coding
+	 */
+	public static Optional<S3ContentCoding> of(final String _contentEncoding){
+		return Optional.ofNullable(_contentEncoding)
+						.map(String::trim)
+						.flatMap(encoding -> Stream.of(values())
+														.filter(coding -> coding.contentEncoding.equalsIgnoreCase(encoding))
+														.findFirst());
+	}
+
+	/**
+	 * @param _attributes object attributes
+	 * @return the coding the object content is stored with or empty if it is stored as is
+	 */
+	public static Optional<S3ContentCoding> of(final S3FileAttributeView _attributes){
+		return Optional.ofNullable(_attributes)
+						.map(attributes -> (String)attributes.getAttribute(S3FileAttribute.ENCODING))
+						.flatMap(S3ContentCoding::of);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+
+/**
+ * Read only channel over the decoded content of an object stored with a Content-Encoding.
+ * Encoded content can only be decoded from the beginning: seeking forward decodes and discards the skipped content
+ * and seeking backwards restarts decoding from the beginning of the object.
+ * The size is the logical size recorded when the object was written, or the stored size when it was not recorded.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3DecodingReadChannel implements SeekableByteChannel {
+
+	private final S3AbsolutePath path;
+	private final S3Client client;
+	private final S3FileAttributeView attributes;
+	private final S3ContentCoding coding;
+	private InputStream decoded;
+	private ReadableByteChannel decodedChannel;
+	private long decodedPosition;
+	private long position;
+	private boolean open;
+
+
+	/**
+	 * Open an existing encoded object for reading
+	 * @param _path the path to open
+	 * @param _client s3 client
+	 * @param _attributes object attributes, its etag is pinned
+	 * @param _coding coding of the object content
+	 */
+	public S3DecodingReadChannel(final S3AbsolutePath _path,final S3Client _client,final S3FileAttributeView _attributes,final S3ContentCoding _coding) {
+		this.path=_path;
+		this.client=_client;
+		this.attributes=_attributes;
+		this.coding=_coding;
+		this.decoded=null;
+		this.decodedChannel=null;
+		this.decodedPosition=0;
+		this.position=0;
+		this.open=true;
+	}
+
+	protected void ensureOpen() throws ClosedChannelException{
+		if(!this.open)
+			throw new ClosedChannelException();
+	}
+
+	protected void closeDecoder() throws IOException{
+		if(this.decoded!=null){
+			final InputStream current=this.decoded;
+			this.decoded=null;
+			this.decodedChannel=null;
+			current.close();
+		}
+	}
+
+	/**
+	 * Move the decoder to the current position, restarting it if the position is behind it
+	 * @return false if the position is beyond the end of the content
+	 * @throws IOException if the content can not be retrieved or decoded
+	 */
+	protected boolean seekDecoder() throws IOException{
+		if((this.decoded!=null)&&(this.decodedPosition>this.position))
+			closeDecoder();
+		if(this.decoded==null){
+			this.decoded=this.coding.decode(new S3InputStream(this.path, this.client, this.attributes));
+			this.decodedChannel=Channels.newChannel(this.decoded);
+			this.decodedPosition=0;
+		}
+		while(this.decodedPosition<this.position){
+			final long skipped=this.decoded.skip(this.position-this.decodedPosition);
+			if(skipped<=0){
+				if(this.decoded.read()<0)
+					return false;
+				this.decodedPosition++;
+			}else{
+				this.decodedPosition+=skipped;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int read(final ByteBuffer _dst) throws IOException {
+		ensureOpen();
+		if(!_dst.hasRemaining())
+			return 0;
+		if(!seekDecoder())
+			return -1;
+		final int reply=this.decodedChannel.read(_dst);
+		if(reply>0){
+			this.decodedPosition+=reply;
+			this.position+=reply;
+		}
+		return reply;
+	}
+
+	@Override
+	public int write(final ByteBuffer _src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return this.position;
+	}
+
+	@Override
+	public SeekableByteChannel position(final long _newPosition) throws IOException {
+		ensureOpen();
+		if(_newPosition<0)
+			throw new IllegalArgumentException(SimpleFormat.format("Negative position {}", _newPosition));
+		this.position=_newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return this.attributes.logicalSize();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(final long _size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(this.open){
+			this.open=false;
+			closeDecoder();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.internal.PageSetImpl;
+
+/**
+ * Lazy directory stream backed by a delimited listing of the folder, page by page.
+ * Only the page being iterated is held, while it is consumed the next page is already requested in the transfer pool, closing the stream cancels that request.
+ * The filter is applied to each entry as it is iterated. A subfolder repeated at the boundary of two pages, when the page marker is the subfolder itself, is returned once.
+ * The spliterator of the stream shards the listing by key ranges, so that a parallel stream over it lists the shards concurrently
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3DirectoryStream implements DirectoryStream<Path> {
+
+	private final S3AbsolutePath directory;
+	private final S3Client client;
+	private final DirectoryStream.Filter<? super Path> filter;
+	private final String prefix;
+	private final CompletableFuture<PageSet<? extends StorageMetadata>> firstPage;
+	private volatile CompletableFuture<PageSet<? extends StorageMetadata>> prefetch;
+	private volatile boolean closed;
+	private boolean iterated;
+
+
+	/**
+	 * Open the stream requesting the first page of the listing
+	 * @param _directory folder to list
+	 * @param _client s3 client
+	 * @param _filter filter of the listed paths
+	 */
+	public S3DirectoryStream(final S3AbsolutePath _directory,final S3Client _client,final DirectoryStream.Filter<? super Path> _filter){
+		this.directory=_directory;
+		this.client=_client;
+		this.filter=_filter;
+		this.prefix=_client.getFolderPrefix(_directory);
+		this.firstPage=requestPage(null);
+		this.closed=false;
+		this.iterated=false;
+	}
+
+	/**
+	 * @return true if the folder has no entries, waiting for the first page
+	 * @throws IOException if the first page can not be retrieved
+	 */
+	public boolean isEmpty() throws IOException{
+		try{
+			return await(this.firstPage).isEmpty();
+		}catch(DirectoryIteratorException e){
+			throw e.getCause();
+		}
+	}
+
+	private CompletableFuture<PageSet<? extends StorageMetadata>> requestPage(final String _marker){
+		final CompletableFuture<PageSet<? extends StorageMetadata>> reply=this.client.listAsync(this.directory.getBucket(), this.prefix, _marker, false);
+		this.prefetch=reply;
+		if(this.closed)
+			reply.cancel(false);
+		return reply;
+	}
+	private PageSet<? extends StorageMetadata> await(final CompletableFuture<PageSet<? extends StorageMetadata>> _page){
+		try{
+			return _page.join();
+		}catch(CancellationException e){
+			// only cancelled by close, nothing else is listed
+			return new PageSetImpl<>(Collections.emptyList(), null);
+		}catch(CompletionException e){
+			throw new DirectoryIteratorException(new IOException(SimpleFormat.format("Unable to list {}", this.directory), e.getCause()));
+		}
+	}
+
+	/**
+	 * @param _metadata listed object or relative path
+	 * @return the path of the direct child of the folder, empty for the folder marker
+	 */
+	protected Optional<Path> toPath(final StorageMetadata _metadata){
+		return Optional.ofNullable(_metadata.getName())
+							.filter(name -> name.startsWith(this.prefix))
+							.map(name -> name.substring(this.prefix.length()))
+							.map(name -> (name.endsWith(S3AbsolutePath.PATH_SEPARATOR))? name.substring(0, name.length()-1) : name)
+							.filter(name -> !name.isEmpty())
+							.filter(name -> !name.contains(S3AbsolutePath.PATH_SEPARATOR))
+							.filter(name -> !name.equals(this.client.getFolderMarker()))
+							.map(this.directory::resolve);
+	}
+
+	private boolean accept(final Path _path){
+		try{
+			return (this.filter==null)||this.filter.accept(_path);
+		}catch(IOException e){
+			throw new DirectoryIteratorException(e);
+		}
+	}
+
+	private synchronized void startIteration(){
+		if(this.closed)
+			throw new IllegalStateException(SimpleFormat.format("Directory stream of {} already closed", this.directory));
+		if(this.iterated)
+			throw new IllegalStateException(SimpleFormat.format("Directory stream of {} already iterated", this.directory));
+		this.iterated=true;
+	}
+
+	@Override
+	public Iterator<Path> iterator() {
+		startIteration();
+		return new PageIterator();
+	}
+
+	/**
+	 * Sharded spliterator of the listing, the first shard starts with the already requested first page.
+	 * Like the iterator it can only be obtained once, and entries listed after the stream is closed are skipped
+	 * @return spliterator of the filtered direct children of the folder
+	 */
+	@Override
+	public Spliterator<Path> spliterator() {
+		startIteration();
+		return new S3ListingSpliterator<>(this.client, this.directory.getBucket(), this.prefix, false
+											, metadata -> toPath(metadata)
+																.filter(path -> !this.closed)
+																.filter(this::accept)
+											, this.firstPage);
+	}
+
+	/**
+	 * Close the stream cancelling the page request in flight, if it has not started yet it is not sent
+	 * @throws IOException never
+	 */
+	@Override
+	public void close() throws IOException {
+		this.closed=true;
+		Optional.ofNullable(this.prefetch)
+				.ifPresent(page -> page.cancel(false));
+	}
+
+
+	private final class PageIterator implements Iterator<Path>{
+
+		private CompletableFuture<PageSet<? extends StorageMetadata>> nextPage;
+		private Iterator<? extends StorageMetadata> current;
+		private Path next;
+		private Path last;
+
+		PageIterator(){
+			this.nextPage=S3DirectoryStream.this.firstPage;
+			this.current=Collections.emptyIterator();
+			this.next=null;
+			this.last=null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while((this.next==null)&&(!S3DirectoryStream.this.closed)){
+				if(this.current.hasNext()){
+					final Optional<Path> listed=toPath(this.current.next())
+														.filter(path -> !path.equals(this.last));
+					listed.ifPresent(path -> this.last=path);
+					this.next=listed.filter(S3DirectoryStream.this::accept)
+									.orElse(null);
+				}else if(this.nextPage!=null){
+					final PageSet<? extends StorageMetadata> page=await(this.nextPage);
+					this.nextPage=Optional.ofNullable(page.getNextMarker())
+												.map(S3DirectoryStream.this::requestPage)
+												.orElse(null);
+					if(this.nextPage!=null)
+						S3DirectoryStream.this.client.getMetrics().increment(S3FileSystemMetric.LIST_PAGES_PREFETCHED);
+					this.current=page.iterator();
+				}else{
+					return false;
+				}
+			}
+			return (this.next!=null);
+		}
+
+		@Override
+		public Path next() {
+			if(!hasNext())
+				throw new NoSuchElementException();
+			final Path reply=this.next;
+			this.next=null;
+			return reply;
+		}
+	}
+}
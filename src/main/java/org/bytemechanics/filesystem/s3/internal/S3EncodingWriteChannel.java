@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.DeflaterOutputStream;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+
+/**
+ * Write only channel that encodes the written content before handing it to a streaming multipart channel.
+ * Position and size report the written (logical) bytes, the logical size is stored as user metadata on close.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3EncodingWriteChannel implements SeekableByteChannel {
+
+	private final S3AbsolutePath path;
+	private final S3MultipartWriteChannel encoded;
+	private final DeflaterOutputStream encoder;
+	private final WritableByteChannel encoderChannel;
+	private long written;
+	private boolean open;
+
+
+	/**
+	 * Open or creates an object for sequential writing storing its content encoded
+	 * @param _path the path to open or create
+	 * @param _client s3 client
+	 * @param _options open options
+	 * @param _coding content coding to apply
+	 * @param _level compression level
+	 * @throws IOException if the options are not compatible with the object existence
+	 */
+	public S3EncodingWriteChannel(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options,final S3ContentCoding _coding,final int _level) throws IOException {
+		this.path=_path;
+		this.encoded=new S3MultipartWriteChannel(_path, _client, _options, _coding.getContentEncoding());
+		this.encoder=_coding.encode(Channels.newOutputStream(this.encoded), _level);
+		this.encoderChannel=Channels.newChannel(this.encoder);
+		this.written=0;
+		this.open=true;
+	}
+
+	protected void ensureOpen() throws ClosedChannelException{
+		if(!this.open)
+			throw new ClosedChannelException();
+	}
+
+	@Override
+	public int write(final ByteBuffer _src) throws IOException {
+		ensureOpen();
+		final int reply=this.encoderChannel.write(_src);
+		this.written+=reply;
+		return reply;
+	}
+
+	@Override
+	public int read(final ByteBuffer _dst) throws IOException {
+		throw new NonReadableChannelException();
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return this.written;
+	}
+
+	@Override
+	public SeekableByteChannel position(final long _newPosition) throws IOException {
+		ensureOpen();
+		if(_newPosition!=this.written)
+			throw new UnsupportedOperationException(SimpleFormat.format("Encoding channel of {} can not seek to {}", this.path, _newPosition));
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return this.written;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(final long _size) throws IOException {
+		ensureOpen();
+		if(_size<this.written)
+			throw new UnsupportedOperationException(SimpleFormat.format("Encoding channel of {} can not truncate to {}", this.path, _size));
+		return this;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(!this.open)
+			return;
+		this.open=false;
+		try{
+			this.encoder.finish();
+		}catch(IOException|RuntimeException e){
+			this.encoded.discard();
+			throw e;
+		}
+		this.encoded.putUserMetadata(S3FileAttributeView.LOGICAL_SIZE_METADATA, String.valueOf(this.written));
+		this.encoder.close();
+	}
+}
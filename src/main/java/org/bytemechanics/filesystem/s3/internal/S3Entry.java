@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.util.Optional;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.BlobMetadata;
+
+/**
+ * Resolution of a path to a file, a directory marker or nothing, with the metadata of the resolved object
+ * @author afarre
+ * @since 0.2.0
+ */
+public final class S3Entry {
+
+	public enum Type{
+		FILE,
+		DIRECTORY,
+		ABSENT,
+		;
+	}
+
+	private final S3AbsolutePath path;
+	private final Type type;
+	private final BlobMetadata metadata;
+
+
+	private S3Entry(final S3AbsolutePath _path,final Type _type,final BlobMetadata _metadata){
+		this.path=_path;
+		this.type=_type;
+		this.metadata=_metadata;
+	}
+
+	/**
+	 * @param _path resolved path
+	 * @param _metadata metadata of the object found, the path key itself or its directory marker
+	 * @return file entry if the metadata belongs to the path key, directory entry otherwise
+	 */
+	public static S3Entry of(final S3AbsolutePath _path,final BlobMetadata _metadata){
+		return new S3Entry(_path, (_path.getBucketPath().equals(_metadata.getName()))? Type.FILE : Type.DIRECTORY, _metadata);
+	}
+	/**
+	 * @param _path resolved path
+	 * @return entry of a path with neither object nor directory marker
+	 */
+	public static S3Entry absent(final S3AbsolutePath _path){
+		return new S3Entry(_path, Type.ABSENT, null);
+	}
+
+	public S3AbsolutePath getPath(){
+		return this.path;
+	}
+	public Type getType(){
+		return this.type;
+	}
+	public boolean exists(){
+		return this.type!=Type.ABSENT;
+	}
+	public boolean isFile(){
+		return this.type==Type.FILE;
+	}
+	public boolean isDirectory(){
+		return this.type==Type.DIRECTORY;
+	}
+	/**
+	 * @return metadata of the resolved object, empty if absent
+	 */
+	public Optional<BlobMetadata> getMetadata(){
+		return Optional.ofNullable(this.metadata);
+	}
+	/**
+	 * @return key of the resolved object, the path key or its directory marker, empty if absent
+	 */
+	public Optional<String> getKey(){
+		return getMetadata().map(BlobMetadata::getName);
+	}
+
+	@Override
+	public String toString() {
+		return this.type+":"+this.path;
+	}
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+
+/**
+ * FileChannel view over the channel engine picked for the open options.
+ * Transfers from read only channels stream the HTTP body of a single ranged GET into the target channel;
+ * the body is an InputStream, so it is read into a single reusable heap buffer that is written to the target.
+ * Other transfers go through a single reusable direct buffer.
+ * Positional reads on read only channels do not move the channel position nor disturb its sequential read-ahead.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3FileChannel extends FileChannel {
+
+	private static final int TRANSFER_BUFFER_SIZE=64*1024;
+
+	private final S3AbsolutePath path;
+	private final S3Client client;
+	private final SeekableByteChannel delegate;
+	private ByteBuffer transferBuffer;
+	private ByteBuffer streamBuffer;
+
+
+	/**
+	 * @param _path opened path
+	 * @param _client s3 client
+	 * @param _delegate channel opened by the selected engine
+	 */
+	public S3FileChannel(final S3AbsolutePath _path,final S3Client _client,final SeekableByteChannel _delegate){
+		this.path=_path;
+		this.client=_client;
+		this.delegate=_delegate;
+		this.transferBuffer=null;
+		this.streamBuffer=null;
+	}
+
+	protected void ensureOpen() throws ClosedChannelException{
+		if(!isOpen())
+			throw new ClosedChannelException();
+	}
+
+	/**
+	 * Streaming engines can only write at the end of the written content, so positional writes at that point
+	 * move the channel position instead of keeping it
+	 * @return true if the delegate is a streaming write channel
+	 */
+	protected boolean isStreaming(){
+		return this.delegate instanceof S3MultipartWriteChannel;
+	}
+
+	protected ByteBuffer getTransferBuffer(){
+		if(this.transferBuffer==null)
+			this.transferBuffer=ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+		this.transferBuffer.clear();
+		return this.transferBuffer;
+	}
+
+	protected ByteBuffer getStreamBuffer(){
+		if(this.streamBuffer==null)
+			this.streamBuffer=ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+		this.streamBuffer.clear();
+		return this.streamBuffer;
+	}
+
+	@Override
+	public int read(final ByteBuffer _dst) throws IOException {
+		ensureOpen();
+		return this.delegate.read(_dst);
+	}
+
+	@Override
+	public long read(final ByteBuffer[] _dsts,final int _offset,final int _length) throws IOException {
+		ensureOpen();
+		long reply=0;
+		for(int i=_offset;i<_offset+_length;i++){
+			if(!_dsts[i].hasRemaining())
+				continue;
+			final int read=this.delegate.read(_dsts[i]);
+			if(read<0)
+				return (reply==0)? -1 : reply;
+			reply+=read;
+			if(_dsts[i].hasRemaining())
+				break;
+		}
+		return reply;
+	}
+
+	@Override
+	public int write(final ByteBuffer _src) throws IOException {
+		ensureOpen();
+		return this.delegate.write(_src);
+	}
+
+	@Override
+	public long write(final ByteBuffer[] _srcs,final int _offset,final int _length) throws IOException {
+		ensureOpen();
+		long reply=0;
+		for(int i=_offset;i<_offset+_length;i++){
+			reply+=this.delegate.write(_srcs[i]);
+		}
+		return reply;
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return this.delegate.position();
+	}
+
+	@Override
+	public FileChannel position(final long _newPosition) throws IOException {
+		ensureOpen();
+		this.delegate.position(_newPosition);
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return this.delegate.size();
+	}
+
+	@Override
+	public FileChannel truncate(final long _size) throws IOException {
+		ensureOpen();
+		this.delegate.truncate(_size);
+		return this;
+	}
+
+	/**
+	 * Changes are uploaded when the channel is closed, nothing to do here
+	 * @param _metaData ignored
+	 * @throws IOException if the channel is closed
+	 */
+	@Override
+	public void force(final boolean _metaData) throws IOException {
+		ensureOpen();
+	}
+
+	@Override
+	public long transferTo(final long _position,final long _count,final WritableByteChannel _target) throws IOException {
+		ensureOpen();
+		if((_position<0)||(_count<0))
+			throw new IllegalArgumentException(SimpleFormat.format("Invalid transfer position {} or count {}", _position, _count));
+		final long count=Math.min(_count, this.delegate.size()-_position);
+		if(count<=0)
+			return 0;
+		return (this.delegate instanceof S3RangedReadChannel)? transferRange(_position, count, _target) : transferBuffered(_position, count, _target);
+	}
+
+	/**
+	 * Stream a single ranged GET into the target channel
+	 * @param _position first byte to transfer
+	 * @param _count number of bytes to transfer
+	 * @param _target target channel
+	 * @return number of bytes transferred
+	 * @throws IOException if the object changed since it was opened or the target can not be written
+	 */
+	protected long transferRange(final long _position,final long _count,final WritableByteChannel _target) throws IOException{
+
+		final String etag=((S3RangedReadChannel)this.delegate).getEtag();
+		long reply=0;
+
+		try(InputStream stream=this.client.getBlob(this.path, etag, _position, _position+_count-1)
+												.orElseThrow(() -> new IOException(SimpleFormat.format("Object {} changed or removed since it was opened", this.path)))
+												.openStream()){
+			final ByteBuffer buffer=getStreamBuffer();
+			while(reply<_count){
+				final int read=stream.read(buffer.array(), 0, (int)Math.min(buffer.capacity(), _count-reply));
+				if(read<0)
+					break;
+				buffer.limit(read);
+				while(buffer.hasRemaining()){
+					reply+=_target.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+
+		return reply;
+	}
+
+	protected long transferBuffered(final long _position,final long _count,final WritableByteChannel _target) throws IOException{
+
+		final long current=this.delegate.position();
+		final ByteBuffer buffer=getTransferBuffer();
+		long reply=0;
+
+		try{
+			this.delegate.position(_position);
+			while(reply<_count){
+				buffer.limit((int)Math.min(buffer.capacity(), _count-reply));
+				if(this.delegate.read(buffer)<0)
+					break;
+				buffer.flip();
+				while(buffer.hasRemaining()){
+					reply+=_target.write(buffer);
+				}
+				buffer.clear();
+			}
+		}finally{
+			this.delegate.position(current);
+		}
+
+		return reply;
+	}
+
+	@Override
+	public long transferFrom(final ReadableByteChannel _src,final long _position,final long _count) throws IOException {
+		ensureOpen();
+		if((_position<0)||(_count<0))
+			throw new IllegalArgumentException(SimpleFormat.format("Invalid transfer position {} or count {}", _position, _count));
+		if(_position>this.delegate.size())
+			return 0;
+
+		final long current=this.delegate.position();
+		final ByteBuffer buffer=getTransferBuffer();
+		long reply=0;
+
+		this.delegate.position(_position);
+		try{
+			while(reply<_count){
+				buffer.limit((int)Math.min(buffer.capacity(), _count-reply));
+				if(_src.read(buffer)<=0)
+					break;
+				buffer.flip();
+				while(buffer.hasRemaining()){
+					reply+=this.delegate.write(buffer);
+				}
+				buffer.clear();
+			}
+		}finally{
+			if(!isStreaming())
+				this.delegate.position(current);
+		}
+
+		return reply;
+	}
+
+	@Override
+	public int read(final ByteBuffer _dst,final long _position) throws IOException {
+		ensureOpen();
+		if(_position<0)
+			throw new IllegalArgumentException(SimpleFormat.format("Negative position {}", _position));
+		if(this.delegate instanceof S3RangedReadChannel)
+			return ((S3RangedReadChannel)this.delegate).read(_dst, _position);
+		final long current=this.delegate.position();
+		try{
+			this.delegate.position(_position);
+			return this.delegate.read(_dst);
+		}finally{
+			this.delegate.position(current);
+		}
+	}
+
+	@Override
+	public int write(final ByteBuffer _src,final long _position) throws IOException {
+		ensureOpen();
+		if(_position<0)
+			throw new IllegalArgumentException(SimpleFormat.format("Negative position {}", _position));
+		if(isStreaming()){
+			this.delegate.position(_position);
+			return this.delegate.write(_src);
+		}
+		final long current=this.delegate.position();
+		try{
+			this.delegate.position(_position);
+			return this.delegate.write(_src);
+		}finally{
+			this.delegate.position(current);
+		}
+	}
+
+	@Override
+	public MappedByteBuffer map(final MapMode _mode,final long _position,final long _size) throws IOException {
+		throw new UnsupportedOperationException("S3 objects can not be mapped");
+	}
+
+	@Override
+	public FileLock lock(final long _position,final long _size,final boolean _shared) throws IOException {
+		throw new UnsupportedOperationException("S3 objects can not be locked");
+	}
+
+	@Override
+	public FileLock tryLock(final long _position,final long _size,final boolean _shared) throws IOException {
+		throw new UnsupportedOperationException("S3 objects can not be locked");
+	}
+
+	@Override
+	protected void implCloseChannel() throws IOException {
+		this.transferBuffer=null;
+		this.streamBuffer=null;
+		this.delegate.close();
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import com.google.common.io.ByteSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+
+/**
+ * Byte source over an offset and length region of a local file, read through read only memory mappings.
+ * Content is served from the page cache without reading it into heap buffers first, each stream maps the region
+ * lazily in windows of at most MAX_MAPPING bytes. Being a byte source it can be reopened, so payloads built from it
+ * are repeatable and can be retried.
+ * A mapping is only released when its buffer is garbage collected, closing the stream does not unmap it, and on Windows a mapped file
+ * can not be truncated nor deleted until then. Regions of files that are truncated and reused, as the spool files are, must be read
+ * with positional reads instead of mappings.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3FileRegion extends ByteSource {
+
+	protected static final int MAX_MAPPING=256*1024*1024;
+
+	private final Path file;
+	private final long offset;
+	private final long length;
+	private final boolean mapped;
+
+
+	/**
+	 * @param _file local file
+	 * @param _offset first byte of the region
+	 * @param _length region length
+	 */
+	public S3FileRegion(final Path _file,final long _offset,final long _length){
+		this(_file, _offset, _length, true);
+	}
+	/**
+	 * @param _file local file
+	 * @param _offset first byte of the region
+	 * @param _length region length
+	 * @param _mapped true to read through memory mappings, false to read with positional reads so the file can be truncated right after the streams are closed
+	 */
+	public S3FileRegion(final Path _file,final long _offset,final long _length,final boolean _mapped){
+		if((_offset<0)||(_length<0))
+			throw new IllegalArgumentException(SimpleFormat.format("Invalid region offset {} length {}", _offset, _length));
+		this.file=_file;
+		this.offset=_offset;
+		this.length=_length;
+		this.mapped=_mapped;
+	}
+
+	public boolean isMapped(){
+		return this.mapped;
+	}
+
+	@Override
+	public long size() throws IOException {
+		return this.length;
+	}
+
+	@Override
+	public ByteSource slice(final long _offset,final long _length) {
+		final long start=Math.min(this.length,_offset);
+		return new S3FileRegion(this.file, this.offset+start, Math.min(_length, this.length-start), this.mapped);
+	}
+
+	@Override
+	public InputStream openStream() throws IOException {
+		final FileChannel channel=FileChannel.open(this.file, StandardOpenOption.READ);
+		return (this.mapped)? new RegionInputStream(channel) : new PositionalInputStream(channel);
+	}
+
+
+	private class RegionInputStream extends InputStream{
+
+		private final FileChannel channel;
+		private MappedByteBuffer window;
+		private long position;
+
+		RegionInputStream(final FileChannel _channel){
+			this.channel=_channel;
+			this.window=null;
+			this.position=0;
+		}
+
+		protected boolean ensureWindow() throws IOException{
+			if(this.position>=length)
+				return false;
+			if((this.window==null)||(!this.window.hasRemaining())){
+				final long windowLength=Math.min((long)MAX_MAPPING,length-this.position);
+				if(offset+this.position+windowLength>this.channel.size())
+					throw new IOException(SimpleFormat.format("File {} shorter than region end {}", file, offset+length));
+				this.window=this.channel.map(FileChannel.MapMode.READ_ONLY, offset+this.position, windowLength);
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(!ensureWindow())
+				return -1;
+			this.position++;
+			return this.window.get() & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] _buffer,final int _offset,final int _length) throws IOException {
+			if(_length==0)
+				return 0;
+			if(!ensureWindow())
+				return -1;
+			final int reply=Math.min(_length,this.window.remaining());
+			this.window.get(_buffer, _offset, reply);
+			this.position+=reply;
+			return reply;
+		}
+
+		@Override
+		public long skip(final long _count) throws IOException {
+			final long reply=Math.max(0l,Math.min(_count,length-this.position));
+			this.position+=reply;
+			this.window=null;
+			return reply;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (this.window==null)? 0 : this.window.remaining();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.window=null;
+			this.channel.close();
+		}
+	}
+
+	private class PositionalInputStream extends InputStream{
+
+		private final FileChannel channel;
+		private long position;
+
+		PositionalInputStream(final FileChannel _channel){
+			this.channel=_channel;
+			this.position=0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] reply=new byte[1];
+			return (read(reply, 0, 1)<0)? -1 : reply[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] _buffer,final int _offset,final int _length) throws IOException {
+			if(_length==0)
+				return 0;
+			if(this.position>=length)
+				return -1;
+			final int reply=this.channel.read(ByteBuffer.wrap(_buffer, _offset, (int)Math.min((long)_length,length-this.position)), offset+this.position);
+			if(reply<0)
+				throw new IOException(SimpleFormat.format("File {} shorter than region end {}", file, offset+length));
+			this.position+=reply;
+			return reply;
+		}
+
+		@Override
+		public long skip(final long _count) throws IOException {
+			final long reply=Math.max(0l,Math.min(_count,length-this.position));
+			this.position+=reply;
+			return reply;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.channel.close();
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.Optional;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.io.Payload;
+
+/**
+ * Input stream reading the GET payload directly, without any intermediate channel or spool file.
+ * The request is issued on the first read, skip and reset close the current payload and the next read
+ * issues a new ranged request from the new position. The object etag is pinned at open time, when the pinned etag
+ * is rejected by the first request it may come from a stale metadata cache entry so the current version is pinned once instead.
+ * While the content is read sequentially it is digested and verified against the etag when the last byte is read.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3InputStream extends InputStream {
+
+	private static final int MAX_ARRAY_SIZE=Integer.MAX_VALUE-8;
+
+	private final S3AbsolutePath path;
+	private final S3Client client;
+	private final Optional<S3ContentCoding> coding;
+	private String etag;
+	private long size;
+	private boolean repinnable;
+	private S3Checksum checksum;
+	private S3Checksum verified;
+	private InputStream stream;
+	private long position;
+	private long mark;
+	private boolean open;
+
+
+	/**
+	 * Open an existing object for reading
+	 * @param _path the path to open
+	 * @param _client s3 client
+	 * @param _options open options, only the known size hint is used
+	 * @throws IOException if the object does not exist or is a folder
+	 */
+	public S3InputStream(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options) throws IOException {
+		this(_path, _client, (_options.getKnownSize().isPresent())? null : getAttributes(_path, _client), _options.getKnownSize().orElse(0l));
+	}
+
+	/**
+	 * Open an existing object for reading with the already retrieved attributes
+	 * @param _path the path to open
+	 * @param _client s3 client
+	 * @param _attributes object attributes, its etag is pinned
+	 */
+	public S3InputStream(final S3AbsolutePath _path,final S3Client _client,final S3FileAttributeView _attributes) {
+		this(_path, _client, _attributes, 0l);
+	}
+
+	protected S3InputStream(final S3AbsolutePath _path,final S3Client _client,final S3FileAttributeView _attributes,final long _knownSize) {
+		this.path=_path;
+		this.client=_client;
+		this.etag=(_attributes!=null)? (String)_attributes.getAttribute(S3FileAttribute.ETAG) : null;
+		this.size=(_attributes!=null)? _attributes.size() : _knownSize;
+		this.coding=S3ContentCoding.of(_attributes);
+		this.repinnable=(this.etag!=null);
+		this.checksum=(this.etag!=null)? _client.newChecksum().orElse(null) : null;
+		this.verified=null;
+		this.stream=null;
+		this.position=0;
+		this.mark=0;
+		this.open=true;
+	}
+
+	protected static S3FileAttributeView getAttributes(final S3AbsolutePath _path,final S3Client _client) throws IOException{
+		final S3FileAttributeView reply=_client.getBlobMetadata(_path)
+													.map(S3FileAttributeView::new)
+													.orElseThrow(() -> new NoSuchFileException(SimpleFormat.format("Object {} not exists", _path)));
+		if(reply.isDirectory())
+			throw new IOException(SimpleFormat.format("Object {} is a folder", _path));
+		return reply;
+	}
+
+	/**
+	 * @return the coding the object content is stored with, this stream returns the stored content so it must be decoded by the caller
+	 */
+	public Optional<S3ContentCoding> getContentCoding(){
+		return this.coding;
+	}
+
+	protected void ensureOpen() throws IOException{
+		if(!this.open)
+			throw new IOException(SimpleFormat.format("Stream of {} closed", this.path));
+	}
+
+	/**
+	 * @return the checksum of the whole content once it has been read sequentially and verified against the etag
+	 */
+	public Optional<S3Checksum> getChecksum(){
+		return Optional.ofNullable(this.verified);
+	}
+
+	/**
+	 * Digest the bytes just read at the current position, the content is verified as soon as the last byte is digested.
+	 * Bytes read again after a reset are already digested and skipped content can not be verified anymore
+	 * @param _buffer buffer with the read bytes
+	 * @param _offset first read byte
+	 * @param _length read bytes
+	 * @throws IOException if the whole content has been read and it does not match the etag
+	 */
+	protected void digest(final byte[] _buffer,final int _offset,final int _length) throws IOException{
+		if(this.checksum!=null){
+			final long digested=this.checksum.getLength();
+			if(this.position>digested){
+				this.checksum=null;
+				return;
+			}
+			final int overlap=(int)Math.min((long)_length, digested-this.position);
+			this.checksum.update(_buffer, _offset+overlap, _length-overlap);
+			if(this.checksum.getLength()==this.size){
+				final S3Checksum current=this.checksum;
+				this.checksum=null;
+				this.client.verifyChecksum(current, this.etag, () -> this.path.toString());
+				this.verified=current;
+			}
+		}
+	}
+
+	/**
+	 * Pin the current version of the object when the etag pinned at open time is rejected by the first request,
+	 * only once per stream and only while no content has been served
+	 * @return true if the stream has been pinned to the current version
+	 */
+	protected boolean repin(){
+		if(!this.repinnable)
+			return false;
+		this.repinnable=false;
+		final Optional<S3FileAttributeView> current=this.client.refreshPinnedMetadata(this.path, this.etag)
+																.map(S3FileAttributeView::new)
+																.filter(attributes -> !attributes.isDirectory())
+																.filter(attributes -> attributes.size()>this.position)
+																.filter(attributes -> S3ContentCoding.of(attributes).equals(this.coding));
+		current.ifPresent(attributes -> {
+							this.etag=(String)attributes.getAttribute(S3FileAttribute.ETAG);
+							this.size=attributes.size();
+							this.checksum=this.client.newChecksum().orElse(null);
+						});
+		return current.isPresent();
+	}
+
+	protected InputStream getStream() throws IOException{
+		if(this.stream==null){
+			Optional<Payload> payload=this.client.getBlob(this.path, this.etag, this.position, this.size-1);
+			if((!payload.isPresent())&&(repin()))
+				payload=this.client.getBlob(this.path, this.etag, this.position, this.size-1);
+			this.stream=payload.orElseThrow(() -> new IOException(SimpleFormat.format("Object {} changed or removed since it was opened", this.path)))
+								.openStream();
+			this.repinnable=false;
+		}
+		return this.stream;
+	}
+
+	protected void closeStream() throws IOException{
+		if(this.stream!=null){
+			final InputStream current=this.stream;
+			this.stream=null;
+			current.close();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		ensureOpen();
+		if(this.position>=this.size)
+			return -1;
+		final int reply=getStream().read();
+		if(reply<0)
+			throw new IOException(SimpleFormat.format("Premature end of object {} at {}", this.path, this.position));
+		digest(new byte[]{(byte)reply}, 0, 1);
+		this.position++;
+		return reply;
+	}
+
+	@Override
+	public int read(final byte[] _buffer,final int _offset,final int _length) throws IOException {
+		ensureOpen();
+		if((_offset<0)||(_length<0)||(_length>_buffer.length-_offset))
+			throw new IndexOutOfBoundsException();
+		if(_length==0)
+			return 0;
+		if(this.position>=this.size)
+			return -1;
+		final int reply=getStream().read(_buffer, _offset, (int)Math.min((long)_length, this.size-this.position));
+		if(reply<0)
+			throw new IOException(SimpleFormat.format("Premature end of object {} at {}", this.path, this.position));
+		digest(_buffer, _offset, reply);
+		this.position+=reply;
+		return reply;
+	}
+
+	/**
+	 * Read the remaining content allocating a single array of the exact remaining size
+	 * @return the remaining content
+	 * @throws IOException if the content can not be retrieved
+	 */
+	public byte[] readAllBytes() throws IOException {
+		ensureOpen();
+		//The first request may pin another version so it is issued before sizing the array
+		if(this.position<this.size)
+			getStream();
+		final long remaining=Math.max(0l,this.size-this.position);
+		if(remaining>MAX_ARRAY_SIZE)
+			throw new OutOfMemoryError(SimpleFormat.format("Object {} too big to be read into an array: {}", this.path, this.size));
+		final byte[] reply=new byte[(int)remaining];
+		for(int total=0;total<reply.length;){
+			total+=read(reply, total, reply.length-total);
+		}
+		return reply;
+	}
+
+	/**
+	 * Skip without reading, the next read issues a new ranged request
+	 * @param _count bytes to skip
+	 * @return skipped bytes
+	 * @throws IOException if the stream is closed
+	 */
+	@Override
+	public long skip(final long _count) throws IOException {
+		ensureOpen();
+		final long reply=Math.max(0l,Math.min(_count, this.size-this.position));
+		if(reply>0){
+			closeStream();
+			this.position+=reply;
+		}
+		return reply;
+	}
+
+	@Override
+	public int available() throws IOException {
+		ensureOpen();
+		return (this.stream!=null)? this.stream.available() : 0;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(final int _readlimit) {
+		this.mark=this.position;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		ensureOpen();
+		if(this.position!=this.mark){
+			closeStream();
+			this.position=this.mark;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(this.open){
+			this.open=false;
+			closeStream();
+		}
+	}
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+
+/**
+ * Spliterator of the listing of a prefix, sharded by key ranges so that a parallel stream lists the shards concurrently.
+ * Each shard lists the keys after its exclusive lower bound up to its inclusive upper bound page by page.
+ * Splits take the upper half of the range not listed yet, after the first page of the shard, at the median of the common sub-prefixes discovered with a delimited request
+ * for recursive listings. Otherwise the boundary is derived from the keys themselves: probe requests after the successor of each prefix of the last listed key find
+ * the prefix shared by every key left in the range, and probes on the next character find the highest character listed there, the range is split at the middle character.
+ * The number of shards is bounded by the configured list parallelism, pages and probes are requested in the listing pool of the client of the same size
+ * so shards consumed by a fork-join pool never block more threads than the listing allows.
+ * Entries are emitted once even if a delimited listing repeats a subfolder at the boundary of two pages or two shards.
+ * Keys are compared in code point order, the utf-8 binary order of the server, and boundaries never split a surrogate pair
+ * @author afarre
+ * @since 0.2.0
+ * @param <T> element type
+ */
+public class S3ListingSpliterator<T> implements Spliterator<T> {
+
+	/** Order of the keys in the server listings, the code point order that matches the utf-8 binary order */
+	public static final Comparator<String> KEY_ORDER=S3ListingSpliterator::compareKeys;
+
+	private static final String KEY_UPPER_BOUND=new String(Character.toChars(Character.MAX_CODE_POINT));
+	private static final int ASCII_LIMIT=0x7f;
+	private static final int SURROGATES=Character.MAX_SURROGATE-Character.MIN_SURROGATE+1;
+
+	private final S3Client client;
+	private final String bucket;
+	private final String prefix;
+	private final boolean recursive;
+	private final Function<StorageMetadata,Optional<T>> mapper;
+	private String upperBound;
+	private String cursor;
+	private String nextMarker;
+	private CompletableFuture<PageSet<? extends StorageMetadata>> pending;
+	private Iterator<? extends StorageMetadata> buffer;
+	private boolean exhausted;
+	private boolean fetched;
+	private List<String> boundaries;
+	private int shards;
+	private long estimatedSize;
+
+
+	/**
+	 * @param _client s3 client
+	 * @param _bucket bucket
+	 * @param _prefix prefix of the listed keys
+	 * @param _recursive true to list every key under the prefix, false to group the keys of each subfolder in a single relative path entry
+	 * @param _mapper mapper of the listed entries to elements, entries mapped to empty are skipped
+	 * @param _firstPage first page if it was already requested, or null
+	 */
+	public S3ListingSpliterator(final S3Client _client,final String _bucket,final String _prefix,final boolean _recursive,final Function<StorageMetadata,Optional<T>> _mapper,final CompletableFuture<PageSet<? extends StorageMetadata>> _firstPage){
+		this(_client, _bucket, _prefix, _recursive, _mapper, null, _prefix+KEY_UPPER_BOUND, null, _client.getListParallelism(), Long.MAX_VALUE);
+		this.pending=_firstPage;
+	}
+	private S3ListingSpliterator(final S3Client _client,final String _bucket,final String _prefix,final boolean _recursive,final Function<StorageMetadata,Optional<T>> _mapper
+									,final String _lowerBound,final String _upperBound,final List<String> _boundaries,final int _shards,final long _estimatedSize){
+		this.client=_client;
+		this.bucket=_bucket;
+		this.prefix=_prefix;
+		this.recursive=_recursive;
+		this.mapper=_mapper;
+		this.upperBound=_upperBound;
+		this.cursor=_lowerBound;
+		this.nextMarker=_lowerBound;
+		this.pending=null;
+		this.buffer=Collections.emptyIterator();
+		this.exhausted=false;
+		this.fetched=false;
+		this.boundaries=_boundaries;
+		this.shards=_shards;
+		this.estimatedSize=_estimatedSize;
+	}
+
+	@Override
+	public boolean tryAdvance(final Consumer<? super T> _action) {
+		while(true){
+			if(this.buffer.hasNext()){
+				final StorageMetadata metadata=this.buffer.next();
+				final String name=metadata.getName();
+				if((name==null)||((this.cursor!=null)&&(compareKeys(name, this.cursor)<=0)))
+					continue;
+				if(compareKeys(name, this.upperBound)>0){
+					this.buffer=Collections.emptyIterator();
+					this.exhausted=true;
+					return false;
+				}
+				this.cursor=name;
+				final Optional<T> element=this.mapper.apply(metadata);
+				if(element.isPresent()){
+					_action.accept(element.get());
+					return true;
+				}
+			}else if(!this.exhausted){
+				fetch();
+			}else{
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Skip the keys under the given prefix, when they are not listed yet the listing restarts after them instead of paging through them
+	 * @param _prefix prefix of the skipped keys
+	 */
+	public void skipPrefix(final String _prefix){
+		final String last=_prefix+KEY_UPPER_BOUND;
+		if((this.cursor!=null)&&(compareKeys(this.cursor, last)>=0))
+			return;
+		this.cursor=last;
+		if((this.pending==null)&&(!this.exhausted)&&((this.nextMarker==null)||(compareKeys(this.nextMarker, last)<0))){
+			this.buffer=Collections.emptyIterator();
+			this.nextMarker=last;
+			this.exhausted=(compareKeys(last, this.upperBound)>=0);
+		}
+	}
+
+	private void fetch(){
+		final CompletableFuture<PageSet<? extends StorageMetadata>> request=(this.pending!=null)? this.pending : this.client.listAsync(this.bucket, this.prefix, this.nextMarker, this.recursive);
+		this.pending=null;
+		final PageSet<? extends StorageMetadata> page=await(request);
+		this.fetched=true;
+		this.nextMarker=page.getNextMarker();
+		this.exhausted=(this.nextMarker==null)||(compareKeys(this.nextMarker, this.upperBound)>=0);
+		this.buffer=page.iterator();
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+		if(this.shards<2)
+			return null;
+		if(!this.fetched)
+			fetch();
+		if(this.exhausted)
+			return null;
+		final String from=this.nextMarker;
+		final Map<String,PageSet<? extends StorageMetadata>> probes=new HashMap<>();
+		final Optional<String> boundary=chooseBoundary(from, probes);
+		if(!boundary.isPresent())
+			return null;
+		final int splitShards=this.shards/2;
+		this.estimatedSize=this.estimatedSize>>>1;
+		final S3ListingSpliterator<T> reply=new S3ListingSpliterator<>(this.client, this.bucket, this.prefix, this.recursive, this.mapper
+																		, boundary.get(), this.upperBound, within(boundary.get(), this.upperBound)
+																		, splitShards, this.estimatedSize);
+		reply.pending=Optional.ofNullable(probes.get(boundary.get()))
+								.<CompletableFuture<PageSet<? extends StorageMetadata>>>map(CompletableFuture::completedFuture)
+								.orElse(null);
+		this.boundaries=within(from, boundary.get());
+		this.upperBound=boundary.get();
+		this.shards-=splitShards;
+		this.client.getMetrics().increment(S3FileSystemMetric.LIST_SHARDS);
+		return reply;
+	}
+
+	private Optional<String> chooseBoundary(final String _from,final Map<String,PageSet<? extends StorageMetadata>> _probes){
+		if(this.boundaries==null)
+			this.boundaries=discoverBoundaries();
+		final List<String> candidates=within(_from, this.upperBound);
+		if(!candidates.isEmpty())
+			return Optional.of(candidates.get(candidates.size()/2));
+		return splitCharacter(_from, sharedLength(_from, _probes), _probes);
+	}
+	/**
+	 * Length of the prefix of the last listed key shared by every key left in the range.
+	 * No key follows the listing prefix and some key follows the last listed key, in between each probe after the successor of a prefix halves the search.
+	 * The search counts code points so a probed prefix never ends in the middle of a surrogate pair
+	 * @param _from last listed key
+	 * @param _probes probed pages by marker
+	 * @return length in chars of the shared prefix
+	 */
+	private int sharedLength(final String _from,final Map<String,PageSet<? extends StorageMetadata>> _probes){
+		int shared=this.prefix.codePointCount(0, this.prefix.length());
+		int diverged=_from.codePointCount(0, _from.length())+1;
+		while(diverged-shared>1){
+			final int middle=(shared+diverged)>>>1;
+			if(probe(_from.substring(0, _from.offsetByCodePoints(0, middle))+KEY_UPPER_BOUND, _probes)){
+				diverged=middle;
+			}else{
+				shared=middle;
+			}
+		}
+		return _from.offsetByCodePoints(0, shared);
+	}
+	/**
+	 * Boundary at the middle character between the character of the last listed key and the highest character of the keys left, after the shared prefix.
+	 * The highest character is searched with probes, printable ascii first. Characters are ranked by code point skipping the surrogate range,
+	 * so every probe and boundary is a valid character
+	 * @param _from last listed key
+	 * @param _shared length in chars of the prefix shared by every key left in the range
+	 * @param _probes probed pages by marker
+	 * @return the boundary, empty if every key left has the same character
+	 */
+	private Optional<String> splitCharacter(final String _from,final int _shared,final Map<String,PageSet<? extends StorageMetadata>> _probes){
+		final String stem=_from.substring(0, _shared);
+		final int lowest=(_shared<_from.length())? rank(_from.codePointAt(_shared)) : -1;
+		int present=lowest;
+		int absent=rank(Character.MAX_CODE_POINT)+1;
+		if(lowest+1<ASCII_LIMIT){
+			if(probe(stem+character(ASCII_LIMIT), _probes)){
+				present=ASCII_LIMIT;
+			}else{
+				absent=ASCII_LIMIT;
+			}
+		}
+		while(absent-present>1){
+			final int middle=(present+absent)>>>1;
+			if(probe(stem+character(middle), _probes)){
+				present=middle;
+			}else{
+				absent=middle;
+			}
+		}
+		return Optional.of(present)
+						.filter(highest -> highest>lowest)
+						.map(highest -> stem+character(lowest+(highest-lowest+1)/2));
+	}
+	private static int rank(final int _codePoint){
+		return (_codePoint<Character.MIN_SURROGATE)? _codePoint : _codePoint-SURROGATES;
+	}
+	private static String character(final int _rank){
+		return new String(Character.toChars((_rank<Character.MIN_SURROGATE)? _rank : _rank+SURROGATES));
+	}
+	/**
+	 * @param _marker key after which the probe lists
+	 * @param _probes probed pages by marker, where the page is kept to be reused as first page of the shard starting at the marker
+	 * @return true if some key of the range follows the marker
+	 */
+	private boolean probe(final String _marker,final Map<String,PageSet<? extends StorageMetadata>> _probes){
+		if(compareKeys(_marker, this.upperBound)>=0)
+			return false;
+		final PageSet<? extends StorageMetadata> page=await(this.client.listAsync(this.bucket, this.prefix, _marker, this.recursive));
+		_probes.put(_marker, page);
+		return page.stream()
+						.map(StorageMetadata::getName)
+						.filter(Objects::nonNull)
+						.filter(name -> compareKeys(name, _marker)>0)
+						.anyMatch(name -> compareKeys(name, this.upperBound)<=0);
+	}
+	private List<String> discoverBoundaries(){
+		if(!this.recursive)
+			return Collections.emptyList();
+		return await(this.client.listAsync(this.bucket, this.prefix, null, false))
+							.stream()
+								.filter(metadata -> metadata.getType()==StorageType.RELATIVE_PATH)
+								.map(StorageMetadata::getName)
+								.map(name -> (name.endsWith(S3AbsolutePath.PATH_SEPARATOR))? name : name+S3AbsolutePath.PATH_SEPARATOR)
+								.sorted(KEY_ORDER)
+								.collect(Collectors.toList());
+	}
+	private List<String> within(final String _from,final String _to){
+		return (this.boundaries==null)? null : this.boundaries.stream()
+																.filter(candidate -> compareKeys(candidate, _from)>0)
+																.filter(candidate -> compareKeys(candidate, _to)<0)
+																.collect(Collectors.toCollection(ArrayList::new));
+	}
+
+	/**
+	 * Compare two keys in code point order. String.compareTo compares utf-16 units, which sorts the supplementary characters
+	 * before the characters from U+E000 to U+FFFF while the server sorts them after
+	 * @param _key first key
+	 * @param _other second key
+	 * @return negative, zero or positive as the first key sorts before, equal or after the second key
+	 */
+	public static int compareKeys(final String _key,final String _other){
+		final int length=Math.min(_key.length(),_other.length());
+		for(int i=0;i<length;i++){
+			final char current=_key.charAt(i);
+			final char other=_other.charAt(i);
+			if(current!=other){
+				if(Character.isSurrogate(current)==Character.isSurrogate(other))
+					return current-other;
+				return (Character.isSurrogate(current))? 1 : -1;
+			}
+		}
+		return _key.length()-_other.length();
+	}
+
+	private static PageSet<? extends StorageMetadata> await(final CompletableFuture<PageSet<? extends StorageMetadata>> _page){
+		try{
+			return _page.join();
+		}catch(CompletionException e){
+			throw (e.getCause() instanceof RuntimeException)? (RuntimeException)e.getCause() : e;
+		}
+	}
+
+	@Override
+	public long estimateSize() {
+		return this.estimatedSize;
+	}
+
+	@Override
+	public int characteristics() {
+		return Spliterator.DISTINCT|Spliterator.NONNULL;
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+
+/**
+ * Read-write channel for small objects that keeps the whole content in a pooled heap buffer instead of a spool file.
+ * Changes are uploaded straight from memory with a single put on close, if the content grows beyond the pool
+ * buffer size it is moved to a bigger buffer outside the pool.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3MemoryByteChannel implements SeekableByteChannel {
+
+	private final S3AbsolutePath path;
+	private final S3Client client;
+	private final Set<StandardOpenOption> options;
+	private final S3FileAttributeView attributes;
+	private final String contentType;
+	private final Map<String,String> userMetadata;
+	private final boolean readable;
+	private final boolean writable;
+	private ByteBuffer pooled;
+	private byte[] content;
+	private int size;
+	private long position;
+	private boolean modified;
+	private boolean open;
+
+
+	/**
+	 * Open or creates a small object keeping its content in memory
+	 * @param _path the path to open or create
+	 * @param _client s3 client
+	 * @param _options options specifying how the file is opened
+	 * @param _attributes attributes of the object or null if it does not exist
+	 * @throws IOException if the options are not compatible with the object existence or the content can not be retrieved
+	 */
+	public S3MemoryByteChannel(final S3AbsolutePath _path,final S3Client _client,final Set<StandardOpenOption> _options,final S3FileAttributeView _attributes) throws IOException {
+		this.path=_path;
+		this.client=_client;
+		this.options=_options;
+		this.attributes=_attributes;
+		if((_options.contains(StandardOpenOption.CREATE_NEW))&&(_attributes!=null))
+			throw new FileAlreadyExistsException(SimpleFormat.format("Object {} already exists", _path));
+		if((!_options.contains(StandardOpenOption.CREATE)&&!_options.contains(StandardOpenOption.CREATE_NEW))&&(_attributes==null))
+			throw new NoSuchFileException(SimpleFormat.format("Object {} not exists", _path));
+		if((_attributes!=null)&&(_attributes.isDirectory()))
+			throw new IOException(SimpleFormat.format("Object {} is a folder", _path));
+		this.contentType=Optional.ofNullable(_attributes)
+									.map(attribs -> attribs.getAttribute(S3FileAttribute.CONTENT_TYPE))
+									.map(type -> (String)type)
+									.orElse("application/octet-stream");
+		this.userMetadata=Optional.ofNullable(_attributes)
+									.map(S3FileAttributeView::getUserMetadata)
+									.orElse(Collections.emptyMap());
+		this.writable=_options.contains(StandardOpenOption.WRITE)||_options.contains(StandardOpenOption.APPEND);
+		this.readable=_options.contains(StandardOpenOption.READ)||!this.writable;
+		this.pooled=_client.getBufferPool().acquire();
+		this.content=this.pooled.array();
+		this.size=0;
+		this.position=0;
+		this.modified=(_attributes==null);
+		this.open=true;
+		final long existing=Optional.ofNullable(_attributes)
+										.map(S3FileAttributeView::size)
+										.orElse(0l);
+		if(this.writable&&_options.contains(StandardOpenOption.TRUNCATE_EXISTING)){
+			this.modified|=(existing>0);
+		}else if(S3ContentCoding.of(_attributes).isPresent()){
+			release();
+			throw new IOException(SimpleFormat.format("Object {} content is encoded, it can only be read or rewritten sequentially", _path));
+		}else if(existing>0){
+			load(existing);
+		}
+	}
+
+	protected void load(final long _existing) throws IOException{
+		ensureCapacity(_existing);
+		try(InputStream stream=this.client.getBlob(this.path, (String)this.attributes.getAttribute(S3FileAttribute.ETAG), 0, _existing-1)
+											.orElseThrow(() -> new IOException(SimpleFormat.format("Object {} changed or removed while opening", this.path)))
+											.openStream()){
+			for(int read=stream.read(this.content,this.size,(int)_existing-this.size);read>0;read=stream.read(this.content,this.size,(int)_existing-this.size)){
+				this.size+=read;
+			}
+		}catch(IOException|RuntimeException e){
+			release();
+			throw e;
+		}
+		if(this.size!=_existing){
+			release();
+			throw new IOException(SimpleFormat.format("Premature end of object {} at {}", this.path, this.size));
+		}
+	}
+
+	protected void ensureOpen() throws ClosedChannelException{
+		if(!this.open)
+			throw new ClosedChannelException();
+	}
+
+	protected void ensureCapacity(final long _capacity) throws IOException{
+		if(_capacity>Integer.MAX_VALUE-8)
+			throw new IOException(SimpleFormat.format("Object {} too big to be kept in memory: {}", this.path, _capacity));
+		if(_capacity>this.content.length){
+			this.content=Arrays.copyOf(this.content, (int)Math.min(Integer.MAX_VALUE-8, Math.max(_capacity, 2l*this.content.length)));
+			this.client.getBufferPool().release(this.pooled);
+			this.pooled=null;
+		}
+	}
+
+	protected void release(){
+		this.client.getBufferPool().release(this.pooled);
+		this.pooled=null;
+		this.content=null;
+	}
+
+	@Override
+	public int read(final ByteBuffer _dst) throws IOException {
+		ensureOpen();
+		if(!this.readable)
+			throw new NonReadableChannelException();
+		if(this.position>=this.size)
+			return -1;
+		final int reply=(int)Math.min(_dst.remaining(),this.size-this.position);
+		_dst.put(this.content, (int)this.position, reply);
+		this.position+=reply;
+		return reply;
+	}
+
+	@Override
+	public int write(final ByteBuffer _src) throws IOException {
+		ensureOpen();
+		if(!this.writable)
+			throw new NonWritableChannelException();
+		if(this.options.contains(StandardOpenOption.APPEND))
+			this.position=this.size;
+		final int reply=_src.remaining();
+		final long end=this.position+reply;
+		ensureCapacity(end);
+		if(this.position>this.size)
+			Arrays.fill(this.content, this.size, (int)this.position, (byte)0);
+		_src.get(this.content, (int)this.position, reply);
+		this.position=end;
+		this.size=(int)Math.max(this.size, end);
+		this.modified|=(reply>0);
+		return reply;
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return this.position;
+	}
+
+	@Override
+	public SeekableByteChannel position(final long _newPosition) throws IOException {
+		ensureOpen();
+		if(_newPosition<0)
+			throw new IllegalArgumentException(SimpleFormat.format("Negative position {}", _newPosition));
+		this.position=_newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return this.size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(final long _size) throws IOException {
+		ensureOpen();
+		if(_size<0)
+			throw new IllegalArgumentException(SimpleFormat.format("Negative size {}", _size));
+		if(!this.writable)
+			throw new NonWritableChannelException();
+		if(_size<this.size){
+			this.size=(int)_size;
+			this.modified=true;
+		}
+		this.position=Math.min(this.position, _size);
+		return this;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(!this.open)
+			return;
+		this.open=false;
+		try{
+			if(this.options.contains(StandardOpenOption.DELETE_ON_CLOSE)){
+				this.path.getFileSystem().provider().delete(this.path);
+			}else if(this.writable&&this.modified){
+				this.client.putBlob(this.path, this.content, this.size, this.contentType, this.userMetadata);
+			}
+		}finally{
+			release();
+		}
+	}
+}
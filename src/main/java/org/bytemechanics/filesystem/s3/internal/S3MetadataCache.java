@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.jclouds.blobstore.domain.BlobMetadata;
+
+/**
+ * Metadata of the objects of a filesystem cached for a limited time.
+ * Entries expire after the configured time to live and the least recently used ones are evicted when the maximum number of entries is exceeded.
+ * The client invalidates the entries of the objects it writes, copies or deletes. A lookup that started before any invalidation is not cached,
+ * so a response that raced with a write can not resurrect the previous metadata
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3MetadataCache {
+
+	private final long timeToLiveMillis;
+	private final int maxEntries;
+	private final S3Metrics metrics;
+	private final LinkedHashMap<String,Entry> entries;
+	private long invalidations;
+
+
+	/**
+	 * @param _timeToLiveMillis time to live of the entries, 0 disables the cache
+	 * @param _maxEntries maximum number of entries
+	 * @param _metrics metrics where hits, misses, evictions and invalidations are published
+	 */
+	public S3MetadataCache(final long _timeToLiveMillis,final int _maxEntries,final S3Metrics _metrics){
+		this.timeToLiveMillis=_timeToLiveMillis;
+		this.maxEntries=_maxEntries;
+		this.metrics=_metrics;
+		this.entries=new LinkedHashMap<>(16,0.75f,true);
+		this.invalidations=0l;
+	}
+
+	public boolean isEnabled(){
+		return (this.timeToLiveMillis>0)&&(this.maxEntries>0);
+	}
+	public long getTimeToLiveMillis(){
+		return this.timeToLiveMillis;
+	}
+	public int getMaxEntries(){
+		return this.maxEntries;
+	}
+	public synchronized int size(){
+		return this.entries.size();
+	}
+	public double getHitRatio(){
+		final long hits=this.metrics.get(S3FileSystemMetric.METADATA_CACHE_HITS);
+		final long total=hits+this.metrics.get(S3FileSystemMetric.METADATA_CACHE_MISSES);
+		return (total==0)? 0.0d : ((double)hits)/total;
+	}
+
+	/**
+	 * @return stamp to hand to put, taken before the lookup of the metadata to cache
+	 */
+	public synchronized long stamp(){
+		return this.invalidations;
+	}
+
+	/**
+	 * @param _bucket object bucket
+	 * @param _key object key
+	 * @return the cached metadata if it has not expired
+	 */
+	public synchronized Optional<BlobMetadata> get(final String _bucket,final String _key){
+		if(!isEnabled())
+			return Optional.empty();
+		final String key=key(_bucket, _key);
+		final Entry entry=this.entries.get(key);
+		if((entry!=null)&&(entry.expiration-System.nanoTime()<=0)){
+			this.entries.remove(key);
+		}else if(entry!=null){
+			this.metrics.increment(S3FileSystemMetric.METADATA_CACHE_HITS);
+			return Optional.of(entry.metadata);
+		}
+		this.metrics.increment(S3FileSystemMetric.METADATA_CACHE_MISSES);
+		return Optional.empty();
+	}
+
+	/**
+	 * Cache the metadata unless any entry has been invalidated since the stamp was taken
+	 * @param _bucket object bucket
+	 * @param _key object key
+	 * @param _metadata metadata to cache
+	 * @param _stamp stamp taken before the metadata lookup
+	 */
+	public synchronized void put(final String _bucket,final String _key,final BlobMetadata _metadata,final long _stamp){
+		if((!isEnabled())||(_stamp!=this.invalidations))
+			return;
+		this.entries.put(key(_bucket, _key), new Entry(_metadata, System.nanoTime()+this.timeToLiveMillis*1000000l));
+		while(this.entries.size()>this.maxEntries){
+			this.entries.remove(this.entries.keySet().iterator().next());
+			this.metrics.increment(S3FileSystemMetric.METADATA_CACHE_EVICTIONS);
+		}
+	}
+
+	/**
+	 * Discard the cached metadata of an object, for folder markers the folder entry is discarded too
+	 * @param _bucket object bucket
+	 * @param _key object key
+	 * @param _folderMarker name of the folder marker objects
+	 */
+	public synchronized void invalidate(final String _bucket,final String _key,final String _folderMarker){
+		this.invalidations++;
+		this.metrics.increment(S3FileSystemMetric.METADATA_CACHE_INVALIDATIONS);
+		this.entries.remove(key(_bucket, _key));
+		if(_key.endsWith('/'+_folderMarker))
+			this.entries.remove(key(_bucket, _key.substring(0, _key.length()-_folderMarker.length()-1)));
+	}
+
+	public synchronized void clear(){
+		this.invalidations++;
+		this.entries.clear();
+	}
+
+	private static String key(final String _bucket,final String _key){
+		return _bucket+'/'+_key;
+	}
+
+
+	private static final class Entry{
+
+		private final BlobMetadata metadata;
+		private final long expiration;
+
+		Entry(final BlobMetadata _metadata,final long _expiration){
+			this.metadata=_metadata;
+			this.expiration=_expiration;
+		}
+	}
+}
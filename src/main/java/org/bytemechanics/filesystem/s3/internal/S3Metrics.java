@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+
+/**
+ * Thread safe counters of a filesystem, and gauges whose value is read from the measured component
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3Metrics {
+
+	private final Map<S3FileSystemMetric,LongAdder> counters;
+	private final Map<S3FileSystemMetric,LongSupplier> gauges;
+
+
+	public S3Metrics(){
+		this.counters=Stream.of(S3FileSystemMetric.values())
+								.collect(Collectors.toMap(metric -> metric
+																,metric -> new LongAdder()
+																,(adder1,adder2) -> adder1
+																,() -> new EnumMap<>(S3FileSystemMetric.class)));
+		this.gauges=new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Publish the metric reading its value from the given supplier instead of counting it
+	 * @param _metric metric
+	 * @param _value supplier of the current value
+	 */
+	public void gauge(final S3FileSystemMetric _metric,final LongSupplier _value){
+		this.gauges.put(_metric, _value);
+	}
+	public void increment(final S3FileSystemMetric _metric){
+		this.counters.get(_metric).increment();
+	}
+	public void add(final S3FileSystemMetric _metric,final long _value){
+		this.counters.get(_metric).add(_value);
+	}
+	public long get(final S3FileSystemMetric _metric){
+		final LongSupplier gauge=this.gauges.get(_metric);
+		return (gauge!=null)? gauge.getAsLong() : this.counters.get(_metric).sum();
+	}
+	public Map<S3FileSystemMetric,Long> snapshot(){
+		return this.counters.entrySet()
+								.stream()
+									.collect(Collectors.toMap(Map.Entry::getKey
+																,entry -> get(entry.getKey())
+																,(value1,value2) -> value1
+																,() -> new EnumMap<>(S3FileSystemMetric.class)));
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.io.Payload;
+
+/**
+ * Write only channel that uploads the content as multipart parts while the caller is still writing.
+ * Content is kept in a bounded set of part sized buffers, when all of them are in flight writers block until one part finishes.
+ * Objects smaller than a part are uploaded with a single put on close.
+ * When opened with APPEND the existing content is kept: big objects are reused with server side part copies
+ * and small ones are preloaded into the first buffer.
+ * Each part is digested while it is filled and sent with its Content-MD5.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3MultipartWriteChannel implements SeekableByteChannel {
+
+	private final S3AbsolutePath path;
+	private final S3Client client;
+	private final String contentType;
+	private final String contentEncoding;
+	private final Map<String,String> userMetadata;
+	private final int partSize;
+	private final int maxBuffers;
+	private final BlockingQueue<byte[]> freeBuffers;
+	private final List<CompletableFuture<MultipartPart>> parts;
+	private final S3Checksum partChecksum;
+	private int allocatedBuffers;
+	private byte[] current;
+	private int currentLength;
+	private long written;
+	private long appended;
+	private MultipartUpload upload;
+	private boolean metadataChanged;
+	private boolean open;
+
+
+	/**
+	 * Open or creates an object for sequential writing, any previous content is discarded unless APPEND is requested
+	 * @param _path the path to open or create
+	 * @param _client s3 client
+	 * @param _options options specifying how the file is opened
+	 * @throws IOException if the options are not compatible with the object existence
+	 */
+	public S3MultipartWriteChannel(final S3AbsolutePath _path,final S3Client _client,final Set<StandardOpenOption> _options) throws IOException {
+		this(_path, _client, S3ChannelOptions.of(_options));
+	}
+
+	/**
+	 * Open or creates an object for sequential writing honouring the part size hint
+	 * @param _path the path to open or create
+	 * @param _client s3 client
+	 * @param _options open options
+	 * @throws IOException if the options are not compatible with the object existence
+	 */
+	public S3MultipartWriteChannel(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options) throws IOException {
+		this(_path, _client, _options, null);
+	}
+
+	/**
+	 * Open or creates an object for sequential writing of content already encoded with the given Content-Encoding
+	 * @param _path the path to open or create
+	 * @param _client s3 client
+	 * @param _options open options
+	 * @param _contentEncoding content encoding to store, or null if the content is stored as is
+	 * @throws IOException if the options are not compatible with the object existence
+	 */
+	public S3MultipartWriteChannel(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options,final String _contentEncoding) throws IOException {
+		this.path=_path;
+		this.client=_client;
+		final S3FileAttributeView attributes=_client.getBlobMetadata(_path)
+														.map(S3FileAttributeView::new)
+														.orElse(null);
+		if((_options.contains(StandardOpenOption.CREATE_NEW))&&(attributes!=null))
+			throw new FileAlreadyExistsException(SimpleFormat.format("Object {} already exists", _path));
+		if((!_options.contains(StandardOpenOption.CREATE)&&!_options.contains(StandardOpenOption.CREATE_NEW))&&(attributes==null))
+			throw new NoSuchFileException(SimpleFormat.format("Object {} not exists", _path));
+		if((attributes!=null)&&(attributes.isDirectory()))
+			throw new IOException(SimpleFormat.format("Object {} is a folder", _path));
+		if(_options.contains(StandardOpenOption.APPEND)&&((_contentEncoding!=null)||(S3ContentCoding.of(attributes).isPresent())))
+			throw new IOException(SimpleFormat.format("Object {} can not be appended because its content is encoded", _path));
+		this.contentType=Optional.ofNullable(attributes)
+									.map(attribs -> attribs.getAttribute(S3FileAttribute.CONTENT_TYPE))
+									.map(type -> (String)type)
+									.orElse("application/octet-stream");
+		this.contentEncoding=_contentEncoding;
+		this.userMetadata=new HashMap<>(Optional.ofNullable(attributes)
+													.map(S3FileAttributeView::getUserMetadata)
+													.orElse(Collections.emptyMap()));
+		this.userMetadata.remove(S3FileAttributeView.LOGICAL_SIZE_METADATA);
+		this.partSize=_client.getUploadPartSize(_options);
+		this.maxBuffers=Math.max(1,_client.getUploadBuffers())+1;
+		this.freeBuffers=new ArrayBlockingQueue<>(this.maxBuffers);
+		this.parts=new ArrayList<>();
+		this.partChecksum=_client.newChecksum().orElse(null);
+		this.allocatedBuffers=0;
+		this.current=null;
+		this.currentLength=0;
+		this.written=0;
+		this.appended=-1;
+		this.upload=null;
+		this.metadataChanged=false;
+		this.open=true;
+		if(_options.contains(StandardOpenOption.APPEND)&&(attributes!=null)&&(attributes.size()>0))
+			appendTo(attributes);
+	}
+
+	/**
+	 * Keep the existing content of the object as the beginning of the new content
+	 * @param _attributes existing object attributes
+	 * @throws IOException if the existing content can not be retrieved
+	 */
+	protected void appendTo(final S3FileAttributeView _attributes) throws IOException{
+
+		final long existing=_attributes.size();
+		final String etag=(String)_attributes.getAttribute(S3FileAttribute.ETAG);
+
+		if(existing>=this.client.getMinimumMultipartPartSize()){
+			final MultipartUpload currentUpload=this.client.initiateMultipartUpload(this.path, this.contentType, this.userMetadata);
+			final long copyParts=(existing+this.client.getMaximumMultipartPartSize()-1)/this.client.getMaximumMultipartPartSize();
+			final long copySize=(existing+copyParts-1)/copyParts;
+			this.upload=currentUpload;
+			for(long from=0;from<existing;from+=copySize){
+				final int partNumber=this.parts.size()+1;
+				final long copyFrom=from;
+				final long copyTo=Math.min(existing,from+copySize)-1;
+				this.parts.add(this.client.asyncRetrying(() -> this.client.uploadPartCopy(currentUpload, partNumber, this.path, etag, copyFrom, copyTo)
+															,() -> SimpleFormat.format("part copy {} of {}", partNumber, this.path))
+												.thenApply(copied -> copied.orElseThrow(() -> new UncheckedIOException(new IOException(SimpleFormat.format("Object {} changed or removed while appending", this.path))))));
+			}
+		}else{
+			final Payload payload=this.client.getBlob(this.path, etag, 0, existing-1)
+												.orElseThrow(() -> new IOException(SimpleFormat.format("Object {} changed or removed while opening", this.path)));
+			this.current=nextBuffer();
+			try(InputStream stream=payload.openStream()){
+				for(int read=stream.read(this.current,this.currentLength,(int)existing-this.currentLength);read>0;read=stream.read(this.current,this.currentLength,(int)existing-this.currentLength)){
+					this.currentLength+=read;
+				}
+			}
+			if(this.currentLength!=existing)
+				throw new IOException(SimpleFormat.format("Premature end of object {} at {}", this.path, this.currentLength));
+			digest(0, this.currentLength);
+		}
+		this.written=existing;
+		this.appended=existing;
+	}
+
+	/**
+	 * Add user metadata only known once the content is complete.
+	 * If the upload has already started as multipart, the metadata is applied with an in-place copy after the upload completes and close fails if it can not be applied
+	 * @param _key metadata key
+	 * @param _value metadata value
+	 */
+	public void putUserMetadata(final String _key,final String _value){
+		this.userMetadata.put(_key, _value);
+		this.metadataChanged=(this.upload!=null);
+	}
+
+	protected void ensureOpen() throws ClosedChannelException{
+		if(!this.open)
+			throw new ClosedChannelException();
+	}
+
+	protected byte[] nextBuffer() throws IOException{
+		byte[] reply=this.freeBuffers.poll();
+		if(reply==null){
+			if(this.allocatedBuffers<this.maxBuffers){
+				this.allocatedBuffers++;
+				reply=new byte[this.partSize];
+			}else{
+				try {
+					reply=this.freeBuffers.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(SimpleFormat.format("Interrupted while waiting for a free buffer uploading {}", this.path),e);
+				}
+			}
+		}
+		return reply;
+	}
+
+	/**
+	 * Digest the bytes just copied into the current buffer, so the part md5 is ready when the part is full
+	 * @param _offset first byte copied
+	 * @param _length bytes copied
+	 */
+	protected void digest(final int _offset,final int _length){
+		if(this.partChecksum!=null)
+			this.partChecksum.update(this.current, _offset, _length);
+	}
+
+	protected HashCode takePartMd5(){
+		if(this.partChecksum==null)
+			return null;
+		final HashCode reply=this.partChecksum.md5();
+		this.partChecksum.reset();
+		return reply;
+	}
+
+	protected void checkFailedParts() throws IOException{
+		for(CompletableFuture<MultipartPart> part:this.parts){
+			if(part.isCompletedExceptionally()){
+				joinPart(part);
+			}
+		}
+	}
+
+	protected MultipartPart joinPart(final CompletableFuture<MultipartPart> _part) throws IOException{
+		try{
+			return _part.join();
+		}catch(CompletionException e){
+			throw new IOException(SimpleFormat.format("Unable to upload part of {}", this.path),e.getCause());
+		}
+	}
+
+	protected void flushPart() throws IOException{
+		checkFailedParts();
+		if(this.upload==null)
+			this.upload=this.client.initiateMultipartUpload(this.path, this.contentType, this.contentEncoding, this.userMetadata);
+		final int partNumber=this.parts.size()+1;
+		if(partNumber>this.client.getMaximumNumberOfParts())
+			throw new IOException(SimpleFormat.format("Object {} exceeds the maximum number of parts {}", this.path, this.client.getMaximumNumberOfParts()));
+		final byte[] buffer=this.current;
+		final int length=this.currentLength;
+		final HashCode md5=takePartMd5();
+		final MultipartUpload currentUpload=this.upload;
+		this.parts.add(this.client.asyncRetrying(() -> this.client.uploadPart(currentUpload, partNumber, buffer, length, md5)
+													,() -> SimpleFormat.format("part {} of {}", partNumber, this.path))
+										.whenComplete((part,failure) -> this.freeBuffers.offer(buffer)));
+		this.current=null;
+		this.currentLength=0;
+	}
+
+	@Override
+	public int write(final ByteBuffer _src) throws IOException {
+		ensureOpen();
+		final int reply=_src.remaining();
+		while(_src.hasRemaining()){
+			if(this.current==null)
+				this.current=nextBuffer();
+			final int length=Math.min(_src.remaining(),this.partSize-this.currentLength);
+			_src.get(this.current, this.currentLength, length);
+			digest(this.currentLength, length);
+			this.currentLength+=length;
+			this.written+=length;
+			if(this.currentLength==this.partSize)
+				flushPart();
+		}
+		return reply;
+	}
+
+	@Override
+	public int read(final ByteBuffer _dst) throws IOException {
+		throw new NonReadableChannelException();
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return this.written;
+	}
+
+	@Override
+	public SeekableByteChannel position(final long _newPosition) throws IOException {
+		ensureOpen();
+		if(_newPosition!=this.written)
+			throw new UnsupportedOperationException(SimpleFormat.format("Streaming channel of {} can not seek to {}", this.path, _newPosition));
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return this.written;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(final long _size) throws IOException {
+		ensureOpen();
+		if(_size<this.written)
+			throw new UnsupportedOperationException(SimpleFormat.format("Streaming channel of {} can not truncate to {}", this.path, _size));
+		return this;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	/**
+	 * Nothing has been appended, the existing object is left untouched
+	 */
+	protected void discard(){
+		this.parts.forEach(part -> part.cancel(false));
+		if(this.upload!=null)
+			this.client.abortMultipartUpload(this.upload);
+		this.current=null;
+		this.freeBuffers.clear();
+	}
+
+	/**
+	 * Apply the metadata added after the upload started to the uploaded object
+	 * @param _etag etag of the uploaded object
+	 * @throws IOException if the metadata can not be applied
+	 */
+	protected void replaceMetadata(final String _etag) throws IOException{
+		this.client.replaceMetadata(this.path, _etag, this.written, this.contentType, this.contentEncoding, this.userMetadata);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(!this.open)
+			return;
+		this.open=false;
+		if(this.written==this.appended){
+			discard();
+			return;
+		}
+		if(this.upload==null){
+			this.client.putBlob(this.path, Optional.ofNullable(this.current).orElseGet(() -> new byte[0]), this.currentLength, takePartMd5(), this.contentType, this.contentEncoding, this.userMetadata);
+			this.current=null;
+			return;
+		}
+		final List<MultipartPart> uploaded=new ArrayList<>(this.parts.size());
+		final String etag;
+		try{
+			if(this.currentLength>0)
+				flushPart();
+			for(CompletableFuture<MultipartPart> part:this.parts){
+				uploaded.add(joinPart(part));
+			}
+			uploaded.sort(Comparator.comparingInt(MultipartPart::partNumber));
+			etag=this.client.completeMultipartUpload(this.upload, uploaded);
+		}catch(IOException|RuntimeException e){
+			this.parts.forEach(part -> part.cancel(false));
+			this.client.abortMultipartUpload(this.upload);
+			throw e;
+		}finally{
+			this.current=null;
+			this.freeBuffers.clear();
+		}
+		this.client.verifyMultipartChecksum(uploaded, etag, () -> this.path.toString());
+		if(this.metadataChanged)
+			replaceMetadata(etag);
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+
+/**
+ * Keys of a filesystem known to be absent, answered locally to save the HEAD requests of the lookups.
+ * Keys found absent by a lookup are remembered for a limited time, bounded in number with least recently used eviction.
+ * Additionally a bloom filter of the existing keys under a prefix can be built from a listing, any key under that prefix that the filter does not contain is absent
+ * until the filter expires. The client keeps both current with its own writes: written keys are forgotten as absent and added to the covering filters
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3NegativeCache {
+
+	private final long timeToLiveMillis;
+	private final int maxEntries;
+	private final long filterTimeToLiveMillis;
+	private final double filterFalsePositiveProbability;
+	private final S3Metrics metrics;
+	private final LinkedHashMap<String,Long> absent;
+	private final Map<String,KeyFilter> filters;
+	private long invalidations;
+
+
+	/**
+	 * @param _timeToLiveMillis time to live of the keys found absent, 0 to not remember them
+	 * @param _maxEntries maximum number of keys remembered as absent
+	 * @param _filterTimeToLiveMillis time to live of the key filters built from listings, 0 to not build them
+	 * @param _filterFalsePositiveProbability expected false positive probability of the key filters
+	 * @param _metrics metrics where hits, false positives and avoided requests are published
+	 */
+	public S3NegativeCache(final long _timeToLiveMillis,final int _maxEntries,final long _filterTimeToLiveMillis,final double _filterFalsePositiveProbability,final S3Metrics _metrics){
+		this.timeToLiveMillis=_timeToLiveMillis;
+		this.maxEntries=_maxEntries;
+		this.filterTimeToLiveMillis=_filterTimeToLiveMillis;
+		this.filterFalsePositiveProbability=_filterFalsePositiveProbability;
+		this.metrics=_metrics;
+		this.absent=new LinkedHashMap<>(16,0.75f,true);
+		this.filters=new HashMap<>();
+		this.invalidations=0l;
+	}
+
+	public boolean isEnabled(){
+		return (this.timeToLiveMillis>0)&&(this.maxEntries>0);
+	}
+	public boolean isFilterEnabled(){
+		return this.filterTimeToLiveMillis>0;
+	}
+	public synchronized int size(){
+		return this.absent.size();
+	}
+	/**
+	 * @return observed rate of absent keys the filters reported as possibly existing
+	 */
+	public double getFalsePositiveRate(){
+		final long falsePositives=this.metrics.get(S3FileSystemMetric.KEY_FILTER_FALSE_POSITIVES);
+		final long negatives=falsePositives+this.metrics.get(S3FileSystemMetric.KEY_FILTER_HITS);
+		return (negatives==0)? 0.0d : ((double)falsePositives)/negatives;
+	}
+
+	/**
+	 * @return stamp to hand to recordAbsent, taken before the lookup
+	 */
+	public synchronized long stamp(){
+		return this.invalidations;
+	}
+
+	/**
+	 * @param _bucket bucket
+	 * @param _key key
+	 * @return true if the key is known to be absent
+	 */
+	public synchronized boolean isAbsent(final String _bucket,final String _key){
+		final String key=key(_bucket, _key);
+		final Long expiration=this.absent.get(key);
+		if(expiration!=null){
+			if(expiration-System.nanoTime()>0){
+				this.metrics.increment(S3FileSystemMetric.NEGATIVE_CACHE_HITS);
+				return true;
+			}
+			this.absent.remove(key);
+		}
+		final Iterator<KeyFilter> iterator=this.filters.values().iterator();
+		while(iterator.hasNext()){
+			final KeyFilter filter=iterator.next();
+			if(filter.expiration-System.nanoTime()<=0){
+				iterator.remove();
+			}else if(filter.covers(_bucket, _key)&&(!filter.keys.mightContain(_key))){
+				this.metrics.increment(S3FileSystemMetric.KEY_FILTER_HITS);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remember a key a lookup found absent, unless any key has been written since the stamp was taken
+	 * @param _bucket bucket
+	 * @param _key key
+	 * @param _stamp stamp taken before the lookup
+	 */
+	public synchronized void recordAbsent(final String _bucket,final String _key,final long _stamp){
+		this.filters.values()
+						.stream()
+							.filter(filter -> filter.covers(_bucket, _key))
+							.filter(filter -> filter.expiration-System.nanoTime()>0)
+							.findAny()
+							.ifPresent(filter -> this.metrics.increment(S3FileSystemMetric.KEY_FILTER_FALSE_POSITIVES));
+		if((!isEnabled())||(_stamp!=this.invalidations))
+			return;
+		this.absent.put(key(_bucket, _key), System.nanoTime()+this.timeToLiveMillis*1000000l);
+		while(this.absent.size()>this.maxEntries){
+			this.absent.remove(this.absent.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * Forget a written key as absent and add it to the filters covering it, for folder markers the folder is handled too
+	 * @param _bucket bucket
+	 * @param _key written key
+	 * @param _folderMarker name of the folder marker objects
+	 */
+	public synchronized void invalidate(final String _bucket,final String _key,final String _folderMarker){
+		this.invalidations++;
+		written(_bucket, _key);
+		if(_key.endsWith('/'+_folderMarker))
+			written(_bucket, _key.substring(0, _key.length()-_folderMarker.length()-1));
+	}
+
+	private void written(final String _bucket,final String _key){
+		this.absent.remove(key(_bucket, _key));
+		this.filters.values()
+						.stream()
+							.filter(filter -> filter.covers(_bucket, _key))
+							.forEach(filter -> filter.keys.put(_key));
+	}
+
+	/**
+	 * @return an empty key set with the false positive probability of the filters, to be filled with the keys of a listing as its pages arrive
+	 */
+	public KeySet newKeySet(){
+		return new KeySet(this.filterFalsePositiveProbability);
+	}
+
+	/**
+	 * Replace the key filter of a prefix with one built from a listing of the keys under it
+	 * @param _bucket bucket
+	 * @param _prefix listed prefix, empty for the whole bucket
+	 * @param _keys listed keys
+	 * @param _folderMarker name of the folder marker objects, their folders are added too
+	 */
+	public void putFilter(final String _bucket,final String _prefix,final List<String> _keys,final String _folderMarker){
+		final KeySet keys=newKeySet();
+		_keys.forEach(key -> keys.put(key, _folderMarker));
+		putFilter(_bucket, _prefix, keys);
+	}
+	/**
+	 * Replace the key filter of a prefix with the keys listed under it, the key set must not be filled anymore
+	 * @param _bucket bucket
+	 * @param _prefix listed prefix, empty for the whole bucket
+	 * @param _keys listed keys
+	 */
+	public synchronized void putFilter(final String _bucket,final String _prefix,final KeySet _keys){
+		if(!isFilterEnabled())
+			return;
+		this.filters.put(key(_bucket, _prefix), new KeyFilter(_bucket, _prefix, _keys, System.nanoTime()+this.filterTimeToLiveMillis*1000000l));
+	}
+
+	public synchronized void clear(){
+		this.invalidations++;
+		this.absent.clear();
+		this.filters.clear();
+	}
+
+	private static String key(final String _bucket,final String _key){
+		return _bucket+'/'+_key;
+	}
+
+
+	/**
+	 * Bloom filter of keys that grows with them instead of being sized upfront: when full it adds a filter of twice the capacity
+	 * and half the false positive probability, so the compound false positive probability stays under the requested one
+	 */
+	public static final class KeySet{
+
+		private static final int INITIAL_CAPACITY=1024;
+
+		private final double falsePositiveProbability;
+		private final List<BloomFilter<CharSequence>> stages;
+		private int stageCapacity;
+		private int stageSize;
+		private int size;
+
+		KeySet(final double _falsePositiveProbability){
+			this.falsePositiveProbability=_falsePositiveProbability;
+			this.stages=new ArrayList<>();
+			this.stageCapacity=INITIAL_CAPACITY/2;
+			this.stageSize=this.stageCapacity;
+			this.size=0;
+		}
+
+		/**
+		 * @return number of keys put
+		 */
+		public int size(){
+			return this.size;
+		}
+
+		public void put(final String _key){
+			if(this.stageSize>=this.stageCapacity){
+				this.stageCapacity*=2;
+				this.stageSize=0;
+				this.stages.add(BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), this.stageCapacity, this.falsePositiveProbability/(2<<this.stages.size())));
+			}
+			this.stages.get(this.stages.size()-1).put(_key);
+			this.stageSize++;
+			this.size++;
+		}
+		/**
+		 * Put a listed key, the folder of folder marker objects is put too
+		 * @param _key listed key
+		 * @param _folderMarker name of the folder marker objects
+		 */
+		public void put(final String _key,final String _folderMarker){
+			put(_key);
+			if(_key.endsWith('/'+_folderMarker))
+				put(_key.substring(0, _key.length()-_folderMarker.length()-1));
+		}
+
+		public boolean mightContain(final String _key){
+			for(BloomFilter<CharSequence> stage:this.stages){
+				if(stage.mightContain(_key))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private static final class KeyFilter{
+
+		private final String bucket;
+		private final String prefix;
+		private final KeySet keys;
+		private final long expiration;
+
+		KeyFilter(final String _bucket,final String _prefix,final KeySet _keys,final long _expiration){
+			this.bucket=_bucket;
+			this.prefix=_prefix;
+			this.keys=_keys;
+			this.expiration=_expiration;
+		}
+
+		boolean covers(final String _bucket,final String _key){
+			return this.bucket.equals(_bucket)&&_key.startsWith(this.prefix);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
+
+/**
+ * Uploads a local file as a multipart upload with a bounded number of parts in flight.
+ * Part sizes adapt to the measured throughput through S3PartSizer and each failed part is retried on its own.
+ * Journaled uploads of files that outlive the upload are recorded with S3UploadJournal, when a journal directory is configured, so they can be resumed after a failure or a restart.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3ParallelUploader {
+
+	private final S3Client client;
+	private final S3AbsolutePath path;
+	private final Path file;
+	private final long size;
+	private final S3PartSizer sizer;
+	private final Map<Integer,String> uploaded;
+
+
+	/**
+	 * @param _client s3 client
+	 * @param _path object to upload
+	 * @param _file local file with the content
+	 * @param _initialPartSize part size to use until the throughput is known
+	 * @throws IOException if the file size can not be retrieved
+	 */
+	public S3ParallelUploader(final S3Client _client,final S3AbsolutePath _path,final Path _file,final long _initialPartSize) throws IOException{
+		this.client=_client;
+		this.path=_path;
+		this.file=_file;
+		this.size=Files.size(_file);
+		this.uploaded=new HashMap<>();
+		this.sizer=new S3PartSizer(this.size, _initialPartSize, _client.getMinimumMultipartPartSize(), _client.getMaximumMultipartPartSize(), _client.getMaximumNumberOfParts(), _client.getUploadPartTargetMillis());
+	}
+
+	protected CompletableFuture<MultipartPart> uploadPart(final MultipartUpload _upload,final int _partNumber,final long _offset,final long _length){
+		return this.client.asyncRetrying(() -> {
+										final long start=System.nanoTime();
+										final MultipartPart reply=this.client.uploadPart(_upload, _partNumber, this.file, _offset, _length);
+										this.sizer.record(_length, System.nanoTime()-start);
+										return reply;
+									}
+									,() -> SimpleFormat.format("part {} of {}", _partNumber, this.path));
+	}
+
+	/**
+	 * Open the journal of this upload, resuming the previous upload of the same file if the server still has it
+	 * @param _journalDirectory journal directory
+	 * @param _mediaType content type
+	 * @param _userMetadata user metadata
+	 * @return the journal and the upload
+	 * @throws IOException if the journal can not be read or written
+	 */
+	protected Tuple<S3UploadJournal,MultipartUpload> openJournal(final Path _journalDirectory,final String _mediaType,final Map<String,String> _userMetadata) throws IOException{
+
+		final Optional<S3UploadJournal> previous=S3UploadJournal.load(_journalDirectory, this.path.getBucket(), this.path.getBucketPath(), this.file);
+		if(previous.isPresent()){
+			final Optional<Tuple<MultipartUpload,Map<Integer,String>>> resumed=this.client.resumeMultipartUpload(this.path, previous.get().getUploadId());
+			if(resumed.isPresent()){
+				this.client.getMetrics().increment(S3FileSystemMetric.RESUMED_UPLOADS);
+				this.uploaded.putAll(resumed.get().right());
+				return Tuple.of(previous.get(), resumed.get().left());
+			}
+			previous.get().delete();
+		}
+		final MultipartUpload upload=this.client.initiateMultipartUpload(this.path, _mediaType, _userMetadata);
+		try{
+			return Tuple.of(S3UploadJournal.create(_journalDirectory, this.path.getBucket(), this.path.getBucketPath(), this.file, upload.id()), upload);
+		}catch(IOException e){
+			throw abort(upload, null, Collections.emptyList(), false, e);
+		}
+	}
+
+	protected CompletableFuture<MultipartPart> dispatch(final MultipartUpload _upload,final S3UploadJournal _journal,final Semaphore _slots,final int _partNumber,final long _offset,final long _length) throws IOException{
+		if(_journal!=null)
+			_journal.planned(_partNumber, _offset, _length);
+		return uploadPart(_upload, _partNumber, _offset, _length)
+							.thenApply(reply -> {
+												if(_journal!=null){
+													try{
+														_journal.completed(_partNumber, reply.partETag());
+													}catch(IOException e){
+														throw new UncheckedIOException(e);
+													}
+												}
+												return reply;
+											})
+							.whenComplete((part,failure) -> _slots.release());
+	}
+
+	/**
+	 * Upload the file.
+	 * When the upload is journaled and a journal directory is configured the progress is journaled and a previous upload of the same unchanged file is resumed,
+	 * only the parts the server does not have are uploaded again and an upload whose parts failed is left in place to be resumed later.
+	 * Any other failed upload is aborted and its journal removed.
+	 * @param _mediaType content type
+	 * @param _userMetadata user metadata
+	 * @param _journaled true if the file outlives the upload so that the upload can be resumed
+	 * @return the s3 identifier
+	 * @throws IOException if any part fails after all its retries or the upload can not be completed
+	 */
+	public String upload(final String _mediaType,final Map<String,String> _userMetadata,final boolean _journaled) throws IOException{
+
+		final Optional<Path> journalDirectory=this.client.getJournalDirectory()
+																.filter(directory -> _journaled);
+		final Tuple<S3UploadJournal,MultipartUpload> started=(journalDirectory.isPresent())? 
+																openJournal(journalDirectory.get(), _mediaType, _userMetadata)
+																: Tuple.of(null, this.client.initiateMultipartUpload(this.path, _mediaType, _userMetadata));
+		final S3UploadJournal journal=started.left();
+		final MultipartUpload upload=started.right();
+		final Semaphore slots=new Semaphore(this.client.getUploadParallelism());
+		final List<CompletableFuture<MultipartPart>> parts=new ArrayList<>();
+		final List<MultipartPart> uploadedParts=new ArrayList<>();
+
+		try{
+			long offset=0;
+			if(journal!=null){
+				for(Map.Entry<Integer,long[]> planned:journal.getPlanned().entrySet()){
+					final int partNumber=planned.getKey();
+					final long from=planned.getValue()[0];
+					final long length=planned.getValue()[1];
+					final String etag=this.uploaded.get(partNumber);
+					if(etag!=null){
+						parts.add(CompletableFuture.completedFuture(MultipartPart.create(partNumber, length, etag, null)));
+					}else{
+						slots.acquire();
+						parts.add(dispatch(upload, journal, slots, partNumber, from, length));
+					}
+					offset=from+length;
+				}
+			}
+			while(offset<this.size){
+				slots.acquire();
+				for(CompletableFuture<MultipartPart> part:parts){
+					if(part.isCompletedExceptionally())
+						part.join();
+				}
+				final int partNumber=parts.size()+1;
+				final long length=this.sizer.next(offset, parts.size());
+				parts.add(dispatch(upload, journal, slots, partNumber, offset, length));
+				offset+=length;
+			}
+			for(CompletableFuture<MultipartPart> part:parts){
+				uploadedParts.add(part.join());
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw abort(upload, journal, parts, true, new IOException(SimpleFormat.format("Interrupted while uploading {}", this.path),e));
+		}catch(CompletionException e){
+			// journal failures leave a journal that can not be trusted to resume
+			throw abort(upload, journal, parts, !(e.getCause() instanceof UncheckedIOException), new IOException(SimpleFormat.format("Unable to upload {}", this.path),e.getCause()));
+		}catch(IOException|RuntimeException e){
+			throw abort(upload, journal, parts, false, new IOException(SimpleFormat.format("Unable to upload {}", this.path),e));
+		}
+
+		final String reply;
+		try{
+			reply=this.client.completeMultipartUpload(upload, uploadedParts);
+		}catch(RuntimeException e){
+			throw abort(upload, journal, parts, false, new IOException(SimpleFormat.format("Unable to complete the upload of {}", this.path),e));
+		}
+		if(journal!=null)
+			journal.delete();
+		this.client.verifyMultipartChecksum(uploadedParts, reply, () -> this.path.toString());
+		return reply;
+	}
+
+	/**
+	 * Stop the upload, journaled uploads whose parts failed are kept on the server to be resumed, any other is aborted and its journal removed
+	 * @param _upload multipart upload
+	 * @param _journal upload journal or null if the upload is not journaled
+	 * @param _parts dispatched parts
+	 * @param _resumable true if the failure allows to resume the upload later
+	 * @param _failure failure that stopped the upload
+	 * @return the failure with any failure aborting the upload added as suppressed
+	 */
+	protected IOException abort(final MultipartUpload _upload,final S3UploadJournal _journal,final List<CompletableFuture<MultipartPart>> _parts,final boolean _resumable,final IOException _failure){
+		_parts.forEach(part -> part.cancel(false));
+		if(_journal==null||!_resumable){
+			try{
+				this.client.abortMultipartUpload(_upload);
+			}catch(RuntimeException e){
+				_failure.addSuppressed(e);
+			}
+			try{
+				if(_journal!=null)
+					_journal.delete();
+			}catch(IOException e){
+				_failure.addSuppressed(e);
+			}
+		}
+		return _failure;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+/**
+ * Decides the size of each part of a multipart upload.
+ * Parts start at the configured size and then follow the measured single part throughput so that each part
+ * takes about the target time, always within the multipart part size limits and leaving enough part numbers
+ * for the remaining content.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3PartSizer {
+
+	private static final double SMOOTHING=0.5d;
+
+	private final long size;
+	private final long initialPartSize;
+	private final long minPartSize;
+	private final long maxPartSize;
+	private final int maxParts;
+	private final long targetMillis;
+	private double bytesPerMilli;
+
+
+	/**
+	 * @param _size total content size
+	 * @param _initialPartSize part size to use until the throughput is known
+	 * @param _minPartSize minimum part size allowed (except for the last one)
+	 * @param _maxPartSize maximum part size allowed
+	 * @param _maxParts maximum number of parts allowed
+	 * @param _targetMillis desired upload time of each part
+	 */
+	public S3PartSizer(final long _size,final long _initialPartSize,final long _minPartSize,final long _maxPartSize,final int _maxParts,final long _targetMillis){
+		this.size=_size;
+		this.minPartSize=_minPartSize;
+		this.maxPartSize=_maxPartSize;
+		this.maxParts=_maxParts;
+		this.targetMillis=_targetMillis;
+		this.initialPartSize=Math.min(_maxPartSize,Math.max(_minPartSize,_initialPartSize));
+		this.bytesPerMilli=0.0d;
+	}
+
+	/**
+	 * Record the time spent uploading a part
+	 * @param _bytes part size
+	 * @param _nanos elapsed time in nanoseconds
+	 */
+	public synchronized void record(final long _bytes,final long _nanos){
+		final double measured=((double)_bytes)*1_000_000d/Math.max(1l,_nanos);
+		this.bytesPerMilli=(this.bytesPerMilli==0.0d)? measured : (SMOOTHING*measured)+((1.0d-SMOOTHING)*this.bytesPerMilli);
+	}
+
+	/**
+	 * @return smoothed throughput of a single part in bytes per millisecond, 0 if unknown
+	 */
+	public synchronized double getThroughput(){
+		return this.bytesPerMilli;
+	}
+
+	/**
+	 * @param _offset offset of the next part
+	 * @param _usedParts number of parts already planned
+	 * @return size of the next part
+	 */
+	public synchronized long next(final long _offset,final int _usedParts){
+
+		final long remaining=this.size-_offset;
+		final long remainingParts=Math.max(1,this.maxParts-_usedParts);
+		final long lower=Math.max(this.minPartSize,(remaining+remainingParts-1)/remainingParts);
+		final long desired=(this.bytesPerMilli>0.0d)? (long)(this.bytesPerMilli*this.targetMillis) : this.initialPartSize;
+
+		return Math.min(remaining,Math.min(this.maxPartSize,Math.max(lower,desired)));
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.io.Payload;
+
+/**
+ * Downloads a full object splitting it in chunks fetched by concurrent ranged GET requests.
+ * Each chunk is read from the HTTP body straight into the array of a pooled heap buffer, digested from that array
+ * and written at its own offset of the target file channel with positional writes.
+ * The body is an InputStream so the content has to land in a heap array; the file channel copies it once more
+ * into its own cached temporary direct buffer when writing.
+ * When a single worker downloads the chunks in order the content is digested while it is written and verified against the etag;
+ * chunks downloaded concurrently can not be verified because md5 digests of separate ranges can not be combined.
+ * When the filesystem enables the shared block cache, chunks are aligned to its blocks, cached blocks are written from the cache
+ * and each run of missing blocks is retrieved with a single ranged request and stored into the cache.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3RangeDownloader {
+
+	private final S3Client client;
+	private final S3AbsolutePath path;
+	private final String etag;
+	private final long size;
+	private final S3BlockCache blockCache;
+
+
+	public S3RangeDownloader(final S3Client _client,final S3AbsolutePath _path,final String _etag,final long _size){
+		this.client=_client;
+		this.path=_path;
+		this.etag=_etag;
+		this.size=_size;
+		this.blockCache=((_client.isBlockCacheEnabled())&&(_etag!=null))? _client.getBlockCache() : null;
+	}
+
+	/**
+	 * Download the object into the given channel
+	 * @param _target channel to write, it must be writable
+	 * @return bytes copied into the channel
+	 * @throws IOException if any range can not be retrieved or written
+	 */
+	public long download(final FileChannel _target) throws IOException{
+
+		final long chunkSize=(this.blockCache!=null)? Math.max(1l,(this.client.getDownloadChunkSize()+S3BlockCache.BLOCK_SIZE-1)/S3BlockCache.BLOCK_SIZE)*S3BlockCache.BLOCK_SIZE
+													: this.client.getDownloadChunkSize();
+		final long chunks=(this.size+chunkSize-1)/chunkSize;
+		final AtomicLong nextChunk=new AtomicLong();
+		final int workers=(int)Math.min(chunks,(long)this.client.getDownloadParallelism());
+
+		final S3Checksum checksum=(workers==1)? this.client.newChecksum().orElse(null) : null;
+
+		final List<CompletableFuture<Long>> downloads=IntStream.range(0, workers)
+																.mapToObj(worker -> this.client.async(() -> downloadChunks(_target, nextChunk, chunks, chunkSize, checksum)))
+																.collect(Collectors.toList());
+		try{
+			final long reply=downloads.stream()
+											.mapToLong(CompletableFuture::join)
+											.sum();
+			if(checksum!=null)
+				this.client.verifyChecksum(checksum, this.etag, () -> this.path.toString());
+			return reply;
+		}catch(CompletionException e){
+			final Throwable cause=(e.getCause() instanceof UncheckedIOException)? e.getCause().getCause() : e.getCause();
+			throw new IOException(SimpleFormat.format("Can not recover object {}", this.path),cause);
+		}
+	}
+
+	protected Long downloadChunks(final FileChannel _target,final AtomicLong _nextChunk,final long _chunks,final long _chunkSize,final S3Checksum _checksum){
+
+		final S3BufferPool pool=this.client.getDownloadBufferPool();
+		final ByteBuffer buffer=pool.acquire();
+		final byte[] block=(this.blockCache!=null)? new byte[S3BlockCache.BLOCK_SIZE] : null;
+		long downloaded=0;
+
+		try{
+			for(long chunk=_nextChunk.getAndIncrement();chunk<_chunks;chunk=_nextChunk.getAndIncrement()){
+				final long from=chunk*_chunkSize;
+				final long to=Math.min(this.size,from+_chunkSize)-1;
+				downloaded+=(block!=null)? downloadCachedRange(_target, from, to, block, _checksum) : downloadRange(_target, from, to, buffer, _checksum);
+			}
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}finally{
+			this.client.getMetrics().add(S3FileSystemMetric.SPOOL_DOWNLOADED_BYTES, downloaded);
+			pool.release(buffer);
+		}
+
+		return downloaded;
+	}
+
+	protected long downloadRange(final FileChannel _target,final long _from,final long _to,final ByteBuffer _buffer,final S3Checksum _checksum) throws IOException{
+
+		final Payload payload=this.client.getBlob(this.path, this.etag, _from, _to)
+											.orElseThrow(() -> new IOException(SimpleFormat.format("Object {} changed or removed while downloading", this.path)));
+		long position=_from;
+
+		try(InputStream source=payload.openStream()){
+			for(int read=source.read(_buffer.array(), 0, _buffer.capacity());read>=0;read=source.read(_buffer.array(), 0, _buffer.capacity())){
+				_buffer.clear();
+				_buffer.limit(read);
+				if(_checksum!=null)
+					_checksum.update(_buffer.array(), 0, read);
+				while(_buffer.hasRemaining()){
+					position+=_target.write(_buffer, position);
+				}
+			}
+		}
+		if(position!=_to+1)
+			throw new IOException(SimpleFormat.format("Premature end of object {} at {} downloading range [{},{}]", this.path, position, _from, _to));
+
+		return position-_from;
+	}
+
+	/**
+	 * Download a block aligned range writing the cached blocks from the shared block cache
+	 * and retrieving each run of missing blocks with a single ranged request
+	 * @param _target channel to write
+	 * @param _from first byte of the range, at the start of a block
+	 * @param _to last byte of the range, at the end of a block or of the object
+	 * @param _block block sized buffer
+	 * @param _checksum checksum to update in order, or null
+	 * @return bytes written
+	 * @throws IOException if the object changed or the range can not be written
+	 */
+	protected long downloadCachedRange(final FileChannel _target,final long _from,final long _to,final byte[] _block,final S3Checksum _checksum) throws IOException{
+
+		final String bucket=this.path.getBucket();
+		final String key=this.path.getBucketPath();
+		final S3Metrics metrics=this.client.getMetrics();
+		long position=_from;
+
+		while(position<=_to){
+			final long block=position/S3BlockCache.BLOCK_SIZE;
+			if(this.blockCache.read(metrics, bucket, key, this.etag, block, 0, _block, 0, blockLength(position, _to))){
+				position=write(_target, position, _block, blockLength(position, _to), _checksum);
+				continue;
+			}
+			long runEnd=block+1;
+			while((runEnd*S3BlockCache.BLOCK_SIZE<=_to)&&(!this.blockCache.contains(bucket, key, this.etag, runEnd))){
+				runEnd++;
+			}
+			final long rangeTo=Math.min(_to,runEnd*S3BlockCache.BLOCK_SIZE-1);
+			final Payload payload=this.client.getBlob(this.path, this.etag, position, rangeTo)
+												.orElseThrow(() -> new IOException(SimpleFormat.format("Object {} changed or removed while downloading", this.path)));
+			try(InputStream source=payload.openStream()){
+				for(long missing=block;missing<runEnd;missing++){
+					final int length=blockLength(position, rangeTo);
+					for(int read=0;read<length;){
+						final int chunk=source.read(_block, read, length-read);
+						if(chunk<0)
+							throw new IOException(SimpleFormat.format("Premature end of object {} at {} downloading range [{},{}]", this.path, position+read, _from, _to));
+						read+=chunk;
+					}
+					this.blockCache.put(metrics, bucket, key, this.etag, missing, _block, length);
+					position=write(_target, position, _block, length, _checksum);
+				}
+			}
+		}
+
+		return position-_from;
+	}
+	private static int blockLength(final long _position,final long _to){
+		return (int)Math.min((long)S3BlockCache.BLOCK_SIZE,_to+1-_position);
+	}
+	private long write(final FileChannel _target,final long _position,final byte[] _content,final int _length,final S3Checksum _checksum) throws IOException{
+		if(_checksum!=null)
+			_checksum.update(_content, 0, _length);
+		final ByteBuffer content=ByteBuffer.wrap(_content, 0, _length);
+		long position=_position;
+		while(content.hasRemaining()){
+			position+=_target.write(content, position);
+		}
+		return position;
+	}
+}
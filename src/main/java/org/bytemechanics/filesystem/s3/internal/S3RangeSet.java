@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.util.Map;
+import java.util.TreeMap;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+
+/**
+ * Set of disjoint half open byte ranges [start,end), adjacent or overlapping ranges are merged on insertion
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3RangeSet {
+
+	private final TreeMap<Long,Long> ranges;
+
+
+	public S3RangeSet(){
+		this.ranges=new TreeMap<>();
+	}
+
+	/**
+	 * Add the range [_start,_end)
+	 * @param _start first byte of the range
+	 * @param _end first byte after the range
+	 */
+	public void add(final long _start,final long _end){
+
+		if(_start<0 || _end<_start)
+			throw new IllegalArgumentException(SimpleFormat.format("Invalid range [{},{})", _start, _end));
+		if(_start==_end)
+			return;
+
+		long start=_start;
+		long end=_end;
+		final Map.Entry<Long,Long> previous=this.ranges.floorEntry(start);
+		if((previous!=null)&&(previous.getValue()>=start)){
+			start=previous.getKey();
+			end=Math.max(end,previous.getValue());
+		}
+		for(Map.Entry<Long,Long> next=this.ranges.ceilingEntry(start);(next!=null)&&(next.getKey()<=end);next=this.ranges.ceilingEntry(start)){
+			end=Math.max(end,next.getValue());
+			this.ranges.remove(next.getKey());
+		}
+		this.ranges.put(start, end);
+	}
+
+	/**
+	 * @param _start first byte of the range
+	 * @param _end first byte after the range
+	 * @return true if any byte of [_start,_end) belongs to this set
+	 */
+	public boolean intersects(final long _start,final long _end){
+
+		final Map.Entry<Long,Long> previous=this.ranges.floorEntry(_start);
+		if((previous!=null)&&(previous.getValue()>_start))
+			return true;
+		final Long next=this.ranges.higherKey(_start);
+		return (next!=null)&&(next<_end);
+	}
+
+	public boolean isEmpty(){
+		return this.ranges.isEmpty();
+	}
+
+	/**
+	 * @return total number of bytes covered by the set
+	 */
+	public long size(){
+		return this.ranges.entrySet()
+							.stream()
+								.mapToLong(range -> range.getValue()-range.getKey())
+								.sum();
+	}
+
+	public void clear(){
+		this.ranges.clear();
+	}
+
+	@Override
+	public String toString() {
+		return SimpleFormat.format("S3RangeSet[ranges={}]", this.ranges);
+	}
+}
@@ -0,0 +1,596 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.io.Payload;
+
+/**
+ * Read only channel that serves reads with ranged GET requests instead of downloading the full object.
+ * The object etag is pinned at open time so a concurrent overwrite can not mix versions in the middle of a read.
+ * When the first read is rejected the pinned etag may come from a stale metadata cache entry, so the current version is pinned once instead.
+ * While the access pattern stays sequential the next window is prefetched asynchronously, doubling its size
+ * up to the configured maximum; any backwards seek collapses the read-ahead to the block size and aborts the in-flight prefetch
+ * closing its response, so the abandoned range stops transferring.
+ * When the filesystem enables the shared block cache, ranges are served from and stored into it.
+ * The SEQUENTIAL hint starts with the maximum read-ahead and the RANDOM hint disables it.
+ * While the content is read sequentially it is digested and verified against the etag when the last byte is read.
+ * A read whose heap buffer can hold the whole remaining content, as Files.readAllBytes does, is filled straight from a single ranged request.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3RangedReadChannel implements SeekableByteChannel {
+
+	private final S3AbsolutePath path;
+	private final S3Client client;
+	private final int blockSize;
+	private final int readAheadMaxSize;
+	private final boolean random;
+	private final S3BlockCache blockCache;
+	private S3FileAttributeView attributes;
+	private String etag;
+	private long size;
+	private boolean repinnable;
+	private boolean rejected;
+	private S3Checksum checksum;
+	private S3Checksum verified;
+	private long position;
+	private Window window;
+	private CompletableFuture<Window> prefetch;
+	private Fetch prefetchRequest;
+	private long prefetchStart;
+	private int readAheadSize;
+	private long readAheadHits;
+	private long readAheadMisses;
+	private boolean open;
+
+
+	/**
+	 * Open an existing object for reading
+	 * @param _path the path to open
+	 * @param _client s3 client
+	 * @throws IOException if the object does not exist or is a folder
+	 */
+	public S3RangedReadChannel(final S3AbsolutePath _path,final S3Client _client) throws IOException {
+		this(_path, _client, S3ChannelOptions.of(EnumSet.of(StandardOpenOption.READ)));
+	}
+
+	/**
+	 * Open an existing object for reading honouring the access pattern hints.
+	 * When the object size is known by the caller no metadata is retrieved, so the etag is not pinned and the block cache is not used.
+	 * @param _path the path to open
+	 * @param _client s3 client
+	 * @param _options open options
+	 * @throws IOException if the object does not exist or is a folder
+	 */
+	public S3RangedReadChannel(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options) throws IOException {
+		this.path=_path;
+		this.client=_client;
+		final Optional<Long> knownSize=_options.getKnownSize();
+		if(knownSize.isPresent()){
+			this.attributes=null;
+			this.etag=null;
+			this.size=knownSize.get();
+		}else{
+			this.attributes=_client.getBlobMetadata(_path)
+										.map(S3FileAttributeView::new)
+										.orElseThrow(() -> new NoSuchFileException(SimpleFormat.format("Object {} not exists", _path)));
+			if(this.attributes.isDirectory())
+				throw new IOException(SimpleFormat.format("Object {} is a folder", _path));
+			this.etag=(String)this.attributes.getAttribute(S3FileAttribute.ETAG);
+			this.size=this.attributes.size();
+		}
+		this.random=_options.isRandom();
+		this.blockSize=(this.random)? _options.getReadAheadSize().orElse(_client.getReadBlockSize()) : _client.getReadBlockSize();
+		this.readAheadMaxSize=(this.random)? this.blockSize : Math.max(this.blockSize,_options.getReadAheadSize().orElse(_client.getReadAheadMaxSize()));
+		this.blockCache=(_client.isBlockCacheEnabled())? _client.getBlockCache() : null;
+		this.repinnable=(this.etag!=null);
+		this.rejected=false;
+		this.checksum=(this.etag!=null)? _client.newChecksum().orElse(null) : null;
+		this.verified=null;
+		this.position=0;
+		this.window=new Window(0,ByteBuffer.allocate(0));
+		this.prefetch=null;
+		this.prefetchRequest=null;
+		this.prefetchStart=-1;
+		this.readAheadSize=(_options.isSequential())? this.readAheadMaxSize/2 : this.blockSize;
+		this.readAheadHits=0;
+		this.readAheadMisses=0;
+		this.open=true;
+	}
+
+	/**
+	 * @return the object attributes retrieved at open time or null if the size was given by the caller
+	 */
+	public S3FileAttributeView getAttributes() {
+		return this.attributes;
+	}
+	/**
+	 * @return the pinned etag or null if the size was given by the caller
+	 */
+	public String getEtag() {
+		return this.etag;
+	}
+	/**
+	 * @return number of windows served from an already requested prefetch
+	 */
+	public long getReadAheadHits() {
+		return this.readAheadHits;
+	}
+	/**
+	 * @return number of windows that had to be retrieved synchronously
+	 */
+	public long getReadAheadMisses() {
+		return this.readAheadMisses;
+	}
+	/**
+	 * @return current read-ahead window size
+	 */
+	public int getReadAheadSize() {
+		return this.readAheadSize;
+	}
+
+	/**
+	 * @return the checksum of the whole content once it has been read sequentially and verified against the etag
+	 */
+	public Optional<S3Checksum> getChecksum() {
+		return Optional.ofNullable(this.verified);
+	}
+
+	/**
+	 * Digest the bytes about to be returned from the current position, the content is verified as soon as the last byte is digested.
+	 * Bytes read again after a backwards seek are already digested and skipped content can not be verified anymore
+	 * @param _content bytes about to be returned
+	 * @throws IOException if the whole content has been read and it does not match the etag
+	 */
+	protected void digest(final ByteBuffer _content) throws IOException{
+		if(this.checksum!=null){
+			final long digested=this.checksum.getLength();
+			if(this.position>digested){
+				this.checksum=null;
+				return;
+			}
+			final ByteBuffer pending=_content.duplicate();
+			pending.position(pending.position()+(int)Math.min((long)pending.remaining(), digested-this.position));
+			this.checksum.update(pending);
+			if(this.checksum.getLength()==this.size){
+				final S3Checksum current=this.checksum;
+				this.checksum=null;
+				this.client.verifyChecksum(current, this.etag, () -> this.path.toString());
+				this.verified=current;
+			}
+		}
+	}
+
+	protected void ensureOpen() throws ClosedChannelException{
+		if(!this.open)
+			throw new ClosedChannelException();
+	}
+
+	/**
+	 * Retrieve the range starting at _from
+	 * @param _from first byte of the range
+	 * @param _length desired range length, it will be truncated to the object size
+	 * @return the retrieved window
+	 * @throws IOException if the object has been removed or overwritten since this channel was opened
+	 */
+	protected Window fetchWindow(final long _from,final int _length) throws IOException{
+		return fetchWindow(_from, _length, new Fetch());
+	}
+
+	/**
+	 * Retrieve the range starting at _from registering each opened response into _fetch so it can be aborted
+	 * @param _from first byte of the range
+	 * @param _length desired range length, it will be truncated to the object size
+	 * @param _fetch fetch where the opened responses are registered
+	 * @return the retrieved window
+	 * @throws IOException if the object has been removed or overwritten since this channel was opened or the fetch has been aborted
+	 */
+	protected Window fetchWindow(final long _from,final int _length,final Fetch _fetch) throws IOException{
+		final int length=(int)Math.min((long)_length,this.size-_from);
+		final byte[] buffer=new byte[length];
+		if((this.blockCache!=null)&&(this.etag!=null)){
+			fetchCached(_from, buffer, _fetch);
+		}else{
+			try(InputStream stream=openRange(_from, _from+length-1, _fetch)){
+				readFully(stream, _from, buffer, 0, length);
+			}
+		}
+		return new Window(_from,ByteBuffer.wrap(buffer));
+	}
+
+	/**
+	 * Fill the buffer with the content starting at _from, serving cached blocks from the shared block cache
+	 * and retrieving each run of missing blocks with a single ranged request
+	 * @param _from first byte to retrieve
+	 * @param _buffer buffer to fill
+	 * @param _fetch fetch where the opened responses are registered
+	 * @throws IOException if the object has been removed or overwritten since this channel was opened or the fetch has been aborted
+	 */
+	protected void fetchCached(final long _from,final byte[] _buffer,final Fetch _fetch) throws IOException{
+
+		final String bucket=this.path.getBucket();
+		final String key=this.path.getBucketPath();
+		final long end=_from+_buffer.length;
+		final long lastBlock=(end-1)/S3BlockCache.BLOCK_SIZE;
+		long current=_from;
+
+		while(current<end){
+			final long block=current/S3BlockCache.BLOCK_SIZE;
+			final long blockStart=block*S3BlockCache.BLOCK_SIZE;
+			final int offset=(int)(current-blockStart);
+			final int length=(int)Math.min((long)S3BlockCache.BLOCK_SIZE-offset,end-current);
+			if(!this.blockCache.read(this.client.getMetrics(), bucket, key, this.etag, block, offset, _buffer, (int)(current-_from), length)){
+				long runEnd=block+1;
+				while((runEnd<=lastBlock)&&(!this.blockCache.contains(bucket, key, this.etag, runEnd))){
+					runEnd++;
+				}
+				final long rangeEnd=Math.min(this.size,runEnd*S3BlockCache.BLOCK_SIZE);
+				final byte[] blockBuffer=new byte[S3BlockCache.BLOCK_SIZE];
+				try(InputStream stream=openRange(blockStart, rangeEnd-1, _fetch)){
+					for(long missing=block;missing<runEnd;missing++){
+						final long missingStart=missing*S3BlockCache.BLOCK_SIZE;
+						final int missingLength=(int)Math.min((long)S3BlockCache.BLOCK_SIZE,rangeEnd-missingStart);
+						readFully(stream, missingStart, blockBuffer, 0, missingLength);
+						this.blockCache.put(this.client.getMetrics(), bucket, key, this.etag, missing, blockBuffer, missingLength);
+						final long copyFrom=Math.max(current,missingStart);
+						final long copyTo=Math.min(end,missingStart+missingLength);
+						System.arraycopy(blockBuffer, (int)(copyFrom-missingStart), _buffer, (int)(copyFrom-_from), (int)(copyTo-copyFrom));
+					}
+				}
+				current=Math.min(end,rangeEnd);
+			}else{
+				current+=length;
+			}
+		}
+	}
+
+	protected InputStream openRange(final long _from,final long _to,final Fetch _fetch) throws IOException{
+		final Optional<Payload> payload=this.client.getBlob(this.path, this.etag, _from, _to);
+		if(!payload.isPresent()){
+			this.rejected=true;
+			throw new IOException(SimpleFormat.format("Object {} changed or removed since it was opened", this.path));
+		}
+		return _fetch.register(payload.get().openStream());
+	}
+
+	/**
+	 * Pin the current version of the object when the etag pinned at open time is rejected by the first read,
+	 * the etag may come from a stale metadata cache entry. Only once per channel and only while no content has been served,
+	 * so no prefetch can be in flight with the rejected etag
+	 * @return true if the channel has been pinned to the current version
+	 */
+	protected boolean repin(){
+		if((!this.repinnable)||(!this.rejected))
+			return false;
+		this.repinnable=false;
+		final Optional<S3FileAttributeView> current=this.client.refreshPinnedMetadata(this.path, this.etag)
+																.map(S3FileAttributeView::new)
+																.filter(attributes -> !attributes.isDirectory());
+		current.ifPresent(attributes -> {
+							this.attributes=attributes;
+							this.etag=(String)attributes.getAttribute(S3FileAttribute.ETAG);
+							this.size=attributes.size();
+							this.checksum=this.client.newChecksum().orElse(null);
+						});
+		return current.isPresent();
+	}
+
+	protected void readFully(final InputStream _stream,final long _from,final byte[] _buffer,final int _offset,final int _length) throws IOException{
+		int total=0;
+		while(total<_length){
+			final int read=_stream.read(_buffer,_offset+total,_length-total);
+			if(read<0)
+				throw new IOException(SimpleFormat.format("Premature end of object {} at {}", this.path, _from+total));
+			total+=read;
+		}
+	}
+
+	/**
+	 * Discard the prefetch, when it is still in flight its response is closed because cancelling the future alone
+	 * would let the request transfer the whole abandoned range
+	 */
+	protected void cancelPrefetch(){
+		if(this.prefetch!=null){
+			if(!this.prefetch.isDone()){
+				this.prefetchRequest.abort();
+				this.client.getMetrics().increment(S3FileSystemMetric.READ_AHEAD_ABORTED);
+			}
+			this.prefetch.cancel(false);
+			this.prefetch=null;
+			this.prefetchRequest=null;
+			this.prefetchStart=-1;
+		}
+	}
+
+	protected void startPrefetch(final long _from){
+		if(_from<this.size){
+			final int length=this.readAheadSize;
+			final Fetch request=new Fetch();
+			this.prefetchStart=_from;
+			this.prefetchRequest=request;
+			this.prefetch=this.client.async(() -> {
+													try{
+														return fetchWindow(_from, length, request);
+													}catch(IOException e){
+														throw new UncheckedIOException(e);
+													}
+												});
+		}
+	}
+
+	protected Window awaitPrefetch() throws IOException{
+		try{
+			return this.prefetch.join();
+		}catch(CompletionException|CancellationException e){
+			final Throwable cause=(e.getCause() instanceof UncheckedIOException)? e.getCause().getCause() : e.getCause();
+			throw new IOException(SimpleFormat.format("Can not read ahead object {} at {}", this.path, this.prefetchStart),cause);
+		}finally{
+			this.prefetch=null;
+			this.prefetchRequest=null;
+			this.prefetchStart=-1;
+		}
+	}
+
+	/**
+	 * Move the window to the current position, reusing the prefetched window when the access is sequential
+	 * @param _minimum minimum bytes to retrieve if a synchronous fetch is needed
+	 * @throws IOException if the range can not be retrieved
+	 */
+	protected void moveWindow(final int _minimum) throws IOException{
+		final boolean sequential=(!this.random)&&(this.position==this.window.end());
+		if(sequential){
+			this.readAheadSize=(int)Math.min((long)this.readAheadMaxSize,2l*this.readAheadSize);
+		}else{
+			this.readAheadSize=this.blockSize;
+		}
+		if((this.prefetch!=null)&&(this.prefetchStart==this.position)){
+			this.window=awaitPrefetch();
+			this.readAheadHits++;
+			this.client.getMetrics().increment(S3FileSystemMetric.READ_AHEAD_HITS);
+		}else{
+			cancelPrefetch();
+			this.window=fetchWindow(this.position, Math.max(_minimum,this.readAheadSize));
+			this.readAheadMisses++;
+			this.client.getMetrics().increment(S3FileSystemMetric.READ_AHEAD_MISSES);
+		}
+		if(sequential)
+			startPrefetch(this.window.end());
+	}
+
+	/**
+	 * @param _dst buffer to fill
+	 * @return true if the buffer can hold the whole remaining content and it can be read into the buffer array
+	 * without going through the block cache nor discarding a prefetch of the current position
+	 */
+	protected boolean isRemainingRead(final ByteBuffer _dst){
+		return _dst.hasArray()
+				&&(_dst.remaining()>=this.size-this.position)
+				&&((this.blockCache==null)||(this.etag==null))
+				&&((this.prefetch==null)||(this.prefetchStart!=this.position));
+	}
+
+	/**
+	 * Read the whole remaining content into the buffer array with a single ranged request, without an intermediate window
+	 * @param _dst buffer able to hold the whole remaining content
+	 * @return number of bytes read
+	 * @throws IOException if the object has been removed or overwritten since this channel was opened
+	 */
+	protected int readRemaining(final ByteBuffer _dst) throws IOException{
+		final int length=(int)(this.size-this.position);
+		cancelPrefetch();
+		try(InputStream stream=openRange(this.position, this.size-1, new Fetch())){
+			readFully(stream, this.position, _dst.array(), _dst.arrayOffset()+_dst.position(), length);
+		}
+		this.readAheadMisses++;
+		this.client.getMetrics().increment(S3FileSystemMetric.READ_AHEAD_MISSES);
+		final ByteBuffer content=_dst.duplicate();
+		content.limit(content.position()+length);
+		digest(content);
+		_dst.position(_dst.position()+length);
+		this.position+=length;
+		return length;
+	}
+
+	@Override
+	public int read(final ByteBuffer _dst) throws IOException {
+		try{
+			return readPinned(_dst);
+		}catch(IOException e){
+			if(!repin())
+				throw e;
+			return readPinned(_dst);
+		}finally{
+			this.repinnable=false;
+		}
+	}
+
+	protected int readPinned(final ByteBuffer _dst) throws IOException {
+		ensureOpen();
+		if(this.position>=this.size)
+			return -1;
+		if(!_dst.hasRemaining())
+			return 0;
+		if(!this.window.contains(this.position)){
+			if(isRemainingRead(_dst))
+				return readRemaining(_dst);
+			moveWindow(_dst.remaining());
+		}
+		final ByteBuffer slice=this.window.data.duplicate();
+		slice.position((int)(this.position-this.window.start));
+		if(slice.remaining()>_dst.remaining())
+			slice.limit(slice.position()+_dst.remaining());
+		final int read=slice.remaining();
+		digest(slice);
+		_dst.put(slice);
+		this.position+=read;
+		return read;
+	}
+
+	/**
+	 * Read at the given position without moving the channel position nor disturbing the sequential read-ahead,
+	 * bytes outside the current window are retrieved with their own ranged request and not kept
+	 * @param _dst buffer to fill
+	 * @param _position position of the first byte to read
+	 * @return number of bytes read or -1 if the position is at or after the end of the object
+	 * @throws IOException if the object has been removed or overwritten since this channel was opened
+	 */
+	public int read(final ByteBuffer _dst,final long _position) throws IOException {
+		try{
+			return readPinned(_dst, _position);
+		}catch(IOException e){
+			if(!repin())
+				throw e;
+			return readPinned(_dst, _position);
+		}finally{
+			this.repinnable=false;
+		}
+	}
+
+	protected int readPinned(final ByteBuffer _dst,final long _position) throws IOException {
+		ensureOpen();
+		if(_position>=this.size)
+			return -1;
+		if(!_dst.hasRemaining())
+			return 0;
+		final Window source=(this.window.contains(_position))? this.window : fetchWindow(_position, _dst.remaining());
+		final ByteBuffer slice=source.data.duplicate();
+		slice.position((int)(_position-source.start));
+		if(slice.remaining()>_dst.remaining())
+			slice.limit(slice.position()+_dst.remaining());
+		final int read=slice.remaining();
+		_dst.put(slice);
+		return read;
+	}
+
+	@Override
+	public int write(final ByteBuffer _src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return this.position;
+	}
+
+	@Override
+	public SeekableByteChannel position(final long _newPosition) throws IOException {
+		ensureOpen();
+		if(_newPosition<0)
+			throw new IllegalArgumentException(SimpleFormat.format("Negative position {}", _newPosition));
+		if(_newPosition<this.position){
+			cancelPrefetch();
+			this.readAheadSize=this.blockSize;
+		}
+		this.position=_newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return this.size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(final long _size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.open=false;
+		cancelPrefetch();
+		this.window=new Window(0,ByteBuffer.allocate(0));
+	}
+
+
+	/**
+	 * Responses opened by a single window fetch
+	 */
+	protected static class Fetch{
+
+		private InputStream stream;
+		private boolean aborted;
+
+		Fetch(){
+			this.stream=null;
+			this.aborted=false;
+		}
+
+		synchronized InputStream register(final InputStream _stream) throws IOException{
+			if(this.aborted){
+				_stream.close();
+				throw new InterruptedIOException("Read ahead aborted");
+			}
+			this.stream=_stream;
+			return _stream;
+		}
+		synchronized void abort(){
+			this.aborted=true;
+			if(this.stream!=null){
+				try{
+					this.stream.close();
+				}catch(IOException e){
+					//The response is abandoned anyway
+				}
+			}
+		}
+	}
+
+	protected static class Window{
+
+		private final long start;
+		private final ByteBuffer data;
+
+		Window(final long _start,final ByteBuffer _data){
+			this.start=_start;
+			this.data=_data;
+		}
+
+		long end(){
+			return this.start+this.data.limit();
+		}
+		boolean contains(final long _position){
+			return (_position>=this.start)&&(_position<end());
+		}
+	}
+}
@@ -15,30 +15,36 @@
  */
 package org.bytemechanics.filesystem.s3.internal;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
 import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
 import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
-import org.bytemechanics.filesystem.s3.internal.copy.commons.functional.LambdaUnchecker;
 import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
 import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
 
 /**
+ * Channel backed by a local copy of the object in a spool file of the client spool manager, changes are uploaded on close.
+ * Written and truncated ranges are tracked so that close only sends the changed parts from local disk
+ * and reuses the untouched ranges of the original object with server side part copies.
  * @author afarre
  * @since 0.1.0
  */
@@ -48,8 +54,14 @@ public class S3SeekableByteChannel implements SeekableByteChannel {
     private final Set<StandardOpenOption> options;
     private final SeekableByteChannel seekable;
     private final Path tempFile;
+    private final S3SpoolManager.Spool spool;
 	private final S3FileAttributeView attributes;
 	private final S3Client client;
+	private final S3RangeSet dirty;
+	private final long originalSize;
+	private final int uploadPartSize;
+	private long cleanLimit;
+	private long downloadedBytes;
 
 	
 	
@@ -61,9 +73,21 @@ public class S3SeekableByteChannel implements SeekableByteChannel {
      * @throws IOException if an I/O error occurs
      */
     public S3SeekableByteChannel(final S3AbsolutePath _path,final S3Client _client,final Set<StandardOpenOption> _options) throws IOException {
+        this(_path, _client, S3ChannelOptions.of(_options));
+    }
+
+    /**
+     * Open or creates a file honouring the part size hint when the changes are uploaded
+     * @param _path    the path open or create
+	 * @param _client s3 client
+     * @param _options open options
+     * @throws IOException if an I/O error occurs
+     */
+    public S3SeekableByteChannel(final S3AbsolutePath _path,final S3Client _client,final S3ChannelOptions _options) throws IOException {
         this.path = _path;
 		this.client=_client;
-        this.options =_options;
+        this.options =_options.getStandardOptions();
+        this.uploadPartSize = _client.getUploadPartSize(_options);
         this.attributes = _client.getBlobMetadata(_path)
 									.map(S3FileAttributeView::new)
 									.orElse(null);
@@ -71,34 +95,48 @@ public class S3SeekableByteChannel implements SeekableByteChannel {
             throw new FileAlreadyExistsException(SimpleFormat.format("Object {} already exists", _path));
         if((!this.options.contains(StandardOpenOption.CREATE)&&!this.options.contains(StandardOpenOption.CREATE_NEW))&&(this.attributes==null))
             throw new FileAlreadyExistsException(SimpleFormat.format("Object {} not exists", _path));
-        this.tempFile = Files.createTempFile("temp-s3-", _path.toString().replaceAll("/", "_"));
-        boolean removeTempFile = true;
+        this.dirty = new S3RangeSet();
+        this.originalSize = Optional.ofNullable(this.attributes)
+									.map(S3FileAttributeView::size)
+									.orElse(0l);
+        this.cleanLimit = (this.options.contains(StandardOpenOption.WRITE) && this.options.contains(StandardOpenOption.TRUNCATE_EXISTING))? 0l : this.originalSize;
+        if ((this.cleanLimit>0) && (S3ContentCoding.of(this.attributes).isPresent()))
+            throw new IOException(SimpleFormat.format("Object {} content is encoded, it can only be read or rewritten sequentially", _path));
+        this.downloadedBytes = 0l;
+        this.spool = _client.getSpoolManager().acquire(this.cleanLimit);
+        this.tempFile = this.spool.getPath();
+        boolean releaseSpool = true;
         try {
-            if (this.attributes!=null) {
-				_client.getBlob(_path)
-						.ifPresent(payload -> {
-							try (InputStream inputStream=new BufferedInputStream(payload.openStream())){
-								Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
-							} catch (IOException e) {
-					            LambdaUnchecker.uncheckedGet(
-										() -> {throw new IOException(SimpleFormat.format("Can not recover object {}", _path));}
-								);
-							}
-						});
+            if ((this.attributes!=null) && (this.cleanLimit>0)) {
+                _client.getMetrics().increment(S3FileSystemMetric.SPOOL_DOWNLOADS);
+                try (FileChannel target = FileChannel.open(this.tempFile, StandardOpenOption.WRITE)) {
+                    this.downloadedBytes = new S3RangeDownloader(_client, _path, (String)this.attributes.getAttribute(S3FileAttribute.ETAG), this.attributes.size())
+                                                .download(target);
+                }
+            } else if (this.attributes!=null) {
+                _client.getMetrics().increment(S3FileSystemMetric.SPOOL_DOWNLOADS_SKIPPED);
             }
             Set<? extends OpenOption> seekOptions = new HashSet<>(this.options);
             seekOptions.remove(StandardOpenOption.CREATE_NEW);
-            this.seekable = Files.newByteChannel(this.tempFile, _options.stream()
-																	.filter(option -> !StandardOpenOption.CREATE_NEW.equals(option))
-																	.collect(Collectors.toSet()));
-            removeTempFile = false;
+            this.seekable = Files.newByteChannel(this.tempFile, this.options.stream()
+                                                                    .filter(option -> !StandardOpenOption.CREATE_NEW.equals(option))
+                                                                    .filter(option -> !StandardOpenOption.DELETE_ON_CLOSE.equals(option))
+                                                                    .collect(Collectors.toSet()));
+            releaseSpool = false;
         } finally {
-            if (removeTempFile) {
-                Files.deleteIfExists(this.tempFile);
+            if (releaseSpool) {
+                this.spool.close();
             }
         }
     }
 
+    /**
+     * @return bytes copied from s3 into the spool file when the channel was opened
+     */
+    public long getDownloadedBytes() {
+        return this.downloadedBytes;
+    }
+
     @Override
     public boolean isOpen() {
         return this.seekable.isOpen();
@@ -114,44 +152,136 @@ public class S3SeekableByteChannel implements SeekableByteChannel {
                 this.path.getFileSystem().provider().delete(path);
                 return;
             }
-            if (this.options.contains(StandardOpenOption.READ) && this.options.size() == 1) {
+            if (!isModified()) {
+                this.client.getMetrics().increment(S3FileSystemMetric.SPOOL_UPLOADS_SKIPPED);
                 return;
             }
             reSynchronize();
         } finally {
-            Files.deleteIfExists(this.tempFile);
+            this.spool.close();
         }
     }
 
+    /**
+     * @return true if the object must be uploaded again
+     * @throws IOException if the temp file size can not be retrieved
+     */
+    protected boolean isModified() throws IOException {
+        return (this.attributes==null)
+				||(!this.dirty.isEmpty())
+				||(this.cleanLimit<this.originalSize)
+				||(Files.size(this.tempFile)!=this.originalSize);
+    }
+
     /**
      * try to reSynchronize the temp file with the remote s3 path.
+	 * When the original object is big enough to be used as multipart copy source, only dirty parts are uploaded
+	 * unless the original object is overwritten meanwhile, then the full temp file is uploaded
 	 * @return the s3 identifier
      * @throws IOException if the tempFile fails to open a newInputStream
      */
     protected String reSynchronize() throws IOException {
-        try(InputStream stream = new BufferedInputStream(Files.newInputStream(this.tempFile))){
-			return this.client.putBlob(this.path,
-								Files.size(this.tempFile), 
-								stream, 
-								Optional.ofNullable(this.attributes)
-										.map(attribs -> attribs.getAttribute(S3FileAttribute.CONTENT_TYPE))
-										.map(contentType -> (String)contentType)
-										.orElse("application/octet-stream"),
-								Optional.ofNullable(this.attributes)
-										.map(attribs -> attribs.getAttribute(S3FileAttribute.METADATA))
-										.map(contentType -> (Map<String, String>)contentType)
-										.orElse(Collections.emptyMap()));
+        final long size=Files.size(this.tempFile);
+        final long partSize=Math.max(this.uploadPartSize, (size+this.client.getMaximumNumberOfParts()-1)/this.client.getMaximumNumberOfParts());
+        if ((this.cleanLimit>=partSize) && (size>=this.client.getMinimumMultipartPartSize()) && isSourceUnchanged()) {
+            final Optional<String> reply=reSynchronizeChanges(size, partSize);
+            if (reply.isPresent()) {
+                this.client.getMetrics().increment(S3FileSystemMetric.SPOOL_PARTIAL_UPLOADS);
+                return reply.get();
+            }
+        }
+        this.client.getMetrics().increment(S3FileSystemMetric.SPOOL_UPLOADS);
+        return reSynchronizeAll();
+    }
+
+    /**
+     * @return true if the remote object is still the version this channel started from
+     */
+    protected boolean isSourceUnchanged() {
+        final Object etag=this.attributes.getAttribute(S3FileAttribute.ETAG);
+        return this.client.fetchBlobMetadata(this.path)
+							.map(BlobMetadata::getETag)
+							.filter(currentEtag -> currentEtag.equals(etag))
+							.isPresent();
+    }
+
+    /**
+     * Upload only the dirty parts reusing the clean parts of the original object with server side copies,
+	 * each copy is pinned to the etag of the original object
+	 * @param _size new object size
+	 * @param _partSize part size
+	 * @return the s3 identifier or empty if the original object has been overwritten and the upload aborted
+     * @throws IOException if any part can not be uploaded
+     */
+    protected Optional<String> reSynchronizeChanges(final long _size,final long _partSize) throws IOException {
+        final String etag=(String)this.attributes.getAttribute(S3FileAttribute.ETAG);
+        final MultipartUpload upload=this.client.initiateMultipartUpload(this.path, getContentType(), getUserMetadata());
+        final List<MultipartPart> parts=new ArrayList<>();
+        final String reply;
+        try {
+            for (long from=0;from<_size;from+=_partSize) {
+                final int partNumber=parts.size()+1;
+                final long length=Math.min(_partSize, _size-from);
+                final long partFrom=from;
+                if ((from+length<=this.cleanLimit) && (!this.dirty.intersects(from, from+length))) {
+                    final Optional<MultipartPart> copied=this.client.retrying(() -> this.client.uploadPartCopy(upload, partNumber, this.path, etag, partFrom, partFrom+length-1)
+                                                    , () -> SimpleFormat.format("part copy {} of {}", partNumber, this.path));
+                    if (!copied.isPresent()) {
+                        this.client.abortMultipartUpload(upload);
+                        return Optional.empty();
+                    }
+                    parts.add(copied.get());
+                } else {
+                    parts.add(this.client.retrying(() -> this.client.uploadPart(upload, partNumber, this.tempFile, partFrom, length)
+                                                    , () -> SimpleFormat.format("part {} of {}", partNumber, this.path)));
+                }
+            }
+            reply=this.client.completeMultipartUpload(upload, parts);
+        } catch (RuntimeException e) {
+            this.client.abortMultipartUpload(upload);
+            throw new IOException(SimpleFormat.format("Unable to upload changes of {}", this.path), e);
         }
+        this.client.verifyMultipartChecksum(parts, reply, () -> this.path.toString());
+        return Optional.of(reply);
+    }
+
+    protected String getContentType() {
+        return Optional.ofNullable(this.attributes)
+						.map(attribs -> attribs.getAttribute(S3FileAttribute.CONTENT_TYPE))
+						.map(contentType -> (String)contentType)
+						.orElse("application/octet-stream");
+    }
+
+    protected Map<String,String> getUserMetadata() {
+        return Optional.ofNullable(this.attributes)
+						.map(S3FileAttributeView::getUserMetadata)
+						.orElse(Collections.emptyMap());
+    }
+
+    /**
+     * Upload the full temp file, in parallel parts when it is bigger than a part
+	 * @return the s3 identifier
+     * @throws IOException if the tempFile can not be read or uploaded
+     */
+    protected String reSynchronizeAll() throws IOException {
+        return this.client.uploadFile(this.path, this.tempFile, this.uploadPartSize, getContentType(), getUserMetadata(), false);
     }
 
     @Override
     public int write(ByteBuffer src) throws IOException {
-        return this.seekable.write(src);
+        final long start=(this.options.contains(StandardOpenOption.APPEND))? this.seekable.size() : this.seekable.position();
+        this.spool.ensureCapacity(Math.max(this.seekable.size(), start+src.remaining()));
+        final int written=this.seekable.write(src);
+        final long end=this.seekable.position();
+        this.dirty.add(end-written, end);
+        return written;
     }
 
     @Override
     public SeekableByteChannel truncate(long size) throws IOException {
-        return this.seekable.truncate(size);
+        this.seekable.truncate(size);
+        this.cleanLimit=Math.min(this.cleanLimit, size);
+        return this;
     }
 
     @Override
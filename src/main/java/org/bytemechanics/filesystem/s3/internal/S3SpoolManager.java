@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spool files of a filesystem kept in a dedicated directory under a byte quota.
+ * Spool files reserve quota while they grow, when the quota is exhausted the reservation waits for other spools to be released up to the configured time, failing fast if it is zero.
+ * Released spool files are truncated and kept for reuse up to a maximum count instead of being deleted.
+ * Spool files left in a configured directory by a previous process that did not close are removed at startup,
+ * so a configured directory must not be shared by filesystems open at the same time
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3SpoolManager implements Closeable{
+
+	private static final Logger LOGGER=LoggerFactory.getLogger(S3SpoolManager.class);
+	private static final String SPOOL_PREFIX="spool-";
+	private static final String SPOOL_SUFFIX=".tmp";
+
+	private final Optional<Path> configuredDirectory;
+	private final long quota;
+	private final long waitMillis;
+	private final int maxPooled;
+	private final S3Metrics metrics;
+	private final Deque<Path> free;
+	private Path directory;
+	private long reserved;
+	private int inUse;
+
+
+	/**
+	 * @param _directory spool directory, if empty a temporary directory is created on first use and removed on close, if present the spool files left in it are removed
+	 * @param _quota maximum bytes reserved by all the spool files in use
+	 * @param _waitMillis maximum time to wait for quota before failing, 0 to fail fast
+	 * @param _maxPooled maximum number of released spool files kept for reuse
+	 * @param _metrics metrics where occupancy is published
+	 */
+	public S3SpoolManager(final Optional<Path> _directory,final long _quota,final long _waitMillis,final int _maxPooled,final S3Metrics _metrics){
+		this.configuredDirectory=_directory;
+		this.quota=_quota;
+		this.waitMillis=_waitMillis;
+		this.maxPooled=_maxPooled;
+		this.metrics=_metrics;
+		this.free=new ArrayDeque<>(_maxPooled);
+		this.directory=null;
+		this.reserved=0l;
+		this.inUse=0;
+		_directory.ifPresent(this::sweep);
+	}
+
+	/**
+	 * Remove the spool files left in the directory by a previous process
+	 * @param _directory spool directory
+	 */
+	protected final void sweep(final Path _directory){
+		if(!Files.isDirectory(_directory))
+			return;
+		try(DirectoryStream<Path> leftovers=Files.newDirectoryStream(_directory, SPOOL_PREFIX+"*"+SPOOL_SUFFIX)){
+			for(Path leftover:leftovers){
+				Files.deleteIfExists(leftover);
+				LOGGER.debug("Removed leftover spool file {}", leftover);
+			}
+		}catch(IOException e){
+			LOGGER.warn("Unable to remove leftover spool files of {}", _directory, e);
+		}
+	}
+
+	public long getQuota(){
+		return this.quota;
+	}
+	public synchronized long getReserved(){
+		return this.reserved;
+	}
+	public synchronized int getInUse(){
+		return this.inUse;
+	}
+	public synchronized int getPooled(){
+		return this.free.size();
+	}
+	/**
+	 * @param _file local file
+	 * @return true if the file is a spool file of this manager, so it is truncated and reused once released
+	 */
+	public synchronized boolean isSpool(final Path _file){
+		return (this.directory!=null)
+				&&(this.directory.toAbsolutePath().equals(_file.toAbsolutePath().getParent()))
+				&&(_file.getFileName().toString().startsWith(SPOOL_PREFIX))
+				&&(_file.getFileName().toString().endsWith(SPOOL_SUFFIX));
+	}
+
+	/**
+	 * Acquire an empty spool file reserving quota for its initial content
+	 * @param _size bytes to reserve
+	 * @return the spool file, it must be closed to release its quota
+	 * @throws IOException if the quota can not be reserved or the file can not be created
+	 */
+	public Spool acquire(final long _size) throws IOException{
+		reserve(_size);
+		try{
+			return new Spool(nextFile(), _size);
+		}catch(IOException|RuntimeException e){
+			unreserve(_size);
+			throw e;
+		}
+	}
+
+	private synchronized Path nextFile() throws IOException{
+		final Path reply;
+		if(!this.free.isEmpty()){
+			reply=this.free.pop();
+			this.metrics.increment(S3FileSystemMetric.SPOOL_FILES_REUSED);
+		}else{
+			if(this.directory==null){
+				this.directory=(this.configuredDirectory.isPresent())? Files.createDirectories(this.configuredDirectory.get()) : Files.createTempDirectory("s3-spool-");
+			}
+			reply=Files.createTempFile(this.directory, SPOOL_PREFIX, SPOOL_SUFFIX);
+		}
+		this.inUse++;
+		this.metrics.increment(S3FileSystemMetric.SPOOL_FILES_IN_USE);
+		return reply;
+	}
+
+	/**
+	 * Reserve quota, waiting for other spools to be released if needed
+	 * @param _bytes bytes to reserve
+	 * @throws IOException if the bytes exceed the quota or they are not released in time
+	 */
+	protected synchronized void reserve(final long _bytes) throws IOException{
+		if(_bytes<=0)
+			return;
+		if(this.reserved+_bytes>this.quota){
+			final long deadline=System.currentTimeMillis()+this.waitMillis;
+			long remaining=(_bytes<=this.quota)? this.waitMillis : 0l;
+			if(remaining>0)
+				this.metrics.increment(S3FileSystemMetric.SPOOL_QUOTA_WAITS);
+			while((this.reserved+_bytes>this.quota)&&(remaining>0)){
+				try{
+					wait(remaining);
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new IOException(SimpleFormat.format("Interrupted while waiting for {} bytes of spool quota", _bytes), e);
+				}
+				remaining=deadline-System.currentTimeMillis();
+			}
+			if(this.reserved+_bytes>this.quota){
+				this.metrics.increment(S3FileSystemMetric.SPOOL_QUOTA_EXCEEDED);
+				throw new IOException(SimpleFormat.format("Spool quota of {} bytes exceeded, {} bytes reserved and {} requested", this.quota, this.reserved, _bytes));
+			}
+		}
+		this.reserved+=_bytes;
+		this.metrics.add(S3FileSystemMetric.SPOOL_BYTES_RESERVED, _bytes);
+	}
+
+	protected synchronized void unreserve(final long _bytes){
+		if(_bytes<=0)
+			return;
+		this.reserved-=_bytes;
+		this.metrics.add(S3FileSystemMetric.SPOOL_BYTES_RESERVED, -_bytes);
+		notifyAll();
+	}
+
+	/**
+	 * Return a spool file to the pool, or delete it when the pool is full.
+	 * The file is truncated to zero before it is pooled so a reused spool file starts empty as a new one does,
+	 * its blocks are returned to the file system and the reuse only saves the file creation.
+	 * A file that can not be truncated is deleted instead of pooled
+	 * @param _file spool file
+	 * @param _reserved quota reserved by the file
+	 */
+	protected void release(final Path _file,final long _reserved){
+		boolean reuse=false;
+		try{
+			if(Files.exists(_file)){
+				try(FileChannel channel=FileChannel.open(_file, StandardOpenOption.WRITE)){
+					channel.truncate(0l);
+				}
+				reuse=true;
+			}
+		}catch(IOException e){
+			LOGGER.debug("Unable to truncate spool file {}", _file, e);
+		}
+		synchronized(this){
+			this.inUse--;
+			this.metrics.add(S3FileSystemMetric.SPOOL_FILES_IN_USE, -1l);
+			if(reuse&&(this.directory!=null)&&(this.free.size()<this.maxPooled)){
+				this.free.push(_file);
+				reuse=false;
+			}
+			unreserve(_reserved);
+		}
+		if(reuse){
+			try{
+				Files.deleteIfExists(_file);
+			}catch(IOException e){
+				LOGGER.warn("Unable to delete spool file {}", _file, e);
+			}
+		}
+	}
+
+	/**
+	 * Delete the pooled spool files, and the spool directory if it was created by this manager
+	 * @throws IOException if they can not be deleted
+	 */
+	@Override
+	public synchronized void close() throws IOException{
+		while(!this.free.isEmpty()){
+			Files.deleteIfExists(this.free.pop());
+		}
+		if((this.directory!=null)&&(!this.configuredDirectory.isPresent())&&(this.inUse==0)){
+			Files.deleteIfExists(this.directory);
+		}
+		this.directory=null;
+	}
+
+
+	/**
+	 * Spool file reserving quota of its manager until it is closed
+	 */
+	public class Spool implements Closeable{
+
+		private final Path file;
+		private long reservation;
+		private boolean released;
+
+		protected Spool(final Path _file,final long _reservation){
+			this.file=_file;
+			this.reservation=Math.max(0l, _reservation);
+			this.released=false;
+		}
+
+		public Path getPath(){
+			return this.file;
+		}
+		public long getReservation(){
+			return this.reservation;
+		}
+
+		/**
+		 * Grow the reservation of this spool file to the given size
+		 * @param _size size the file is going to reach
+		 * @throws IOException if the quota can not be reserved
+		 */
+		public void ensureCapacity(final long _size) throws IOException{
+			if(_size>this.reservation){
+				reserve(_size-this.reservation);
+				this.reservation=_size;
+			}
+		}
+
+		/**
+		 * Release the quota of this spool file and return it to the manager, its content is discarded
+		 */
+		@Override
+		public void close(){
+			if(!this.released){
+				this.released=true;
+				release(this.file, this.reservation);
+			}
+		}
+	}
+}
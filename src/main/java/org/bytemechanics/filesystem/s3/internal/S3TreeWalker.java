@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.copy.commons.string.SimpleFormat;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+
+/**
+ * File tree walker driven by a single flat listing of the subtree, delimited only when the depth is limited to the direct children.
+ * The keys of a folder are contiguous in the listing, so folders are synthesized from the key prefixes and visited once, opened when the first key
+ * under them is listed and closed when the first key outside them is listed. The attributes of each visited entry come from the listing
+ * (size, etag, last modified), so no object is requested apart from the start path; content type, user metadata and logical size are not available.
+ * Visitor results are honoured as {@link java.nio.file.Files#walkFileTree(Path, java.util.Set, int, FileVisitor)} does
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3TreeWalker {
+
+	private final S3AbsolutePath start;
+	private final S3Client client;
+	private final int maxDepth;
+	private final FileVisitor<? super Path> visitor;
+	private final String prefix;
+	private final List<Folder> open;
+	private S3ListingSpliterator<StorageMetadata> listing;
+	private String skipped;
+
+
+	/**
+	 * @param _start start path
+	 * @param _client s3 client
+	 * @param _maxDepth maximum number of levels to visit
+	 * @param _visitor visitor to invoke for each entry
+	 */
+	public S3TreeWalker(final S3AbsolutePath _start,final S3Client _client,final int _maxDepth,final FileVisitor<? super Path> _visitor){
+		if(_maxDepth<0)
+			throw new IllegalArgumentException("'maxDepth' is negative");
+		this.start=_start;
+		this.client=_client;
+		this.maxDepth=_maxDepth;
+		this.visitor=_visitor;
+		this.prefix=_client.getFolderPrefix(_start);
+		this.open=new ArrayList<>();
+		this.listing=null;
+		this.skipped=null;
+	}
+
+	/**
+	 * Walk the tree, the start path is resolved and the subtree listed once
+	 * @throws IOException if the visitor fails or the subtree can not be listed
+	 */
+	public void walk() throws IOException{
+		final S3Entry entry=(this.prefix.isEmpty())? null : this.client.resolve(this.start);
+		if((entry!=null)&&(entry.isFile())){
+			visited(this.visitor.visitFile(this.start, toAttributes(entry).get()));
+			return;
+		}
+		this.listing=new S3ListingSpliterator<>(this.client, this.start.getBucket(), this.prefix, (this.maxDepth>1), Optional::of, null);
+		StorageMetadata current=next();
+		if((entry!=null)&&(!entry.exists())&&(current==null)){
+			this.visitor.visitFileFailed(this.start, new NoSuchFileException(this.start.toString()));
+			return;
+		}
+		final S3FileAttributeView attributes=Optional.ofNullable(entry)
+														.flatMap(this::toAttributes)
+														.orElseGet(() -> directoryAttributes(this.prefix));
+		if(this.maxDepth==0){
+			visited(this.visitor.visitFile(this.start, attributes));
+			return;
+		}
+		if(visited(this.visitor.preVisitDirectory(this.start, attributes))!=FileVisitResult.CONTINUE)
+			return;
+		this.open.add(new Folder(this.start, null, this.prefix));
+		while(current!=null){
+			if(!accept(current))
+				return;
+			current=next();
+		}
+		while(!this.open.isEmpty()){
+			if(!close())
+				return;
+		}
+	}
+
+	private StorageMetadata next() throws IOException{
+		final List<StorageMetadata> reply=new ArrayList<>(1);
+		try{
+			this.listing.tryAdvance(reply::add);
+		}catch(RuntimeException e){
+			throw new IOException(SimpleFormat.format("Unable to list {}", this.start), e);
+		}
+		return (reply.isEmpty())? null : reply.get(0);
+	}
+
+	private FileVisitResult visited(final FileVisitResult _result){
+		this.client.getMetrics().increment(S3FileSystemMetric.WALK_ENTRIES);
+		return _result;
+	}
+
+	/**
+	 * Visit a listed key closing the folders it is not under and opening the folders it is under
+	 * @param _metadata listed key
+	 * @return false if the walk is terminated
+	 * @throws IOException if the visitor fails
+	 */
+	private boolean accept(final StorageMetadata _metadata) throws IOException{
+		final String key=_metadata.getName();
+		if((this.skipped!=null)&&(key.startsWith(this.skipped)))
+			return true;
+		this.skipped=null;
+		if(key.equals(this.prefix))
+			// placeholder object of the start folder, already visited
+			return true;
+		final String relative=key.substring(this.prefix.length());
+		final boolean directory=(relative.endsWith(S3AbsolutePath.PATH_SEPARATOR))||(_metadata.getType()==StorageType.RELATIVE_PATH);
+		final List<String> segments=Stream.of(relative.split(S3AbsolutePath.PATH_SEPARATOR))
+												.filter(segment -> !segment.isEmpty())
+												.collect(Collectors.toList());
+		final boolean marker=(!segments.isEmpty())&&(segments.get(segments.size()-1).equals(this.client.getFolderMarker()));
+		if(marker)
+			segments.remove(segments.size()-1);
+		final int folders=(directory||marker)? segments.size() : segments.size()-1;
+		int common=0;
+		while((common<this.open.size()-1)&&(common<folders)&&(this.open.get(common+1).name.equals(segments.get(common))))
+			common++;
+		while(this.open.size()-1>common){
+			if(!close())
+				return false;
+		}
+		if(top().skipSiblings)
+			return true;
+		for(int depth=common;depth<folders;depth++){
+			final Folder parent=top();
+			final String name=segments.get(depth);
+			final Path path=parent.path.resolve(name);
+			final String folderKey=parent.key+name+S3AbsolutePath.PATH_SEPARATOR;
+			final S3FileAttributeView attributes=((directory||marker)&&(depth==folders-1))? new S3FileAttributeView(_metadata, true) : directoryAttributes(folderKey);
+			if(depth+1>=this.maxDepth){
+				skipSubtree(folderKey);
+				return visitedFile(this.visitor.visitFile(path, attributes));
+			}
+			switch(visited(this.visitor.preVisitDirectory(path, attributes))){
+				case TERMINATE:
+					return false;
+				case SKIP_SUBTREE:
+					skipSubtree(folderKey);
+					return true;
+				case SKIP_SIBLINGS:
+					skipSiblings(parent);
+					return true;
+				default:
+					this.open.add(new Folder(path, name, folderKey));
+			}
+		}
+		if(directory||marker)
+			return true;
+		return visitedFile(this.visitor.visitFile(top().path.resolve(segments.get(segments.size()-1)), new S3FileAttributeView(_metadata, false)));
+	}
+	private boolean visitedFile(final FileVisitResult _result){
+		switch(visited(_result)){
+			case TERMINATE:
+				return false;
+			case SKIP_SIBLINGS:
+				skipSiblings(top());
+				return true;
+			default:
+				return true;
+		}
+	}
+	private boolean close() throws IOException{
+		final Folder folder=this.open.remove(this.open.size()-1);
+		switch(this.visitor.postVisitDirectory(folder.path, null)){
+			case TERMINATE:
+				return false;
+			case SKIP_SIBLINGS:
+				if(!this.open.isEmpty())
+					skipSiblings(top());
+				return true;
+			default:
+				return true;
+		}
+	}
+	/**
+	 * Skip the keys under a folder not visited, restarting the listing after them
+	 * @param _folderKey key prefix of the folder
+	 */
+	private void skipSubtree(final String _folderKey){
+		this.skipped=_folderKey;
+		this.listing.skipPrefix(_folderKey);
+	}
+	/**
+	 * Skip the keys left under an open folder, restarting the listing after them
+	 * @param _folder open folder
+	 */
+	private void skipSiblings(final Folder _folder){
+		_folder.skipSiblings=true;
+		this.listing.skipPrefix(_folder.key);
+	}
+	private Folder top(){
+		return this.open.get(this.open.size()-1);
+	}
+
+	private Optional<S3FileAttributeView> toAttributes(final S3Entry _entry){
+		return _entry.getMetadata()
+						.map(S3FileAttributeView::new)
+						.map(attributes -> (this.client.isLogicalSize())? attributes.withLogicalSize() : attributes);
+	}
+	private S3FileAttributeView directoryAttributes(final String _key){
+		final Map<S3FileAttribute,Object> reply=new EnumMap<>(S3FileAttribute.class);
+		reply.put(S3FileAttribute.NAME, _key);
+		reply.put(S3FileAttribute.SIZE, 0l);
+		reply.put(S3FileAttribute.TYPE, StorageType.FOLDER.name());
+		reply.put(S3FileAttribute.CONTENT_TYPE, S3FileAttributeView.DIRECTORY_CONTENT_TYPE);
+		return new S3FileAttributeView(reply);
+	}
+
+
+	private static final class Folder{
+
+		private final Path path;
+		private final String name;
+		private final String key;
+		private boolean skipSiblings;
+
+		Folder(final Path _path,final String _name,final String _key){
+			this.path=_path;
+			this.name=_name;
+			this.key=_key;
+			this.skipSiblings=false;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local journal of an in-flight multipart upload of a file.
+ * The journal is an append only properties file recording the upload id, the source file fingerprint (size and
+ * last modification time), the range of every dispatched part and the etag of every completed part,
+ * so that a later upload of the same unchanged file to the same object can resume the upload.
+ * An entry is only trusted once its line end has been written, a trailing entry torn by a crash while it was appended
+ * and any malformed entry are ignored, so their parts are uploaded again.
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3UploadJournal {
+
+	private static final String SUFFIX=".journal";
+	private static final String UPLOAD_ID="upload.id";
+	private static final String BUCKET="bucket";
+	private static final String KEY="key";
+	private static final String SOURCE="source";
+	private static final String SOURCE_SIZE="source.size";
+	private static final String SOURCE_MODIFIED="source.modified";
+	private static final String PART_PLANNED="part.planned.";
+	private static final String PART_COMPLETED="part.completed.";
+
+	private final Path journal;
+	private final String uploadId;
+	private final SortedMap<Integer,long[]> planned;
+	private final Map<Integer,String> completed;
+
+
+	protected S3UploadJournal(final Path _journal,final String _uploadId,final SortedMap<Integer,long[]> _planned,final Map<Integer,String> _completed){
+		this.journal=_journal;
+		this.uploadId=_uploadId;
+		this.planned=_planned;
+		this.completed=_completed;
+	}
+
+	protected static Path locate(final Path _directory,final String _bucket,final String _key,final Path _source){
+		final String identity=_bucket+"/"+_key+"|"+_source.toAbsolutePath();
+		return _directory.resolve(Hashing.sha256().hashString(identity, StandardCharsets.UTF_8).toString()+SUFFIX);
+	}
+
+	protected static Properties read(final Path _journal) throws IOException{
+		final byte[] content=Files.readAllBytes(_journal);
+		int length=content.length;
+		while((length>0)&&(content[length-1]!='\n')){
+			length--;
+		}
+		final Properties reply=new Properties();
+		try(InputStream stream=new ByteArrayInputStream(content, 0, length)){
+			reply.load(stream);
+		}
+		return reply;
+	}
+
+	protected static Optional<Integer> parsePartNumber(final String _name,final String _prefix){
+		try{
+			return Optional.of(Integer.valueOf(_name.substring(_prefix.length())))
+							.filter(partNumber -> partNumber>0);
+		}catch(NumberFormatException e){
+			return Optional.empty();
+		}
+	}
+
+	protected static Optional<long[]> parseRange(final String _value){
+		final String[] range=_value.split(",");
+		if(range.length!=2)
+			return Optional.empty();
+		try{
+			return Optional.of(new long[]{Long.parseLong(range[0]),Long.parseLong(range[1])})
+							.filter(parsed -> (parsed[0]>=0)&&(parsed[1]>0));
+		}catch(NumberFormatException e){
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * @param _value recorded etag
+	 * @return true if the etag is not empty and it is either unquoted or quoted at both ends
+	 */
+	protected static boolean isEtag(final String _value){
+		return (!_value.isEmpty())
+				&&(_value.startsWith("\"")==((_value.length()>1)&&_value.endsWith("\"")));
+	}
+
+	/**
+	 * Load the journal of a previous upload of the given file to the given object
+	 * @param _directory journal directory
+	 * @param _bucket bucket of the object being uploaded
+	 * @param _key key of the object being uploaded
+	 * @param _source file being uploaded
+	 * @return the journal if it exists and the file has not changed since the upload started, a journal of a changed file is removed
+	 * @throws IOException if the journal exists but can not be read
+	 */
+	public static Optional<S3UploadJournal> load(final Path _directory,final String _bucket,final String _key,final Path _source) throws IOException{
+
+		final Path journal=locate(_directory, _bucket, _key, _source);
+		if(!Files.exists(journal))
+			return Optional.empty();
+
+		final Properties entries=read(journal);
+		if((!String.valueOf(Files.size(_source)).equals(entries.getProperty(SOURCE_SIZE)))
+				||(!String.valueOf(Files.getLastModifiedTime(_source).toMillis()).equals(entries.getProperty(SOURCE_MODIFIED)))
+				||(entries.getProperty(UPLOAD_ID)==null)){
+			Files.deleteIfExists(journal);
+			return Optional.empty();
+		}
+		final SortedMap<Integer,long[]> planned=new TreeMap<>();
+		final Map<Integer,String> completed=new HashMap<>();
+		for(String name:entries.stringPropertyNames()){
+			final String value=entries.getProperty(name);
+			if(name.startsWith(PART_PLANNED)){
+				parsePartNumber(name, PART_PLANNED)
+					.ifPresent(partNumber -> parseRange(value).ifPresent(range -> planned.put(partNumber, range)));
+			}else if(name.startsWith(PART_COMPLETED)){
+				parsePartNumber(name, PART_COMPLETED)
+					.filter(partNumber -> isEtag(value))
+					.ifPresent(partNumber -> completed.put(partNumber, value));
+			}
+		}
+		completed.keySet().retainAll(planned.keySet());
+
+		return Optional.of(new S3UploadJournal(journal, entries.getProperty(UPLOAD_ID), planned, completed));
+	}
+
+	/**
+	 * Start the journal of a new upload, any previous journal of the same file and object is replaced
+	 * @param _directory journal directory
+	 * @param _bucket bucket of the object being uploaded
+	 * @param _key key of the object being uploaded
+	 * @param _source file being uploaded
+	 * @param _uploadId multipart upload id
+	 * @return the new journal
+	 * @throws IOException if the journal can not be written
+	 */
+	public static S3UploadJournal create(final Path _directory,final String _bucket,final String _key,final Path _source,final String _uploadId) throws IOException{
+
+		final Path journal=locate(_directory, _bucket, _key, _source);
+		final Properties header=new Properties();
+		header.setProperty(UPLOAD_ID, _uploadId);
+		header.setProperty(BUCKET, _bucket);
+		header.setProperty(KEY, _key);
+		header.setProperty(SOURCE, _source.toAbsolutePath().toString());
+		header.setProperty(SOURCE_SIZE, String.valueOf(Files.size(_source)));
+		header.setProperty(SOURCE_MODIFIED, String.valueOf(Files.getLastModifiedTime(_source).toMillis()));
+		Files.createDirectories(_directory);
+		Files.write(journal, format(header), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+
+		return new S3UploadJournal(journal, _uploadId, new TreeMap<>(), new HashMap<>());
+	}
+
+	/**
+	 * Remove every journal of the given uploads
+	 * @param _directory journal directory
+	 * @param _uploadIds upload ids
+	 * @return number of removed journals
+	 * @throws IOException if the directory can not be listed
+	 */
+	public static int purge(final Path _directory,final Set<String> _uploadIds) throws IOException{
+
+		int reply=0;
+		if(Files.isDirectory(_directory)){
+			try(DirectoryStream<Path> journals=Files.newDirectoryStream(_directory, "*"+SUFFIX)){
+				for(Path journal:journals){
+					if(_uploadIds.contains(read(journal).getProperty(UPLOAD_ID))&&Files.deleteIfExists(journal))
+						reply++;
+				}
+			}
+		}
+
+		return reply;
+	}
+
+	protected static byte[] format(final Properties _entries) throws IOException{
+		final StringWriter writer=new StringWriter();
+		_entries.store(writer, null);
+		return Stream.of(writer.toString().split("\\R"))
+						.filter(line -> !line.isEmpty())
+						.filter(line -> !line.startsWith("#"))
+						.map(line -> line+"\n")
+						.collect(Collectors.joining())
+						.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	protected synchronized void append(final String _name,final String _value) throws IOException{
+		final Properties entry=new Properties();
+		entry.setProperty(_name, _value);
+		Files.write(this.journal, format(entry), StandardOpenOption.APPEND, StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+	}
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	/**
+	 * @return ranges of the dispatched parts as {offset,length} by part number
+	 */
+	public synchronized SortedMap<Integer,long[]> getPlanned() {
+		return Collections.unmodifiableSortedMap(new TreeMap<>(this.planned));
+	}
+
+	/**
+	 * @return etags of the completed parts by part number
+	 */
+	public synchronized Map<Integer,String> getCompleted() {
+		return Collections.unmodifiableMap(new HashMap<>(this.completed));
+	}
+
+	public synchronized void planned(final int _partNumber,final long _offset,final long _length) throws IOException{
+		append(PART_PLANNED+_partNumber, _offset+","+_length);
+		this.planned.put(_partNumber, new long[]{_offset,_length});
+	}
+
+	public synchronized void completed(final int _partNumber,final String _etag) throws IOException{
+		append(PART_COMPLETED+_partNumber, _etag);
+		this.completed.put(_partNumber, _etag);
+	}
+
+	public void delete() throws IOException{
+		Files.deleteIfExists(this.journal);
+	}
+}
@@ -20,14 +20,24 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Optional;
 import java.util.Properties;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttribute;
+import org.bytemechanics.filesystem.s3.attributes.S3FileAttributeView;
+import org.bytemechanics.filesystem.s3.internal.S3ChannelOptions;
+import org.bytemechanics.filesystem.s3.internal.S3ChannelStrategy;
 import org.bytemechanics.filesystem.s3.internal.S3Client;
+import org.bytemechanics.filesystem.s3.internal.S3Entry;
 import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
 import org.jclouds.io.Payload;
 import org.junit.Assert;
@@ -169,4 +179,112 @@ public class S3ClientTest {
 		Optional<Payload> payload=this.client.getBlob(path);
 		Assert.assertFalse(payload.isPresent());
 	}
+	@Test
+	public void t11CompressionTest() throws IOException{
+		System.out.println("S3ClientTest >>> t11CompressionTest");
+		StringBuilder builder=new StringBuilder();
+		for(int line=0;builder.length()<4*1024*1024;line++){
+			builder.append("{\"line\":").append(line).append(",\"level\":\"INFO\",\"message\":\"compressible log line\"}\n");
+		}
+		byte[] expected=builder.toString().getBytes(StandardCharsets.UTF_8);
+		for(String compression:new String[]{"gzip","deflate"}){
+			for(String level:new String[]{"1","9"}){
+				Properties properties=new Properties();
+				properties.setProperty(S3FileSystemEnvironment.PROPERTY_CONNECTION_TIMEOUT.getkey(),String.valueOf(PROPERTY_CONNECTION_TIMEOUT));
+				properties.setProperty(S3FileSystemEnvironment.PROPERTY_COMPRESSION.getkey(),compression);
+				properties.setProperty(S3FileSystemEnvironment.PROPERTY_COMPRESSION_LEVEL.getkey(),level);
+				try(S3Client compressing=new S3Client(S3URI,S3USER,S3PASSWORD,properties)){
+					S3AbsolutePath path=new S3AbsolutePath(S3BUCKET,new S3FileSystem(S3URI,null,compressing),"compressed.json");
+					S3ChannelOptions writeOptions=S3ChannelOptions.of(EnumSet.of(StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING,StandardOpenOption.WRITE));
+					long start=System.nanoTime();
+					try(SeekableByteChannel channel=S3ChannelStrategy.plan(writeOptions).open(path, compressing, writeOptions)){
+						channel.write(ByteBuffer.wrap(expected));
+					}
+					long writeMillis=(System.nanoTime()-start)/1000000;
+					S3FileAttributeView attributes=new S3FileAttributeView(compressing.getBlobMetadata(path).get());
+					Assert.assertEquals(compression,attributes.getAttribute(S3FileAttribute.ENCODING));
+					Assert.assertEquals(expected.length,attributes.logicalSize());
+					Assert.assertTrue(attributes.size()<expected.length/4);
+					S3ChannelOptions readOptions=S3ChannelOptions.of(EnumSet.of(StandardOpenOption.READ));
+					start=System.nanoTime();
+					ByteBuffer actual=ByteBuffer.allocate(expected.length);
+					try(SeekableByteChannel channel=S3ChannelStrategy.plan(readOptions).open(path, compressing, readOptions)){
+						Assert.assertEquals(expected.length,channel.size());
+						while(channel.read(actual)>0);
+					}
+					long readMillis=(System.nanoTime()-start)/1000000;
+					Assert.assertArrayEquals(expected, actual.array());
+					System.out.println(MessageFormat.format("S3ClientTest >>> {0} level {1}: {2} -> {3} bytes, write {4}ms, read {5}ms"
+																, compression, level, expected.length, attributes.size(), writeMillis, readMillis));
+					compressing.deleteBlob(path);
+				}
+			}
+		}
+	}
+	@Test
+	public void t12MetadataCacheTest() throws IOException{
+		System.out.println("S3ClientTest >>> t12MetadataCacheTest");
+		Properties properties=new Properties();
+		properties.setProperty(S3FileSystemEnvironment.PROPERTY_CONNECTION_TIMEOUT.getkey(),String.valueOf(PROPERTY_CONNECTION_TIMEOUT));
+		properties.setProperty(S3FileSystemEnvironment.PROPERTY_METADATACACHE_TTL.getkey(),"60000");
+		try(S3Client caching=new S3Client(S3URI,S3USER,S3PASSWORD,properties)){
+			S3AbsolutePath path=new S3AbsolutePath(S3BUCKET,new S3FileSystem(S3URI,null,caching),"cached.txt");
+			String etag=caching.putBlob(path, "first".getBytes(StandardCharsets.UTF_8), 5, "text/plain", Collections.emptyMap());
+			Assert.assertTrue(caching.exist(path));
+			Assert.assertEquals(etag,caching.getBlobMetadata(path).get().getETag());
+			Assert.assertEquals(1,caching.getMetrics().get(S3FileSystemMetric.METADATA_CACHE_HITS));
+			String newEtag=caching.putBlob(path, "second".getBytes(StandardCharsets.UTF_8), 6, "text/plain", Collections.emptyMap());
+			Assert.assertEquals(newEtag,caching.getBlobMetadata(path).get().getETag());
+			Assert.assertEquals(2,caching.getMetrics().get(S3FileSystemMetric.METADATA_CACHE_MISSES));
+			caching.deleteBlob(path);
+			Assert.assertFalse(caching.exist(path));
+		}
+	}
+	@Test
+	public void t13NegativeCacheTest() throws IOException{
+		System.out.println("S3ClientTest >>> t13NegativeCacheTest");
+		Properties properties=new Properties();
+		properties.setProperty(S3FileSystemEnvironment.PROPERTY_CONNECTION_TIMEOUT.getkey(),String.valueOf(PROPERTY_CONNECTION_TIMEOUT));
+		properties.setProperty(S3FileSystemEnvironment.PROPERTY_NEGATIVECACHE_TTL.getkey(),"60000");
+		try(S3Client caching=new S3Client(S3URI,S3USER,S3PASSWORD,properties)){
+			S3FileSystem fileSystem=new S3FileSystem(S3URI,null,caching);
+			S3AbsolutePath folder=new S3AbsolutePath(S3BUCKET,fileSystem,"negative");
+			S3AbsolutePath existing=new S3AbsolutePath(S3BUCKET,fileSystem,"negative/existing.txt");
+			S3AbsolutePath missing=new S3AbsolutePath(S3BUCKET,fileSystem,"negative/missing.txt");
+			caching.putBlob(existing, "existing".getBytes(StandardCharsets.UTF_8), 8, "text/plain", Collections.emptyMap());
+			Assert.assertFalse(caching.exist(missing));
+			Assert.assertFalse(caching.exist(missing));
+			Assert.assertEquals(2,caching.getMetrics().get(S3FileSystemMetric.NEGATIVE_LOOKUP_HEADS_AVOIDED));
+			Assert.assertTrue(caching.primeNegativeCache(folder)>=1);
+			Assert.assertTrue(caching.exist(existing));
+			Assert.assertFalse(caching.exist(new S3AbsolutePath(S3BUCKET,fileSystem,"negative/other.txt")));
+			Assert.assertEquals(1,caching.getMetrics().get(S3FileSystemMetric.KEY_FILTER_HITS));
+			caching.putBlob(missing, "created".getBytes(StandardCharsets.UTF_8), 7, "text/plain", Collections.emptyMap());
+			Assert.assertTrue(caching.exist(missing));
+			System.out.println(MessageFormat.format("S3ClientTest >>> negative cache false positive rate {0}", caching.getNegativeCache().getFalsePositiveRate()));
+			caching.deleteBlob(missing);
+			caching.deleteBlob(existing);
+		}
+	}
+	@Test
+	public void t14ResolveTest() throws IOException{
+		System.out.println("S3ClientTest >>> t14ResolveTest");
+		S3FileSystem fileSystem=new S3FileSystem(S3URI,null,this.client);
+		S3AbsolutePath folder=new S3AbsolutePath(S3BUCKET,fileSystem,"resolve");
+		S3AbsolutePath file=new S3AbsolutePath(S3BUCKET,fileSystem,"resolve/file.txt");
+		S3AbsolutePath missing=new S3AbsolutePath(S3BUCKET,fileSystem,"resolve/missing.txt");
+		this.client.createFolder(folder);
+		this.client.putBlob(file, "file".getBytes(StandardCharsets.UTF_8), 4, "text/plain", Collections.emptyMap());
+		S3Entry folderEntry=this.client.resolve(folder);
+		Assert.assertEquals(S3Entry.Type.DIRECTORY,folderEntry.getType());
+		Assert.assertEquals(Optional.of("resolve/.self"),folderEntry.getKey());
+		S3Entry fileEntry=this.client.resolve(file);
+		Assert.assertEquals(S3Entry.Type.FILE,fileEntry.getType());
+		Assert.assertEquals(4l,(long)fileEntry.getMetadata().get().getSize());
+		Assert.assertEquals(S3Entry.Type.ABSENT,this.client.resolve(missing).getType());
+		this.client.deleteBlob(fileEntry);
+		this.client.deleteBlob(folderEntry);
+		Assert.assertFalse(this.client.exist(file));
+		Assert.assertFalse(this.client.exist(folder));
+	}
 }
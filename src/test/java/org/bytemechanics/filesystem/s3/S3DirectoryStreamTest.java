@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+import org.bytemechanics.filesystem.s3.internal.S3DirectoryStream;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3DirectoryStreamTest {
+	
+	private static final List<String> KEYS=Arrays.asList("dir/.self","dir/a.txt","dir/b.txt","dir/sub/.self","dir/sub/c.txt","dir/sub/d.txt","dir/sub2/e.txt","dir/z.txt","dirx.txt","other/x.txt");
+	
+	private static List<String> names(final DirectoryStream<Path> _stream){
+		final List<String> reply=new ArrayList<>();
+		for(Path path:_stream){
+			reply.add(path.toString());
+		}
+		return reply;
+	}
+	
+	@Test
+	public void t01PaginatedListingTest() throws IOException{
+		System.out.println("S3DirectoryStreamTest >>> t01PaginatedListingTest");
+		try(S3ListingClient client=new S3ListingClient(KEYS, 2)){
+			S3AbsolutePath directory=client.getPath("dir");
+			try(S3DirectoryStream stream=new S3DirectoryStream(directory, client, null)){
+				Assert.assertFalse(stream.isEmpty());
+				Assert.assertEquals(Arrays.asList("/bucket/dir/a.txt","/bucket/dir/b.txt","/bucket/dir/sub","/bucket/dir/sub2","/bucket/dir/z.txt"),names(stream));
+			}
+			Assert.assertEquals(4,client.getRequests());
+			Assert.assertEquals(3,client.getMetrics().get(S3FileSystemMetric.LIST_PAGES_PREFETCHED));
+			try(S3DirectoryStream stream=new S3DirectoryStream(client.getPath(""), client, null)){
+				Assert.assertEquals(Arrays.asList("/bucket/dir","/bucket/dirx.txt","/bucket/other"),names(stream));
+			}
+			try(S3DirectoryStream stream=new S3DirectoryStream(client.getPath("missing"), client, null)){
+				Assert.assertTrue(stream.isEmpty());
+				Assert.assertFalse(stream.iterator().hasNext());
+			}
+		}
+	}
+	@Test
+	public void t02FilterTest() throws IOException{
+		System.out.println("S3DirectoryStreamTest >>> t02FilterTest");
+		try(S3ListingClient client=new S3ListingClient(KEYS, 3)){
+			S3AbsolutePath directory=client.getPath("dir");
+			try(S3DirectoryStream stream=new S3DirectoryStream(directory, client, path -> path.toString().endsWith(".txt"))){
+				Assert.assertEquals(Arrays.asList("/bucket/dir/a.txt","/bucket/dir/b.txt","/bucket/dir/z.txt"),names(stream));
+			}
+			try(S3DirectoryStream stream=new S3DirectoryStream(directory, client, path -> {throw new IOException("filter failure");})){
+				stream.iterator().hasNext();
+				Assert.fail("Filter failures must be reported");
+			}catch(DirectoryIteratorException e){
+				Assert.assertEquals("filter failure",e.getCause().getMessage());
+			}
+		}
+	}
+	@Test
+	public void t03StreamContractTest() throws IOException{
+		System.out.println("S3DirectoryStreamTest >>> t03StreamContractTest");
+		try(S3ListingClient client=new S3ListingClient(KEYS, 1)){
+			S3AbsolutePath directory=client.getPath("dir");
+			S3DirectoryStream stream=new S3DirectoryStream(directory, client, null);
+			Iterator<Path> iterator=stream.iterator();
+			Assert.assertEquals("/bucket/dir/a.txt",iterator.next().toString());
+			try{
+				stream.iterator();
+				Assert.fail("Directory streams can only be iterated once");
+			}catch(IllegalStateException e){
+			}
+			stream.close();
+			Assert.assertFalse(iterator.hasNext());
+		}
+	}
+	@Test
+	public void t04ParallelListingTest() throws IOException{
+		System.out.println("S3DirectoryStreamTest >>> t04ParallelListingTest");
+		final List<String> keys=IntStream.range(0, 500)
+											.mapToObj(index -> String.format("huge/%08x.bin", index*0x9e3779b1))
+											.collect(Collectors.toList());
+		try(S3ListingClient client=new S3ListingClient(keys, 10)){
+			S3AbsolutePath directory=client.getPath("huge");
+			final List<String> expected;
+			try(S3DirectoryStream stream=new S3DirectoryStream(directory, client, null)){
+				expected=names(stream);
+			}
+			try(S3DirectoryStream stream=new S3DirectoryStream(directory, client, path -> !path.toString().endsWith("0.bin"))){
+				Assert.assertEquals(expected.stream()
+											.filter(name -> !name.endsWith("0.bin"))
+											.collect(Collectors.toList())
+									,StreamSupport.stream(stream.spliterator(), true)
+											.map(Path::toString)
+											.sorted()
+											.collect(Collectors.toList()));
+				try{
+					stream.iterator();
+					Assert.fail("Directory streams can only be iterated once");
+				}catch(IllegalStateException e){
+				}
+			}
+			Assert.assertTrue(client.getMetrics().get(S3FileSystemMetric.LIST_SHARDS)>0);
+		}
+	}
+	@Test
+	public void t05CloseCancelsPrefetchTest() throws Exception{
+		System.out.println("S3DirectoryStreamTest >>> t05CloseCancelsPrefetchTest");
+		Properties environment=new Properties();
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_TRANSFER_THREADS.getkey(), "1");
+		try(S3ListingClient client=new S3ListingClient(KEYS, 1, environment)){
+			CountDownLatch busy=new CountDownLatch(1);
+			CompletableFuture<Boolean> blocker=client.async(() -> {
+				try{
+					return busy.await(5, TimeUnit.SECONDS);
+				}catch(InterruptedException e){
+					throw new IllegalStateException(e);
+				}
+			});
+			S3DirectoryStream stream=new S3DirectoryStream(client.getPath("dir"), client, null);
+			stream.close();
+			busy.countDown();
+			Assert.assertTrue(blocker.get());
+			client.async(() -> null).get();
+			Assert.assertEquals(0,client.getRequests());
+		}
+	}
+	@Test
+	public void t06ListBeforeLookupTest() throws IOException{
+		System.out.println("S3DirectoryStreamTest >>> t06ListBeforeLookupTest");
+		try(S3ListingClient client=new S3ListingClient(KEYS, 1000)){
+			S3FileSystemProvider provider=new S3FileSystemProvider();
+			try(DirectoryStream<Path> stream=provider.newDirectoryStream(client.getPath("dir"), null)){
+				Assert.assertEquals(1,client.getRequests());
+				Assert.assertEquals(5,names(stream).size());
+			}
+			try{
+				provider.newDirectoryStream(client.getPath("dir","a.txt"), null).close();
+				Assert.fail("Files can not be listed");
+			}catch(NotDirectoryException e){
+				Assert.assertEquals(3,client.getRequests());
+			}
+			try{
+				provider.newDirectoryStream(client.getPath("missing"), null).close();
+				Assert.fail("Missing folders can not be listed");
+			}catch(NoSuchFileException e){
+				Assert.assertEquals(5,client.getRequests());
+			}
+		}
+	}
+}
@@ -19,18 +19,37 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.bytemechanics.filesystem.s3.internal.S3InputStream;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
@@ -58,6 +77,7 @@ public class S3FileSystemTest {
 		Map<String,String> environment= new HashMap<>();
 		environment.put(S3FileSystemEnvironment.PROPERTY_MULTIPART_UPLOAD_MINSIZE.name(),String.valueOf(PROPERTY_MULTIPART_UPLOAD_MINSIZE));
 		environment.put(S3FileSystemEnvironment.PROPERTY_CONNECTION_TIMEOUT.name(),String.valueOf(PROPERTY_CONNECTION_TIMEOUT));
+		environment.put(S3FileSystemEnvironment.PROPERTY_CHECKSUM_VERIFY.name(),"true");
 		String encodedUser=URLEncoder.encode(S3USER,"UTF-8");
 		String encodedPassword=URLEncoder.encode(S3PASSWORD,"UTF-8");
 		URI uri=URI.create(MessageFormat.format("s3://{0}:{1}@192.168.56.1:9000/{2}",encodedUser,encodedPassword,S3BUCKET));
@@ -93,6 +113,20 @@ public class S3FileSystemTest {
 		Assert.assertArrayEquals(Files.readAllBytes(LOCAL_FILE), actualBuffer);
 	}
 	@Test
+	public void t02RangedReadTest() throws IOException{
+		System.out.println("S3FileSystemTest >>> t02RangedReadTest");
+		Path path=S3FileSystemTest.fileSystem.getPath("test.pdf");
+		byte[] expected=Files.readAllBytes(LOCAL_FILE);
+		try(SeekableByteChannel channel=Files.newByteChannel(path,StandardOpenOption.READ)){
+			Assert.assertEquals(expected.length,channel.size());
+			ByteBuffer actual=ByteBuffer.allocate(1024);
+			channel.position(expected.length-1024);
+			while(actual.hasRemaining()&&channel.read(actual)>0);
+			Assert.assertArrayEquals(Arrays.copyOfRange(expected,expected.length-1024,expected.length), actual.array());
+			Assert.assertEquals(-1,channel.read(ByteBuffer.allocate(1)));
+		}
+	}
+	@Test
 	public void t03DeleteBlobTest() throws IOException{
 		System.out.println("S3FileSystemTest >>> t03DeleteBlobTest");
 		Path path=S3FileSystemTest.fileSystem.getPath("test.pdf");
@@ -168,4 +202,176 @@ public class S3FileSystemTest {
 		Files.delete(path);
 		Assert.assertFalse(Files.exists(path));
 	}
+	@Test
+	public void t11StreamingMultipartTest() throws IOException{
+		System.out.println("S3FileSystemTest >>> t11StreamingMultipartTest");
+		Path path=S3FileSystemTest.fileSystem.getPath("multipart.bin");
+		byte[] expected=new byte[12*1024*1024+17];
+		new Random(11).nextBytes(expected);
+		try(OutputStream out=Files.newOutputStream(path)){
+			for(int i=0;i<expected.length;i+=4096){
+				out.write(expected,i,Math.min(4096,expected.length-i));
+			}
+		}
+		Assert.assertEquals(expected.length,Files.size(path));
+		Assert.assertArrayEquals(expected, Files.readAllBytes(path));
+		Files.delete(path);
+		Assert.assertFalse(Files.exists(path));
+	}
+	@Test
+	public void t12MemoryChannelTest() throws IOException{
+		System.out.println("S3FileSystemTest >>> t12MemoryChannelTest");
+		Path path=S3FileSystemTest.fileSystem.getPath("memory.txt");
+		try(SeekableByteChannel channel=Files.newByteChannel(path,StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE)){
+			channel.write(ByteBuffer.wrap("hello world".getBytes(StandardCharsets.UTF_8)));
+			channel.position(6);
+			channel.write(ByteBuffer.wrap("there".getBytes(StandardCharsets.UTF_8)));
+		}
+		Assert.assertEquals("hello there",new String(Files.readAllBytes(path),StandardCharsets.UTF_8));
+		Assert.assertTrue(((S3FileSystem)S3FileSystemTest.fileSystem).getMetric(S3FileSystemMetric.CHANNEL_MEMORY_READ_WRITE)>0);
+		Files.delete(path);
+	}
+	@Test
+	public void t13AsynchronousReadTest() throws Exception{
+		System.out.println("S3FileSystemTest >>> t13AsynchronousReadTest");
+		Path path=S3FileSystemTest.fileSystem.getPath("async.bin");
+		byte[] expected=new byte[1024*1024];
+		new Random(13).nextBytes(expected);
+		Files.write(path, expected);
+		try(AsynchronousFileChannel channel=AsynchronousFileChannel.open(path, StandardOpenOption.READ)){
+			List<Future<Integer>> reads=new ArrayList<>();
+			List<ByteBuffer> buffers=new ArrayList<>();
+			for(int i=0;i<expected.length;i+=64*1024){
+				ByteBuffer buffer=ByteBuffer.allocate(64*1024);
+				buffers.add(buffer);
+				reads.add(channel.read(buffer, i));
+			}
+			for(int i=0;i<reads.size();i++){
+				Assert.assertEquals(64*1024,(int)reads.get(i).get());
+				Assert.assertArrayEquals(Arrays.copyOfRange(expected, i*64*1024, (i+1)*64*1024), buffers.get(i).array());
+			}
+			Assert.assertEquals(-1,(int)channel.read(ByteBuffer.allocate(1), expected.length).get());
+		}
+		Files.delete(path);
+	}
+	@Test
+	public void t14FileChannelTransferTest() throws IOException{
+		System.out.println("S3FileSystemTest >>> t14FileChannelTransferTest");
+		Path path=S3FileSystemTest.fileSystem.getPath("transfer.bin");
+		Path local=Files.createTempFile("transfer", ".bin");
+		byte[] expected=new byte[3*1024*1024+5];
+		new Random(14).nextBytes(expected);
+		Files.write(local, expected);
+		try(FileChannel source=FileChannel.open(local, StandardOpenOption.READ);
+			FileChannel target=FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			Assert.assertEquals(expected.length,target.transferFrom(source, 0, expected.length));
+		}
+		Files.delete(local);
+		try(FileChannel source=FileChannel.open(path, StandardOpenOption.READ);
+			FileChannel target=FileChannel.open(local, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)){
+			Assert.assertEquals(expected.length,source.transferTo(0, source.size(), target));
+		}
+		Assert.assertArrayEquals(expected, Files.readAllBytes(local));
+		Files.delete(local);
+		Files.delete(path);
+	}
+	@Test
+	public void t15DirectInputStreamTest() throws IOException{
+		System.out.println("S3FileSystemTest >>> t15DirectInputStreamTest");
+		Path path=S3FileSystemTest.fileSystem.getPath("stream.bin");
+		byte[] expected=new byte[2*1024*1024];
+		new Random(15).nextBytes(expected);
+		Files.write(path, expected);
+		try(InputStream in=Files.newInputStream(path)){
+			Assert.assertEquals(expected[0],(byte)in.read());
+			Assert.assertEquals(1024*1024-1,in.skip(1024*1024-1));
+			byte[] actual=new byte[1024];
+			Assert.assertEquals(1024,in.read(actual));
+			Assert.assertArrayEquals(Arrays.copyOfRange(expected, 1024*1024, 1024*1024+1024), actual);
+			Assert.assertEquals(expected.length-1024*1024-1024,in.skip(Long.MAX_VALUE));
+			Assert.assertEquals(-1,in.read());
+		}
+		Files.delete(path);
+	}
+	@Test
+	public void t16ChecksumTest() throws IOException{
+		System.out.println("S3FileSystemTest >>> t16ChecksumTest");
+		Path path=S3FileSystemTest.fileSystem.getPath("checksum.bin");
+		byte[] expected=new byte[512*1024];
+		new Random(16).nextBytes(expected);
+		long verified=((S3FileSystem)S3FileSystemTest.fileSystem).getMetric(S3FileSystemMetric.CHECKSUM_VERIFIED);
+		Files.write(path, expected);
+		try(InputStream in=Files.newInputStream(path)){
+			Assert.assertArrayEquals(expected, ((S3InputStream)in).readAllBytes());
+			Assert.assertTrue(((S3InputStream)in).getChecksum().isPresent());
+		}
+		Assert.assertEquals(verified+2,((S3FileSystem)S3FileSystemTest.fileSystem).getMetric(S3FileSystemMetric.CHECKSUM_VERIFIED));
+		Assert.assertEquals(0,((S3FileSystem)S3FileSystemTest.fileSystem).getMetric(S3FileSystemMetric.CHECKSUM_MISMATCHES));
+		Files.delete(path);
+	}
+	@Test
+	public void t17DirectoryStreamTest() throws IOException{
+		System.out.println("S3FileSystemTest >>> t17DirectoryStreamTest");
+		Path folder=S3FileSystemTest.fileSystem.getPath("listing");
+		Files.createDirectory(folder);
+		Files.createDirectory(folder.resolve("subfolder"));
+		Files.write(folder.resolve("file1.txt"), "file1".getBytes(StandardCharsets.UTF_8));
+		Files.write(folder.resolve("file2.txt"), "file2".getBytes(StandardCharsets.UTF_8));
+		try(Stream<Path> listing=Files.list(folder)){
+			Assert.assertEquals(Arrays.asList("file1.txt","file2.txt","subfolder")
+								,listing.map(Path::getFileName).map(Path::toString).sorted().collect(Collectors.toList()));
+		}
+		try(DirectoryStream<Path> listing=Files.newDirectoryStream(folder, path -> path.toString().endsWith(".txt"))){
+			Assert.assertEquals(2,StreamSupport.stream(listing.spliterator(), false).count());
+		}
+		Files.delete(folder.resolve("file1.txt"));
+		Files.delete(folder.resolve("file2.txt"));
+		Files.delete(folder.resolve("subfolder"));
+		Files.delete(folder);
+	}
+	@Test
+	public void t18ParallelListingTest() throws IOException{
+		System.out.println("S3FileSystemTest >>> t18ParallelListingTest");
+		Path folder=S3FileSystemTest.fileSystem.getPath("parallel-listing");
+		Files.createDirectory(folder);
+		List<Path> files=new ArrayList<>();
+		for(int index=0;index<64;index++){
+			files.add(Files.write(folder.resolve(Integer.toHexString(index*0x9e3779b1)+".txt"), "file".getBytes(StandardCharsets.UTF_8)));
+		}
+		try(DirectoryStream<Path> listing=Files.newDirectoryStream(folder)){
+			Assert.assertEquals(files.stream().map(Path::toString).sorted().collect(Collectors.toList())
+								,StreamSupport.stream(listing.spliterator(), true).map(Path::toString).sorted().collect(Collectors.toList()));
+		}
+		for(Path file:files){
+			Files.delete(file);
+		}
+		Files.delete(folder);
+	}
+	@Test
+	public void t19FlatWalkTest() throws IOException{
+		System.out.println("S3FileSystemTest >>> t19FlatWalkTest");
+		Path folder=S3FileSystemTest.fileSystem.getPath("walk");
+		Files.createDirectory(folder);
+		Files.createDirectory(folder.resolve("subfolder"));
+		Files.write(folder.resolve("file1.txt"), "file1".getBytes(StandardCharsets.UTF_8));
+		Files.write(folder.resolve("subfolder").resolve("file2.txt"), "file22".getBytes(StandardCharsets.UTF_8));
+		List<String> visited=new ArrayList<>();
+		((S3FileSystem)S3FileSystemTest.fileSystem).walkFileTree(folder, new SimpleFileVisitor<Path>(){
+			@Override
+			public FileVisitResult preVisitDirectory(Path _dir, BasicFileAttributes _attributes) throws IOException {
+				visited.add(_dir.getFileName()+"/");
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path _file, BasicFileAttributes _attributes) throws IOException {
+				visited.add(_file.getFileName()+":"+_attributes.size());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Assert.assertEquals(Arrays.asList("walk/","file1.txt:5","subfolder/","file2.txt:6"),visited);
+		Files.delete(folder.resolve("subfolder").resolve("file2.txt"));
+		Files.delete(folder.resolve("file1.txt"));
+		Files.delete(folder.resolve("subfolder"));
+		Files.delete(folder);
+	}
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import org.bytemechanics.filesystem.s3.internal.S3Client;
+import org.bytemechanics.filesystem.s3.internal.S3Entry;
+import org.bytemechanics.filesystem.s3.internal.S3ListingSpliterator;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.domain.Tier;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.jclouds.blobstore.domain.internal.PageSetImpl;
+import org.jclouds.blobstore.domain.internal.StorageMetadataImpl;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+
+/**
+ * Client listing an in memory set of keys in pages in the order of the server, without server.
+ * In memory objects can be added to serve their HEAD and ranged GET requests
+ * @author afarre
+ * @since 0.2.0
+ */
+public class S3ListingClient extends S3Client {
+
+	private final NavigableSet<String> keys;
+	private final int pageSize;
+	private final AtomicInteger requests;
+	private final Map<String,byte[]> contents;
+	private final Map<String,String> etags;
+	private final AtomicInteger gets;
+	private volatile BiFunction<Long,InputStream,InputStream> responses;
+	
+	
+	public S3ListingClient(final Collection<String> _keys,final int _pageSize){
+		this(_keys, _pageSize, null);
+	}
+	public S3ListingClient(final Collection<String> _keys,final int _pageSize,final Properties _environment){
+		super(URI.create("s3://localhost:9000"), "user", "password", _environment);
+		this.keys=new TreeSet<>(S3ListingSpliterator.KEY_ORDER);
+		this.keys.addAll(_keys);
+		this.pageSize=_pageSize;
+		this.requests=new AtomicInteger();
+		this.contents=new ConcurrentHashMap<>();
+		this.etags=Collections.synchronizedMap(new HashMap<>());
+		this.gets=new AtomicInteger();
+		this.responses=(from,response) -> response;
+	}
+
+	/**
+	 * Serve an in memory object, its HEAD returns its size and etag and its ranged GETs fail when they are pinned to another etag
+	 * @param _key object key
+	 * @param _content object content
+	 * @param _etag object etag
+	 * @return this client
+	 */
+	public S3ListingClient withObject(final String _key,final byte[] _content,final String _etag){
+		this.contents.put(_key, _content);
+		this.etags.put(_key, _etag);
+		return this;
+	}
+	/**
+	 * @param _responses decorator of the response of each ranged GET of an in memory object given the first byte of the range
+	 * @return this client
+	 */
+	public S3ListingClient withResponses(final BiFunction<Long,InputStream,InputStream> _responses){
+		this.responses=_responses;
+		return this;
+	}
+
+	/**
+	 * @param _first first segment of the path
+	 * @param _more more segments
+	 * @return path of a filesystem of bucket "bucket" backed by this client
+	 * @throws IOException never
+	 */
+	public S3AbsolutePath getPath(final String _first,final String... _more) throws IOException{
+		return new S3AbsolutePath("bucket", new S3FileSystem(URI.create("s3://localhost:9000/bucket"), null, this), _first, _more);
+	}
+	public int getRequests(){
+		return this.requests.get();
+	}
+	/**
+	 * @return number of ranged GETs of in memory objects
+	 */
+	public int getGets(){
+		return this.gets.get();
+	}
+	
+	/**
+	 * Resolve against the in memory keys, counted as a single request
+	 */
+	@Override
+	public S3Entry resolve(final S3AbsolutePath _path){
+		this.requests.incrementAndGet();
+		if(this.contents.containsKey(_path.getBucketPath()))
+			return S3Entry.of(_path, headBlob(_path.getBucket(), _path.getBucketPath()));
+		final String marker=_path.getBucketPath()+S3AbsolutePath.PATH_SEPARATOR+getFolderMarker();
+		final String key=(this.keys.contains(_path.getBucketPath()))? _path.getBucketPath() : (this.keys.contains(marker))? marker : null;
+		if(key==null)
+			return S3Entry.absent(_path);
+		final MutableBlobMetadataImpl metadata=new MutableBlobMetadataImpl();
+		metadata.setName(key);
+		metadata.setType(StorageType.BLOB);
+		metadata.setSize((long)key.length());
+		metadata.getContentMetadata().setContentType((key.equals(marker))? "application/directory" : "text/plain");
+		return S3Entry.of(_path, metadata);
+	}
+	
+	/**
+	 * Describe the in memory object, any other key is missing
+	 */
+	@Override
+	protected BlobMetadata headBlob(final String _bucket,final String _key){
+		final byte[] content=this.contents.get(_key);
+		if(content==null)
+			return null;
+		final MutableBlobMetadataImpl reply=new MutableBlobMetadataImpl();
+		reply.setName(_key);
+		reply.setType(StorageType.BLOB);
+		reply.setETag(this.etags.get(_key));
+		reply.setSize((long)content.length);
+		reply.getContentMetadata().setContentLength((long)content.length);
+		reply.getContentMetadata().setContentType("application/octet-stream");
+		return reply;
+	}
+
+	/**
+	 * Serve the range of the in memory object, unless it is missing or the etag is pinned to another version
+	 */
+	@Override
+	public Optional<Payload> getBlob(final S3AbsolutePath _path,final String _etag,final long _from,final long _to){
+		final byte[] content=this.contents.get(_path.getBucketPath());
+		this.gets.incrementAndGet();
+		if(content==null)
+			return Optional.empty();
+		if((_etag!=null)&&(!_etag.equals(this.etags.get(_path.getBucketPath()))))
+			return Optional.empty();
+		final InputStream response=new ByteArrayInputStream(content, (int)_from, (int)(_to-_from+1));
+		return Optional.of(Payloads.newInputStreamPayload(this.responses.apply(_from, response)));
+	}
+	
+	/**
+	 * Pages end at the page size, a subfolder is continued after its own prefix as marker, repeating it in the next page
+	 */
+	@Override
+	public PageSet<? extends StorageMetadata> list(final String _bucket,final String _prefix,final String _marker,final boolean _recursive){
+		this.requests.incrementAndGet();
+		final List<StorageMetadata> page=new ArrayList<>();
+		String last=null;
+		for(String key:(_marker==null)? this.keys.tailSet(_prefix, true) : this.keys.tailSet(_marker, false)){
+			if(!key.startsWith(_prefix))
+				break;
+			final int separator=key.indexOf('/', _prefix.length());
+			final boolean folder=(!_recursive)&&(separator>=0);
+			final String name=(folder)? key.substring(0, separator+1) : key;
+			if(name.equals(last))
+				continue;
+			if(page.size()==this.pageSize)
+				return new PageSetImpl<>(page, last);
+			page.add(new StorageMetadataImpl((folder)? StorageType.RELATIVE_PATH : StorageType.BLOB, null, name, null, null, "\"etag-"+name.hashCode()+"\"", null, new Date(1000000l), Collections.<String,String>emptyMap(), (folder)? null : (long)name.length(), Tier.STANDARD));
+			last=name;
+		}
+		return new PageSetImpl<>(page, null);
+	}
+}
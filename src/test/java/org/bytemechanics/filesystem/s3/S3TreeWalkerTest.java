@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3TreeWalkerTest {
+	
+	private static final List<String> KEYS=Arrays.asList("dir/","dir/.self","dir/a.txt","dir/b.txt","dir/sub/.self","dir/sub/c.txt","dir/sub/d.txt","dir/sub2/e.txt","dir/z.txt","dirx.txt","other/x.txt");
+	
+	private static class RecordingVisitor extends SimpleFileVisitor<Path>{
+
+		private final List<String> events=new ArrayList<>();
+		
+		protected FileVisitResult result(final Path _path){
+			return FileVisitResult.CONTINUE;
+		}
+		@Override
+		public FileVisitResult preVisitDirectory(final Path _dir,final BasicFileAttributes _attributes) throws IOException {
+			Assert.assertTrue(_attributes.isDirectory());
+			this.events.add("pre:"+_dir);
+			return result(_dir);
+		}
+		@Override
+		public FileVisitResult visitFile(final Path _file,final BasicFileAttributes _attributes) throws IOException {
+			this.events.add(((_attributes.isDirectory())? "dir:" : "file:")+_file+((_attributes.isRegularFile())? ":"+_attributes.size() : ""));
+			return result(_file);
+		}
+		@Override
+		public FileVisitResult visitFileFailed(final Path _file,final IOException _exception) throws IOException {
+			this.events.add("failed:"+_file+":"+_exception.getClass().getSimpleName());
+			return FileVisitResult.CONTINUE;
+		}
+		@Override
+		public FileVisitResult postVisitDirectory(final Path _dir,final IOException _exception) throws IOException {
+			this.events.add("post:"+_dir);
+			return FileVisitResult.CONTINUE;
+		}
+	}
+	
+	@Test
+	public void t01FlatWalkTest() throws IOException{
+		System.out.println("S3TreeWalkerTest >>> t01FlatWalkTest");
+		try(S3ListingClient client=new S3ListingClient(KEYS, 4)){
+			final RecordingVisitor visitor=new RecordingVisitor();
+			final S3FileSystem fileSystem=client.getPath("").getFileSystem();
+			fileSystem.walkFileTree(fileSystem.getPath(""), visitor);
+			Assert.assertEquals(Arrays.asList("pre:/bucket"
+												,"pre:/bucket/dir","file:/bucket/dir/a.txt:9","file:/bucket/dir/b.txt:9"
+												,"pre:/bucket/dir/sub","file:/bucket/dir/sub/c.txt:13","file:/bucket/dir/sub/d.txt:13","post:/bucket/dir/sub"
+												,"pre:/bucket/dir/sub2","file:/bucket/dir/sub2/e.txt:14","post:/bucket/dir/sub2"
+												,"file:/bucket/dir/z.txt:9","post:/bucket/dir"
+												,"file:/bucket/dirx.txt:8"
+												,"pre:/bucket/other","file:/bucket/other/x.txt:11","post:/bucket/other"
+												,"post:/bucket")
+								,visitor.events);
+			Assert.assertEquals(3,client.getRequests());
+			Assert.assertEquals(13,client.getMetrics().get(S3FileSystemMetric.WALK_ENTRIES));
+		}
+	}
+	@Test
+	public void t02DepthAndSkipTest() throws IOException{
+		System.out.println("S3TreeWalkerTest >>> t02DepthAndSkipTest");
+		try(S3ListingClient client=new S3ListingClient(KEYS, 100)){
+			final S3FileSystem fileSystem=client.getPath("").getFileSystem();
+			RecordingVisitor visitor=new RecordingVisitor();
+			fileSystem.walkFileTree(fileSystem.getPath("dir"), 1, visitor);
+			Assert.assertEquals(Arrays.asList("pre:/bucket/dir","file:/bucket/dir/a.txt:9","file:/bucket/dir/b.txt:9","dir:/bucket/dir/sub","dir:/bucket/dir/sub2","file:/bucket/dir/z.txt:9","post:/bucket/dir")
+								,visitor.events);
+			Assert.assertEquals(2,client.getRequests());
+			visitor=new RecordingVisitor(){
+				@Override
+				protected FileVisitResult result(final Path _path){
+					return (_path.toString().endsWith("sub"))? FileVisitResult.SKIP_SUBTREE 
+							: (_path.toString().endsWith("e.txt"))? FileVisitResult.SKIP_SIBLINGS
+							: (_path.toString().endsWith("dirx.txt"))? FileVisitResult.TERMINATE 
+							: FileVisitResult.CONTINUE;
+				}
+			};
+			fileSystem.walkFileTree(fileSystem.getPath(""), visitor);
+			Assert.assertEquals(Arrays.asList("pre:/bucket"
+												,"pre:/bucket/dir","file:/bucket/dir/a.txt:9","file:/bucket/dir/b.txt:9","pre:/bucket/dir/sub"
+												,"pre:/bucket/dir/sub2","file:/bucket/dir/sub2/e.txt:14","post:/bucket/dir/sub2"
+												,"file:/bucket/dir/z.txt:9","post:/bucket/dir"
+												,"file:/bucket/dirx.txt:8")
+								,visitor.events);
+		}
+	}
+	@Test
+	public void t03StartTest() throws IOException{
+		System.out.println("S3TreeWalkerTest >>> t03StartTest");
+		try(S3ListingClient client=new S3ListingClient(KEYS, 100)){
+			final S3FileSystem fileSystem=client.getPath("").getFileSystem();
+			RecordingVisitor visitor=new RecordingVisitor();
+			fileSystem.walkFileTree(fileSystem.getPath("dir","a.txt"), visitor);
+			Assert.assertEquals(Arrays.asList("file:/bucket/dir/a.txt:9"),visitor.events);
+			Assert.assertEquals(1,client.getRequests());
+			visitor=new RecordingVisitor();
+			fileSystem.walkFileTree(fileSystem.getPath("missing"), visitor);
+			Assert.assertEquals(Arrays.asList("failed:/bucket/missing:NoSuchFileException"),visitor.events);
+			visitor=new RecordingVisitor();
+			fileSystem.walkFileTree(fileSystem.getPath("other"), 0, visitor);
+			Assert.assertEquals(Arrays.asList("dir:/bucket/other"),visitor.events);
+			try{
+				fileSystem.walkFileTree(fileSystem.getPath(""), -1, visitor);
+				Assert.fail("Negative depths must be rejected");
+			}catch(IllegalArgumentException e){
+			}
+		}
+	}
+	@Test
+	public void t04SkipRestartTest() throws IOException{
+		System.out.println("S3TreeWalkerTest >>> t04SkipRestartTest");
+		final List<String> keys=IntStream.range(0, 100)
+											.mapToObj(index -> String.format("deep/a/x/k%03d.txt", index))
+											.collect(Collectors.toList());
+		keys.add("deep/b.txt");
+		try(S3ListingClient client=new S3ListingClient(keys, 10)){
+			final S3FileSystem fileSystem=client.getPath("").getFileSystem();
+			RecordingVisitor visitor=new RecordingVisitor();
+			fileSystem.walkFileTree(fileSystem.getPath("deep"), 2, visitor);
+			Assert.assertEquals(Arrays.asList("pre:/bucket/deep","pre:/bucket/deep/a","dir:/bucket/deep/a/x","post:/bucket/deep/a","file:/bucket/deep/b.txt:10","post:/bucket/deep")
+								,visitor.events);
+			Assert.assertEquals(3,client.getRequests());
+			visitor=new RecordingVisitor(){
+				@Override
+				protected FileVisitResult result(final Path _path){
+					return (_path.toString().endsWith("a"))? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+				}
+			};
+			fileSystem.walkFileTree(fileSystem.getPath("deep"), visitor);
+			Assert.assertEquals(Arrays.asList("pre:/bucket/deep","pre:/bucket/deep/a","file:/bucket/deep/b.txt:10","post:/bucket/deep")
+								,visitor.events);
+			Assert.assertEquals(6,client.getRequests());
+			try{
+				fileSystem.walkFileTree(Paths.get("deep"), visitor);
+				Assert.fail("Paths of other filesystems must be rejected");
+			}catch(ProviderMismatchException e){
+			}
+		}
+	}
+}
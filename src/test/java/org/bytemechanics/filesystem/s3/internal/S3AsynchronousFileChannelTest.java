@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.bytemechanics.filesystem.s3.S3OpenOption;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3AsynchronousFileChannelTest {
+
+	private static final int SIZE=1024*1024;
+
+	/** Stream serving a first chunk and then blocked until it is closed */
+	private static class StalledStream extends InputStream{
+
+		private final CountDownLatch served=new CountDownLatch(1);
+		private final CountDownLatch blocked=new CountDownLatch(1);
+		private final CountDownLatch closed=new CountDownLatch(1);
+		private final CountDownLatch failed=new CountDownLatch(1);
+
+		@Override
+		public int read() throws IOException {
+			final byte[] reply=new byte[1];
+			return (read(reply, 0, 1)<0)? -1 : reply[0];
+		}
+		@Override
+		public int read(final byte[] _buffer,final int _offset,final int _length) throws IOException {
+			if(this.served.getCount()>0){
+				Arrays.fill(_buffer, _offset, _offset+_length, (byte)1);
+				this.served.countDown();
+				return _length;
+			}
+			this.blocked.countDown();
+			try{
+				this.closed.await();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			this.failed.countDown();
+			throw new IOException("Response closed");
+		}
+		@Override
+		public void close() throws IOException {
+			this.closed.countDown();
+		}
+	}
+
+	@Test(timeout=10000)
+	public void t01CloseAbortsReadTest() throws IOException, InterruptedException{
+		System.out.println("S3AsynchronousFileChannelTest >>> t01CloseAbortsReadTest");
+		final StalledStream stalled=new StalledStream();
+		try(S3ListingClient client=new S3ListingClient(Collections.emptyList(), 1000)
+											.withObject("object", new byte[SIZE], null)
+											.withResponses((from,response) -> stalled)){
+			final Set<OpenOption> options=new HashSet<>(EnumSet.of(StandardOpenOption.READ));
+			options.add(S3OpenOption.knownSize(SIZE));
+			final S3AsynchronousFileChannel channel=new S3AsynchronousFileChannel(client.getPath("object"), client, S3ChannelOptions.of(options), null);
+			final ByteBuffer buffer=ByteBuffer.allocate(SIZE);
+			final Future<Integer> read=channel.read(buffer, 0);
+			Assert.assertTrue(stalled.served.await(5, TimeUnit.SECONDS));
+			Assert.assertTrue(stalled.blocked.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(1,channel.getPendingReads());
+			channel.close();
+			try{
+				read.get();
+				Assert.fail("Read must fail when the channel is closed");
+			}catch(ExecutionException e){
+				Assert.assertTrue(e.getCause() instanceof AsynchronousCloseException);
+			}
+			Assert.assertTrue(stalled.closed.await(5, TimeUnit.SECONDS));
+			Assert.assertTrue(stalled.failed.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0,channel.getPendingReads());
+			final int position=buffer.position();
+			Assert.assertTrue(position<SIZE);
+			Thread.sleep(100);
+			Assert.assertEquals(position,buffer.position());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.util.Arrays;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3BlockCacheTest {
+	
+	private static final String BUCKET="es-spl";
+	private static final String KEY="test.pdf";
+	private static final String ETAG="\"etag\"";
+	private S3BlockCache cache;
+	private S3Metrics metrics;
+	
+	@Before
+	public void before(){
+		this.cache=new S3BlockCache();
+		this.cache.configure(2l*S3BlockCache.BLOCK_SIZE);
+		this.metrics=new S3Metrics();
+	}
+	
+	@Test
+	public void t01ReadCachedBlockTest(){
+		System.out.println("S3BlockCacheTest >>> t01ReadCachedBlockTest");
+		byte[] content=new byte[S3BlockCache.BLOCK_SIZE];
+		Arrays.fill(content,(byte)7);
+		this.cache.put(this.metrics, BUCKET, KEY, ETAG, 0, content, 1000);
+		byte[] actual=new byte[10];
+		Assert.assertTrue(this.cache.read(this.metrics, BUCKET, KEY, ETAG, 0, 990, actual, 0, 10));
+		Assert.assertArrayEquals(Arrays.copyOf(content,10), actual);
+		Assert.assertFalse(this.cache.read(this.metrics, BUCKET, KEY, "\"other\"", 0, 0, actual, 0, 10));
+		Assert.assertEquals(S3BlockCache.BLOCK_SIZE,this.cache.getResidentBytes());
+		Assert.assertEquals(1,this.metrics.get(S3FileSystemMetric.BLOCK_CACHE_HITS));
+		Assert.assertEquals(1,this.metrics.get(S3FileSystemMetric.BLOCK_CACHE_MISSES));
+	}
+	@Test
+	public void t02EvictLeastRecentlyUsedTest(){
+		System.out.println("S3BlockCacheTest >>> t02EvictLeastRecentlyUsedTest");
+		byte[] content=new byte[S3BlockCache.BLOCK_SIZE];
+		byte[] actual=new byte[1];
+		this.cache.put(this.metrics, BUCKET, KEY, ETAG, 0, content, content.length);
+		this.cache.put(this.metrics, BUCKET, KEY, ETAG, 1, content, content.length);
+		Assert.assertTrue(this.cache.read(this.metrics, BUCKET, KEY, ETAG, 0, 0, actual, 0, 1));
+		this.cache.put(this.metrics, BUCKET, KEY, ETAG, 2, content, content.length);
+		Assert.assertEquals(1,this.metrics.get(S3FileSystemMetric.BLOCK_CACHE_EVICTIONS));
+		Assert.assertTrue(this.cache.contains(BUCKET, KEY, ETAG, 0));
+		Assert.assertFalse(this.cache.contains(BUCKET, KEY, ETAG, 1));
+		Assert.assertTrue(this.cache.contains(BUCKET, KEY, ETAG, 2));
+		Assert.assertEquals(2l*S3BlockCache.BLOCK_SIZE,this.cache.getResidentBytes());
+	}
+	@Test
+	public void t03FixedBudgetTest(){
+		System.out.println("S3BlockCacheTest >>> t03FixedBudgetTest");
+		byte[] content=new byte[S3BlockCache.BLOCK_SIZE];
+		S3BlockCache shared=new S3BlockCache();
+		Assert.assertFalse(shared.isEnabled());
+		Assert.assertEquals(-1l,shared.configure(S3BlockCache.BLOCK_SIZE-1));
+		Assert.assertFalse(shared.isEnabled());
+		Assert.assertEquals(S3BlockCache.BLOCK_SIZE,shared.configure(S3BlockCache.BLOCK_SIZE));
+		Assert.assertEquals(S3BlockCache.BLOCK_SIZE,shared.configure(8l*S3BlockCache.BLOCK_SIZE));
+		Assert.assertTrue(shared.isEnabled());
+		shared.put(this.metrics, BUCKET, KEY, ETAG, 0, content, content.length);
+		shared.put(this.metrics, BUCKET, KEY, ETAG, 1, content, content.length);
+		Assert.assertEquals(S3BlockCache.BLOCK_SIZE,shared.getResidentBytes());
+		Assert.assertEquals(1,this.metrics.get(S3FileSystemMetric.BLOCK_CACHE_EVICTIONS));
+		Assert.assertEquals(0,this.cache.getResidentBytes());
+	}
+}
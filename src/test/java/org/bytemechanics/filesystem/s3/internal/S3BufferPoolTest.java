@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3BufferPoolTest {
+	
+	@Test
+	public void t01ReuseTest(){
+		System.out.println("S3BufferPoolTest >>> t01ReuseTest");
+		S3BufferPool pool=new S3BufferPool(1024,1);
+		ByteBuffer buffer1=pool.acquire();
+		ByteBuffer buffer2=pool.acquire();
+		Assert.assertEquals(1024,buffer1.capacity());
+		buffer1.put((byte)1);
+		pool.release(buffer1);
+		pool.release(buffer2);
+		Assert.assertEquals(1,pool.getPooled());
+		ByteBuffer reused=pool.acquire();
+		Assert.assertSame(buffer1,reused);
+		Assert.assertEquals(0,reused.position());
+		Assert.assertEquals(0,pool.getPooled());
+	}
+	@Test
+	public void t02ForeignBufferTest(){
+		System.out.println("S3BufferPoolTest >>> t02ForeignBufferTest");
+		S3BufferPool pool=new S3BufferPool(1024,4);
+		pool.release(ByteBuffer.allocate(2048));
+		pool.release(null);
+		Assert.assertEquals(0,pool.getPooled());
+	}
+	@Test
+	public void t03DirectPoolTest(){
+		System.out.println("S3BufferPoolTest >>> t03DirectPoolTest");
+		S3BufferPool pool=new S3BufferPool(1024,2,true);
+		ByteBuffer buffer=pool.acquire();
+		Assert.assertTrue(buffer.isDirect());
+		pool.release(ByteBuffer.allocate(1024));
+		Assert.assertEquals(0,pool.getPooled());
+		pool.release(buffer);
+		Assert.assertSame(buffer,pool.acquire());
+	}
+}
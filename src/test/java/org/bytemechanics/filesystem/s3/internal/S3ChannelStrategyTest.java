@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Optional;
+import org.bytemechanics.filesystem.s3.S3OpenOption;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3ChannelStrategyTest {
+	
+	@Test
+	public void t01PlanTest(){
+		System.out.println("S3ChannelStrategyTest >>> t01PlanTest");
+		Assert.assertEquals(S3ChannelStrategy.RANGED_READ,S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.READ))));
+		Assert.assertEquals(S3ChannelStrategy.RANGED_READ,S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.READ,StandardOpenOption.SYNC))));
+		Assert.assertEquals(S3ChannelStrategy.STREAMING_WRITE,S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.WRITE,StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING))));
+		Assert.assertEquals(S3ChannelStrategy.STREAMING_WRITE,S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.WRITE,StandardOpenOption.CREATE_NEW))));
+		Assert.assertEquals(S3ChannelStrategy.APPEND,S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.WRITE,StandardOpenOption.APPEND))));
+		Assert.assertEquals(S3ChannelStrategy.SPOOL_READ_WRITE,S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.READ,StandardOpenOption.WRITE))));
+		Assert.assertEquals(S3ChannelStrategy.SPOOL_READ_WRITE,S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.WRITE))));
+		Assert.assertEquals(S3ChannelStrategy.SPOOL_READ_WRITE,S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.READ,StandardOpenOption.DELETE_ON_CLOSE))));
+	}
+	@Test
+	public void t02PlanHintsTest(){
+		System.out.println("S3ChannelStrategyTest >>> t02PlanHintsTest");
+		Assert.assertEquals(S3ChannelStrategy.RANGED_READ,S3ChannelStrategy.plan(S3ChannelOptions.of(new HashSet<>(Arrays.asList(StandardOpenOption.READ,S3OpenOption.RANDOM,S3OpenOption.knownSize(10))))));
+		Assert.assertEquals(S3ChannelStrategy.STREAMING_WRITE,S3ChannelStrategy.plan(S3ChannelOptions.of(new HashSet<>(Arrays.asList(StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING,S3OpenOption.NO_SPOOL,S3OpenOption.partSize(10))))));
+		Assert.assertEquals(Optional.of(10),S3ChannelOptions.of(Collections.singleton(S3OpenOption.partSize(10))).getPartSize());
+	}
+	@Test(expected=UnsupportedOperationException.class)
+	public void t03NoSpoolTest(){
+		System.out.println("S3ChannelStrategyTest >>> t03NoSpoolTest");
+		S3ChannelStrategy.plan(S3ChannelOptions.of(new HashSet<>(Arrays.asList(StandardOpenOption.READ,StandardOpenOption.WRITE,S3OpenOption.NO_SPOOL))));
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void t04SequentialRandomTest(){
+		System.out.println("S3ChannelStrategyTest >>> t04SequentialRandomTest");
+		S3ChannelOptions.of(new HashSet<>(Arrays.asList(S3OpenOption.SEQUENTIAL,S3OpenOption.RANDOM)));
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void t05ReadAppendTest(){
+		System.out.println("S3ChannelStrategyTest >>> t05ReadAppendTest");
+		S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.READ,StandardOpenOption.APPEND)));
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void t06AppendTruncateTest(){
+		System.out.println("S3ChannelStrategyTest >>> t06AppendTruncateTest");
+		S3ChannelStrategy.plan(S3ChannelOptions.of(EnumSet.of(StandardOpenOption.APPEND,StandardOpenOption.TRUNCATE_EXISTING)));
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import org.bytemechanics.filesystem.s3.S3FileSystemEnvironment;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3ChecksumTest {
+	
+	private static final byte[] CONTENT="aaaaaaaaaabbbbb".getBytes(StandardCharsets.US_ASCII);
+	
+	@Test
+	public void t01IncrementalDigestTest(){
+		System.out.println("S3ChecksumTest >>> t01IncrementalDigestTest");
+		ByteBuffer direct=ByteBuffer.allocateDirect(5);
+		direct.put(CONTENT, 10, 5).flip();
+		S3Checksum checksum=new S3Checksum()
+									.update(CONTENT, 0, 4)
+									.update(ByteBuffer.wrap(CONTENT, 4, 6))
+									.update(direct);
+		Assert.assertEquals(5,direct.remaining());
+		Assert.assertEquals(15,checksum.getLength());
+		Assert.assertEquals(HashCode.fromString("601de87e245efbeeec2db4b9161ea1e5"),checksum.md5());
+	}
+	@Test
+	public void t02EtagTest(){
+		System.out.println("S3ChecksumTest >>> t02EtagTest");
+		Assert.assertEquals(Optional.of(HashCode.fromString("601de87e245efbeeec2db4b9161ea1e5")),S3Checksum.md5("\"601DE87E245EFBEEEC2DB4B9161EA1E5\""));
+		Assert.assertFalse(S3Checksum.md5("\"94bfe67beece4111821a3daf596d366f-2\"").isPresent());
+		Assert.assertFalse(S3Checksum.md5(null).isPresent());
+		Assert.assertEquals("94bfe67beece4111821a3daf596d366f-2",S3Checksum.multipartEtag(Arrays.asList(Hashing.md5().hashBytes(CONTENT, 0, 10),Hashing.md5().hashBytes(CONTENT, 10, 5))));
+	}
+	@Test
+	public void t03DigestingSourceTest() throws IOException{
+		System.out.println("S3ChecksumTest >>> t03DigestingSourceTest");
+		S3Checksum checksum=new S3Checksum();
+		ByteSource source=checksum.digesting(ByteSource.wrap(CONTENT));
+		Assert.assertEquals(15,source.size());
+		source.slice(0, 3).read();
+		Assert.assertArrayEquals(CONTENT,source.read());
+		Assert.assertEquals(15,checksum.getLength());
+		Assert.assertEquals(HashCode.fromString("601de87e245efbeeec2db4b9161ea1e5"),checksum.md5());
+	}
+	@Test
+	public void t04MultipartEtagVerificationTest() throws IOException{
+		System.out.println("S3ChecksumTest >>> t04MultipartEtagVerificationTest");
+		List<MultipartPart> parts=Arrays.asList(MultipartPart.create(2, 5, "\""+Hashing.md5().hashBytes(CONTENT, 10, 5)+"\"", null)
+												,MultipartPart.create(1, 10, "\""+Hashing.md5().hashBytes(CONTENT, 0, 10)+"\"", null));
+		Properties environment=new Properties();
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_CHECKSUM_VERIFY.getkey(), "true");
+		try(S3ListingClient client=new S3ListingClient(Collections.emptyList(), 1000, environment)){
+			client.verifyMultipartChecksum(parts, "\"94BFE67BEECE4111821A3DAF596D366F-2\"", () -> "object");
+			Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.CHECKSUM_VERIFIED));
+			client.verifyMultipartChecksum(Arrays.asList(MultipartPart.create(1, 10, "\"kms\"", null)), "\"other-1\"", () -> "object");
+			Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.CHECKSUM_VERIFIED));
+			try{
+				client.verifyMultipartChecksum(parts.subList(0, 1), "\"94bfe67beece4111821a3daf596d366f-2\"", () -> "object");
+				Assert.fail("Multipart etag must not match a different part list");
+			}catch(IOException e){
+				Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.CHECKSUM_MISMATCHES));
+			}
+		}
+		try(S3ListingClient client=new S3ListingClient(Collections.emptyList(), 1000)){
+			client.verifyMultipartChecksum(parts.subList(0, 1), "\"94bfe67beece4111821a3daf596d366f-2\"", () -> "object");
+			Assert.assertEquals(0,client.getMetrics().get(S3FileSystemMetric.CHECKSUM_VERIFIED));
+		}
+	}
+}
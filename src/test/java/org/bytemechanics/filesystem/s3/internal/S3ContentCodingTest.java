@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3ContentCodingTest {
+	
+	private static byte[] logs(final int _size){
+		final Random random=new Random(18);
+		final StringBuilder builder=new StringBuilder(_size+256);
+		while(builder.length()<_size){
+			builder.append("{\"timestamp\":\"2018-05-")
+						.append(10+random.nextInt(20))
+						.append("T10:")
+						.append(10+random.nextInt(50))
+						.append(":00Z\",\"level\":\"")
+						.append((random.nextInt(10)==0)? "WARNING" : "INFO")
+						.append("\",\"logger\":\"org.bytemechanics.filesystem.s3.S3FileSystemProvider\",\"thread\":\"s3-transfer-")
+						.append(random.nextInt(8))
+						.append("\",\"message\":\"Opening object-")
+						.append(random.nextInt(100000))
+						.append(".json with options [READ]\"}\n");
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	private static byte[] encode(final S3ContentCoding _coding,final int _level,final byte[] _content) throws IOException{
+		final ByteArrayOutputStream reply=new ByteArrayOutputStream(_content.length/4);
+		try(OutputStream encoder=_coding.encode(reply, _level)){
+			encoder.write(_content);
+		}
+		return reply.toByteArray();
+	}
+	private static byte[] decode(final S3ContentCoding _coding,final byte[] _content) throws IOException{
+		final ByteArrayOutputStream reply=new ByteArrayOutputStream(_content.length*4);
+		try(InputStream decoder=_coding.decode(new ByteArrayInputStream(_content))){
+			final byte[] buffer=new byte[8192];
+			for(int read=decoder.read(buffer);read>=0;read=decoder.read(buffer)){
+				reply.write(buffer, 0, read);
+			}
+		}
+		return reply.toByteArray();
+	}
+	
+	@Test
+	public void t01RoundTripTest() throws IOException{
+		System.out.println("S3ContentCodingTest >>> t01RoundTripTest");
+		final byte[] content=logs(256*1024);
+		for(S3ContentCoding coding:S3ContentCoding.values()){
+			final byte[] encoded=encode(coding, -1, content);
+			Assert.assertTrue(encoded.length<content.length/2);
+			Assert.assertArrayEquals(content, decode(coding, encoded));
+		}
+		Assert.assertArrayEquals(new byte[0], decode(S3ContentCoding.GZIP, encode(S3ContentCoding.GZIP, 1, new byte[0])));
+	}
+	@Test
+	public void t02ContentEncodingTest(){
+		System.out.println("S3ContentCodingTest >>> t02ContentEncodingTest");
+		Assert.assertEquals(Optional.of(S3ContentCoding.GZIP),S3ContentCoding.of(" GZip "));
+		Assert.assertEquals(Optional.of(S3ContentCoding.DEFLATE),S3ContentCoding.of("deflate"));
+		Assert.assertFalse(S3ContentCoding.of("br").isPresent());
+		Assert.assertFalse(S3ContentCoding.of((String)null).isPresent());
+	}
+	/** Only run on request with -Dbenchmark=true, it takes seconds and asserts nothing about the figures it prints */
+	@Test
+	public void t03ThroughputVersusRatioBenchmark() throws IOException{
+		System.out.println("S3ContentCodingTest >>> t03ThroughputVersusRatioBenchmark");
+		Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+		final byte[] content=logs(8*1024*1024);
+		for(S3ContentCoding coding:S3ContentCoding.values()){
+			for(int level:new int[]{1,6,9}){
+				encode(coding, level, content);
+				final long start=System.nanoTime();
+				final byte[] encoded=encode(coding, level, content);
+				final long encodeNanos=System.nanoTime()-start;
+				final long decodeStart=System.nanoTime();
+				final byte[] decoded=decode(coding, encoded);
+				final long decodeNanos=System.nanoTime()-decodeStart;
+				Assert.assertEquals(content.length, decoded.length);
+				System.out.println(String.format("S3ContentCodingTest >>> %-7s level %d: ratio %.3f, encode %7.1f MB/s, decode %7.1f MB/s"
+														, coding.getContentEncoding(), level, (double)encoded.length/content.length
+														, content.length/(encodeNanos/1000d), content.length/(decodeNanos/1000d)));
+			}
+		}
+	}
+}
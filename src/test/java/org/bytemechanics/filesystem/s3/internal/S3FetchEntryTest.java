@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3FetchEntryTest {
+
+	private static final String MARKER=".self";
+
+	/** Client answering the HEAD requests from memory, recording them and the thread that sent them */
+	private static class LookupClient extends S3ListingClient{
+
+		private final Map<String,BlobMetadata> objects=new ConcurrentHashMap<>();
+		private final List<String> heads=new CopyOnWriteArrayList<>();
+		private final List<Runnable> queued=new ArrayList<>();
+		private final CountDownLatch markerStarted=new CountDownLatch(1);
+		private volatile boolean threaded=false;
+
+		LookupClient(final String... _keys){
+			super(Collections.emptyList(), 1000);
+			for(String key:_keys){
+				final MutableBlobMetadataImpl metadata=new MutableBlobMetadataImpl();
+				metadata.setName(key);
+				metadata.setType(StorageType.BLOB);
+				this.objects.put(key, metadata);
+			}
+		}
+
+		/** Run the lookups that were queued because the lookup pool was busy */
+		void runQueued(){
+			this.queued.forEach(Runnable::run);
+		}
+
+		@Override
+		protected BlobMetadata headBlob(final String _bucket,final String _key){
+			final boolean marker=_key.endsWith(getFolderMarker());
+			this.heads.add(_key+" "+(Thread.currentThread().getName().startsWith("lookup")? "lookup" : "caller"));
+			try{
+				if(marker){
+					this.markerStarted.countDown();
+					if(this.threaded)
+						Thread.sleep(100);
+				}else if(this.threaded){
+					Assert.assertTrue(this.markerStarted.await(5, TimeUnit.SECONDS));
+				}
+			}catch(InterruptedException e){
+				throw new IllegalStateException(e);
+			}
+			return this.objects.get(_key);
+		}
+		@Override
+		protected Executor getLookupExecutor(){
+			return (this.threaded)? runnable -> new Thread(runnable, "lookup").start() : this.queued::add;
+		}
+	}
+
+	@Test
+	public void t01FileFoundTest() throws IOException{
+		System.out.println("S3FetchEntryTest >>> t01FileFoundTest");
+		try(LookupClient client=new LookupClient("file.txt")){
+			Assert.assertEquals(MARKER,client.getFolderMarker());
+			Assert.assertTrue(client.fetchEntry(client.getPath("file.txt")).isFile());
+			client.runQueued();
+			Assert.assertEquals(Arrays.asList("file.txt caller"),client.heads);
+		}
+	}
+	@Test
+	public void t02MarkerInlineWhenPoolBusyTest() throws IOException{
+		System.out.println("S3FetchEntryTest >>> t02MarkerInlineWhenPoolBusyTest");
+		try(LookupClient client=new LookupClient("folder/"+MARKER)){
+			Assert.assertTrue(client.fetchEntry(client.getPath("folder")).isDirectory());
+			Assert.assertFalse(client.fetchEntry(client.getPath("other")).exists());
+			client.runQueued();
+			Assert.assertEquals(Arrays.asList("folder caller","folder/"+MARKER+" caller","other caller","other/"+MARKER+" caller"),client.heads);
+			Assert.assertEquals(0,client.getMetrics().get(S3FileSystemMetric.FOLDER_MARKER_LOOKUPS_OVERLAPPED));
+		}
+	}
+	@Test
+	public void t03MarkerOverlappedTest() throws IOException{
+		System.out.println("S3FetchEntryTest >>> t03MarkerOverlappedTest");
+		try(LookupClient client=new LookupClient("folder/"+MARKER)){
+			client.threaded=true;
+			Assert.assertTrue(client.fetchEntry(client.getPath("folder")).isDirectory());
+			Assert.assertEquals(2,client.heads.size());
+			Assert.assertTrue(client.heads.containsAll(Arrays.asList("folder caller","folder/"+MARKER+" lookup")));
+			Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.FOLDER_MARKER_LOOKUPS_OVERLAPPED));
+		}
+	}
+}
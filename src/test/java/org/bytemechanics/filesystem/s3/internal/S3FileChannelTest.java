@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.OpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import org.bytemechanics.filesystem.s3.S3FileSystemEnvironment;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.bytemechanics.filesystem.s3.S3OpenOption;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3FileChannelTest {
+
+	private static final byte[] CONTENT=new byte[300*1024];
+	static{
+		new Random(3).nextBytes(CONTENT);
+	}
+
+	private static Properties environment(){
+		Properties reply=new Properties();
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_READ_BLOCKSIZE.getkey(), "16384");
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_READ_AHEAD_MAXSIZE.getkey(), "65536");
+		return reply;
+	}
+	private static S3ListingClient client(){
+		return new S3ListingClient(Collections.emptyList(), 1000, environment())
+							.withObject("object", CONTENT, null);
+	}
+	private static S3RangedReadChannel openRanged(final S3ListingClient _client) throws IOException{
+		final Set<OpenOption> options=new HashSet<>(EnumSet.of(StandardOpenOption.READ));
+		options.add(S3OpenOption.knownSize(CONTENT.length));
+		return new S3RangedReadChannel(_client.getPath("object"), _client, S3ChannelOptions.of(options));
+	}
+
+	@Test
+	public void t01TransferToTest() throws IOException{
+		System.out.println("S3FileChannelTest >>> t01TransferToTest");
+		Path spool=Files.createTempFile("s3filechannel", ".bin");
+		byte[] expected=new byte[200*1024];
+		new Random(1).nextBytes(expected);
+		Files.write(spool, expected);
+		try(FileChannel channel=new S3FileChannel(null, null, Files.newByteChannel(spool, StandardOpenOption.READ))){
+			channel.position(10);
+			ByteArrayOutputStream out=new ByteArrayOutputStream();
+			Assert.assertEquals(expected.length-100,channel.transferTo(100, Long.MAX_VALUE, Channels.newChannel(out)));
+			Assert.assertArrayEquals(Arrays.copyOfRange(expected, 100, expected.length), out.toByteArray());
+			Assert.assertEquals(10,channel.position());
+			ByteBuffer buffer=ByteBuffer.allocate(4);
+			Assert.assertEquals(4,channel.read(buffer, 50));
+			Assert.assertArrayEquals(Arrays.copyOfRange(expected, 50, 54), buffer.array());
+			Assert.assertEquals(10,channel.position());
+		}finally{
+			Files.delete(spool);
+		}
+	}
+	@Test
+	public void t02TransferFromTest() throws IOException{
+		System.out.println("S3FileChannelTest >>> t02TransferFromTest");
+		Path spool=Files.createTempFile("s3filechannel", ".bin");
+		byte[] expected=new byte[150*1024];
+		new Random(2).nextBytes(expected);
+		try(FileChannel channel=new S3FileChannel(null, null, Files.newByteChannel(spool, StandardOpenOption.WRITE))){
+			Assert.assertEquals(expected.length,channel.transferFrom(Channels.newChannel(new ByteArrayInputStream(expected)), 0, expected.length+10));
+			Assert.assertEquals(0,channel.position());
+			Assert.assertEquals(expected.length,channel.size());
+		}
+		Assert.assertArrayEquals(expected, Files.readAllBytes(spool));
+		Files.delete(spool);
+	}
+	@Test
+	public void t03TransferRangeTest() throws IOException{
+		System.out.println("S3FileChannelTest >>> t03TransferRangeTest");
+		Path target=Files.createTempFile("s3filechannel", ".bin");
+		try(S3ListingClient client=client();
+				FileChannel channel=new S3FileChannel(client.getPath("object"), client, openRanged(client))){
+			ByteArrayOutputStream out=new ByteArrayOutputStream();
+			Assert.assertEquals(CONTENT.length-100,channel.transferTo(100, Long.MAX_VALUE, Channels.newChannel(out)));
+			Assert.assertArrayEquals(Arrays.copyOfRange(CONTENT, 100, CONTENT.length), out.toByteArray());
+			Assert.assertEquals(1,client.getGets());
+			try(FileChannel file=FileChannel.open(target, StandardOpenOption.WRITE)){
+				file.position(5);
+				Assert.assertEquals(200*1024,channel.transferTo(1000, 200*1024, file));
+				Assert.assertEquals(5+200*1024,file.position());
+			}
+			Assert.assertArrayEquals(Arrays.copyOfRange(CONTENT, 1000, 1000+200*1024), Arrays.copyOfRange(Files.readAllBytes(target), 5, 5+200*1024));
+			Assert.assertEquals(2,client.getGets());
+			Assert.assertEquals(0,channel.position());
+		}finally{
+			Files.delete(target);
+		}
+	}
+	@Test
+	public void t04PositionalReadKeepsReadAheadTest() throws IOException{
+		System.out.println("S3FileChannelTest >>> t04PositionalReadKeepsReadAheadTest");
+		try(S3ListingClient client=client();
+				S3RangedReadChannel ranged=openRanged(client);
+				FileChannel channel=new S3FileChannel(client.getPath("object"), client, ranged)){
+			final ByteBuffer content=ByteBuffer.allocate(CONTENT.length);
+			final ByteBuffer buffer=ByteBuffer.allocate(8192);
+			Assert.assertEquals(8192,channel.read(buffer));
+			content.put((ByteBuffer)buffer.flip());
+			final int readAheadSize=ranged.getReadAheadSize();
+			buffer.clear();
+			Assert.assertEquals(8192,channel.read(buffer, 0));
+			Assert.assertArrayEquals(Arrays.copyOfRange(CONTENT, 0, 8192), buffer.array());
+			buffer.clear();
+			Assert.assertEquals(8192,channel.read(buffer, 250*1024));
+			Assert.assertArrayEquals(Arrays.copyOfRange(CONTENT, 250*1024, 250*1024+8192), buffer.array());
+			Assert.assertEquals(8192,channel.position());
+			Assert.assertEquals(readAheadSize,ranged.getReadAheadSize());
+			Assert.assertEquals(0,client.getMetrics().get(S3FileSystemMetric.READ_AHEAD_ABORTED));
+			buffer.clear();
+			while(channel.read(buffer)>=0){
+				content.put((ByteBuffer)buffer.flip());
+				buffer.clear();
+			}
+			Assert.assertArrayEquals(CONTENT, content.array());
+			Assert.assertEquals(1,ranged.getReadAheadMisses());
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3FileRegionTest {
+	
+	@Test
+	public void t01ReadRegionTest() throws IOException{
+		System.out.println("S3FileRegionTest >>> t01ReadRegionTest");
+		Path file=Files.createTempFile("s3fileregion", ".bin");
+		try{
+			byte[] content=new byte[100*1024];
+			new Random(1).nextBytes(content);
+			Files.write(file, content);
+			S3FileRegion region=new S3FileRegion(file, 1000, 50*1024);
+			Assert.assertEquals(50*1024,region.size());
+			Assert.assertArrayEquals(Arrays.copyOfRange(content, 1000, 1000+50*1024), region.read());
+			Assert.assertArrayEquals(Arrays.copyOfRange(content, 1010, 1020), region.slice(10, 10).read());
+			try(InputStream stream=region.openStream()){
+				Assert.assertEquals(content[1000]&0xFF,stream.read());
+				Assert.assertEquals(99,stream.skip(99));
+				Assert.assertEquals(content[1100]&0xFF,stream.read());
+			}
+		}finally{
+			Files.delete(file);
+		}
+	}
+	@Test(expected=IOException.class)
+	public void t02ShortFileTest() throws IOException{
+		System.out.println("S3FileRegionTest >>> t02ShortFileTest");
+		Path file=Files.createTempFile("s3fileregion", ".bin");
+		try{
+			Files.write(file, new byte[10]);
+			new S3FileRegion(file, 5, 10).read();
+		}finally{
+			Files.delete(file);
+		}
+	}
+	@Test
+	public void t03PositionalReadTest() throws IOException{
+		System.out.println("S3FileRegionTest >>> t03PositionalReadTest");
+		Path file=Files.createTempFile("s3fileregion", ".bin");
+		try{
+			byte[] content=new byte[100*1024];
+			new Random(1).nextBytes(content);
+			Files.write(file, content);
+			S3FileRegion region=new S3FileRegion(file, 1000, 50*1024, false);
+			Assert.assertFalse(region.isMapped());
+			Assert.assertArrayEquals(Arrays.copyOfRange(content, 1000, 1000+50*1024), region.read());
+			Assert.assertArrayEquals(Arrays.copyOfRange(content, 1010, 1020), region.slice(10, 10).read());
+			Assert.assertFalse(((S3FileRegion)region.slice(10, 10)).isMapped());
+			try(InputStream stream=region.openStream()){
+				Assert.assertEquals(content[1000]&0xFF,stream.read());
+				Assert.assertEquals(99,stream.skip(99));
+				Assert.assertEquals(content[1100]&0xFF,stream.read());
+			}
+			try(FileChannel channel=FileChannel.open(file, StandardOpenOption.WRITE)){
+				channel.truncate(0l);
+			}
+			Assert.assertEquals(0,Files.size(file));
+		}finally{
+			Files.delete(file);
+		}
+	}
+	@Test(expected=IOException.class)
+	public void t04PositionalShortFileTest() throws IOException{
+		System.out.println("S3FileRegionTest >>> t04PositionalShortFileTest");
+		Path file=Files.createTempFile("s3fileregion", ".bin");
+		try{
+			Files.write(file, new byte[10]);
+			new S3FileRegion(file, 5, 10, false).read();
+		}finally{
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Spliterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.bytemechanics.filesystem.s3.S3FileSystemEnvironment;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3ListingSpliteratorTest {
+
+	private static final String ALPHABET="0123456789abcdefghijklmnopqrstuvwxyz";
+
+	private static List<Spliterator<String>> shards(final Spliterator<String> _spliterator){
+		final List<Spliterator<String>> reply=new ArrayList<>();
+		final Spliterator<String> split=_spliterator.trySplit();
+		if(split!=null)
+			reply.addAll(shards(split));
+		reply.addAll((split!=null)? shards(_spliterator) : Collections.singletonList(_spliterator));
+		return reply;
+	}
+	private static List<String> drain(final List<Spliterator<String>> _shards){
+		final List<String> reply=new ArrayList<>();
+		_shards.forEach(shard -> shard.forEachRemaining(reply::add));
+		return reply;
+	}
+
+	@Test
+	public void t01SequentialKeysTest() throws IOException{
+		System.out.println("S3ListingSpliteratorTest >>> t01SequentialKeysTest");
+		final List<String> keys=IntStream.range(0, 5000)
+											.mapToObj(index -> String.format("dir/file-%06d.bin", index))
+											.collect(Collectors.toList());
+		final Properties environment=new Properties();
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_LIST_PARALLELISM.getkey(), "4");
+		try(S3ListingClient client=new S3ListingClient(keys, 100, environment)){
+			final List<Spliterator<String>> shards=shards(new S3ListingSpliterator<>(client, "bucket", "dir/", false, metadata -> Optional.of(metadata.getName()), null));
+			Assert.assertEquals(4,shards.size());
+			final List<String> listed=new ArrayList<>();
+			for(Spliterator<String> shard:shards){
+				final List<String> shardKeys=new ArrayList<>();
+				shard.forEachRemaining(shardKeys::add);
+				Assert.assertTrue(shardKeys.size()>=500);
+				listed.addAll(shardKeys);
+			}
+			Collections.sort(listed);
+			Assert.assertEquals(keys,listed);
+		}
+	}
+	@Test
+	public void t02ShardedListingTest() throws IOException{
+		System.out.println("S3ListingSpliteratorTest >>> t02ShardedListingTest");
+		final List<String> keys=IntStream.range(0, 300)
+											.mapToObj(index -> String.format("big/%c%03d", ALPHABET.charAt(index%ALPHABET.length()), index))
+											.collect(Collectors.toList());
+		keys.add("big/sub/x.txt");
+		keys.add("big/sub/y.txt");
+		keys.add("bigger.txt");
+		try(S3ListingClient client=new S3ListingClient(keys, 7)){
+			final List<Spliterator<String>> shards=shards(new S3ListingSpliterator<>(client, "bucket", "big/", false, metadata -> Optional.of(metadata.getName()), null));
+			Assert.assertTrue(shards.size()>1);
+			Assert.assertTrue(shards.size()<=client.getListParallelism());
+			Assert.assertEquals(shards.size()-1,client.getMetrics().get(S3FileSystemMetric.LIST_SHARDS));
+			final List<String> listed=drain(shards);
+			final List<String> expected=keys.stream()
+												.filter(key -> key.startsWith("big/"))
+												.map(key -> key.startsWith("big/sub/")? "big/sub/" : key)
+												.distinct()
+												.sorted()
+												.collect(Collectors.toList());
+			Collections.sort(listed);
+			Assert.assertEquals(expected,listed);
+		}
+	}
+	@Test
+	public void t03RecursiveDiscoveryTest() throws IOException{
+		System.out.println("S3ListingSpliteratorTest >>> t03RecursiveDiscoveryTest");
+		final List<String> keys=IntStream.range(0, 120)
+											.mapToObj(index -> String.format("tree/%c/%03d", ALPHABET.charAt(index%4), index))
+											.collect(Collectors.toList());
+		try(S3ListingClient client=new S3ListingClient(keys, 10)){
+			final Spliterator<String> spliterator=new S3ListingSpliterator<>(client, "bucket", "tree/", true, metadata -> Optional.of(metadata.getName()), null);
+			final Spliterator<String> upper=spliterator.trySplit();
+			Assert.assertNotNull(upper);
+			Assert.assertEquals(2,client.getRequests());
+			final List<String> lower=new ArrayList<>();
+			spliterator.forEachRemaining(lower::add);
+			final List<String> higher=new ArrayList<>();
+			upper.forEachRemaining(higher::add);
+			Assert.assertTrue(lower.stream().allMatch(key -> key.compareTo("tree/2/")<0));
+			Assert.assertTrue(higher.stream().allMatch(key -> key.compareTo("tree/2/")>0));
+			final List<String> listed=new ArrayList<>(lower);
+			listed.addAll(higher);
+			Collections.sort(listed);
+			Collections.sort(keys);
+			Assert.assertEquals(keys,listed);
+		}
+	}
+	@Test
+	public void t04UnsplittableTest() throws IOException{
+		System.out.println("S3ListingSpliteratorTest >>> t04UnsplittableTest");
+		try(S3ListingClient client=new S3ListingClient(Collections.singletonList("small/a.txt"), 10)){
+			final Spliterator<StorageMetadata> spliterator=new S3ListingSpliterator<>(client, "bucket", "small/", false, Optional::of, null);
+			Assert.assertNull(spliterator.trySplit());
+			Assert.assertEquals(1,client.getRequests());
+			Assert.assertTrue(spliterator.tryAdvance(metadata -> Assert.assertEquals("small/a.txt",metadata.getName())));
+			Assert.assertFalse(spliterator.tryAdvance(metadata -> Assert.fail("Only one key listed")));
+			Assert.assertEquals(1,client.getRequests());
+		}
+	}
+	@Test
+	public void t05SupplementaryKeysTest() throws IOException{
+		System.out.println("S3ListingSpliteratorTest >>> t05SupplementaryKeysTest");
+		final List<String> keys=new ArrayList<>();
+		for(int index=0;index<200;index++){
+			keys.add("uni/"+new String(Character.toChars(0xe000+index*40))+index);
+			keys.add("uni/"+new String(Character.toChars(0x1f600+index*300))+index);
+		}
+		keys.sort(S3ListingSpliterator.KEY_ORDER);
+		final List<String> markers=new CopyOnWriteArrayList<>();
+		final Properties environment=new Properties();
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_LIST_PARALLELISM.getkey(), "4");
+		try(S3ListingClient client=new S3ListingClient(keys, 7, environment){
+										@Override
+										public PageSet<? extends StorageMetadata> list(final String _bucket,final String _prefix,final String _marker,final boolean _recursive){
+											if(_marker!=null)
+												markers.add(_marker);
+											return super.list(_bucket, _prefix, _marker, _recursive);
+										}
+									}){
+			final List<String> sequential=new ArrayList<>();
+			new S3ListingSpliterator<>(client, "bucket", "uni/", false, metadata -> Optional.of(metadata.getName()), null).forEachRemaining(sequential::add);
+			Assert.assertEquals(keys,sequential);
+			final List<Spliterator<String>> shards=shards(new S3ListingSpliterator<>(client, "bucket", "uni/", false, metadata -> Optional.of(metadata.getName()), null));
+			Assert.assertTrue(shards.size()>1);
+			final List<String> listed=drain(shards);
+			listed.sort(S3ListingSpliterator.KEY_ORDER);
+			Assert.assertEquals(keys,listed);
+			Assert.assertTrue(markers.stream()
+										.flatMapToInt(String::codePoints)
+										.noneMatch(codePoint -> (codePoint>=Character.MIN_SURROGATE)&&(codePoint<=Character.MAX_SURROGATE)));
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MutableBlobMetadata;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3MetadataCacheTest {
+	
+	private static BlobMetadata metadata(final String _key,final String _etag){
+		final MutableBlobMetadata reply=new MutableBlobMetadataImpl();
+		reply.setName(_key);
+		reply.setETag(_etag);
+		return reply;
+	}
+	
+	@Test
+	public void t01ExpirationTest() throws InterruptedException{
+		System.out.println("S3MetadataCacheTest >>> t01ExpirationTest");
+		S3Metrics metrics=new S3Metrics();
+		S3MetadataCache cache=new S3MetadataCache(200, 10, metrics);
+		Assert.assertFalse(cache.get("bucket", "file.txt").isPresent());
+		cache.put("bucket", "file.txt", metadata("file.txt","etag-1"), cache.stamp());
+		Assert.assertEquals("etag-1",cache.get("bucket", "file.txt").get().getETag());
+		Assert.assertFalse(cache.get("other", "file.txt").isPresent());
+		Thread.sleep(300);
+		Assert.assertFalse(cache.get("bucket", "file.txt").isPresent());
+		Assert.assertEquals(0,cache.size());
+		Assert.assertEquals(1,metrics.get(S3FileSystemMetric.METADATA_CACHE_HITS));
+		Assert.assertEquals(3,metrics.get(S3FileSystemMetric.METADATA_CACHE_MISSES));
+		Assert.assertEquals(0.25d,cache.getHitRatio(),0.0001d);
+	}
+	@Test
+	public void t02EvictionTest(){
+		System.out.println("S3MetadataCacheTest >>> t02EvictionTest");
+		S3Metrics metrics=new S3Metrics();
+		S3MetadataCache cache=new S3MetadataCache(60000, 2, metrics);
+		cache.put("bucket", "file1.txt", metadata("file1.txt","etag-1"), cache.stamp());
+		cache.put("bucket", "file2.txt", metadata("file2.txt","etag-2"), cache.stamp());
+		Assert.assertTrue(cache.get("bucket", "file1.txt").isPresent());
+		cache.put("bucket", "file3.txt", metadata("file3.txt","etag-3"), cache.stamp());
+		Assert.assertTrue(cache.get("bucket", "file1.txt").isPresent());
+		Assert.assertFalse(cache.get("bucket", "file2.txt").isPresent());
+		Assert.assertTrue(cache.get("bucket", "file3.txt").isPresent());
+		Assert.assertEquals(1,metrics.get(S3FileSystemMetric.METADATA_CACHE_EVICTIONS));
+	}
+	@Test
+	public void t03InvalidationTest(){
+		System.out.println("S3MetadataCacheTest >>> t03InvalidationTest");
+		S3Metrics metrics=new S3Metrics();
+		S3MetadataCache cache=new S3MetadataCache(60000, 10, metrics);
+		cache.put("bucket", "folder", metadata("folder/.self",null), cache.stamp());
+		cache.put("bucket", "file.txt", metadata("file.txt","etag-1"), cache.stamp());
+		long stamp=cache.stamp();
+		cache.invalidate("bucket", "folder/.self", ".self");
+		Assert.assertFalse(cache.get("bucket", "folder").isPresent());
+		Assert.assertTrue(cache.get("bucket", "file.txt").isPresent());
+		cache.put("bucket", "folder", metadata("folder/.self",null), stamp);
+		Assert.assertFalse(cache.get("bucket", "folder").isPresent());
+		cache.invalidate("bucket", "file.txt", ".self");
+		Assert.assertFalse(cache.get("bucket", "file.txt").isPresent());
+		Assert.assertEquals(2,metrics.get(S3FileSystemMetric.METADATA_CACHE_INVALIDATIONS));
+		S3MetadataCache disabled=new S3MetadataCache(0, 10, metrics);
+		disabled.put("bucket", "file.txt", metadata("file.txt","etag-1"), disabled.stamp());
+		Assert.assertFalse(disabled.isEnabled());
+		Assert.assertEquals(0,disabled.size());
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3NegativeCacheTest {
+	
+	@Test
+	public void t01AbsentKeysTest() throws InterruptedException{
+		System.out.println("S3NegativeCacheTest >>> t01AbsentKeysTest");
+		S3Metrics metrics=new S3Metrics();
+		S3NegativeCache cache=new S3NegativeCache(200, 2, 0, 0.01d, metrics);
+		Assert.assertFalse(cache.isAbsent("bucket", "missing1.txt"));
+		cache.recordAbsent("bucket", "missing1.txt", cache.stamp());
+		long stamp=cache.stamp();
+		cache.invalidate("bucket", "folder/.self", ".self");
+		cache.recordAbsent("bucket", "folder", stamp);
+		Assert.assertTrue(cache.isAbsent("bucket", "missing1.txt"));
+		Assert.assertFalse(cache.isAbsent("bucket", "folder"));
+		cache.recordAbsent("bucket", "missing2.txt", cache.stamp());
+		cache.recordAbsent("bucket", "missing3.txt", cache.stamp());
+		Assert.assertEquals(2,cache.size());
+		Assert.assertFalse(cache.isAbsent("bucket", "missing1.txt"));
+		cache.invalidate("bucket", "missing2.txt", ".self");
+		Assert.assertFalse(cache.isAbsent("bucket", "missing2.txt"));
+		Thread.sleep(300);
+		Assert.assertFalse(cache.isAbsent("bucket", "missing3.txt"));
+		Assert.assertEquals(1,metrics.get(S3FileSystemMetric.NEGATIVE_CACHE_HITS));
+	}
+	@Test
+	public void t02KeyFilterTest(){
+		System.out.println("S3NegativeCacheTest >>> t02KeyFilterTest");
+		S3Metrics metrics=new S3Metrics();
+		S3NegativeCache cache=new S3NegativeCache(0, 0, 60000, 0.01d, metrics);
+		List<String> keys=new ArrayList<>();
+		for(int i=0;i<5000;i++){
+			keys.add("ingest/file-"+i+".json");
+		}
+		keys.add("ingest/sub/.self");
+		cache.putFilter("bucket", "ingest/", keys, ".self");
+		Assert.assertFalse(cache.isAbsent("bucket", "ingest/file-10.json"));
+		Assert.assertFalse(cache.isAbsent("bucket", "ingest/sub"));
+		Assert.assertFalse(cache.isAbsent("bucket", "other/file-10000.json"));
+		Assert.assertFalse(cache.isAbsent("other", "ingest/file-10000.json"));
+		int absent=0;
+		for(int i=5000;i<15000;i++){
+			String key="ingest/file-"+i+".json";
+			if(cache.isAbsent("bucket", key)){
+				absent++;
+			}else{
+				cache.recordAbsent("bucket", key, cache.stamp());
+			}
+		}
+		Assert.assertTrue(absent>9500);
+		Assert.assertEquals(absent,metrics.get(S3FileSystemMetric.KEY_FILTER_HITS));
+		Assert.assertEquals(10000-absent,metrics.get(S3FileSystemMetric.KEY_FILTER_FALSE_POSITIVES));
+		Assert.assertEquals((10000.0d-absent)/10000.0d,cache.getFalsePositiveRate(),0.0001d);
+		Assert.assertEquals(0,cache.size());
+		cache.invalidate("bucket", "ingest/new.json", ".self");
+		cache.invalidate("bucket", "ingest/newfolder/.self", ".self");
+		Assert.assertFalse(cache.isAbsent("bucket", "ingest/new.json"));
+		Assert.assertFalse(cache.isAbsent("bucket", "ingest/newfolder"));
+		cache.putFilter("bucket", "", Arrays.asList("root.txt"), ".self");
+		Assert.assertTrue(cache.isAbsent("bucket", "other/file-10000.json"));
+	}
+	@Test
+	public void t03GrowingKeySetTest(){
+		System.out.println("S3NegativeCacheTest >>> t03GrowingKeySetTest");
+		S3NegativeCache cache=new S3NegativeCache(0, 0, 60000, 0.01d, new S3Metrics());
+		S3NegativeCache.KeySet keys=cache.newKeySet();
+		for(int i=0;i<50000;i++){
+			keys.put("ingest/file-"+i+".json");
+		}
+		keys.put("ingest/sub/.self", ".self");
+		Assert.assertEquals(50002,keys.size());
+		for(int i=0;i<50000;i++){
+			Assert.assertTrue(keys.mightContain("ingest/file-"+i+".json"));
+		}
+		Assert.assertTrue(keys.mightContain("ingest/sub"));
+		int falsePositives=0;
+		for(int i=50000;i<150000;i++){
+			if(keys.mightContain("ingest/file-"+i+".json"))
+				falsePositives++;
+		}
+		Assert.assertTrue(falsePositives<1000);
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import org.bytemechanics.filesystem.s3.S3FileSystemEnvironment;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.blobstore.options.PutOptions;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3ParallelUploaderTest {
+
+	private static final int PART_SIZE=5*1024*1024;
+
+	/** Client recording the multipart requests, the first attempt of each part fails */
+	private static class UploadClient extends S3ListingClient{
+
+		private final List<String> requests=new CopyOnWriteArrayList<>();
+		private final Set<Integer> failed=Collections.newSetFromMap(new ConcurrentHashMap<>());
+		private volatile boolean failComplete=false;
+
+		UploadClient(final Properties _environment){
+			super(Collections.emptyList(), 1000, _environment);
+		}
+
+		@Override
+		public MultipartUpload initiateMultipartUpload(final S3AbsolutePath _path,final String _mediaType,final Map<String,String> _userMetadata){
+			return MultipartUpload.create(_path.getBucket(), _path.getBucketPath(), "upload", null, PutOptions.NONE);
+		}
+		@Override
+		public MultipartPart uploadPart(final MultipartUpload _upload,final int _partNumber,final Path _file,final long _offset,final long _length){
+			this.requests.add(Thread.currentThread().getName().replaceAll("-[0-9]+$", "")+" "+_partNumber);
+			if(this.failed.add(_partNumber))
+				throw new IllegalStateException("Connection reset");
+			return MultipartPart.create(_partNumber, _length, "\"part"+_partNumber+"\"", null);
+		}
+		@Override
+		public String completeMultipartUpload(final MultipartUpload _upload,final List<MultipartPart> _parts){
+			this.requests.add("complete "+_parts.size());
+			if(this.failComplete)
+				throw new IllegalStateException("Invalid part");
+			return "\"uploaded\"";
+		}
+		@Override
+		public void abortMultipartUpload(final MultipartUpload _upload){
+			this.requests.add("abort");
+		}
+	}
+
+	private static Properties environment(){
+		Properties reply=new Properties();
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_TRANSFER_THREADS.getkey(), "1");
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_PARALLELISM.getkey(), "2");
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_RETRIES.getkey(), "1");
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_PART_TARGET_MILLIS.getkey(), "60000");
+		return reply;
+	}
+
+	@Test
+	public void t01RetryWithoutHoldingTransferThreadTest() throws IOException{
+		System.out.println("S3ParallelUploaderTest >>> t01RetryWithoutHoldingTransferThreadTest");
+		Path file=Files.createTempFile("s3upload", ".bin");
+		try(UploadClient client=new UploadClient(environment())){
+			Files.write(file, new byte[2*PART_SIZE]);
+			Assert.assertEquals(60000l,client.getUploadPartTargetMillis());
+			Assert.assertEquals("\"uploaded\"",new S3ParallelUploader(client, client.getPath("object"), file, PART_SIZE).upload("application/octet-stream", Collections.emptyMap(), false));
+			Assert.assertEquals(Arrays.asList("s3-transfer 1","s3-transfer 2","s3-transfer 1","s3-transfer 2","complete 2"),client.requests);
+			Assert.assertEquals(2,client.getMetrics().get(S3FileSystemMetric.UPLOAD_PART_RETRIES));
+		}finally{
+			Files.delete(file);
+		}
+	}
+	@Test
+	public void t02RetriesExhaustedTest() throws IOException{
+		System.out.println("S3ParallelUploaderTest >>> t02RetriesExhaustedTest");
+		Path file=Files.createTempFile("s3upload", ".bin");
+		Properties environment=environment();
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_RETRIES.getkey(), "0");
+		try(UploadClient client=new UploadClient(environment)){
+			Files.write(file, new byte[PART_SIZE+1]);
+			new S3ParallelUploader(client, client.getPath("object"), file, PART_SIZE).upload("application/octet-stream", Collections.emptyMap(), false);
+			Assert.fail("Upload must fail when a part fails without retries");
+		}catch(IOException e){
+			Assert.assertEquals("Connection reset",e.getCause().getMessage());
+		}finally{
+			Files.delete(file);
+		}
+	}
+
+	private static long count(final Path _directory) throws IOException{
+		try(Stream<Path> listing=Files.list(_directory)){
+			return listing.count();
+		}
+	}
+	private static void delete(final Path _directory) throws IOException{
+		try(Stream<Path> listing=Files.list(_directory)){
+			for(Path file:listing.toArray(Path[]::new)){
+				Files.delete(file);
+			}
+		}
+		Files.delete(_directory);
+	}
+
+	@Test
+	public void t03FailedJournaledPartsKeptToResumeTest() throws IOException{
+		System.out.println("S3ParallelUploaderTest >>> t03FailedJournaledPartsKeptToResumeTest");
+		Path file=Files.createTempFile("s3upload", ".bin");
+		Path journal=Files.createTempDirectory("s3journal");
+		Properties environment=environment();
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_RETRIES.getkey(), "0");
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_JOURNAL_DIR.getkey(), journal.toString());
+		try(UploadClient client=new UploadClient(environment)){
+			Files.write(file, new byte[PART_SIZE+1]);
+			try{
+				new S3ParallelUploader(client, client.getPath("object"), file, PART_SIZE).upload("application/octet-stream", Collections.emptyMap(), true);
+				Assert.fail("Upload must fail when a part fails without retries");
+			}catch(IOException e){
+				Assert.assertFalse(client.requests.contains("abort"));
+				Assert.assertEquals(1,count(journal));
+			}
+		}finally{
+			Files.delete(file);
+			delete(journal);
+		}
+	}
+	@Test
+	public void t04FailedCompleteAbortedTest() throws IOException{
+		System.out.println("S3ParallelUploaderTest >>> t04FailedCompleteAbortedTest");
+		Path file=Files.createTempFile("s3upload", ".bin");
+		Path journal=Files.createTempDirectory("s3journal");
+		Properties environment=environment();
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_JOURNAL_DIR.getkey(), journal.toString());
+		try(UploadClient client=new UploadClient(environment)){
+			client.failComplete=true;
+			Files.write(file, new byte[PART_SIZE+1]);
+			try{
+				new S3ParallelUploader(client, client.getPath("object"), file, PART_SIZE).upload("application/octet-stream", Collections.emptyMap(), true);
+				Assert.fail("Upload must fail when it can not be completed");
+			}catch(IOException e){
+				Assert.assertEquals("Invalid part",e.getCause().getMessage());
+				Assert.assertEquals("abort",client.requests.get(client.requests.size()-1));
+				Assert.assertEquals(0,count(journal));
+			}
+		}finally{
+			Files.delete(file);
+			delete(journal);
+		}
+	}
+	@Test
+	public void t05FailedUnjournaledAbortedTest() throws IOException{
+		System.out.println("S3ParallelUploaderTest >>> t05FailedUnjournaledAbortedTest");
+		Path file=Files.createTempFile("s3upload", ".bin");
+		Path journal=Files.createTempDirectory("s3journal");
+		Properties environment=environment();
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_RETRIES.getkey(), "0");
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_JOURNAL_DIR.getkey(), journal.toString());
+		try(UploadClient client=new UploadClient(environment)){
+			Files.write(file, new byte[PART_SIZE+1]);
+			try{
+				new S3ParallelUploader(client, client.getPath("object"), file, PART_SIZE).upload("application/octet-stream", Collections.emptyMap(), false);
+				Assert.fail("Upload must fail when a part fails without retries");
+			}catch(IOException e){
+				Assert.assertEquals("abort",client.requests.get(client.requests.size()-1));
+				Assert.assertEquals(0,count(journal));
+			}
+		}finally{
+			Files.delete(file);
+			delete(journal);
+		}
+	}
+}
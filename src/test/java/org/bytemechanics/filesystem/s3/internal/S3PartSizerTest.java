@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3PartSizerTest {
+	
+	private static final long MB=1024l*1024l;
+	
+	@Test
+	public void t01InitialSizeTest(){
+		System.out.println("S3PartSizerTest >>> t01InitialSizeTest");
+		S3PartSizer sizer=new S3PartSizer(100*MB, 8*MB, 5*MB, 5*1024*MB, 10000, 5000);
+		Assert.assertEquals(8*MB,sizer.next(0,0));
+		Assert.assertEquals(4*MB,sizer.next(96*MB,12));
+	}
+	@Test
+	public void t02AdaptiveSizeTest(){
+		System.out.println("S3PartSizerTest >>> t02AdaptiveSizeTest");
+		S3PartSizer sizer=new S3PartSizer(1024*MB, 8*MB, 5*MB, 5*1024*MB, 10000, 5000);
+		sizer.record(8*MB, 1_000_000_000l);
+		Assert.assertEquals(40*MB,sizer.next(8*MB,1));
+		sizer.record(8*MB, 16_000_000_000l);
+		Assert.assertEquals(21*MB+MB/4,sizer.next(16*MB,2));
+		for(int i=0;i<10;i++){
+			sizer.record(MB, 10_000_000_000l);
+		}
+		Assert.assertEquals(5*MB,sizer.next(24*MB,3));
+	}
+	@Test
+	public void t03PartLimitTest(){
+		System.out.println("S3PartSizerTest >>> t03PartLimitTest");
+		S3PartSizer sizer=new S3PartSizer(100_000*MB, 8*MB, 5*MB, 5*1024*MB, 10000, 5000);
+		Assert.assertEquals(10*MB,sizer.next(0,0));
+		Assert.assertEquals(20*MB,sizer.next(80_000*MB,9000));
+	}
+}
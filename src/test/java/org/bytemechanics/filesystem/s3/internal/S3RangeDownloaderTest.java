@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+import org.bytemechanics.filesystem.s3.S3FileSystem;
+import org.bytemechanics.filesystem.s3.S3FileSystemEnvironment;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3RangeDownloaderTest {
+
+	private static final byte[] CONTENT=new byte[10500];
+	private static final String ETAG;
+	static{
+		new Random(7).nextBytes(CONTENT);
+		ETAG="\""+Hashing.md5().hashBytes(CONTENT)+"\"";
+	}
+
+	private static Properties environment(final int _parallelism){
+		Properties reply=new Properties();
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_DOWNLOAD_CHUNKSIZE.getkey(), "1000");
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_DOWNLOAD_PARALLELISM.getkey(), String.valueOf(_parallelism));
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_CHECKSUM_VERIFY.getkey(), "true");
+		return reply;
+	}
+	private static S3ListingClient client(final Properties _environment){
+		return new S3ListingClient(Collections.emptyList(), 1000, _environment)
+							.withObject("object", CONTENT, ETAG)
+							.withObject("cached", CONTENT, ETAG);
+	}
+	private static byte[] download(final S3ListingClient _client,final String _etag) throws IOException{
+		Path target=Files.createTempFile("s3download", ".tmp");
+		try{
+			try(FileChannel channel=FileChannel.open(target, StandardOpenOption.WRITE)){
+				Assert.assertEquals(CONTENT.length,new S3RangeDownloader(_client, _client.getPath("object"), _etag, CONTENT.length).download(channel));
+			}
+			return Files.readAllBytes(target);
+		}finally{
+			Files.delete(target);
+		}
+	}
+
+	@Test
+	public void t01ParallelDownloadTest() throws IOException{
+		System.out.println("S3RangeDownloaderTest >>> t01ParallelDownloadTest");
+		try(S3ListingClient client=client(environment(3))){
+			Assert.assertArrayEquals(CONTENT,download(client, ETAG));
+			Assert.assertEquals(11,client.getGets());
+			Assert.assertEquals(CONTENT.length,client.getMetrics().get(S3FileSystemMetric.SPOOL_DOWNLOADED_BYTES));
+			Assert.assertEquals(0,client.getMetrics().get(S3FileSystemMetric.CHECKSUM_VERIFIED));
+		}
+	}
+	@Test
+	public void t02SequentialVerifiedDownloadTest() throws IOException{
+		System.out.println("S3RangeDownloaderTest >>> t02SequentialVerifiedDownloadTest");
+		try(S3ListingClient client=client(environment(1))){
+			Assert.assertArrayEquals(CONTENT,download(client, ETAG));
+			Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.CHECKSUM_VERIFIED));
+		}
+	}
+	@Test
+	public void t03ChangedObjectTest() throws IOException{
+		System.out.println("S3RangeDownloaderTest >>> t03ChangedObjectTest");
+		try(S3ListingClient client=client(environment(2))){
+			download(client, "\"0123456789abcdef0123456789abcdef\"");
+			Assert.fail("Downloads of changed objects must fail");
+		}catch(IOException e){
+			Assert.assertTrue(e.getCause().getMessage().contains("changed or removed"));
+		}
+	}
+	@Test
+	public void t04ParallelismCapTest() throws IOException{
+		System.out.println("S3RangeDownloaderTest >>> t04ParallelismCapTest");
+		Properties environment=environment(16);
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_TRANSFER_THREADS.getkey(), "2");
+		try(S3ListingClient client=client(environment)){
+			Assert.assertEquals(2,client.getDownloadParallelism());
+		}
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_MAX_CONNECTIONS_PER_HOST.getkey(), "1");
+		try(S3ListingClient client=client(environment)){
+			Assert.assertEquals(1,client.getDownloadParallelism());
+			Assert.assertArrayEquals(CONTENT,download(client, ETAG));
+		}
+	}
+	@Test
+	public void t05SharedBlockCacheTest() throws IOException{
+		System.out.println("S3RangeDownloaderTest >>> t05SharedBlockCacheTest");
+		final Properties environment=environment(2);
+		environment.setProperty(S3FileSystemEnvironment.PROPERTY_BLOCKCACHE_MAXSIZE.getkey(), String.valueOf(4*S3BlockCache.BLOCK_SIZE));
+		final Path target=Files.createTempFile("s3download", ".tmp");
+		try{
+			try(S3ListingClient client=client(environment);
+					FileChannel channel=FileChannel.open(target, StandardOpenOption.WRITE)){
+				Assert.assertEquals(CONTENT.length,new S3RangeDownloader(client, client.getPath("cached"), ETAG, CONTENT.length).download(channel));
+				Assert.assertEquals(1,client.getGets());
+				Assert.assertTrue(client.getMetrics().get(S3FileSystemMetric.BLOCK_CACHE_RESIDENT_BYTES)>=S3BlockCache.BLOCK_SIZE);
+			}
+			Assert.assertArrayEquals(CONTENT,Files.readAllBytes(target));
+			Files.write(target, new byte[0]);
+			try(S3ListingClient client=client(environment);
+					FileChannel channel=FileChannel.open(target, StandardOpenOption.WRITE)){
+				Assert.assertEquals(CONTENT.length,new S3RangeDownloader(client, client.getPath("cached"), ETAG, CONTENT.length).download(channel));
+				Assert.assertEquals(0,client.getGets());
+				Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.BLOCK_CACHE_HITS));
+			}
+			Assert.assertArrayEquals(CONTENT,Files.readAllBytes(target));
+		}finally{
+			Files.delete(target);
+		}
+	}
+	@Test
+	public void t06FileSystemDownloadTest() throws IOException{
+		System.out.println("S3RangeDownloaderTest >>> t06FileSystemDownloadTest");
+		final Path target=Files.createTempFile("s3download", ".tmp");
+		try(S3ListingClient client=client(environment(3))){
+			final S3FileSystem fileSystem=client.getPath("").getFileSystem();
+			Assert.assertEquals(CONTENT.length,fileSystem.download(fileSystem.getPath("object"), target));
+			Assert.assertArrayEquals(CONTENT,Files.readAllBytes(target));
+			Assert.assertEquals(11,client.getGets());
+			try{
+				fileSystem.download(fileSystem.getPath("missing"), target);
+				Assert.fail("Missing objects can not be downloaded");
+			}catch(NoSuchFileException e){
+			}
+		}finally{
+			Files.delete(target);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3RangeSetTest {
+	
+	@Test
+	public void t01MergeRangesTest(){
+		System.out.println("S3RangeSetTest >>> t01MergeRangesTest");
+		S3RangeSet ranges=new S3RangeSet();
+		ranges.add(10,20);
+		ranges.add(30,40);
+		Assert.assertEquals(20,ranges.size());
+		ranges.add(20,30);
+		Assert.assertEquals(30,ranges.size());
+		ranges.add(5,45);
+		Assert.assertEquals(40,ranges.size());
+		ranges.add(45,45);
+		Assert.assertEquals(40,ranges.size());
+	}
+	@Test
+	public void t02IntersectsTest(){
+		System.out.println("S3RangeSetTest >>> t02IntersectsTest");
+		S3RangeSet ranges=new S3RangeSet();
+		Assert.assertTrue(ranges.isEmpty());
+		ranges.add(100,200);
+		Assert.assertFalse(ranges.intersects(0,100));
+		Assert.assertTrue(ranges.intersects(0,101));
+		Assert.assertTrue(ranges.intersects(150,160));
+		Assert.assertTrue(ranges.intersects(199,300));
+		Assert.assertFalse(ranges.intersects(200,300));
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void t03InvalidRangeTest(){
+		System.out.println("S3RangeSetTest >>> t03InvalidRangeTest");
+		new S3RangeSet().add(20,10);
+	}
+}
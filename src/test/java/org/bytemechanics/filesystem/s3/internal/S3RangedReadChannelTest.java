@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.bytemechanics.filesystem.s3.S3FileSystemEnvironment;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.bytemechanics.filesystem.s3.S3OpenOption;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3RangedReadChannelTest {
+
+	private static final byte[] CONTENT=new byte[10000];
+	static{
+		new Random(11).nextBytes(CONTENT);
+	}
+
+	/** Response that never delivers any byte until it is closed */
+	private static class StalledStream extends InputStream{
+
+		private final CountDownLatch reading=new CountDownLatch(1);
+		private final CountDownLatch closed=new CountDownLatch(1);
+
+		@Override
+		public int read() throws IOException {
+			return read(new byte[1],0,1);
+		}
+		@Override
+		public int read(final byte[] _buffer,final int _offset,final int _length) throws IOException {
+			this.reading.countDown();
+			try{
+				this.closed.await();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			throw new IOException("Connection closed");
+		}
+		@Override
+		public void close() throws IOException {
+			this.closed.countDown();
+		}
+	}
+
+	/** Response that records the arrays it is read into */
+	private static class RecordingStream extends FilterInputStream{
+
+		private final Set<byte[]> targets;
+
+		RecordingStream(final InputStream _stream,final Set<byte[]> _targets){
+			super(_stream);
+			this.targets=_targets;
+		}
+
+		@Override
+		public int read(final byte[] _buffer,final int _offset,final int _length) throws IOException {
+			this.targets.add(_buffer);
+			return super.read(_buffer, _offset, _length);
+		}
+	}
+
+	private static Properties environment(){
+		Properties reply=new Properties();
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_READ_BLOCKSIZE.getkey(), "1000");
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_READ_AHEAD_MAXSIZE.getkey(), "4000");
+		return reply;
+	}
+	private static Set<byte[]> newTargets(){
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+	/**
+	 * @param _stalled response of the ranges not starting at 0 or null to serve them
+	 * @param _targets arrays the responses are read into
+	 * @return client serving the in memory object
+	 */
+	private static S3ListingClient client(final StalledStream _stalled,final Set<byte[]> _targets){
+		return new S3ListingClient(Collections.emptyList(), 1000, environment())
+							.withObject("object", CONTENT, null)
+							.withResponses((from,response) -> new RecordingStream(((_stalled!=null)&&(from>0))? _stalled : response, _targets));
+	}
+	private static S3RangedReadChannel open(final S3ListingClient _client) throws IOException{
+		final Set<OpenOption> options=new HashSet<>(EnumSet.of(StandardOpenOption.READ));
+		options.add(S3OpenOption.knownSize(CONTENT.length));
+		return new S3RangedReadChannel(_client.getPath("object"), _client, S3ChannelOptions.of(options));
+	}
+
+	@Test
+	public void t01SequentialReadAheadTest() throws IOException{
+		System.out.println("S3RangedReadChannelTest >>> t01SequentialReadAheadTest");
+		try(S3ListingClient client=client(null, newTargets());
+				S3RangedReadChannel channel=open(client)){
+			final ByteBuffer content=ByteBuffer.allocate(CONTENT.length);
+			final ByteBuffer buffer=ByteBuffer.allocate(500);
+			while(channel.read(buffer)>=0){
+				buffer.flip();
+				content.put(buffer);
+				buffer.clear();
+			}
+			Assert.assertArrayEquals(CONTENT,content.array());
+			Assert.assertEquals(1,channel.getReadAheadMisses());
+			Assert.assertTrue(channel.getReadAheadHits()>0);
+			Assert.assertEquals(channel.getReadAheadMisses(),client.getMetrics().get(S3FileSystemMetric.READ_AHEAD_MISSES));
+			Assert.assertEquals(channel.getReadAheadHits(),client.getMetrics().get(S3FileSystemMetric.READ_AHEAD_HITS));
+			Assert.assertEquals(0,client.getMetrics().get(S3FileSystemMetric.READ_AHEAD_ABORTED));
+		}
+	}
+	@Test(timeout=10000)
+	public void t02BackwardsSeekAbortsReadAheadTest() throws IOException, InterruptedException{
+		System.out.println("S3RangedReadChannelTest >>> t02BackwardsSeekAbortsReadAheadTest");
+		final StalledStream stalled=new StalledStream();
+		try(S3ListingClient client=client(stalled, newTargets());
+				S3RangedReadChannel channel=open(client)){
+			final ByteBuffer buffer=ByteBuffer.allocate(100);
+			Assert.assertEquals(100,channel.read(buffer));
+			Assert.assertTrue(stalled.reading.await(5, TimeUnit.SECONDS));
+			channel.position(0);
+			Assert.assertTrue(stalled.closed.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.READ_AHEAD_ABORTED));
+			buffer.clear();
+			Assert.assertEquals(100,channel.read(buffer));
+			Assert.assertArrayEquals(Arrays.copyOfRange(CONTENT, 0, 100),buffer.array());
+		}
+	}
+	@Test(timeout=10000)
+	public void t03CloseAbortsReadAheadTest() throws IOException, InterruptedException{
+		System.out.println("S3RangedReadChannelTest >>> t03CloseAbortsReadAheadTest");
+		final StalledStream stalled=new StalledStream();
+		try(S3ListingClient client=client(stalled, newTargets())){
+			try(S3RangedReadChannel channel=open(client)){
+				Assert.assertEquals(100,channel.read(ByteBuffer.allocate(100)));
+				Assert.assertTrue(stalled.reading.await(5, TimeUnit.SECONDS));
+			}
+			Assert.assertTrue(stalled.closed.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.READ_AHEAD_ABORTED));
+		}
+	}
+	@Test
+	public void t04WholeObjectReadTest() throws IOException{
+		System.out.println("S3RangedReadChannelTest >>> t04WholeObjectReadTest");
+		final Set<byte[]> targets=newTargets();
+		try(S3ListingClient client=client(null, targets);
+				S3RangedReadChannel channel=open(client)){
+			final byte[] content=new byte[CONTENT.length];
+			Assert.assertEquals(CONTENT.length,channel.read(ByteBuffer.wrap(content)));
+			Assert.assertEquals(-1,channel.read(ByteBuffer.allocate(1)));
+			Assert.assertArrayEquals(CONTENT,content);
+			Assert.assertEquals(1,client.getGets());
+			Assert.assertEquals(1,targets.size());
+			Assert.assertTrue(targets.contains(content));
+			Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.READ_AHEAD_MISSES));
+		}
+	}
+	@Test
+	public void t05WholeRemainingReadTest() throws IOException{
+		System.out.println("S3RangedReadChannelTest >>> t05WholeRemainingReadTest");
+		final Set<byte[]> targets=newTargets();
+		try(S3ListingClient client=client(null, targets);
+				S3RangedReadChannel channel=open(client)){
+			channel.position(4000);
+			final byte[] content=new byte[CONTENT.length];
+			final ByteBuffer buffer=ByteBuffer.wrap(content, 10, CONTENT.length-10);
+			Assert.assertEquals(CONTENT.length-4000,channel.read(buffer));
+			Assert.assertEquals(10+CONTENT.length-4000,buffer.position());
+			Assert.assertArrayEquals(Arrays.copyOfRange(CONTENT, 4000, CONTENT.length),Arrays.copyOfRange(content, 10, 10+CONTENT.length-4000));
+			Assert.assertEquals(CONTENT.length,channel.position());
+			Assert.assertEquals(1,client.getGets());
+			Assert.assertTrue(targets.contains(content));
+		}
+	}
+}
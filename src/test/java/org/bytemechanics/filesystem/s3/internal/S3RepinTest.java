@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bytemechanics.filesystem.s3.S3FileSystemEnvironment;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3RepinTest {
+
+	private static final byte[] ORIGINAL="original content".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] OVERWRITTEN="content overwritten behind the metadata cache".getBytes(StandardCharsets.UTF_8);
+
+	/** Client holding a single object that can be overwritten or removed without going through the client caches */
+	private static class VersionedClient extends S3ListingClient{
+
+		private final AtomicInteger heads=new AtomicInteger();
+		private final AtomicInteger rejected=new AtomicInteger();
+		private volatile byte[] content;
+		private volatile String etag;
+
+		VersionedClient(){
+			super(Collections.emptyList(), 1000, environment());
+			this.content=ORIGINAL;
+			this.etag="\"etag-1\"";
+		}
+
+		void overwrite(final byte[] _content,final String _etag){
+			this.content=_content;
+			this.etag=_etag;
+		}
+
+		/**
+		 * Resolve through the metadata cache as the real client does
+		 */
+		@Override
+		public S3Entry resolve(final S3AbsolutePath _path){
+			return getMetadataCache().get(_path.getBucket(), _path.getBucketPath())
+										.map(metadata -> S3Entry.of(_path, metadata))
+										.orElseGet(() -> fetchEntry(_path));
+		}
+		@Override
+		protected BlobMetadata headBlob(final String _bucket,final String _key){
+			if((!"object".equals(_key))||(this.content==null))
+				return null;
+			this.heads.incrementAndGet();
+			final MutableBlobMetadataImpl reply=new MutableBlobMetadataImpl();
+			reply.setName(_key);
+			reply.setType(StorageType.BLOB);
+			reply.setETag(this.etag);
+			reply.setSize((long)this.content.length);
+			return reply;
+		}
+		@Override
+		public Optional<Payload> getBlob(final S3AbsolutePath _path,final String _etag,final long _from,final long _to){
+			final byte[] current=this.content;
+			if((current==null)||(!this.etag.equals(_etag))){
+				this.rejected.incrementAndGet();
+				return Optional.empty();
+			}
+			return Optional.of(Payloads.newInputStreamPayload(new ByteArrayInputStream(current, (int)_from, (int)(_to-_from+1))));
+		}
+	}
+
+	private static Properties environment(){
+		Properties reply=new Properties();
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_METADATACACHE_TTL.getkey(), "60000");
+		return reply;
+	}
+	private static S3ChannelOptions read(){
+		final Set<OpenOption> options=new HashSet<>(EnumSet.of(StandardOpenOption.READ));
+		return S3ChannelOptions.of(options);
+	}
+	private static S3AbsolutePath cached(final VersionedClient _client) throws IOException{
+		final S3AbsolutePath reply=_client.getPath("object");
+		Assert.assertTrue(_client.getBlobMetadata(reply).isPresent());
+		_client.overwrite(OVERWRITTEN, "\"etag-2\"");
+		Assert.assertEquals("\"etag-1\"",_client.getBlobMetadata(reply).get().getETag());
+		return reply;
+	}
+
+	@Test
+	public void t01InputStreamTest() throws IOException{
+		System.out.println("S3RepinTest >>> t01InputStreamTest");
+		try(VersionedClient client=new VersionedClient()){
+			final S3AbsolutePath path=cached(client);
+			try(S3InputStream stream=new S3InputStream(path, client, read())){
+				Assert.assertArrayEquals(OVERWRITTEN,stream.readAllBytes());
+			}
+			Assert.assertEquals(1,client.rejected.get());
+			Assert.assertEquals(2,client.heads.get());
+			Assert.assertEquals("\"etag-2\"",client.getBlobMetadata(path).get().getETag());
+		}
+	}
+	@Test
+	public void t02RangedReadChannelTest() throws IOException{
+		System.out.println("S3RepinTest >>> t02RangedReadChannelTest");
+		try(VersionedClient client=new VersionedClient()){
+			final S3AbsolutePath path=cached(client);
+			try(S3RangedReadChannel channel=new S3RangedReadChannel(path, client, read())){
+				final ByteBuffer buffer=ByteBuffer.allocate(OVERWRITTEN.length);
+				Assert.assertEquals(ORIGINAL.length,channel.size());
+				while((buffer.hasRemaining())&&(channel.read(buffer)>=0));
+				Assert.assertArrayEquals(OVERWRITTEN,buffer.array());
+				Assert.assertEquals(OVERWRITTEN.length,channel.size());
+				Assert.assertEquals("\"etag-2\"",channel.getEtag());
+			}
+			Assert.assertEquals(1,client.rejected.get());
+			Assert.assertEquals(2,client.heads.get());
+		}
+	}
+	@Test
+	public void t03AsynchronousFileChannelTest() throws IOException, InterruptedException, ExecutionException{
+		System.out.println("S3RepinTest >>> t03AsynchronousFileChannelTest");
+		try(VersionedClient client=new VersionedClient()){
+			final S3AbsolutePath path=cached(client);
+			try(S3AsynchronousFileChannel channel=new S3AsynchronousFileChannel(path, client, read(), null)){
+				final ByteBuffer buffer=ByteBuffer.allocate(ORIGINAL.length);
+				Assert.assertEquals(ORIGINAL.length,(int)channel.read(buffer, 0).get());
+				Assert.assertArrayEquals(Arrays.copyOf(OVERWRITTEN, ORIGINAL.length),buffer.array());
+				Assert.assertEquals(OVERWRITTEN.length,channel.size());
+			}
+			Assert.assertEquals(1,client.rejected.get());
+			Assert.assertEquals(2,client.heads.get());
+		}
+	}
+	@Test
+	public void t04RemovedTest() throws IOException{
+		System.out.println("S3RepinTest >>> t04RemovedTest");
+		try(VersionedClient client=new VersionedClient()){
+			final S3AbsolutePath path=cached(client);
+			client.overwrite(null, "\"etag-3\"");
+			try(S3InputStream stream=new S3InputStream(path, client, read())){
+				stream.read();
+				Assert.fail("Removed object must not be read");
+			}catch(IOException e){
+				Assert.assertEquals(1,client.rejected.get());
+			}
+		}
+	}
+	@Test
+	public void t05ServedNotRepinnedTest() throws IOException{
+		System.out.println("S3RepinTest >>> t05ServedNotRepinnedTest");
+		try(VersionedClient client=new VersionedClient()){
+			final S3AbsolutePath path=client.getPath("object");
+			try(S3RangedReadChannel channel=new S3RangedReadChannel(path, client, read())){
+				Assert.assertEquals(1,channel.read(ByteBuffer.allocate(1), 0));
+				client.overwrite(OVERWRITTEN, "\"etag-2\"");
+				channel.read(ByteBuffer.allocate(1), ORIGINAL.length-1);
+				Assert.fail("Content of another version must not be served once the pinned one has been served");
+			}catch(IOException e){
+				Assert.assertEquals(1,client.rejected.get());
+				Assert.assertEquals(1,client.heads.get());
+			}
+		}
+	}
+}
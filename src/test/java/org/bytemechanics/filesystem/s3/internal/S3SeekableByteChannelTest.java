@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.bytemechanics.filesystem.s3.S3FileSystemEnvironment;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.bytemechanics.filesystem.s3.S3ListingClient;
+import org.bytemechanics.filesystem.s3.path.S3AbsolutePath;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.domain.internal.MutableBlobMetadataImpl;
+import org.jclouds.blobstore.options.PutOptions;
+import org.jclouds.http.HttpRequest;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3SeekableByteChannelTest {
+
+	private static final int PART_SIZE=5*1024*1024;
+	private static final byte[] CONTENT=new byte[2*PART_SIZE+1024];
+	private static final String ETAG="\"original\"";
+
+	/** Client holding a single object in memory that records the requests of the resynchronization */
+	private static class PartialClient extends S3ListingClient{
+
+		private final boolean overwritten;
+		private final List<String> requests=new CopyOnWriteArrayList<>();
+
+		PartialClient(final boolean _overwritten){
+			super(Collections.emptyList(), 1000, environment());
+			this.overwritten=_overwritten;
+		}
+
+		@Override
+		public Optional<BlobMetadata> getBlobMetadata(final S3AbsolutePath _path){
+			final MutableBlobMetadataImpl metadata=new MutableBlobMetadataImpl();
+			metadata.setName(_path.getBucketPath());
+			metadata.setType(StorageType.BLOB);
+			metadata.setSize((long)CONTENT.length);
+			metadata.setETag(ETAG);
+			metadata.getContentMetadata().setContentType("application/octet-stream");
+			return Optional.of(metadata);
+		}
+		@Override
+		public Optional<BlobMetadata> fetchBlobMetadata(final S3AbsolutePath _path){
+			return getBlobMetadata(_path);
+		}
+		@Override
+		public Optional<Payload> getBlob(final S3AbsolutePath _path,final String _etag,final long _from,final long _to){
+			return Optional.of(Payloads.newByteArrayPayload(Arrays.copyOfRange(CONTENT, (int)_from, (int)_to+1)));
+		}
+		@Override
+		public MultipartUpload initiateMultipartUpload(final S3AbsolutePath _path,final String _mediaType,final Map<String,String> _userMetadata){
+			return MultipartUpload.create(_path.getBucket(), _path.getBucketPath(), "upload", null, PutOptions.NONE);
+		}
+		@Override
+		public MultipartPart uploadPart(final MultipartUpload _upload,final int _partNumber,final Path _file,final long _offset,final long _length){
+			this.requests.add("upload "+_partNumber);
+			return MultipartPart.create(_partNumber, _length, "\"part"+_partNumber+"\"", null);
+		}
+		@Override
+		public Optional<MultipartPart> uploadPartCopy(final MultipartUpload _upload,final int _partNumber,final S3AbsolutePath _source,final String _sourceEtag,final long _from,final long _to){
+			this.requests.add("copy "+_partNumber);
+			if(this.overwritten||!ETAG.equals(_sourceEtag))
+				return Optional.empty();
+			return Optional.of(MultipartPart.create(_partNumber, _to-_from+1, "\"part"+_partNumber+"\"", null));
+		}
+		@Override
+		public String completeMultipartUpload(final MultipartUpload _upload,final List<MultipartPart> _parts){
+			this.requests.add("complete");
+			return "\"new\"";
+		}
+		@Override
+		public void abortMultipartUpload(final MultipartUpload _upload){
+			this.requests.add("abort");
+		}
+		@Override
+		public String uploadFile(final S3AbsolutePath _path,final Path _file,final long _partSize,final String _mediaType,final Map<String,String> _userMetadata,final boolean _journaled) throws IOException{
+			this.requests.add("full");
+			return "\"new\"";
+		}
+	}
+
+	private static Properties environment(){
+		Properties reply=new Properties();
+		reply.setProperty(S3FileSystemEnvironment.PROPERTY_UPLOAD_PARTSIZE.getkey(), String.valueOf(PART_SIZE));
+		return reply;
+	}
+	private static void modifySecondPart(final PartialClient _client) throws IOException{
+		try(S3SeekableByteChannel channel=new S3SeekableByteChannel(_client.getPath("object"), _client, EnumSet.of(StandardOpenOption.READ,StandardOpenOption.WRITE))){
+			channel.position(PART_SIZE+10);
+			Assert.assertEquals(1,channel.write(ByteBuffer.wrap(new byte[]{1})));
+		}
+	}
+
+	@Test
+	public void t01PartialResynchronizationTest() throws IOException{
+		System.out.println("S3SeekableByteChannelTest >>> t01PartialResynchronizationTest");
+		try(PartialClient client=new PartialClient(false)){
+			modifySecondPart(client);
+			Assert.assertEquals(Arrays.asList("copy 1","upload 2","copy 3","complete"),client.requests);
+			Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.SPOOL_PARTIAL_UPLOADS));
+			Assert.assertEquals(0,client.getMetrics().get(S3FileSystemMetric.SPOOL_UPLOADS));
+		}
+	}
+	@Test
+	public void t02OverwrittenSourceFallbackTest() throws IOException{
+		System.out.println("S3SeekableByteChannelTest >>> t02OverwrittenSourceFallbackTest");
+		try(PartialClient client=new PartialClient(true)){
+			modifySecondPart(client);
+			Assert.assertEquals(Arrays.asList("copy 1","abort","full"),client.requests);
+			Assert.assertEquals(0,client.getMetrics().get(S3FileSystemMetric.SPOOL_PARTIAL_UPLOADS));
+			Assert.assertEquals(1,client.getMetrics().get(S3FileSystemMetric.SPOOL_UPLOADS));
+		}
+	}
+	@Test
+	public void t03PartCopyPinnedToEtagTest() throws IOException{
+		System.out.println("S3SeekableByteChannelTest >>> t03PartCopyPinnedToEtagTest");
+		try(PartialClient client=new PartialClient(false)){
+			final HttpRequest request=client.uploadPartCopyRequest(MultipartUpload.create("bucket", "object", "upload", null, PutOptions.NONE)
+																	, 2, client.getPath("object"), ETAG, PART_SIZE, 2l*PART_SIZE-1);
+			Assert.assertEquals("PUT",request.getMethod());
+			Assert.assertEquals(ETAG,request.getFirstHeaderOrNull("x-amz-copy-source-if-match"));
+			Assert.assertEquals("bytes="+PART_SIZE+"-"+(2l*PART_SIZE-1),request.getFirstHeaderOrNull("x-amz-copy-source-range"));
+			Assert.assertEquals("/bucket/object",request.getFirstHeaderOrNull("x-amz-copy-source"));
+		}
+	}
+}
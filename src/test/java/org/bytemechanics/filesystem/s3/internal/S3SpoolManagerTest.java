@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import org.bytemechanics.filesystem.s3.S3FileSystemMetric;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3SpoolManagerTest {
+	
+	private static long count(final Path _directory) throws IOException{
+		try(Stream<Path> listing=Files.list(_directory)){
+			return listing.count();
+		}
+	}
+
+	@Test
+	public void t01ReuseTest() throws IOException{
+		System.out.println("S3SpoolManagerTest >>> t01ReuseTest");
+		Path directory=Files.createTempDirectory("s3spool");
+		S3Metrics metrics=new S3Metrics();
+		try(S3SpoolManager manager=new S3SpoolManager(Optional.of(directory), 4096, 0, 1, metrics)){
+			Path first;
+			try(S3SpoolManager.Spool spool=manager.acquire(1024)){
+				first=spool.getPath();
+				Assert.assertEquals(directory,first.getParent());
+				Assert.assertTrue(manager.isSpool(first));
+				Assert.assertFalse(manager.isSpool(directory.resolve("other.tmp")));
+				Files.write(first, new byte[1024]);
+				Assert.assertEquals(1024,metrics.get(S3FileSystemMetric.SPOOL_BYTES_RESERVED));
+				Assert.assertEquals(1,metrics.get(S3FileSystemMetric.SPOOL_FILES_IN_USE));
+			}
+			Assert.assertEquals(0,metrics.get(S3FileSystemMetric.SPOOL_BYTES_RESERVED));
+			Assert.assertEquals(0,metrics.get(S3FileSystemMetric.SPOOL_FILES_IN_USE));
+			Assert.assertEquals(1,manager.getPooled());
+			try(S3SpoolManager.Spool spool1=manager.acquire(0);
+					S3SpoolManager.Spool spool2=manager.acquire(0)){
+				Assert.assertEquals(first,spool1.getPath());
+				Assert.assertEquals(0,Files.size(spool1.getPath()));
+				Assert.assertNotEquals(first,spool2.getPath());
+				Assert.assertEquals(1,metrics.get(S3FileSystemMetric.SPOOL_FILES_REUSED));
+			}
+			Assert.assertEquals(1,manager.getPooled());
+			Assert.assertEquals(1,count(directory));
+		}finally{
+			Assert.assertEquals(0,count(directory));
+			Files.deleteIfExists(directory);
+		}
+	}
+	@Test
+	public void t02QuotaFailFastTest() throws IOException{
+		System.out.println("S3SpoolManagerTest >>> t02QuotaFailFastTest");
+		S3Metrics metrics=new S3Metrics();
+		try(S3SpoolManager manager=new S3SpoolManager(Optional.empty(), 4096, 0, 1, metrics);
+				S3SpoolManager.Spool spool=manager.acquire(3000)){
+			try{
+				manager.acquire(2000);
+				Assert.fail("Quota must be exceeded");
+			}catch(IOException e){
+				Assert.assertEquals(1,metrics.get(S3FileSystemMetric.SPOOL_QUOTA_EXCEEDED));
+			}
+			spool.ensureCapacity(4096);
+			try{
+				spool.ensureCapacity(4097);
+				Assert.fail("Quota must be exceeded");
+			}catch(IOException e){
+				Assert.assertEquals(4096,spool.getReservation());
+			}
+			Assert.assertEquals(1,manager.getInUse());
+		}
+	}
+	@Test
+	public void t03QuotaBackpressureTest() throws Exception{
+		System.out.println("S3SpoolManagerTest >>> t03QuotaBackpressureTest");
+		S3Metrics metrics=new S3Metrics();
+		try(S3SpoolManager manager=new S3SpoolManager(Optional.empty(), 4096, 10000, 2, metrics)){
+			S3SpoolManager.Spool spool=manager.acquire(4096);
+			CompletableFuture<S3SpoolManager.Spool> waiting=CompletableFuture.supplyAsync(() -> {
+				try{
+					return manager.acquire(2048);
+				}catch(IOException e){
+					throw new RuntimeException(e);
+				}
+			});
+			Thread.sleep(200);
+			Assert.assertFalse(waiting.isDone());
+			spool.close();
+			try(S3SpoolManager.Spool acquired=waiting.get()){
+				Assert.assertEquals(2048,acquired.getReservation());
+				Assert.assertEquals(2048,manager.getReserved());
+				Assert.assertEquals(1,metrics.get(S3FileSystemMetric.SPOOL_QUOTA_WAITS));
+			}
+			try{
+				manager.acquire(8192);
+				Assert.fail("Reservations bigger than the quota must fail without waiting");
+			}catch(IOException e){
+				Assert.assertEquals(0,manager.getReserved());
+			}
+		}
+	}
+	@Test
+	public void t04LeftoverSweepTest() throws IOException{
+		System.out.println("S3SpoolManagerTest >>> t04LeftoverSweepTest");
+		Path directory=Files.createTempDirectory("s3spool");
+		Path leftover=Files.createTempFile(directory, "spool-", ".tmp");
+		Path other=Files.createTempFile(directory, "other-", ".tmp");
+		try(S3SpoolManager manager=new S3SpoolManager(Optional.of(directory), 4096, 0, 1, new S3Metrics())){
+			Assert.assertFalse(Files.exists(leftover));
+			Assert.assertTrue(Files.exists(other));
+			Assert.assertEquals(0,manager.getInUse());
+		}finally{
+			Files.deleteIfExists(other);
+			Files.deleteIfExists(directory);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 Byte Mechanics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bytemechanics.filesystem.s3.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * @author afarre
+ * @since 0.2.0
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class S3UploadJournalTest {
+	
+	@Test
+	public void t01ResumeJournalTest() throws IOException{
+		System.out.println("S3UploadJournalTest >>> t01ResumeJournalTest");
+		Path directory=Files.createTempDirectory("s3journal");
+		Path file=Files.createTempFile("s3journal", ".bin");
+		try{
+			Files.write(file, new byte[1024]);
+			S3UploadJournal journal=S3UploadJournal.create(directory, "bucket", "folder/object=1.bin", file, "upload-1");
+			journal.planned(1, 0, 512);
+			journal.planned(2, 512, 512);
+			journal.completed(2, "\"etag-2\"");
+			Optional<S3UploadJournal> loaded=S3UploadJournal.load(directory, "bucket", "folder/object=1.bin", file);
+			Assert.assertTrue(loaded.isPresent());
+			Assert.assertEquals("upload-1",loaded.get().getUploadId());
+			Assert.assertEquals(Arrays.asList(1,2),Arrays.asList(loaded.get().getPlanned().keySet().toArray()));
+			Assert.assertArrayEquals(new long[]{512,512},loaded.get().getPlanned().get(2));
+			Assert.assertEquals(Collections.singletonMap(2,"\"etag-2\""),loaded.get().getCompleted());
+			Assert.assertFalse(S3UploadJournal.load(directory, "bucket", "folder/other.bin", file).isPresent());
+			loaded.get().delete();
+			Assert.assertFalse(S3UploadJournal.load(directory, "bucket", "folder/object=1.bin", file).isPresent());
+		}finally{
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(directory);
+		}
+	}
+	@Test
+	public void t02ChangedSourceTest() throws IOException{
+		System.out.println("S3UploadJournalTest >>> t02ChangedSourceTest");
+		Path directory=Files.createTempDirectory("s3journal");
+		Path file=Files.createTempFile("s3journal", ".bin");
+		try{
+			Files.write(file, new byte[1024]);
+			S3UploadJournal.create(directory, "bucket", "object.bin", file, "upload-1");
+			Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis()+2000));
+			Assert.assertFalse(S3UploadJournal.load(directory, "bucket", "object.bin", file).isPresent());
+			try(Stream<Path> listing=Files.list(directory)){
+				Assert.assertEquals(0,listing.count());
+			}
+		}finally{
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(directory);
+		}
+	}
+	@Test
+	public void t03PurgeTest() throws IOException{
+		System.out.println("S3UploadJournalTest >>> t03PurgeTest");
+		Path directory=Files.createTempDirectory("s3journal");
+		Path file=Files.createTempFile("s3journal", ".bin");
+		try{
+			Files.write(file, new byte[1024]);
+			S3UploadJournal.create(directory, "bucket", "object1.bin", file, "upload-1");
+			S3UploadJournal.create(directory, "bucket", "object2.bin", file, "upload-2");
+			Assert.assertEquals(1,S3UploadJournal.purge(directory, new HashSet<>(Arrays.asList("upload-2","upload-3"))));
+			Assert.assertTrue(S3UploadJournal.load(directory, "bucket", "object1.bin", file).isPresent());
+			Assert.assertFalse(S3UploadJournal.load(directory, "bucket", "object2.bin", file).isPresent());
+		}finally{
+			S3UploadJournal.purge(directory, new HashSet<>(Arrays.asList("upload-1")));
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(directory);
+		}
+	}
+	@Test
+	public void t04TornEntriesTest() throws IOException{
+		System.out.println("S3UploadJournalTest >>> t04TornEntriesTest");
+		Path directory=Files.createTempDirectory("s3journal");
+		Path file=Files.createTempFile("s3journal", ".bin");
+		try{
+			Files.write(file, new byte[2048]);
+			S3UploadJournal journal=S3UploadJournal.create(directory, "bucket", "object.bin", file, "upload-1");
+			journal.planned(1, 0, 512);
+			journal.completed(1, "\"etag-1\"");
+			journal.planned(2, 512, 512);
+			journal.planned(3, 1024, 512);
+			journal.planned(4, 1536, 512);
+			Path path=S3UploadJournal.locate(directory, "bucket", "object.bin", file);
+			Files.write(path, "part.planned.5=123\npart.completed.2=\"etag-2\npart.completed.x=\"etag\"\npart.completed.6=\"etag-6\"\npart.completed.3=\"etag-3\"\npart.completed.4=\"et".getBytes(StandardCharsets.ISO_8859_1), StandardOpenOption.APPEND);
+			Optional<S3UploadJournal> loaded=S3UploadJournal.load(directory, "bucket", "object.bin", file);
+			Assert.assertTrue(loaded.isPresent());
+			Assert.assertEquals(Arrays.asList(1,2,3,4),Arrays.asList(loaded.get().getPlanned().keySet().toArray()));
+			Map<Integer,String> expected=new HashMap<>();
+			expected.put(1, "\"etag-1\"");
+			expected.put(3, "\"etag-3\"");
+			Assert.assertEquals(expected,loaded.get().getCompleted());
+			loaded.get().delete();
+		}finally{
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(directory);
+		}
+	}
+}